@@ -0,0 +1,29 @@
+package com.tzupy.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This class runs the benchmarks with the gc profiler, so every result comes with its allocation rate.
+ * It takes the usual JMH command line, e.g. a benchmark name pattern or -p entries=1000.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Runs the benchmarks selected by the command line.
+     * @param args the JMH options
+     * @throws CommandLineOptionException the options are malformed
+     * @throws RunnerException a benchmark failed
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,230 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.webserver.ServerConfig;
+import com.tzupy.webserver.WebServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class measures how many connections per second a web server accepts and answers, for several
+ * numbers of acceptors. Every client opens a connection, sends one request for a tiny file, reads the
+ * response to its end and resets the connection, so the run stresses accepting rather than serving and
+ * leaves no sockets in TIME_WAIT. A first, unreported round warms up the JIT, so the first number of acceptors
+ * isn't measured on cold code. The clients share the machine with the server, so the rates only scale with
+ * the acceptors as far as there are cores for both.
+ *
+ * Options other than the ones below are passed to the server, e.g. --engine=nio:
+ * --acceptors=1,2,4 --clients=&lt;n&gt; --duration=&lt;s&gt; --warmup=&lt;s&gt;
+ */
+public class ConnectionRate {
+
+    // held, as the log manager only keeps loggers weakly and would drop the level with the logger
+    private static final Logger serverLogger = Logger.getLogger("com.tzupy");
+
+    private static final byte[] request = ("GET /tiny.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private String acceptors = "1,2,4";
+    private int clients = 64;
+    private int duration = 5;
+    private int warmup = 3;
+    private final List<String> serverOptions = new ArrayList<>();
+
+    /**
+     * Runs the benchmark for every number of acceptors.
+     * @param args the options
+     * @throws Exception the benchmark couldn't be run
+     */
+    public static void main(String[] args) throws Exception {
+        ConnectionRate connectionRate = new ConnectionRate();
+        for (String arg : args) {
+            connectionRate.applyOption(arg);
+        }
+        connectionRate.run();
+    }
+
+    /**
+     * Applies an option of the benchmark, or keeps it for the server.
+     * @param option the option, e.g. --clients=64
+     */
+    private void applyOption(String option) {
+        int equals = option.indexOf('=');
+        String name = equals < 0 ? option.substring(2) : option.substring(2, equals);
+        String value = equals < 0 ? "" : option.substring(equals + 1);
+        switch (name) {
+            case "acceptors":
+                acceptors = value;
+                break;
+            case "clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            default:
+                serverOptions.add(option);
+        }
+    }
+
+    /**
+     * Creates the root and measures the connection rate of a server per number of acceptors.
+     * @throws Exception the benchmark couldn't be run
+     */
+    private void run() throws Exception {
+        serverLogger.setLevel(Level.WARNING);
+        Path root = Files.createTempDirectory("connection-rate");
+        Path tiny = Files.write(root.resolve("tiny.txt"), "tiny\n".getBytes(StandardCharsets.US_ASCII));
+        try {
+            System.out.println("Clients: " + clients + ", server " + String.join(" ", serverOptions));
+            String[] counts = acceptors.split(",");
+            measure(root, createConfig(counts[0]));
+            System.out.println("acceptors  connections/s  errors");
+            for (String count : counts) {
+                long[] result = measure(root, createConfig(count));
+                System.out.println(String.format(Locale.ROOT, "%9s  %13.0f  %6d", count,
+                        result[0] / (double) duration, result[1]));
+            }
+        } finally {
+            Files.delete(tiny);
+            Files.delete(root);
+        }
+    }
+
+    /**
+     * Creates the server settings for a number of acceptors.
+     * @param acceptorCount the number of acceptors
+     * @return the settings
+     */
+    private ServerConfig createConfig(String acceptorCount) {
+        ServerConfig config = new ServerConfig();
+        for (String option : serverOptions) {
+            config.applyOption(option);
+        }
+        config.applyOption("--acceptors=" + acceptorCount);
+        return config;
+    }
+
+    /**
+     * Starts a server and drives it with the clients through the warmup and the measurement.
+     * @param root the server's root
+     * @param config the server settings
+     * @return the connections answered and the failed ones during the measurement
+     * @throws Exception the server couldn't be started or the clients were interrupted
+     */
+    private long[] measure(Path root, ServerConfig config) throws Exception {
+        int port = findFreePort();
+        WebServer server = new WebServer(root.toFile().getCanonicalFile(), port, config);
+        Thread serverThread = new Thread(server::start, "connection-rate-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        awaitServer(address);
+
+        LongAdder answered = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long measureFrom = System.nanoTime() + warmup * 1000000000L;
+        long measureUntil = measureFrom + duration * 1000000000L;
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Thread thread = new Thread(() -> connect(address, measureFrom, measureUntil, answered, failed),
+                        "connection-rate-client-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            server.stop();
+            serverThread.join(5000);
+        }
+        return new long[] { answered.sum(), failed.sum() };
+    }
+
+    /**
+     * Opens connections one after the other until the measurement ends, and counts the ones
+     * that ended during the measurement.
+     * @param address the server's address
+     * @param measureFrom the nano time at which the warmup ends
+     * @param measureUntil the nano time at which the client stops
+     * @param answered the count of answered connections
+     * @param failed the count of failed connections
+     */
+    private static void connect(InetSocketAddress address, long measureFrom, long measureUntil,
+                                LongAdder answered, LongAdder failed) {
+        byte[] buffer = new byte[4096];
+        long now;
+        while ((now = System.nanoTime()) < measureUntil) {
+            boolean ok = false;
+            try (Socket socket = new Socket()) {
+                socket.setSoLinger(true, 0);
+                socket.connect(address, 5000);
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                out.write(request);
+                InputStream in = socket.getInputStream();
+                int total = 0;
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    total += read;
+                }
+                ok = total > 0;
+            } catch (IOException ex) {
+                ok = false;
+            }
+            if (now >= measureFrom) {
+                (ok ? answered : failed).increment();
+            }
+        }
+    }
+
+    /**
+     * Finds a port that is free on this machine.
+     * @return the port
+     * @throws IOException no port could be bound
+     */
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     * @param address the server's address
+     * @throws IOException the server didn't start within ten seconds
+     * @throws InterruptedException the wait was interrupted
+     */
+    private static void awaitServer(InetSocketAddress address) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 10000000000L;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, 1000);
+                return;
+            } catch (IOException ex) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw ex;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures formatting the sizes and dates shown in every listing row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUtilsBenchmark {
+
+    @Param({ "512", "48213", "7388890", "5368709120" })
+    public long size;
+
+    private final Date lastModified = new Date(1792270868050L);
+
+    /**
+     * Formats a file size with its unit.
+     * @return the formatted size
+     */
+    @Benchmark
+    public String getFileSizeFormatted() {
+        return FileUtils.getFileSizeFormatted(size);
+    }
+
+    /**
+     * Formats a modification time.
+     * @return the formatted time
+     */
+    @Benchmark
+    public String getFileLastModifiedFormatted() {
+        return FileUtils.getFileLastModifiedFormatted(lastModified);
+    }
+}
@@ -0,0 +1,75 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.html.AttrPair;
+import com.tzupy.html.HtmlContent;
+import com.tzupy.html.HtmlTag;
+import com.tzupy.utils.ResourcePath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures building the html pieces a listing row is made of.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlBenchmark {
+
+    private final HtmlContent htmlContent = new HtmlContent();
+    private final List<AttrPair> attributes = Arrays.asList(
+            new AttrPair("src", "\"" + ResourcePath.file + "\""),
+            new AttrPair("width", "\"20\""),
+            new AttrPair("height", "\"20\""),
+            new AttrPair("hspace", "\"5\""));
+    private final String[] row = { "<a href=\"report 2026.pdf\">report 2026.pdf</a>", "Sat, Oct 17, '26, 21:01", "1.2 MB" };
+
+    /**
+     * Builds a start tag without attributes.
+     * @return the tag
+     */
+    @Benchmark
+    public String toStartTag() {
+        return HtmlTag.tableData.toStartTag();
+    }
+
+    /**
+     * Builds a start tag with the attributes of a listing's icon.
+     * @return the tag
+     */
+    @Benchmark
+    public String toStartTagWithAttributes() {
+        return HtmlTag.image.toStartTag(attributes);
+    }
+
+    /**
+     * Builds the icon of a listing row.
+     * @return the html content
+     */
+    @Benchmark
+    public String asImage() {
+        return htmlContent.asImage(ResourcePath.file, 20, 20, 5);
+    }
+
+    /**
+     * Builds a listing row.
+     * @return the html content
+     */
+    @Benchmark
+    public String asTableRow() {
+        return htmlContent.asTableRow(row);
+    }
+}
@@ -0,0 +1,101 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures parsing request heads, from the received bytes to the requested file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestBenchmark {
+
+    // the headers a browser sends with every request
+    private static final String browserHeaders = "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "If-None-Match: \"18f3a2c1b00-1a2b-4ff52\"\r\n"
+            + "If-Modified-Since: Sat, 17 Oct 2026 20:52:22 GMT\r\n";
+
+    @Param({ "minimal", "browser", "encoded", "long" })
+    public String request;
+
+    private final File root = new File("/srv/www");
+    private byte[] head;
+
+    /**
+     * Encodes the request head.
+     */
+    @Setup
+    public void setup() {
+        String target;
+        String headers = browserHeaders;
+        switch (request) {
+            case "minimal":
+                target = "/";
+                headers = "";
+                break;
+            case "encoded":
+                target = "/photos/2026/%C3%A9t%C3%A9%20%C3%A0%20la%20plage/IMG%200001%20%28copie%29.jpg";
+                break;
+            case "long":
+                StringBuilder sb = new StringBuilder("/archive");
+                while (sb.length() < 2000) {
+                    sb.append("/nested%20directory%20").append(sb.length());
+                }
+                target = sb.append("/index.html?session=0123456789abcdef&view=list").toString();
+                break;
+            default:
+                target = "/docs/manual/index.html";
+        }
+        head = ("GET " + target + " HTTP/1.1\r\n" + headers + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses the head as it arrives in a single read.
+     * @return the requested file
+     */
+    @Benchmark
+    public File parse() {
+        HttpRequest httpRequest = new HttpRequest();
+        httpRequest.feed(ByteBuffer.wrap(head));
+        httpRequest.parse(root);
+        return httpRequest.getUrl();
+    }
+
+    /**
+     * Parses the head and looks up the headers every response reads.
+     * @return the looked up values
+     */
+    @Benchmark
+    public Object parseAndReadHeaders() {
+        HttpRequest httpRequest = new HttpRequest();
+        httpRequest.feed(ByteBuffer.wrap(head));
+        httpRequest.parse(root);
+        return new Object[] { httpRequest.isKeepAlive(), httpRequest.getHeader("accept-encoding"),
+                httpRequest.getHeader("if-none-match"), httpRequest.getHeader("range") };
+    }
+}
@@ -0,0 +1,90 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.http.HttpDate;
+import com.tzupy.http.HttpResponse;
+import com.tzupy.http.HttpStatusCode;
+import com.tzupy.http.MimeTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures encoding response headers into a connection's header buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseBenchmark {
+
+    private final File file = new File("/srv/www/docs/manual/index.html");
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HttpResponse.maxHeaderSize);
+    private final long lastModified = System.currentTimeMillis() - 86400000L;
+
+    /**
+     * Writes the header of a plain file response.
+     * @return the header's length
+     */
+    @Benchmark
+    public int writeFileHeader() {
+        HttpResponse httpResponse = new HttpResponse(file);
+        httpResponse.setKeepAlive(true);
+        httpResponse.setLastModified(lastModified);
+        header.clear();
+        httpResponse.writeHeader(header, HttpStatusCode.ok, 48213, MimeTypes.html);
+        return header.position();
+    }
+
+    /**
+     * Writes the header of a compressed response, with the validators and encoding headers.
+     * @return the header's length
+     */
+    @Benchmark
+    public int writeCompressedHeader() {
+        HttpResponse httpResponse = new HttpResponse(file);
+        httpResponse.setKeepAlive(true);
+        httpResponse.setLastModified(lastModified);
+        httpResponse.addHeader("Accept-Ranges", "bytes");
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        httpResponse.addHeader("ETag", "\"18f3a2c1b00-bc55-4ff52-gzip\"");
+        httpResponse.addHeader("Content-Encoding", "gzip");
+        httpResponse.addHeader("Transfer-Encoding", "chunked");
+        header.clear();
+        httpResponse.writeHeader(header, HttpStatusCode.ok, -1, MimeTypes.html);
+        return header.position();
+    }
+
+    /**
+     * Writes the Date header's value, which is encoded once per second.
+     * @return the buffer's position
+     */
+    @Benchmark
+    public int writeDate() {
+        header.clear();
+        HttpDate.writeNow(header);
+        return header.position();
+    }
+
+    /**
+     * Formats an arbitrary date, as Last-Modified needs.
+     * @return the buffer's position
+     */
+    @Benchmark
+    public int writeLastModified() {
+        header.clear();
+        HttpDate.write(lastModified, header);
+        return header.position();
+    }
+}
@@ -0,0 +1,106 @@
+package com.tzupy.benchmarks;
+
+/**
+ * This class counts latencies in log-linear buckets: every power of two is split into 256 buckets,
+ * so a recorded value is off by less than 0.4%, from a microsecond up to over an hour, in a fixed
+ * amount of memory. Each client records into its own histogram, they are added up at the end.
+ */
+public class LatencyHistogram {
+
+    private static final int subBucketBits = 8;
+    private static final int subBuckets = 1 << subBucketBits;
+    // values are recorded in nanoseconds, the first 256 buckets hold everything below 256 ns exactly
+    private static final int ranges = 64 - subBucketBits;
+
+    private final long[] counts = new long[ranges * subBuckets];
+    private long totalCount;
+    private long max;
+
+    /**
+     * Records a latency.
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     * @return the count
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the largest recorded latency, exactly.
+     * @return the maximum in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the latency below or at which a share of the recorded latencies are.
+     * @param percentile the share in percent, e.g. 99.9
+     * @return the latency in nanoseconds, the upper end of its bucket
+     */
+    public long getPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets the bucket of a value.
+     * @param value the non-negative value
+     * @return the bucket's index
+     */
+    private static int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        // the range is the number of low bits dropped, so that the top nine bits remain
+        int range = 64 - Long.numberOfLeadingZeros(value) - subBucketBits - 1;
+        int subBucket = (int) (value >>> range) - subBuckets;
+        return (range + 1) * subBuckets + subBucket;
+    }
+
+    /**
+     * Gets the largest value a bucket holds.
+     * @param index the bucket's index
+     * @return the value
+     */
+    private static long highestValueOf(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int range = index / subBuckets - 1;
+        long subBucket = index % subBuckets + subBuckets;
+        return ((subBucket + 1) << range) - 1;
+    }
+}
@@ -0,0 +1,178 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.html.HtmlContent;
+import com.tzupy.html.Table;
+import com.tzupy.utils.BufferPool;
+import com.tzupy.webserver.DirectoryListing;
+import com.tzupy.webserver.JsonListing;
+import com.tzupy.webserver.ListingBody;
+import com.tzupy.webserver.ListingQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures rendering the listing of directories with 10, 1k and 100k entries, whole,
+ * streamed and as a json page. The directories are real, so the file system's cost is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int entries;
+
+    private final BufferPool pool = new BufferPool(true, 1024 * 1024, false);
+    private final BufferPool heapPool = new BufferPool(false, 1024 * 1024, false);
+
+    private File root;
+    private File directory;
+    private Table table;
+
+    /**
+     * Creates a directory with the entries, one in ten of them a subdirectory, and a table of as many rows.
+     * @throws IOException the directory couldn't be created
+     */
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("listing-benchmark").toFile();
+        directory = new File(root, "entries");
+        Path path = Files.createDirectory(directory.toPath());
+        for (int i = 0; i < entries; i++) {
+            if (i % 10 == 0) {
+                Files.createDirectory(path.resolve("directory " + i));
+            } else {
+                Files.write(path.resolve("file-" + i + ".txt"), new byte[i % 4096]);
+            }
+        }
+
+        HtmlContent htmlContent = new HtmlContent();
+        table = new Table();
+        table.setHeader(new String[] { "Name", "Last Modified", "Size" });
+        for (int i = 0; i < entries; i++) {
+            String anchor = htmlContent.asAnchor("file-" + i + ".txt", "file-" + i + ".txt");
+            table.addRow(new String[] { anchor, "Sat, Oct 17, '26, 21:01", "1.2 KB" });
+        }
+    }
+
+    /**
+     * Deletes the directory.
+     * @throws IOException the directory couldn't be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                Files.delete(child.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+        Files.delete(root.toPath());
+    }
+
+    /**
+     * Renders the sorted listing into one document, as it is cached.
+     * @return the encoded document
+     * @throws IOException the directory couldn't be read
+     */
+    @Benchmark
+    public byte[] renderWhole() throws IOException {
+        return new DirectoryListing(root, directory, "/entries/").render(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streams the listing in chunks to a channel that discards them.
+     * @return the number of bytes sent
+     * @throws IOException the directory couldn't be read
+     */
+    @Benchmark
+    public long stream() throws IOException {
+        DiscardChannel channel = new DiscardChannel();
+        try (ListingBody body = new ListingBody(new DirectoryListing(root, directory, "/entries/"), true, pool,
+                heapPool)) {
+            body.writeTo(channel);
+        }
+        return channel.written;
+    }
+
+    /**
+     * Renders the first json page of the listing sorted by modification time.
+     * @return the encoded page
+     * @throws IOException the directory couldn't be read
+     */
+    @Benchmark
+    public byte[] jsonPage() throws IOException {
+        JsonListing listing = new JsonListing(directory.toPath(), "/entries/", ListingQuery.first(ListingQuery.json,
+                ListingQuery.sortByModified, ListingQuery.defaultLimit));
+        listing.collect();
+        return listing.render();
+    }
+
+    /**
+     * Renders a table held in memory as html.
+     * @return the html content
+     */
+    @Benchmark
+    public String asTable() {
+        return new HtmlContent().asTable(table);
+    }
+
+    /**
+     * This class is a channel that accepts and discards everything written to it.
+     */
+    private static class DiscardChannel implements WritableByteChannel {
+
+        private long written;
+
+        /**
+         * Discards the remaining bytes of the buffer.
+         * @param src the buffer
+         * @return the number of bytes discarded
+         */
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            written += count;
+            return count;
+        }
+
+        /**
+         * Returns true, as the channel is never closed.
+         * @return true
+         */
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        /**
+         * Does nothing.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
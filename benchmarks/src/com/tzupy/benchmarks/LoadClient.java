@@ -0,0 +1,263 @@
+package com.tzupy.benchmarks;
+
+import javax.net.SocketFactory;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * This class is one simulated client of the load test. It sends a request, reads the whole
+ * response and sends the next one, over one persistent connection or a new connection per request,
+ * and records the latency of every request sent during the measurement. Connections to a TLS server
+ * resume the session of an earlier connection where the server allows it.
+ */
+public class LoadClient implements Runnable {
+
+    private final InetSocketAddress address;
+    private final SocketFactory socketFactory;
+    private final String[] targets;
+    private final boolean keepAlive;
+    private final long measureFrom;
+    private final long measureUntil;
+    private final Random random;
+    private final byte[] buffer = new byte[64 * 1024];
+    private final byte[] line = new byte[8192];
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long bytes;
+    private long errors;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * Class constructor that receives the server and the workload.
+     * @param address the server's address
+     * @param socketFactory creates the connections, plain or TLS ones
+     * @param targets the request targets, repeated according to their weight
+     * @param keepAlive true to send all requests over one persistent connection
+     * @param measureFrom the nano time at which the warmup ends
+     * @param measureUntil the nano time at which the client stops
+     * @param seed the seed of the client's choice of targets
+     */
+    public LoadClient(InetSocketAddress address, SocketFactory socketFactory, String[] targets, boolean keepAlive,
+                      long measureFrom, long measureUntil, long seed) {
+        this.address = address;
+        this.socketFactory = socketFactory;
+        this.targets = targets;
+        this.keepAlive = keepAlive;
+        this.measureFrom = measureFrom;
+        this.measureUntil = measureUntil;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sends requests until the test ends.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long start = System.nanoTime();
+            if (start - measureUntil >= 0) {
+                break;
+            }
+            String target = targets[random.nextInt(targets.length)];
+            boolean measured = start - measureFrom >= 0;
+            try {
+                long received = exchange(target);
+                long latency = System.nanoTime() - start;
+                if (measured) {
+                    histogram.record(latency);
+                    bytes += received;
+                }
+            } catch (IOException ex) {
+                if (measured) {
+                    errors++;
+                }
+                disconnect();
+            }
+        }
+        disconnect();
+    }
+
+    /**
+     * Sends a request and reads its response.
+     * @param target the request target
+     * @return the number of body bytes received
+     * @throws IOException the exchange failed or the server answered with an error
+     */
+    private long exchange(String target) throws IOException {
+        if (socket == null) {
+            socket = socketFactory.createSocket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        String request = "GET " + target + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: identity\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        String status = readLine();
+        if (!status.startsWith("HTTP/1.1 200") && !status.startsWith("HTTP/1.1 206")) {
+            throw new IOException("Unexpected response: " + status);
+        }
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean close = !keepAlive;
+        for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+            int colon = header.indexOf(':');
+            String name = header.substring(0, Math.max(colon, 0)).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                close = value.equalsIgnoreCase("close");
+            }
+        }
+
+        long received;
+        if (chunked) {
+            received = readChunked();
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+            received = contentLength;
+        } else {
+            received = skipToEnd();
+            close = true;
+        }
+
+        if (close) {
+            disconnect();
+        }
+        return received;
+    }
+
+    /**
+     * Reads a chunked body.
+     * @return the number of content bytes
+     * @throws IOException the body is malformed or the connection ended
+     */
+    private long readChunked() throws IOException {
+        long received = 0;
+        while (true) {
+            String size = readLine();
+            int semicolon = size.indexOf(';');
+            long length = Long.parseLong((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+            if (length == 0) {
+                // the trailer section ends with an empty line
+                while (!readLine().isEmpty()) {
+                    continue;
+                }
+                return received;
+            }
+            skip(length);
+            readLine();
+            received += length;
+        }
+    }
+
+    /**
+     * Reads a line of the response head, without its line break.
+     * @return the line
+     * @throws IOException the connection ended or the line is too long
+     */
+    private String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            if (b == '\n') {
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (length == line.length) {
+                throw new IOException("Response line too long");
+            }
+            line[length++] = (byte) b;
+        }
+    }
+
+    /**
+     * Reads and discards a number of body bytes.
+     * @param length the number of bytes
+     * @throws IOException the connection ended before
+     */
+    private void skip(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Reads and discards a body that ends with the connection.
+     * @return the number of body bytes
+     * @throws IOException the connection failed
+     */
+    private long skipToEnd() throws IOException {
+        long received = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            received += read;
+        }
+        return received;
+    }
+
+    /**
+     * Closes the connection, a new one is opened for the next request.
+     */
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // the connection is abandoned either way
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Gets the latencies of the measured requests.
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the number of body bytes received during the measurement.
+     * @return the byte count
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of requests that failed during the measurement.
+     * @return the error count
+     */
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,424 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.webserver.ServerConfig;
+import com.tzupy.webserver.WebServer;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * This class measures the throughput and latency a web server delivers over the loopback interface.
+ * It starts a server on a generated root, drives it with concurrent clients sending a mix of file and
+ * listing requests, and reports requests per second and latency percentiles. The results can be saved
+ * as a baseline, a later run fails if it is slower than the baseline by more than a tolerance.
+ *
+ * With --tls-keystore, the clients connect with TLS and trust the server's certificate.
+ *
+ * Options other than the ones below are passed to the server, e.g. --engine=nio:
+ * --concurrency=&lt;n&gt; --duration=&lt;s&gt; --warmup=&lt;s&gt; --keep-alive=on|off
+ * --mix=small:70,medium:15,large:2,listing:10,json:3 --baseline=&lt;file&gt; --save-baseline=&lt;file&gt;
+ * --tolerance=&lt;percent&gt;
+ */
+public class LoadTest {
+
+    private static final Logger logger = Logger.getLogger(LoadTest.class.getCanonicalName());
+    // held, as the log manager only keeps loggers weakly and would drop the level with the logger
+    private static final Logger serverLogger = Logger.getLogger("com.tzupy");
+
+    private static final int smallFiles = 200;
+    private static final int mediumFiles = 20;
+    private static final int largeFiles = 2;
+
+    private int concurrency = 64;
+    private int duration = 10;
+    private int warmup = 3;
+    private boolean keepAlive = true;
+    private String mix = "small:70,medium:15,large:2,listing:10,json:3";
+    private String baselineFile;
+    private String saveBaselineFile;
+    private double tolerance = 20;
+    private final ServerConfig serverConfig = new ServerConfig();
+    private final List<String> serverOptions = new ArrayList<>();
+
+    /**
+     * Runs the load test and exits with 1 if it failed.
+     * @param args the options
+     * @throws Exception the test couldn't be run
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        for (String arg : args) {
+            loadTest.applyOption(arg);
+        }
+        System.exit(loadTest.run() ? 0 : 1);
+    }
+
+    /**
+     * Applies an option of the test, or passes it to the server.
+     * @param option the option, e.g. --concurrency=64
+     */
+    private void applyOption(String option) {
+        int equals = option.indexOf('=');
+        String name = equals < 0 ? option.substring(2) : option.substring(2, equals);
+        String value = equals < 0 ? "" : option.substring(equals + 1);
+        switch (name) {
+            case "concurrency":
+                concurrency = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            case "keep-alive":
+                keepAlive = value.equals("on");
+                break;
+            case "mix":
+                mix = value;
+                break;
+            case "baseline":
+                baselineFile = value;
+                break;
+            case "save-baseline":
+                saveBaselineFile = value;
+                break;
+            case "tolerance":
+                tolerance = Double.parseDouble(value);
+                break;
+            default:
+                serverConfig.applyOption(option);
+                serverOptions.add(option);
+        }
+    }
+
+    /**
+     * Generates the root, runs the server and the clients, and reports the results.
+     * @return false if requests failed or the results regressed against the baseline
+     * @throws Exception the test couldn't be run
+     */
+    private boolean run() throws Exception {
+        // the server logs every request, which would measure the console
+        serverLogger.setLevel(Level.WARNING);
+
+        Path root = Files.createTempDirectory("load-test");
+        try {
+            String[] targets = createWorkload(root);
+            int port = findFreePort();
+            WebServer server = new WebServer(root.toFile().getCanonicalFile(), port, serverConfig);
+            Thread serverThread = new Thread(server::start, "load-test-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+            awaitServer(address);
+
+            try {
+                return report(drive(address, targets));
+            } finally {
+                server.stop();
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    /**
+     * Creates the files and directories of the workload and the request targets in the configured mix.
+     * @param root the server's root
+     * @return the targets, each one repeated in proportion to its share of the mix
+     * @throws IOException the files couldn't be created
+     */
+    private String[] createWorkload(Path root) throws IOException {
+        Random random = new Random(42);
+        List<String> small = createFiles(root.resolve("small"), "s", ".txt", smallFiles, 1024, random);
+        List<String> medium = createFiles(root.resolve("medium"), "m", ".bin", mediumFiles, 64 * 1024, random);
+        List<String> large = createFiles(root.resolve("large"), "l", ".bin", largeFiles, 8 * 1024 * 1024, random);
+        List<String> listing = new ArrayList<>();
+        listing.add("/small/");
+        listing.add("/medium/");
+        List<String> json = new ArrayList<>();
+        json.add("/small/?format=json&limit=100&sort=size");
+
+        List<String> targets = new ArrayList<>();
+        for (String share : mix.split(",")) {
+            String[] parts = share.split(":");
+            List<String> kind;
+            switch (parts[0]) {
+                case "small": kind = small; break;
+                case "medium": kind = medium; break;
+                case "large": kind = large; break;
+                case "listing": kind = listing; break;
+                case "json": kind = json; break;
+                default: throw new IllegalArgumentException("Unknown request kind: " + parts[0]);
+            }
+            // ten slots per percent, spread over the kind's files
+            int slots = Integer.parseInt(parts[1]) * 10;
+            for (int i = 0; i < slots; i++) {
+                targets.add(kind.get(i % kind.size()));
+            }
+        }
+        return targets.toArray(new String[targets.size()]);
+    }
+
+    /**
+     * Creates files of random content.
+     * @param directory the directory to create them in
+     * @param prefix the names' prefix
+     * @param suffix the names' extension
+     * @param count the number of files
+     * @param size the size of every file
+     * @param random the content's source
+     * @return the request targets of the files
+     * @throws IOException the files couldn't be created
+     */
+    private static List<String> createFiles(Path directory, String prefix, String suffix, int count, int size,
+                                            Random random) throws IOException {
+        Files.createDirectories(directory);
+        byte[] content = new byte[size];
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            if (suffix.equals(".txt")) {
+                // text files are compressible, like real ones
+                for (int j = 0; j < content.length; j++) {
+                    content[j] = (byte) ('a' + (content[j] & 0x0f));
+                }
+            }
+            String name = prefix + i + suffix;
+            Files.write(directory.resolve(name), content);
+            targets.add("/" + directory.getFileName() + "/" + name);
+        }
+        return targets;
+    }
+
+    /**
+     * Runs the clients through the warmup and the measurement.
+     * @param address the server's address
+     * @param targets the request targets
+     * @return the clients, holding their results
+     * @throws IOException the server's keystore couldn't be read
+     * @throws GeneralSecurityException the clients' TLS context couldn't be created
+     * @throws InterruptedException the test was interrupted
+     */
+    private List<LoadClient> drive(InetSocketAddress address, String[] targets)
+            throws IOException, GeneralSecurityException, InterruptedException {
+        SocketFactory socketFactory = createSocketFactory();
+        long now = System.nanoTime();
+        long measureFrom = now + warmup * 1000000000L;
+        long measureUntil = measureFrom + duration * 1000000000L;
+
+        List<LoadClient> clients = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            LoadClient client = new LoadClient(address, socketFactory, targets, keepAlive, measureFrom, measureUntil,
+                    i);
+            Thread thread = new Thread(client, "load-client-" + i);
+            clients.add(client);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return clients;
+    }
+
+    /**
+     * Creates the clients' socket factory. A TLS server is trusted through the certificate in its own
+     * keystore, so a self-signed one works; the clients share one session cache.
+     * @return the socket factory
+     * @throws IOException the server's keystore couldn't be read
+     * @throws GeneralSecurityException the TLS context couldn't be created
+     */
+    private SocketFactory createSocketFactory() throws IOException, GeneralSecurityException {
+        if (serverConfig.getTlsKeystore() == null) {
+            return SocketFactory.getDefault();
+        }
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(serverConfig.getTlsKeystore())) {
+            keyStore.load(in, serverConfig.getTlsKeystorePassword().toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers.getTrustManagers(), null);
+        return sslContext.getSocketFactory();
+    }
+
+    /**
+     * Prints the results and compares them with the baseline.
+     * @param clients the clients, holding their results
+     * @return false if requests failed or the results regressed
+     * @throws IOException the baseline couldn't be read or written
+     */
+    private boolean report(List<LoadClient> clients) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long bytes = 0;
+        long errors = 0;
+        for (LoadClient client : clients) {
+            histogram.add(client.getHistogram());
+            bytes += client.getBytes();
+            errors += client.getErrors();
+        }
+
+        long requests = histogram.getTotalCount();
+        Properties results = new Properties();
+        results.setProperty("workload", describeWorkload());
+        results.setProperty("throughput", format(requests / (double) duration));
+        results.setProperty("p50", format(histogram.getPercentile(50) / 1e6));
+        results.setProperty("p99", format(histogram.getPercentile(99) / 1e6));
+        results.setProperty("p999", format(histogram.getPercentile(99.9) / 1e6));
+
+        System.out.println("Workload: " + results.getProperty("workload"));
+        System.out.println("Requests: " + requests + ", errors: " + errors + ", "
+                + results.getProperty("throughput") + " requests/s, "
+                + format(bytes / (double) duration / (1024 * 1024)) + " MB/s");
+        System.out.println("Latency (ms): p50 " + results.getProperty("p50")
+                + ", p90 " + format(histogram.getPercentile(90) / 1e6)
+                + ", p99 " + results.getProperty("p99")
+                + ", p99.9 " + results.getProperty("p999")
+                + ", max " + format(histogram.getMax() / 1e6));
+
+        boolean passed = true;
+        if (errors > (requests + errors) / 100) {
+            System.out.println("FAILED: more than 1% of the requests failed");
+            passed = false;
+        }
+        if (baselineFile != null) {
+            passed &= compare(results);
+        }
+        if (saveBaselineFile != null) {
+            try (OutputStream out = Files.newOutputStream(new File(saveBaselineFile).toPath())) {
+                results.store(out, "Load test baseline");
+            }
+            System.out.println("Baseline saved to " + saveBaselineFile);
+        }
+        return passed;
+    }
+
+    /**
+     * Compares the results with the baseline. Throughput mustn't drop and latencies mustn't rise
+     * by more than the tolerance.
+     * @param results the results of this run
+     * @return false if a result regressed
+     * @throws IOException the baseline couldn't be read
+     */
+    private boolean compare(Properties results) throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(new File(baselineFile).toPath())) {
+            baseline.load(in);
+        }
+        if (!results.getProperty("workload").equals(baseline.getProperty("workload"))) {
+            logger.warning("Baseline was measured with a different workload: " + baseline.getProperty("workload"));
+        }
+
+        boolean passed = check("throughput", results, baseline, -1);
+        passed &= check("p50", results, baseline, 1);
+        passed &= check("p99", results, baseline, 1);
+        passed &= check("p999", results, baseline, 1);
+        return passed;
+    }
+
+    /**
+     * Compares one result with its baseline value.
+     * @param name the result's name
+     * @param results the results of this run
+     * @param baseline the baseline results
+     * @param direction 1 if larger values are worse, -1 if smaller values are worse
+     * @return false if the result regressed by more than the tolerance
+     */
+    private boolean check(String name, Properties results, Properties baseline, int direction) {
+        double current = Double.parseDouble(results.getProperty(name));
+        double expected = Double.parseDouble(baseline.getProperty(name));
+        double change = expected == 0 ? 0 : (current - expected) / expected * 100;
+        boolean regressed = change * direction > tolerance;
+        System.out.println((regressed ? "REGRESSED " : "ok        ") + name + ": " + format(current)
+                + " vs baseline " + format(expected) + " (" + (change >= 0 ? "+" : "") + format(change) + "%)");
+        return !regressed;
+    }
+
+    /**
+     * Describes the workload, so results are only compared with results of the same workload.
+     * @return the description
+     */
+    private String describeWorkload() {
+        return concurrency + " clients, keep-alive " + (keepAlive ? "on" : "off") + ", mix " + mix
+                + (serverOptions.isEmpty() ? "" : ", server " + String.join(" ", serverOptions));
+    }
+
+    /**
+     * Formats a result with two decimals.
+     * @param value the result
+     * @return the formatted result
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * Finds a port that is free on this machine.
+     * @return the port
+     * @throws IOException no port could be bound
+     */
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     * @param address the server's address
+     * @throws IOException the server didn't start within ten seconds
+     * @throws InterruptedException the wait was interrupted
+     */
+    private static void awaitServer(InetSocketAddress address) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 10000000000L;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, 1000);
+                return;
+            } catch (IOException ex) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw ex;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory tree.
+     * @param root the tree's root
+     * @throws IOException the tree couldn't be deleted
+     */
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.tzupy.benchmarks;
+
+import com.tzupy.http.MimeTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures resolving the content type of requested files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeTypesBenchmark {
+
+    // common types, an upper case extension, a missing one and an unknown one
+    private static final String[] filenames = {
+            "/index.html", "/css/styles.css", "/js/app.min.js", "/photos/IMG_0001.JPG",
+            "/downloads/archive.tar.gz", "/README", "/data/export.parquet", "/docs/manual.pdf" };
+
+    private MimeTypes mimeTypes;
+    private int next;
+
+    /**
+     * Loads the bundled table.
+     */
+    @Setup
+    public void setup() {
+        mimeTypes = MimeTypes.load(null);
+    }
+
+    /**
+     * Resolves the content type of the next file name.
+     * @return the content type
+     */
+    @Benchmark
+    public String getContentType() {
+        next = (next + 1) & (filenames.length - 1);
+        return mimeTypes.getContentType(filenames[next]);
+    }
+}
@@ -0,0 +1,265 @@
+package com.tzupy.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * This class stores buffered entries within a byte budget.
+ * Lookups don't lock, they only mark the entry as used. Once the budget is exceeded, entries are evicted
+ * by the clock algorithm: the eviction passes the entries in the order they were added, gives a used one
+ * a second chance by clearing its mark and moving it to the back, and evicts the first one that wasn't
+ * used since it was passed last. Each eviction thereby costs a constant number of steps on average.
+ * @param <K> the key type
+ * @param <E> the entry type
+ */
+public class BufferCache<K, E extends CacheEntry> {
+
+    private final long capacity;
+
+    private final Map<K, E> entries = new ConcurrentHashMap<>();
+    // the entries in the order the eviction passes them; replaced and removed ones stay until passed
+    private final Queue<Slot<K, E>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger slots = new AtomicInteger();
+    private final AtomicLong size = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Class constructor that receives the cache's byte budget.
+     * @param capacity the maximum number of bytes held, 0 disables the cache
+     */
+    public BufferCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns true if the cache holds anything at all.
+     * @return the cache's state
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Gets the cache's byte budget.
+     * @return the capacity in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Looks up an entry, which the caller still has to validate.
+     * @param key the entry's key
+     * @return the entry, or null if none is cached
+     */
+    protected E lookup(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Counts a valid entry as used.
+     * @param entry the entry served
+     */
+    protected void hit(E entry) {
+        hits.increment();
+        entry.touch();
+    }
+
+    /**
+     * Counts a lookup that had to produce the content again.
+     */
+    protected void miss() {
+        misses.increment();
+    }
+
+    /**
+     * Adds an entry, evicting older entries if the budget is exceeded.
+     * @param key the entry's key
+     * @param entry the entry
+     */
+    protected void put(K key, E entry) {
+        if (entry.getSize() > capacity) {
+            return;
+        }
+        E previous = entries.put(key, entry);
+        size.addAndGet(entry.getSize() - (previous == null ? 0 : previous.getSize()));
+        clock.offer(new Slot<>(key, entry));
+        slots.incrementAndGet();
+        evictIfNeeded();
+    }
+
+    /**
+     * Removes an entry whose source changed.
+     * @param key the entry's key
+     */
+    protected void invalidate(K key) {
+        E removed = entries.remove(key);
+        if (removed != null) {
+            size.addAndGet(-removed.getSize());
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Removes all entries whose key matches.
+     * @param filter the keys to remove
+     */
+    protected void invalidateIf(Predicate<K> filter) {
+        for (K key : entries.keySet()) {
+            if (filter.test(key)) {
+                invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public void clear() {
+        entries.clear();
+        size.set(0);
+        clock.clear();
+        slots.set(0);
+    }
+
+    /**
+     * Evicts entries that weren't used lately until the cache fits its budget, and drops the slots of
+     * replaced and removed entries once they outnumber the cached ones.
+     */
+    private void evictIfNeeded() {
+        if ((size.get() <= capacity && !hasStaleSlots()) || !evictionLock.tryLock()) {
+            return; // another thread is already evicting
+        }
+        try {
+            if (hasStaleSlots()) {
+                purgeSlots();
+            }
+            while (size.get() > capacity) {
+                Slot<K, E> slot = clock.poll();
+                if (slot == null) {
+                    break;
+                }
+                slots.decrementAndGet();
+                if (entries.get(slot.key) != slot.entry) {
+                    continue; // replaced or removed since it was added
+                }
+                if (slot.entry.clearReferenced()) {
+                    clock.offer(slot);
+                    slots.incrementAndGet();
+                    continue;
+                }
+                // a newer entry may have replaced this one meanwhile, it is kept
+                if (entries.remove(slot.key, slot.entry)) {
+                    size.addAndGet(-slot.entry.getSize());
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the clock holds many more slots than there are entries.
+     * @return true if the slots should be purged
+     */
+    private boolean hasStaleSlots() {
+        return slots.get() > 2 * entries.size() + 64;
+    }
+
+    /**
+     * Drops the slots of replaced and removed entries, which are passed over otherwise. Called with the
+     * eviction lock held, after as many puts as there are entries, so a put costs a constant number of steps.
+     */
+    private void purgeSlots() {
+        for (Iterator<Slot<K, E>> iterator = clock.iterator(); iterator.hasNext(); ) {
+            Slot<K, E> slot = iterator.next();
+            if (entries.get(slot.key) != slot.entry) {
+                iterator.remove();
+                slots.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of requests served from the cache.
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of cacheable requests that had to produce the content.
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of entries evicted to stay within the budget.
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of entries dropped because their source changed.
+     * @return the number of invalidations
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Gets the number of bytes currently held.
+     * @return the cache's size in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of entries currently held.
+     * @return the number of entries
+     */
+    public int getEntries() {
+        return entries.size();
+    }
+
+    /**
+     * This class holds an entry with its key in the clock.
+     * @param <K> the key type
+     * @param <E> the entry type
+     */
+    private static final class Slot<K, E> {
+
+        private final K key;
+        private final E entry;
+
+        /**
+         * Class constructor that receives an entry and its key.
+         * @param key the entry's key
+         * @param entry the entry
+         */
+        private Slot(K key, E entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+}
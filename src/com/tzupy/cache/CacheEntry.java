@@ -0,0 +1,79 @@
+package com.tzupy.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds cached content in a buffer, together with whether it was used since the cache's
+ * eviction last passed it.
+ */
+public class CacheEntry {
+
+    private final ByteBuffer content;
+    private final ByteBuffer compressed;
+
+    private volatile boolean referenced;
+
+    /**
+     * Class constructor that receives the cached content.
+     * @param content the content, read-only
+     */
+    public CacheEntry(ByteBuffer content) {
+        this(content, null);
+    }
+
+    /**
+     * Class constructor that receives the cached content and its gzip variant.
+     * @param content the content, read-only
+     * @param compressed the gzip compressed content, read-only, or null if there is none
+     */
+    public CacheEntry(ByteBuffer content, ByteBuffer compressed) {
+        this.content = content;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Marks the entry as used.
+     */
+    public void touch() {
+        // entries served all the time are only written to once per eviction pass
+        if (!referenced) {
+            referenced = true;
+        }
+    }
+
+    /**
+     * Clears the entry's use mark, when the cache's eviction passes it.
+     * @return true if the entry was used since the last pass
+     */
+    public boolean clearReferenced() {
+        if (!referenced) {
+            return false;
+        }
+        referenced = false;
+        return true;
+    }
+
+    /**
+     * Gets the cached content.
+     * @return the content, shared by all users
+     */
+    public ByteBuffer getContent() {
+        return content;
+    }
+
+    /**
+     * Gets the gzip variant of the cached content, compressed once when the entry was made.
+     * @return the compressed content, shared by all users, or null if there is none
+     */
+    public ByteBuffer getCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Gets the number of bytes held by the entry, including the compressed variant.
+     * @return the entry's size
+     */
+    public long getSize() {
+        return content.capacity() + (compressed == null ? 0 : compressed.capacity());
+    }
+}
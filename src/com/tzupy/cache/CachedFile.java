@@ -0,0 +1,35 @@
+package com.tzupy.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds the content of a cached file together with the attributes it was read with.
+ */
+public class CachedFile extends CacheEntry {
+
+    private final long size;
+    private final long lastModified;
+
+    /**
+     * Class constructor that receives the file's content and attributes.
+     * @param content the file's content, read-only
+     * @param compressed the gzip compressed content, read-only, or null if there is none
+     * @param size the file's size when it was read
+     * @param lastModified the file's modification time in milliseconds when it was read
+     */
+    public CachedFile(ByteBuffer content, ByteBuffer compressed, long size, long lastModified) {
+        super(content, compressed);
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns true if the file still has the attributes it was read with.
+     * @param size the file's current size
+     * @param lastModified the file's current modification time in milliseconds
+     * @return the entry's validity
+     */
+    public boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+}
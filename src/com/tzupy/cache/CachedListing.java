@@ -0,0 +1,84 @@
+package com.tzupy.cache;
+
+import com.tzupy.http.ETag;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds a rendered directory listing together with the directory state it was rendered from.
+ */
+public class CachedListing extends CacheEntry {
+
+    // what an entry recording a directory that isn't rendered is charged, for its key and objects, so the
+    // cache's budget bounds the number of such entries too
+    private static final long markerSize = 512;
+
+    private final long lastModified;
+    private final long generation;
+    private final String etag;
+    private final boolean streamed;
+
+    /**
+     * Class constructor that receives the encoded listing and the directory's state.
+     * @param content the encoded listing, read-only
+     * @param compressed the gzip compressed listing, read-only, or null if there is none
+     * @param lastModified the directory's modification time in milliseconds when it was listed
+     * @param generation the directory's change generation when it was listed
+     */
+    public CachedListing(ByteBuffer content, ByteBuffer compressed, long lastModified, long generation) {
+        super(content, compressed);
+        this.lastModified = lastModified;
+        this.generation = generation;
+        this.etag = ETag.forContent(content);
+        this.streamed = false;
+    }
+
+    /**
+     * Class constructor for a directory that wasn't rendered, e.g. one too large to be held whole,
+     * so later requests stream it without trying to render it first.
+     * @param lastModified the directory's modification time in milliseconds when it was listed
+     * @param generation the directory's change generation when it was listed
+     */
+    public CachedListing(long lastModified, long generation) {
+        super(ByteBuffer.allocate(0).asReadOnlyBuffer());
+        this.lastModified = lastModified;
+        this.generation = generation;
+        this.etag = null;
+        this.streamed = true;
+    }
+
+    /**
+     * Returns true if the entry only records that the directory isn't rendered, and holds no listing.
+     * @return true if the directory's listing is streamed
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    /**
+     * Gets the number of bytes the entry is charged in the cache's budget.
+     * @return the listing's size, or a nominal size if the directory isn't rendered
+     */
+    @Override
+    public long getSize() {
+        return streamed ? markerSize : super.getSize();
+    }
+
+    /**
+     * Gets the entity tag of the listing, computed once from its content.
+     * @return the quoted tag
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Returns true if the directory is still in the state it was listed in.
+     * @param lastModified the directory's current modification time in milliseconds
+     * @param generation the directory's current change generation
+     * @return the entry's validity
+     */
+    public boolean matches(long lastModified, long generation) {
+        return this.lastModified == lastModified && this.generation == generation;
+    }
+}
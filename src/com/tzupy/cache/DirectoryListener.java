@@ -0,0 +1,16 @@
+package com.tzupy.cache;
+
+import java.nio.file.Path;
+
+/**
+ * This interface receives the changes reported for watched directories.
+ */
+public interface DirectoryListener {
+
+    /**
+     * Called when an entry of a watched directory was created, deleted or modified.
+     * @param directory the watched directory
+     * @param child the changed entry, or null if changes were lost and anything may have changed
+     */
+    void directoryChanged(Path directory, Path child);
+}
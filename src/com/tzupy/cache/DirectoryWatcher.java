@@ -0,0 +1,112 @@
+package com.tzupy.cache;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * This class watches the directories holding cached content and reports their changes to the caches,
+ * using a single watch service and thread for all of them.
+ */
+public class DirectoryWatcher {
+
+    private static final Logger logger = Logger.getLogger(DirectoryWatcher.class.getCanonicalName());
+
+    private final List<DirectoryListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+
+    /**
+     * Adds a listener for the changes of all watched directories.
+     * @param listener the listener
+     */
+    public void addListener(DirectoryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts the watch service. Without it, caches only validate entries against file attributes.
+     */
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            logger.warning("Caches run without watch service: " + ex.getMessage());
+            return;
+        }
+        Thread watcher = new Thread(this::watch, "directory-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops the watch service.
+     */
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't close watch service: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns true if changes of the directory are reported.
+     * @param directory the directory, absolute and normalized
+     * @return the directory's watch state
+     */
+    public boolean isWatched(Path directory) {
+        return watchedDirectories.containsKey(directory);
+    }
+
+    /**
+     * Registers a directory with the watch service, once.
+     * @param directory the directory, absolute and normalized
+     */
+    public void watch(Path directory) {
+        if (watchService == null || directory == null || watchedDirectories.containsKey(directory)) {
+            return;
+        }
+        try {
+            WatchKey watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(directory, watchKey);
+        } catch (IOException | ClosedWatchServiceException ex) {
+            logger.warning("Couldn't watch directory " + directory + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reports the changes of the watched directories until the watch service is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                Path directory = (Path) watchKey.watchable();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    Path child = event.kind() == StandardWatchEventKinds.OVERFLOW
+                            ? null : directory.resolve((Path) event.context());
+                    for (DirectoryListener listener : listeners) {
+                        listener.directoryChanged(directory, child);
+                    }
+                }
+                if (!watchKey.reset()) {
+                    watchedDirectories.remove(directory);
+                    for (DirectoryListener listener : listeners) {
+                        listener.directoryChanged(directory, null);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // the watcher was stopped
+        }
+    }
+}
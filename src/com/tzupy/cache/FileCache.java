@@ -0,0 +1,110 @@
+package com.tzupy.cache;
+
+import com.tzupy.http.Compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Logger;
+
+/**
+ * This class caches the content of small files in direct buffers, within a byte budget.
+ * An entry is invalidated when the file's size or modification time change, or when the
+ * watch service reports a change of the file.
+ */
+public final class FileCache extends BufferCache<Path, CachedFile> implements DirectoryListener {
+
+    private static final Logger logger = Logger.getLogger(FileCache.class.getCanonicalName());
+
+    private final long maxFileSize;
+    private final DirectoryWatcher directoryWatcher;
+
+    /**
+     * Class constructor that receives the cache's byte budget, the largest file to cache and the
+     * watcher reporting changes of the cached files.
+     * @param capacity the maximum number of bytes held, 0 disables the cache
+     * @param maxFileSize the size of the largest file that is cached
+     * @param directoryWatcher the watcher of the cached files' directories
+     */
+    public FileCache(long capacity, long maxFileSize, DirectoryWatcher directoryWatcher) {
+        super(capacity);
+        this.maxFileSize = Math.min(Math.min(maxFileSize, capacity), Integer.MAX_VALUE);
+        this.directoryWatcher = directoryWatcher;
+        directoryWatcher.addListener(this);
+    }
+
+    /**
+     * Gets a file's content from the cache, reading it into the cache if it is small enough.
+     * @param path the file's path
+     * @param attributes the file's current attributes
+     * @param compress true if a gzip variant is kept as well, when the file is read
+     * @return the cached file, or null if the file isn't cached
+     */
+    public CachedFile get(Path path, BasicFileAttributes attributes, boolean compress) {
+        if (!isEnabled() || attributes.size() > maxFileSize) {
+            return null;
+        }
+
+        // the same file may be requested through different relative paths
+        path = path.toAbsolutePath().normalize();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        CachedFile cachedFile = lookup(path);
+        if (cachedFile != null) {
+            if (cachedFile.matches(attributes.size(), lastModified)) {
+                hit(cachedFile);
+                return cachedFile;
+            }
+            invalidate(path);
+        }
+
+        miss();
+        return load(path, attributes.size(), lastModified, compress);
+    }
+
+    /**
+     * Drops the entries of changed files.
+     * @param directory the watched directory
+     * @param child the changed entry, or null if anything in the directory may have changed
+     */
+    @Override
+    public void directoryChanged(Path directory, Path child) {
+        if (child != null) {
+            invalidate(child);
+        } else {
+            invalidateIf(path -> directory.equals(path.getParent()));
+        }
+    }
+
+    /**
+     * Reads a file into a direct buffer and adds it to the cache.
+     * @param path the file's path
+     * @param fileSize the file's size
+     * @param lastModified the file's modification time in milliseconds
+     * @param compress true if a gzip variant is kept as well
+     * @return the new entry, or null if the file couldn't be read completely
+     */
+    private CachedFile load(Path path, long fileSize, long lastModified, boolean compress) {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) fileSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+        } catch (IOException ex) {
+            logger.warning("Couldn't cache file " + path + ": " + ex.getMessage());
+            return null;
+        }
+        if (content.hasRemaining()) {
+            return null; // the file shrank while it was read
+        }
+        content.flip();
+
+        ByteBuffer compressed = compress ? Compression.compress(content) : null;
+        CachedFile cachedFile = new CachedFile(content.asReadOnlyBuffer(), compressed, fileSize, lastModified);
+        directoryWatcher.watch(path.getParent());
+        put(path, cachedFile);
+        return cachedFile;
+    }
+}
@@ -0,0 +1,218 @@
+package com.tzupy.cache;
+
+import com.tzupy.http.Compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches rendered directory listings as encoded bytes, within a byte budget.
+ * An entry is valid while the directory's modification time and change generation are unchanged.
+ * The generation is advanced by the watch service, since changes to the listed files themselves
+ * don't touch the directory's modification time. A stale entry is rebuilt by a single thread,
+ * while concurrent requests are still served the previous listing. A directory the renderer declined,
+ * e.g. one too large to be rendered whole, is cached as such, so it isn't tried again until it changes.
+ * Entries are keyed by the directory's normalized path, so every spelling of a directory's name shares one.
+ */
+public final class ListingCache extends BufferCache<Path, CachedListing> implements DirectoryListener {
+
+    private final long compressMinSize;
+    private final DirectoryWatcher directoryWatcher;
+
+    private final Map<Path, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<Path, FutureTask<CachedListing>> rebuilds = new ConcurrentHashMap<>();
+
+    /**
+     * Class constructor that receives the cache's byte budget, the size from which listings are
+     * also kept compressed and the watcher reporting directory changes.
+     * @param capacity the maximum number of bytes held, 0 disables the cache
+     * @param compressMinSize the size of the smallest listing that is compressed, -1 to never compress
+     * @param directoryWatcher the watcher of the listed directories
+     */
+    public ListingCache(long capacity, long compressMinSize, DirectoryWatcher directoryWatcher) {
+        super(capacity);
+        this.compressMinSize = compressMinSize;
+        this.directoryWatcher = directoryWatcher;
+        directoryWatcher.addListener(this);
+    }
+
+    /**
+     * Gets a directory's listing from the cache, rendering it if it is missing or stale.
+     * @param directory the listed directory, whose normalized path is the listing's key
+     * @param lastModified the directory's current modification time in milliseconds
+     * @param renderer renders the encoded listing, or returns null if the directory isn't rendered
+     * @return the listing, or null if the renderer returned null for the directory in its current state
+     * @throws IOException the listing couldn't be rendered
+     */
+    public CachedListing get(Path directory, long lastModified, Callable<byte[]> renderer)
+            throws IOException {
+        if (!isEnabled()) {
+            byte[] listing = call(renderer);
+            if (listing == null) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.wrap(listing);
+            return new CachedListing(content, compress(content), lastModified, 0);
+        }
+
+        Path key = directory.toAbsolutePath().normalize();
+        long generation = getGeneration(key);
+        CachedListing cachedListing = lookup(key);
+        if (cachedListing != null && cachedListing.matches(lastModified, generation)) {
+            hit(cachedListing);
+            return listingOf(cachedListing);
+        }
+
+        FutureTask<CachedListing> rebuild = new FutureTask<>(() -> render(key, lastModified, generation, renderer));
+        FutureTask<CachedListing> running = rebuilds.putIfAbsent(key, rebuild);
+        if (running != null) {
+            // another thread rebuilds this listing, serve the stale one meanwhile if there is one
+            if (cachedListing != null) {
+                hit(cachedListing);
+                return listingOf(cachedListing);
+            }
+            return listingOf(await(running));
+        }
+
+        miss();
+        try {
+            rebuild.run();
+            CachedListing rendered = await(rebuild);
+            put(key, rendered);
+            return listingOf(rendered);
+        } finally {
+            rebuilds.remove(key, rebuild);
+        }
+    }
+
+    /**
+     * Advances the generation of a changed directory and of its parent, whose listing shows the
+     * directory's modification time.
+     * @param directory the watched directory
+     * @param child the changed entry, or null if anything in the directory may have changed
+     */
+    @Override
+    public void directoryChanged(Path directory, Path child) {
+        getGenerationCounter(directory).incrementAndGet();
+        if (directory.getParent() != null) {
+            getGenerationCounter(directory.getParent()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Renders a listing into a direct buffer and starts watching the directory.
+     * @param directory the listed directory
+     * @param lastModified the directory's modification time in milliseconds
+     * @param generation the directory's change generation, read before rendering
+     * @param renderer renders the encoded listing
+     * @return the new entry, which only records that the directory isn't rendered if the renderer returned null
+     * @throws Exception the listing couldn't be rendered
+     */
+    private CachedListing render(Path directory, long lastModified, long generation, Callable<byte[]> renderer)
+            throws Exception {
+        directoryWatcher.watch(directory);
+        byte[] listing = renderer.call();
+        if (listing == null) {
+            return new CachedListing(lastModified, generation);
+        }
+        ByteBuffer content = ByteBuffer.allocateDirect(listing.length);
+        content.put(listing).flip();
+        return new CachedListing(content.asReadOnlyBuffer(), compress(content), lastModified, generation);
+    }
+
+    /**
+     * Gets the listing an entry holds.
+     * @param cachedListing the entry
+     * @return the entry, or null if it records a directory that isn't rendered
+     */
+    private static CachedListing listingOf(CachedListing cachedListing) {
+        return cachedListing.isStreamed() ? null : cachedListing;
+    }
+
+    /**
+     * Compresses a listing once, when it is rendered, if it is large enough.
+     * @param content the encoded listing
+     * @return the gzip compressed listing, or null if it isn't compressed
+     */
+    private ByteBuffer compress(ByteBuffer content) {
+        if (compressMinSize < 0 || content.remaining() < compressMinSize) {
+            return null;
+        }
+        return Compression.compress(content);
+    }
+
+    /**
+     * Gets the current change generation of a directory.
+     * @param directory the directory, absolute and normalized
+     * @return the generation
+     */
+    private long getGeneration(Path directory) {
+        AtomicLong generation = generations.get(directory);
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * Gets the change generation counter of a directory, creating it if needed.
+     * @param directory the directory, absolute and normalized
+     * @return the counter
+     */
+    private AtomicLong getGenerationCounter(Path directory) {
+        return generations.computeIfAbsent(directory, path -> new AtomicLong());
+    }
+
+    /**
+     * Waits for a rebuild, unwrapping its failure.
+     * @param rebuild the rebuild
+     * @return the rebuilt entry
+     * @throws IOException the listing couldn't be rendered
+     */
+    private static CachedListing await(FutureTask<CachedListing> rebuild) throws IOException {
+        try {
+            return rebuild.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for listing", ex);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex.getCause());
+        }
+    }
+
+    /**
+     * Runs a renderer directly, unwrapping its failure.
+     * @param renderer the renderer
+     * @return the encoded listing
+     * @throws IOException the listing couldn't be rendered
+     */
+    private static byte[] call(Callable<byte[]> renderer) throws IOException {
+        try {
+            return renderer.call();
+        } catch (Exception ex) {
+            throw unwrap(ex);
+        }
+    }
+
+    /**
+     * Converts a rendering failure to an IOException, rethrowing unchecked exceptions as they are.
+     * @param cause the failure
+     * @return the IOException to throw
+     */
+    private static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+}
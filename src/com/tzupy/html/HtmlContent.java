@@ -4,9 +4,9 @@ import com.tzupy.utils.ResourcePath;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
@@ -83,47 +83,75 @@ public class HtmlContent {
      * @return the resulting html content
      */
     public String asTable(Table table) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(asTableStart(table.getHeader()));
+        for (String[] row : table.getRows()) {
+            sb.append(asTableRow(row));
+        }
+        sb.append(asTableEnd());
+        return sb.toString();
+    }
+
+    /**
+     * Gets the opening of an html table with its header row as html content.
+     * Rows of a streamed table follow it one by one.
+     * @param header the table's header
+     * @return the resulting html content
+     */
+    public String asTableStart(String[] header) {
         buffer.setLength(0);
         buffer.append(HtmlTag.table.toStartTag() + "\r\n");
 
-        // append header
         buffer.append(HtmlTag.tableRow.toStartTag());
-        for (String entry : table.getHeader()) {
+        for (String entry : header) {
             buffer.append(HtmlTag.tableHead.toStartTag());
             buffer.append(entry);
             buffer.append(HtmlTag.tableHead.toEndTag());
         }
         buffer.append(HtmlTag.tableRow.toEndTag() + "\r\n");
+        return buffer.toString();
+    }
 
-        // append rows
-        for (String[] row : table.getRows()) {
-            buffer.append(HtmlTag.tableRow.toStartTag());
-            for (String entry : row) {
-                buffer.append(HtmlTag.tableData.toStartTag());
-                buffer.append(entry);
-                buffer.append(HtmlTag.tableData.toEndTag());
-            }
-            buffer.append(HtmlTag.tableRow.toEndTag() + "\r\n");
+    /**
+     * Gets a table row as html content.
+     * @param row the row's entries
+     * @return the resulting html content
+     */
+    public String asTableRow(String[] row) {
+        buffer.setLength(0);
+        buffer.append(HtmlTag.tableRow.toStartTag());
+        for (String entry : row) {
+            buffer.append(HtmlTag.tableData.toStartTag());
+            buffer.append(entry);
+            buffer.append(HtmlTag.tableData.toEndTag());
         }
-
-        buffer.append(HtmlTag.table.toEndTag() + "\r\n");
+        buffer.append(HtmlTag.tableRow.toEndTag() + "\r\n");
         return buffer.toString();
     }
 
     /**
-     * Gets a stylesheet as html content.
+     * Gets the closing of an html table as html content.
+     * @return the resulting html content
+     */
+    public String asTableEnd() {
+        return HtmlTag.table.toEndTag() + "\r\n";
+    }
+
+    /**
+     * Gets the bundled stylesheet as inline html content.
      * @return the resulting html content
      */
     public String asStyle() {
         buffer.setLength(0);
-        URL url;
-        try {
-            url = new URL(ResourcePath.style);
-
-            buffer.append(HtmlTag.style.toStartTag() + "\r\n");
-
-            // read the file line by line and append it to the content
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()))) {
+        buffer.append(HtmlTag.style.toStartTag() + "\r\n");
+
+        // read the bundled file line by line and append it to the content
+        String name = "/" + ResourcePath.style.substring(ResourcePath.prefix.length());
+        InputStream in = HtmlContent.class.getResourceAsStream(name);
+        if (in == null) {
+            logger.severe("Bundled stylesheet not found: " + name);
+        } else {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
                 String line;
                 while ((line = br.readLine()) != null) {
                     buffer.append(line + "\r\n");
@@ -131,12 +159,9 @@ public class HtmlContent {
             } catch (IOException ex) {
                 logger.severe("IO Exception: " + ex.getMessage());
             }
-
-            buffer.append(HtmlTag.style.toEndTag() + "\r\n");
-        } catch (MalformedURLException ex) {
-            logger.severe("The resource URL is malformed: " + ex.getMessage());
         }
 
+        buffer.append(HtmlTag.style.toEndTag() + "\r\n");
         return buffer.toString();
     }
 }
@@ -44,6 +44,15 @@ public class HtmlGenerator {
      * @return the document's content formatted as a proper html
      */
     public String generateHtml() {
+        return generateStart() + this.content.toString() + generateEnd();
+    }
+
+    /**
+     * Generates the beginning of the html document, up to the opening of its body.
+     * Documents that are streamed add their content after it.
+     * @return the document's head
+     */
+    public String generateStart() {
         StringBuilder sb = new StringBuilder();
 
         sb.append(HtmlTag.docType.toStartTag() + "\r\n");
@@ -55,16 +64,20 @@ public class HtmlGenerator {
         sb.append(HtmlTag.link.toSelfClosingTag(Arrays.asList(new AttrPair("rel", "\"shortcut icon\""),
                 new AttrPair("type", "\"image/png\""),
                 new AttrPair("href", "\"" + ResourcePath.favIcon + "\""))) + "\r\n");
-        /*sb.append(HtmlTag.link.toSelfClosingTag(Arrays.asList(new AttrPair("rel", "\"stylesheet\""),
+        sb.append(HtmlTag.link.toSelfClosingTag(Arrays.asList(new AttrPair("rel", "\"stylesheet\""),
                 new AttrPair("type", "\"text/css\""),
-                new AttrPair("href", "\"" + ResourcePath.style + "\""))) + "\r\n");*/
-        sb.append(new HtmlContent().asStyle());
+                new AttrPair("href", "\"" + ResourcePath.style + "\""))) + "\r\n");
         sb.append(HtmlTag.head.toEndTag() + "\r\n");
         sb.append(HtmlTag.body.toStartTag() + "\r\n");
-        sb.append(this.content.toString());
-        sb.append(HtmlTag.body.toEndTag() + "\r\n");
-        sb.append(HtmlTag.html.toEndTag() + "\r\n");
 
         return sb.toString();
     }
+
+    /**
+     * Generates the end of the html document, closing its body.
+     * @return the document's end
+     */
+    public String generateEnd() {
+        return HtmlTag.body.toEndTag() + "\r\n" + HtmlTag.html.toEndTag() + "\r\n";
+    }
 }
@@ -0,0 +1,81 @@
+package com.tzupy.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class sends a body that is already in memory, e.g. a cached file held in a direct buffer.
+ */
+public class BufferBody implements ResponseBody {
+
+    private final ByteBuffer buffer;
+    private final long length;
+
+    /**
+     * Class constructor that receives the body's content.
+     * The buffer is duplicated, so it can be shared by concurrent responses.
+     * @param buffer the content, from its position to its limit
+     */
+    public BufferBody(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.length = this.buffer.remaining();
+    }
+
+    /**
+     * Gets the number of bytes of the body.
+     * @return the body length
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Writes as much of the remaining content as the channel accepts.
+     * @param channel the client's channel
+     * @return true once the whole content was written
+     * @throws IOException the channel couldn't be written
+     */
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the response header together with the content, so a small response leaves in one
+     * system call instead of two.
+     * @param channel the client's channel
+     * @param header the encoded response header, from its position to its limit
+     * @return true once the header and the whole content were written
+     * @throws IOException the channel couldn't be written
+     */
+    @Override
+    public boolean writeTo(WritableByteChannel channel, ByteBuffer header) throws IOException {
+        if (!header.hasRemaining() || !(channel instanceof GatheringByteChannel)) {
+            return ResponseBody.super.writeTo(channel, header);
+        }
+
+        GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+        ByteBuffer[] buffers = { header, buffer };
+        while (header.hasRemaining() || buffer.hasRemaining()) {
+            if (gatheringChannel.write(buffers) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nothing to release, the content is owned by its creator.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,144 @@
+package com.tzupy.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents a satisfiable byte range of a file and parses Range headers.
+ */
+public class ByteRange {
+
+    // more ranges than this are answered with the whole file, so a request can't fan out into tiny parts
+    public final static int maxRanges = 16;
+
+    private final long first;
+    private final long last;
+
+    /**
+     * Class constructor that receives the inclusive bounds of the range.
+     * @param first the offset of the first byte
+     * @param last the offset of the last byte
+     */
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses a Range header against the size of the file. Satisfiable ranges are sorted and
+     * overlapping or adjacent ones are merged.
+     * @param header the header value, e.g. "bytes=0-499,-500"
+     * @param size the file size
+     * @return the ranges to send, an empty list if none is satisfiable, or null if the header
+     * is malformed or asks for too many ranges and the whole file should be sent
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > maxRanges) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            long first;
+            long last;
+            try {
+                if (dash == 0) { // suffix range, the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    first = Math.max(0, size - suffix);
+                    last = size - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+
+            if (first < 0) {
+                return null;
+            }
+            if (first < size) {
+                ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+            }
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * Sorts the ranges and merges those that overlap or touch.
+     * @param ranges the satisfiable ranges
+     * @return the merged ranges
+     */
+    private static List<ByteRange> merge(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges, (a, b) -> Long.compare(a.first, b.first));
+        List<ByteRange> merged = new ArrayList<>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new ByteRange(current.first, Math.max(current.last, next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * Gets the offset of the first byte.
+     * @return the first offset
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * Gets the offset of the last byte.
+     * @return the last offset
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Gets the number of bytes of the range.
+     * @return the range length
+     */
+    public long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * Creates the value of a Content-Range header for this range.
+     * @param size the file size
+     * @return the header value, e.g. "bytes 0-499/1234"
+     */
+    public String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+}
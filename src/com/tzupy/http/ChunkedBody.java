@@ -0,0 +1,148 @@
+package com.tzupy.http;
+
+import com.tzupy.utils.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class sends a body of unknown length with the chunked transfer coding. Subclasses produce
+ * the content piece by piece, each piece is framed as a chunk and written before the next one is made.
+ * HTTP/1.0 clients don't know chunks, their body is sent unframed and ends when the connection is closed.
+ * The piece being made and the chunk being sent are held in buffers leased from pools when the first chunk
+ * is made, and given back when the body is closed; subclasses closing their content call {@link #close()}.
+ */
+public abstract class ChunkedBody implements ResponseBody {
+
+    private static final byte[] lastChunk = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int chunkSize;
+    private final boolean framed;
+    private final BufferPool pool;
+    private final BufferPool heapPool;
+
+    // the piece of content being made, and the chunk framing it, in read mode
+    private ByteBuffer data;
+    private ByteBuffer frame;
+
+    private boolean finished;
+    // read by the write deadline on the timer wheel's thread
+    private volatile long written;
+
+    /**
+     * Class constructor that receives the largest piece of content a subclass produces at once,
+     * whether the pieces are framed as chunks, and the pools lending the body's buffers.
+     * @param chunkSize the maximum chunk size in bytes
+     * @param framed false to send the content as is, delimited by closing the connection
+     * @param pool the pool of direct buffers, lending the chunk being sent
+     * @param heapPool the pool of heap buffers, lending the array a piece of content is made in
+     */
+    protected ChunkedBody(int chunkSize, boolean framed, BufferPool pool, BufferPool heapPool) {
+        this.chunkSize = chunkSize;
+        this.framed = framed;
+        this.pool = pool;
+        this.heapPool = heapPool;
+    }
+
+    /**
+     * Gets the number of bytes of the body, which isn't known before it was sent.
+     * @return -1
+     */
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    /**
+     * Gets the number of bytes written so far, chunk framing included.
+     * @return the number of bytes written
+     */
+    @Override
+    public long written() {
+        return written;
+    }
+
+    /**
+     * Produces the next piece of content.
+     * @param data the array to fill, up to the maximum chunk size; a leased array may be longer
+     * @return the number of bytes produced, 0 if nothing was produced this time, or -1 at the end
+     * @throws IOException the content couldn't be produced
+     */
+    protected abstract int nextChunk(byte[] data) throws IOException;
+
+    /**
+     * Writes as many chunks as the channel accepts.
+     * @param channel the client's channel
+     * @return true once the last chunk was written
+     * @throws IOException the content couldn't be produced or the channel written
+     */
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (frame == null) {
+            data = heapPool.acquire(chunkSize);
+            // the size line, the trailing line break and the last chunk surround the data
+            frame = pool.acquire(chunkSize + 16 + lastChunk.length);
+            frame.flip();
+        }
+        while (true) {
+            while (frame.hasRemaining()) {
+                int count = channel.write(frame);
+                if (count == 0) {
+                    return false;
+                }
+                written += count;
+            }
+            if (finished) {
+                return true;
+            }
+            fillFrame();
+        }
+    }
+
+    /**
+     * Frames the next piece of content, or the last chunk once the content ends.
+     * @throws IOException the content couldn't be produced
+     */
+    private void fillFrame() throws IOException {
+        frame.clear();
+        int length = nextChunk(data.array());
+        if (length > 0 && !framed) {
+            frame.put(data.array(), 0, length);
+        } else if (length > 0) {
+            putHex(length);
+            frame.put((byte) '\r').put((byte) '\n');
+            frame.put(data.array(), 0, length);
+            frame.put((byte) '\r').put((byte) '\n');
+        } else if (length < 0) {
+            if (framed) {
+                frame.put(lastChunk);
+            }
+            finished = true;
+        }
+        frame.flip();
+    }
+
+    /**
+     * Writes a chunk's size as hex digits, without leading zeros.
+     * @param length the chunk size, positive
+     */
+    private void putHex(int length) {
+        for (int shift = (31 - Integer.numberOfLeadingZeros(length)) & ~3; shift >= 0; shift -= 4) {
+            frame.put((byte) Character.forDigit((length >>> shift) & 0xf, 16));
+        }
+    }
+
+    /**
+     * Gives the body's buffers back to the pools.
+     * @throws IOException the content couldn't be closed, in subclasses
+     */
+    @Override
+    public void close() throws IOException {
+        heapPool.release(data);
+        pool.release(frame);
+        data = null;
+        frame = null;
+    }
+}
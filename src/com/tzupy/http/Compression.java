@@ -0,0 +1,115 @@
+package com.tzupy.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class negotiates content codings and compresses content held in memory.
+ */
+public abstract class Compression {
+    public final static String gzip = "gzip";
+    public final static String deflate = "deflate";
+
+    // the file name suffix of precompressed sidecar files
+    public final static String gzipSuffix = ".gz";
+
+    /**
+     * Chooses the coding of a response from an Accept-Encoding header, preferring gzip,
+     * which is also the coding of sidecar files and cached variants.
+     * @param acceptEncoding the header value, or null
+     * @return gzip or deflate, or null if the content must be sent as is
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+            float quality = semicolon < 0 ? 1 : parseQuality(element.substring(semicolon + 1));
+            if (coding.equals(gzip) || coding.equals("x-gzip")) {
+                gzipQuality = quality;
+            } else if (coding.equals(deflate)) {
+                deflateQuality = quality;
+            } else if (coding.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+
+        if (gzipQuality < 0) {
+            gzipQuality = anyQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = anyQuality;
+        }
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return gzip;
+        }
+        return deflateQuality > 0 ? deflate : null;
+    }
+
+    /**
+     * Parses the q parameter of an Accept-Encoding element.
+     * @param parameters the parameters following the coding
+     * @return the quality, 0 if it is malformed
+     */
+    private static float parseQuality(String parameters) {
+        String value = parameters.trim();
+        if (!value.startsWith("q=") && !value.startsWith("Q=")) {
+            return 1;
+        }
+        try {
+            return Float.parseFloat(value.substring(2).trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns true if content of a type usually shrinks when compressed.
+     * Images, archives and media are compressed already.
+     * @param contentType the content type, possibly with parameters
+     * @return the type's compressibility
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/x-ndjson")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("application/xhtml+xml")
+                || contentType.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Compresses content with gzip into a direct buffer.
+     * @param content the content, from its position to its limit
+     * @return the compressed content, read-only
+     */
+    public static ByteBuffer compress(ByteBuffer content) {
+        ByteBuffer source = content.duplicate();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            out.write(bytes);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // in-memory streams don't fail
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.size());
+        buffer.put(compressed.toByteArray()).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,183 @@
+package com.tzupy.http;
+
+import com.tzupy.utils.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses a file or a buffer while it is sent, with gzip or deflate, so the
+ * compressed content is never held as a whole. Its length isn't known, it is sent in chunks, or
+ * unframed on an HTTP/2 stream, whose last frame ends it.
+ */
+public class DeflaterBody extends ChunkedBody {
+
+    private static final int chunkSize = 16 * 1024;
+    private static final byte[] gzipHeader = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final Path path;
+    private final ByteBuffer source;
+    private final boolean gzip;
+    private final BufferPool heapPool;
+
+    // the piece of the source being compressed, leased with the first chunk
+    private ByteBuffer input;
+
+    private FileChannel fileChannel;
+    private Deflater deflater;
+    private CRC32 crc;
+    private boolean headerWritten;
+    private boolean trailerWritten;
+
+    /**
+     * Class constructor that receives the file to compress.
+     * @param path the file's path
+     * @param coding the content coding, gzip or deflate
+     * @param chunked false to send the compressed content unframed
+     * @param pool the pool of direct buffers
+     * @param heapPool the pool of heap buffers
+     */
+    public DeflaterBody(Path path, String coding, boolean chunked, BufferPool pool, BufferPool heapPool) {
+        this(path, null, coding, chunked, pool, heapPool);
+    }
+
+    /**
+     * Class constructor that receives the content to compress.
+     * @param source the content, from its position to its limit
+     * @param coding the content coding, gzip or deflate
+     * @param chunked false to send the compressed content unframed
+     * @param pool the pool of direct buffers
+     * @param heapPool the pool of heap buffers
+     */
+    public DeflaterBody(ByteBuffer source, String coding, boolean chunked, BufferPool pool, BufferPool heapPool) {
+        this(null, source.duplicate(), coding, chunked, pool, heapPool);
+    }
+
+    /**
+     * Class constructor that receives the source and the coding.
+     * @param path the file's path, or null
+     * @param source the content, or null
+     * @param coding the content coding
+     * @param chunked false to send the compressed content unframed
+     * @param pool the pool of direct buffers
+     * @param heapPool the pool of heap buffers
+     */
+    private DeflaterBody(Path path, ByteBuffer source, String coding, boolean chunked, BufferPool pool,
+                         BufferPool heapPool) {
+        // the trailer is added after a full chunk of compressed data
+        super(chunkSize + gzipHeader.length + 8, chunked, pool, heapPool);
+        this.path = path;
+        this.source = source;
+        this.gzip = coding.equals(Compression.gzip);
+        this.heapPool = heapPool;
+    }
+
+    /**
+     * Compresses the next piece of the source. Gzip wraps the raw deflate data in its header and
+     * a trailer with the checksum and length, deflate uses the zlib format.
+     * @param data the array to fill
+     * @return the number of compressed bytes, or -1 once everything was sent
+     * @throws IOException the file couldn't be read
+     */
+    @Override
+    protected int nextChunk(byte[] data) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+            crc = new CRC32();
+            input = heapPool.acquire(chunkSize);
+        }
+        if (trailerWritten) {
+            return -1;
+        }
+
+        int length = 0;
+        if (gzip && !headerWritten) {
+            System.arraycopy(gzipHeader, 0, data, 0, gzipHeader.length);
+            length = gzipHeader.length;
+            headerWritten = true;
+        }
+
+        while (length < chunkSize && !deflater.finished()) {
+            if (deflater.needsInput()) {
+                int read = read();
+                if (read < 0) {
+                    deflater.finish();
+                } else {
+                    crc.update(input.array(), 0, read);
+                    deflater.setInput(input.array(), 0, read);
+                }
+            }
+            length += deflater.deflate(data, length, chunkSize - length);
+        }
+
+        if (deflater.finished()) {
+            if (gzip) {
+                writeIntLE(data, length, (int) crc.getValue());
+                writeIntLE(data, length + 4, (int) deflater.getBytesRead());
+                length += 8;
+            }
+            trailerWritten = true;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the next piece of the source into the input array.
+     * @return the number of bytes read, or -1 at the end of the source
+     * @throws IOException the file couldn't be read
+     */
+    private int read() throws IOException {
+        input.clear();
+        if (source != null) {
+            int read = Math.min(source.remaining(), chunkSize);
+            if (read == 0) {
+                return -1;
+            }
+            source.get(input.array(), 0, read);
+            return read;
+        }
+
+        if (fileChannel == null) {
+            fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        input.limit(chunkSize);
+        return fileChannel.read(input);
+    }
+
+    /**
+     * Writes an int in little-endian order, as gzip stores numbers.
+     * @param data the array
+     * @param offset the offset of the first byte
+     * @param value the number
+     */
+    private static void writeIntLE(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Closes the file, frees the deflater's native memory and gives the buffers back to the pools.
+     * @throws IOException the file couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        heapPool.release(input);
+        input = null;
+        super.close();
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+}
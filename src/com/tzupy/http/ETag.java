@@ -0,0 +1,85 @@
+package com.tzupy.http;
+
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/**
+ * This class creates entity tags and evaluates If-None-Match conditions.
+ */
+public abstract class ETag {
+
+    /**
+     * Creates a strong tag for a file from its modification time, size and file key (the inode),
+     * so it costs no read of the file.
+     * @param attributes the file's attributes
+     * @return the quoted tag
+     */
+    public static String forFile(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        StringBuilder sb = new StringBuilder(40);
+        sb.append('"').append(Long.toHexString(attributes.lastModifiedTime().toMillis()));
+        sb.append('-').append(Long.toHexString(attributes.size()));
+        if (fileKey != null) {
+            sb.append('-').append(Integer.toHexString(fileKey.hashCode()));
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Creates a strong tag from generated content, e.g. a rendered listing.
+     * @param content the content, from its position to its limit
+     * @return the quoted tag
+     */
+    public static String forContent(ByteBuffer content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.remaining()) + "\"";
+    }
+
+    /**
+     * Creates the tag of an encoded variant, which must differ from the tag of the content as is.
+     * @param etag the tag of the content
+     * @param coding the content coding of the variant
+     * @return the quoted tag
+     */
+    public static String forVariant(String etag, String coding) {
+        return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+    }
+
+    /**
+     * Evaluates an If-None-Match header against the current tag, using the weak comparison.
+     * @param ifNoneMatch the header value, "*" or a list of tags
+     * @param etag the current tag
+     * @return true if one of the listed tags matches
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        String value = ifNoneMatch.trim();
+        if (value.equals("*")) {
+            return true;
+        }
+
+        int opaqueStart = etag.startsWith("W/") ? 2 : 0;
+        int opaqueLength = etag.length() - opaqueStart;
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',') {
+                i++;
+                continue;
+            }
+            if (value.startsWith("W/", i)) {
+                i += 2;
+            }
+            int end = value.indexOf('"', i + 1);
+            if (i >= value.length() || value.charAt(i) != '"' || end < 0) {
+                return false; // malformed list
+            }
+            if (end + 1 - i == opaqueLength && value.regionMatches(i, etag, opaqueStart, opaqueLength)) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
+    }
+}
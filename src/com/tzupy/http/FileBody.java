@@ -0,0 +1,83 @@
+package com.tzupy.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class streams a region of a file to the client with FileChannel.transferTo, so the
+ * kernel can copy it directly to the socket and the file is never loaded into the heap.
+ */
+public class FileBody implements ResponseBody {
+
+    private final Path path;
+    private final long length;
+
+    private FileChannel fileChannel;
+    private long position;
+    private long remaining;
+
+    /**
+     * Class constructor that receives the file and the region to send.
+     * @param path the file's path
+     * @param position the offset of the first byte to send
+     * @param length the number of bytes to send
+     */
+    public FileBody(Path path, long position, long length) {
+        this.path = path;
+        this.position = position;
+        this.length = length;
+        this.remaining = length;
+    }
+
+    /**
+     * Gets the number of bytes of the body.
+     * @return the body length
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Transfers as much of the remaining region as the channel accepts.
+     * The file is opened on the first call.
+     * @param channel the client's channel
+     * @return true once the whole region was transferred
+     * @throws IOException the file couldn't be read, e.g. it was truncated, or the channel written
+     */
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (fileChannel == null && remaining > 0) {
+            fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        while (remaining > 0) {
+            long transferred = fileChannel.transferTo(position, remaining, channel);
+            if (transferred == 0) {
+                if (position >= fileChannel.size()) {
+                    throw new EOFException("File truncated while sending: " + path);
+                }
+                return false; // the channel doesn't accept more bytes right now
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException the file couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.tzupy.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * This class formats and parses the date values of http headers.
+ */
+public abstract class HttpDate {
+
+    // the number of bytes of an IMF-fixdate
+    public final static int length = 29;
+
+    // the epoch started on a Thursday
+    private static final byte[] dayNames = "ThuFriSatSunMonTueWed".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] monthNames = "JanFebMarAprMayJunJulAugSepOctNovDec".getBytes(StandardCharsets.US_ASCII);
+
+    private static volatile EncodedDate now = new EncodedDate(System.currentTimeMillis() / 1000);
+
+    // IMF-fixdate, e.g. Sun, 06 Nov 1994 08:49:37 GMT
+    private static final DateTimeFormatter imfFixdate =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    // obsolete formats that clients may still send
+    private static final DateTimeFormatter rfc850 =
+            DateTimeFormatter.ofPattern("EEEE, dd-MMM-yy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter asctime =
+            DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+
+    /**
+     * Formats a time as IMF-fixdate.
+     * @param millis the time in milliseconds
+     * @return the formatted date
+     */
+    public static String format(long millis) {
+        ByteBuffer date = ByteBuffer.allocate(length);
+        write(millis, date);
+        return new String(date.array(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the current time as IMF-fixdate. The encoded date is shared and made again only
+     * when the second changes, so most responses just copy it.
+     * @param out the buffer to write to
+     */
+    public static void writeNow(ByteBuffer out) {
+        long second = System.currentTimeMillis() / 1000;
+        EncodedDate date = now;
+        if (date.second != second) {
+            date = new EncodedDate(second);
+            now = date;
+        }
+        out.put(date.bytes);
+    }
+
+    /**
+     * Writes a time as IMF-fixdate, e.g. Sun, 06 Nov 1994 08:49:37 GMT, without allocating.
+     * @param millis the time in milliseconds, within the years 0 to 9999
+     * @param out the buffer to write to
+     */
+    public static void write(long millis, ByteBuffer out) {
+        long seconds = Math.floorDiv(millis, 1000L);
+        long days = Math.floorDiv(seconds, 86400L);
+        int secondOfDay = (int) Math.floorMod(seconds, 86400L);
+
+        // the civil date of a day count, see Howard Hinnant's chrono-compatible date algorithms
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        out.put(dayNames, (int) Math.floorMod(days, 7L) * 3, 3).put((byte) ',').put((byte) ' ');
+        putDigits(out, day, 2).put((byte) ' ');
+        out.put(monthNames, (month - 1) * 3, 3).put((byte) ' ');
+        putDigits(out, year, 4).put((byte) ' ');
+        putDigits(out, secondOfDay / 3600, 2).put((byte) ':');
+        putDigits(out, secondOfDay / 60 % 60, 2).put((byte) ':');
+        putDigits(out, secondOfDay % 60, 2);
+        out.put((byte) ' ').put((byte) 'G').put((byte) 'M').put((byte) 'T');
+    }
+
+    /**
+     * Writes a number with a fixed count of digits, padded with zeros.
+     * @param out the buffer to write to
+     * @param value the number
+     * @param digits the count of digits
+     * @return the buffer
+     */
+    private static ByteBuffer putDigits(ByteBuffer out, int value, int digits) {
+        for (int divisor = digits == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+        return out;
+    }
+
+    /**
+     * Parses a date in any of the formats allowed by http.
+     * @param value the header value
+     * @return the time in milliseconds, or -1 if the value isn't a valid date
+     */
+    public static long parse(String value) {
+        String date = value.trim();
+        try {
+            return ZonedDateTime.parse(date, imfFixdate).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            // try the obsolete formats
+        }
+        try {
+            return ZonedDateTime.parse(date, rfc850).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            // try the next format
+        }
+        try {
+            return LocalDateTime.parse(date, asctime).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * This class holds the encoded date of one second.
+     */
+    private static final class EncodedDate {
+
+        private final long second;
+        private final byte[] bytes = new byte[length];
+
+        /**
+         * Class constructor that encodes the date of a second.
+         * @param second the seconds since the epoch
+         */
+        private EncodedDate(long second) {
+            this.second = second;
+            write(second * 1000, ByteBuffer.wrap(bytes));
+        }
+    }
+}
@@ -1,56 +1,395 @@
 package com.tzupy.http;
 
+import com.tzupy.utils.BufferPool;
 import com.tzupy.webserver.ServerTask;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.logging.Logger;
 
 /**
- * This class parses an http request from the client.
+ * This class parses an http request from the client. The request head is parsed byte by byte as
+ * it arrives, so a head split across several reads is resumed where the previous read ended, and
+ * bytes after the head, i.e. pipelined requests, are left unread. Lines and headers are kept in
+ * place as offsets into the received bytes; strings are only made for values that are asked for.
  */
 public class HttpRequest {
 
     private static final Logger logger = Logger.getLogger(ServerTask.class.getCanonicalName());
 
-    private final int bufferSize = 1024;
-    private final StringBuilder buffer = new StringBuilder(bufferSize);
+    public final static int maxLineLength = 8192;
+    public final static int maxHeadSize = 16384;
+    public final static int maxHeaders = 100;
 
-    private final Reader in;
+    private static final int initialSize = 512;
+    private static final int maxEmptyLines = 16;
+
+    private static final byte[] get = HttpRequestMethod.get.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] http11 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] http10 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] http20 = "HTTP/2.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] pri = "PRI".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] asterisk = { '*' };
+
+    // the parser's states
+    private static final int requestLine = 0;
+    private static final int headerLines = 1;
+    private static final int complete = 2;
+
+    // lends the array holding the head, or null if the array is allocated
+    private final BufferPool pool;
+    // the pooled buffer whose array holds the head, or null
+    private ByteBuffer leased;
+    private byte[] head;
+    private int length;
+    private int lineStart;
+    private int emptyLines;
+    private boolean carriageReturn;
+    private int state = requestLine;
+    private String errorStatus;
+
+    private int methodStart, methodEnd;
+    private int targetStart, targetEnd;
+    private int protocolStart, protocolEnd;
+    private int requestLineStart = -1, requestLineEnd;
+
+    // name start, name end, value start and value end of every header
+    private int[] headers = new int[4 * 16];
+    private int headerCount;
 
     private String method;
     private String filename;
+    private String query;
     private File url;
     private String protocol;
 
     private boolean methodValid;
     private boolean protocolValid;
+    // true once the request upgraded its connection to HTTP/2
+    private boolean upgraded;
 
     /**
-     * Class constructor that receives a reader from the client.
-     * @param in the client's reader
+     * Class constructor for a request whose head is held in an allocated array.
      */
-    public HttpRequest(Reader in) {
-        this.in = in;
+    public HttpRequest() {
+        this(null);
     }
 
     /**
-     * Reads the first line of the client's request in a buffer.
+     * Class constructor for a request whose head is held in an array leased from a pool. The request
+     * must be given back with {@link #release()} once it was answered.
+     * @param pool the pool of heap buffers, or null to allocate the array
      */
-    public void read() {
-        buffer.setLength(0);
-        int c;
-        try {
-            while ((c = in.read()) != -1) {
-                if (c == '\r' || c == '\n') break;
-                buffer.append((char) c);
+    public HttpRequest(BufferPool pool) {
+        this.pool = pool;
+        if (pool != null) {
+            this.leased = pool.acquire(initialSize);
+            this.head = leased.array();
+        } else {
+            this.head = new byte[initialSize];
+        }
+    }
+
+    /**
+     * Consumes request bytes until the request head is complete. Empty lines preceding the request
+     * line are skipped, lines may end with CRLF or a bare LF.
+     * @param buffer the received bytes, from its position to its limit
+     * @return true once the head is complete or found malformed, false if more bytes are needed
+     */
+    public boolean feed(ByteBuffer buffer) {
+        while (state != complete && buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                endLine();
+                continue;
+            }
+            if (carriageReturn) {
+                fail(HttpStatusCode.badRequest, "carriage return inside a line");
+                break;
+            }
+            if (b == '\r') {
+                carriageReturn = true;
+                continue;
+            }
+            if (length - lineStart >= maxLineLength || length >= maxHeadSize) {
+                fail(state == requestLine ? HttpStatusCode.uriTooLong : HttpStatusCode.headerFieldsTooLarge,
+                        "request head too large");
+                break;
+            }
+            if (length == head.length) {
+                grow(Math.min(head.length * 2, maxHeadSize));
+            }
+            head[length++] = b;
+        }
+        return state == complete;
+    }
+
+    /**
+     * Moves the head into a larger array, leased from the pool if the head's array was.
+     * @param size the size of the larger array
+     */
+    private void grow(int size) {
+        if (leased == null) {
+            head = Arrays.copyOf(head, size);
+            return;
+        }
+        ByteBuffer larger = pool.acquire(size);
+        System.arraycopy(head, 0, larger.array(), 0, length);
+        pool.release(leased);
+        leased = larger;
+        head = larger.array();
+    }
+
+    /**
+     * Gives the head's array back to the pool it was leased from. The request must not be used afterwards.
+     */
+    public void release() {
+        if (leased != null) {
+            pool.release(leased);
+            leased = null;
+            head = null;
+        }
+    }
+
+    /**
+     * Copies the head out of the array leased from the pool, which is given back, so the request may be kept
+     * by code that doesn't release it, e.g. an HTTP/2 stream answering an upgrade request.
+     */
+    public void detach() {
+        if (leased != null) {
+            byte[] copy = Arrays.copyOf(head, length);
+            release();
+            head = copy;
+        }
+    }
+
+    /**
+     * Completes a request whose client stopped sending before the empty line ending the head,
+     * e.g. after a timeout. A request line without its terminator is accepted as well.
+     * @return true if a request line was received and the request can be answered
+     */
+    public boolean endOfInput() {
+        if (state != complete && (length > lineStart || carriageReturn)) {
+            endLine();
+        }
+        if (state == headerLines) {
+            state = complete;
+        }
+        return state == complete;
+    }
+
+    /**
+     * Returns true if any byte of the request was received, empty lines before the request line included.
+     * @return true once the client started sending the request
+     */
+    public boolean isStarted() {
+        return length > 0 || emptyLines > 0 || carriageReturn || state != requestLine;
+    }
+
+    /**
+     * Processes the line that was just received, which is kept without its terminator.
+     */
+    private void endLine() {
+        carriageReturn = false;
+        int end = length;
+        if (state == requestLine) {
+            if (end == lineStart) {
+                if (++emptyLines > maxEmptyLines) {
+                    fail(HttpStatusCode.badRequest, "too many empty lines");
+                }
+                return;
+            }
+            requestLineStart = lineStart;
+            requestLineEnd = end;
+            parseRequestLine(lineStart, end);
+            if (state != complete) {
+                state = headerLines;
+            }
+        } else if (end == lineStart) {
+            state = complete;
+        } else if (head[lineStart] == ' ' || head[lineStart] == '\t') {
+            // obsolete line folding continues the previous header's value
+            if (headerCount == 0) {
+                fail(HttpStatusCode.badRequest, "folded line without a header");
+                return;
+            }
+            headers[4 * headerCount - 1] = trimEnd(lineStart, end);
+        } else {
+            parseHeader(lineStart, end);
+        }
+        lineStart = length;
+    }
+
+    /**
+     * Finds the method, the target and the protocol of the request line.
+     * @param start the index of the line's first byte
+     * @param end the index after the line's last byte
+     */
+    private void parseRequestLine(int start, int end) {
+        int firstSpace = indexOf(' ', start, end);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(' ', firstSpace + 1, end);
+        if (firstSpace <= start || secondSpace <= firstSpace + 1 || secondSpace == end - 1
+                || indexOf(' ', secondSpace + 1, end) >= 0) {
+            fail(HttpStatusCode.badRequest, "malformed request line");
+            return;
+        }
+        methodStart = start;
+        methodEnd = firstSpace;
+        targetStart = firstSpace + 1;
+        targetEnd = secondSpace;
+        protocolStart = secondSpace + 1;
+        protocolEnd = end;
+    }
+
+    /**
+     * Records the name and the value of a header line.
+     * @param start the index of the line's first byte
+     * @param end the index after the line's last byte
+     */
+    private void parseHeader(int start, int end) {
+        int colon = indexOf(':', start, end);
+        if (colon <= start || head[colon - 1] == ' ' || head[colon - 1] == '\t') {
+            fail(HttpStatusCode.badRequest, "malformed header");
+            return;
+        }
+        if (headerCount == maxHeaders) {
+            fail(HttpStatusCode.headerFieldsTooLarge, "too many headers");
+            return;
+        }
+
+        int valueStart = colon + 1;
+        while (valueStart < end && (head[valueStart] == ' ' || head[valueStart] == '\t')) {
+            valueStart++;
+        }
+        if (4 * headerCount == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        int i = 4 * headerCount++;
+        headers[i] = start;
+        headers[i + 1] = colon;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = trimEnd(valueStart, end);
+    }
+
+    /**
+     * Rejects a request whose head was received in another form, e.g. an HTTP/2 header block that
+     * exceeded the header list size.
+     * @param statusCode the status of the error response
+     * @param reason the logged reason
+     */
+    public void reject(String statusCode, String reason) {
+        fail(statusCode, reason);
+    }
+
+    /**
+     * Marks the request as malformed, which ends parsing.
+     * @param statusCode the status of the error response
+     * @param reason the logged reason
+     */
+    private void fail(String statusCode, String reason) {
+        errorStatus = statusCode;
+        state = complete;
+        logger.warning("Client's request is rejected: " + reason);
+    }
+
+    /**
+     * Finds a byte within a part of the head.
+     * @param b the byte to find
+     * @param start the first index to search
+     * @param end the index after the last one to search
+     * @return the byte's index, or -1 if it isn't found
+     */
+    private int indexOf(char b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (head[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skips trailing white space.
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     * @return the index after the last byte that isn't white space
+     */
+    private int trimEnd(int start, int end) {
+        while (end > start && (head[end - 1] == ' ' || head[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns true if a part of the head equals the given bytes.
+     * @param start the index of the part's first byte
+     * @param end the index after the part's last byte
+     * @param expected the expected bytes
+     * @return the comparison's result
+     */
+    private boolean equals(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (head[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a part of the head equals the given bytes, ignoring the case of letters.
+     * @param start the index of the part's first byte
+     * @param end the index after the part's last byte
+     * @param expected the expected bytes
+     * @return the comparison's result
+     */
+    private boolean equalsIgnoreCase(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (toLowerCase(head[start + i]) != toLowerCase(expected[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a part of the head equals a header name, ignoring the case of letters.
+     * @param start the index of the part's first byte
+     * @param end the index after the part's last byte
+     * @param name the header name
+     * @return the comparison's result
+     */
+    private boolean equalsIgnoreCase(int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (toLowerCase(head[start + i]) != toLowerCase((byte) name.charAt(i))) {
+                return false;
             }
-        } catch (IOException ex) {
-            logger.severe("IO Exception: " + ex.getMessage());
         }
+        return true;
+    }
+
+    /**
+     * Converts an ascii letter to lower case.
+     * @param b the byte
+     * @return the lower case letter, or the byte itself
+     */
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
     }
 
     /**
@@ -58,18 +397,16 @@ public class HttpRequest {
      * @throws IllegalArgumentException the request was malformed
      */
     public void parse(File root) throws IllegalArgumentException {
-        String[] tokens = buffer.toString().split(" ");
-        if (tokens.length < 3) {
+        if (errorStatus != null || state != complete) {
             throw new IllegalArgumentException("Malformed request.");
         }
-        method = tokens[0];
-        try {
-            filename = URLDecoder.decode(tokens[1], "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            logger.warning("Decoding Exception: " + ex.getMessage());
-        }
+        // the method is case-sensitive, the protocol name isn't
+        method = equals(methodStart, methodEnd, get) ? HttpRequestMethod.get : ascii(methodStart, methodEnd);
+        filename = decodeTarget();
         url = new File(root, filename);
-        protocol = tokens[2];
+        protocol = equalsIgnoreCase(protocolStart, protocolEnd, http11) ? "HTTP/1.1"
+                : equalsIgnoreCase(protocolStart, protocolEnd, http10) ? "HTTP/1.0"
+                : equalsIgnoreCase(protocolStart, protocolEnd, http20) ? "HTTP/2.0" : ascii(protocolStart, protocolEnd);
 
         // check method validity
         if (!method.equals(HttpRequestMethod.get)) {
@@ -88,6 +425,98 @@ public class HttpRequest {
         }
     }
 
+    /**
+     * Decodes the path of the request target in place. The query is kept as is, percent escapes are
+     * replaced by their bytes and the result is read as utf-8. A plus sign is a plain character in paths.
+     * Dot segments are removed from the decoded path, so escaped ones are too.
+     * @return the requested filename
+     * @throws IllegalArgumentException the target has a malformed escape, or leaves the root
+     */
+    private String decodeTarget() throws IllegalArgumentException {
+        int end = indexOf('?', targetStart, targetEnd);
+        if (end < 0) {
+            end = targetEnd;
+        } else {
+            query = ascii(end + 1, targetEnd);
+        }
+
+        int out = targetStart;
+        for (int i = targetStart; i < end; i++) {
+            byte b = head[i];
+            if (b == '%') {
+                int high = i + 2 < end ? Character.digit(head[i + 1], 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(head[i + 2], 16);
+                if (low < 0) {
+                    throw new IllegalArgumentException("Malformed escape in request target.");
+                }
+                b = (byte) (high << 4 | low);
+                i += 2;
+            }
+            head[out++] = b;
+        }
+        out = removeDotSegments(targetStart, out);
+        // the raw target is gone now, so it can't be decoded twice
+        targetEnd = out;
+        return new String(head, targetStart, out - targetStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the . and .. segments of a decoded path in place (RFC 3986, 5.2.4). A path ending in one
+     * of them names a directory and keeps its trailing slash.
+     * @param start the index of the path's first byte
+     * @param end the index after the path's last byte
+     * @return the index after the last byte of the resulting path
+     * @throws IllegalArgumentException a .. segment climbs above the root
+     */
+    private int removeDotSegments(int start, int end) throws IllegalArgumentException {
+        int out = start;
+        for (int i = start; i < end; ) {
+            int segmentStart = head[i] == '/' ? i + 1 : i;
+            int segmentEnd = indexOf('/', segmentStart, end);
+            if (segmentEnd < 0) {
+                segmentEnd = end;
+            }
+            int length = segmentEnd - segmentStart;
+            boolean dot = length == 1 && head[segmentStart] == '.';
+            boolean dotDot = length == 2 && head[segmentStart] == '.' && head[segmentStart + 1] == '.';
+            if (dotDot) {
+                if (out == start) {
+                    throw new IllegalArgumentException("Request target leaves the root.");
+                }
+                // drops the last segment written, with its slash
+                do {
+                    out--;
+                } while (out > start && head[out] != '/');
+            } else if (!dot) {
+                System.arraycopy(head, i, head, out, segmentEnd - i);
+                out += segmentEnd - i;
+            }
+            if ((dot || dotDot) && segmentEnd == end) {
+                head[out++] = '/';
+            }
+            i = segmentEnd;
+        }
+        return out;
+    }
+
+    /**
+     * Makes a string of a part of the head.
+     * @param start the index of the part's first byte
+     * @param end the index after the part's last byte
+     * @return the string
+     */
+    private String ascii(int start, int end) {
+        return new String(head, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the status of the error response if the request head was malformed or too large.
+     * @return the status code, or null if the head is valid
+     */
+    public String getErrorStatus() {
+        return errorStatus;
+    }
+
     /**
      * Gets the requested filename from the client.
      * @return the requested filename
@@ -112,6 +541,200 @@ public class HttpRequest {
         return protocolValid;
     }
 
+    /**
+     * Gets the request's protocol version, e.g. HTTP/1.1.
+     * @return the protocol, or null if the request line was malformed
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Gets the value of a request header. Repeated headers are joined by commas.
+     * @param name the header name, case-insensitive
+     * @return the header value, or null if the header wasn't sent
+     */
+    public String getHeader(String name) {
+        String value = null;
+        for (int i = 0; i < 4 * headerCount; i += 4) {
+            if (equalsIgnoreCase(headers[i], headers[i + 1], name)) {
+                String next = ascii(headers[i + 2], headers[i + 3]);
+                value = value == null ? next : value + ", " + next;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Copies the request line as it was received into an access log record, or the part that was
+     * received if the line is incomplete.
+     * @param out the record
+     * @param offset the index to copy to
+     * @param limit the index the copy must end before
+     * @return the index after the copied bytes
+     */
+    public int copyRequestLine(byte[] out, int offset, int limit) {
+        if (requestLineStart >= 0) {
+            return copyEscaped(requestLineStart, requestLineEnd, out, offset, limit);
+        }
+        return copyEscaped(lineStart, length, out, offset, limit);
+    }
+
+    /**
+     * Copies the value of a request header as it was received into an access log record.
+     * Only the first occurrence of a repeated header is copied.
+     * @param name the header name, case-insensitive
+     * @param out the record
+     * @param offset the index to copy to
+     * @param limit the index the copy must end before
+     * @return the index after the copied bytes, offset if the header wasn't sent
+     */
+    public int copyHeader(String name, byte[] out, int offset, int limit) {
+        for (int i = 0; i < 4 * headerCount; i += 4) {
+            if (equalsIgnoreCase(headers[i], headers[i + 1], name)) {
+                return copyEscaped(headers[i + 2], headers[i + 3], out, offset, limit);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Copies bytes of the head, escaping quotes and backslashes with a backslash and other bytes
+     * that aren't printable ascii as \xhh, so a log line can't be forged. The copy is cut at the limit.
+     * @param start the index of the first byte to copy
+     * @param end the index after the last byte to copy
+     * @param out the destination
+     * @param offset the index to copy to
+     * @param limit the index the copy must end before
+     * @return the index after the copied bytes
+     */
+    private int copyEscaped(int start, int end, byte[] out, int offset, int limit) {
+        for (int i = start; i < end; i++) {
+            int b = head[i] & 0xff;
+            if (b == '"' || b == '\\') {
+                if (offset + 2 > limit) {
+                    break;
+                }
+                out[offset++] = '\\';
+                out[offset++] = (byte) b;
+            } else if (b < 0x20 || b >= 0x7f) {
+                if (offset + 4 > limit) {
+                    break;
+                }
+                out[offset++] = '\\';
+                out[offset++] = 'x';
+                out[offset++] = (byte) Character.forDigit(b >> 4, 16);
+                out[offset++] = (byte) Character.forDigit(b & 0xf, 16);
+            } else {
+                if (offset == limit) {
+                    break;
+                }
+                out[offset++] = (byte) b;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the value of a query parameter, decoded as a form field, so a plus sign is a space.
+     * @param name the parameter name
+     * @return the value of its first occurrence, an empty string if it has none, or null if it is missing
+     * @throws IllegalArgumentException the parameter has a malformed escape
+     */
+    public String getParameter(String name) throws IllegalArgumentException {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = equals < 0 ? parameter : parameter.substring(0, equals);
+            if (decodeParameter(key).equals(name)) {
+                return equals < 0 ? "" : decodeParameter(parameter.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a part of the query.
+     * @param text the encoded part
+     * @return the decoded part
+     * @throws IllegalArgumentException the part has a malformed escape
+     */
+    private static String decodeParameter(String text) throws IllegalArgumentException {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex); // utf-8 is always supported
+        }
+    }
+
+    /**
+     * Returns true if the client asks to keep the connection open after the response.
+     * HTTP/1.1 connections are persistent unless closed, HTTP/1.0 ones only when asked for.
+     * @return the connection's persistence
+     */
+    public boolean isKeepAlive() {
+        if (protocol == null || !protocolValid) {
+            return false;
+        }
+        String connection = getHeader("Connection");
+        if (connection != null) {
+            String value = connection.toLowerCase(Locale.ROOT);
+            if (value.contains("close")) {
+                return false;
+            }
+            if (value.contains("keep-alive")) {
+                return true;
+            }
+        }
+        return isHttp11();
+    }
+
+    /**
+     * Returns true if the client speaks HTTP/1.1 and so understands chunked bodies.
+     * @return true for HTTP/1.1 requests
+     */
+    public boolean isHttp11() {
+        return protocol != null && protocol.toUpperCase(Locale.ROOT).equals("HTTP/1.1");
+    }
+
+    /**
+     * Returns true if the request is answered on an HTTP/2 stream, whose end delimits the body, so
+     * bodies of unknown length are neither chunked nor ended by closing the connection.
+     * @return true for HTTP/2 requests, and for an HTTP/1.1 request that upgraded its connection
+     */
+    public boolean isHttp2() {
+        return upgraded || (protocol != null && protocol.equals("HTTP/2.0"));
+    }
+
+    /**
+     * Returns true if the head is the start of the HTTP/2 connection preface, PRI * HTTP/2.0 and an
+     * empty line, sent by clients that know the server speaks HTTP/2 without asking (h2c with prior knowledge).
+     * @return true if the rest of the preface and HTTP/2 frames follow
+     */
+    public boolean isHttp2Preface() {
+        return state == complete && errorStatus == null && headerCount == 0 && equals(methodStart, methodEnd, pri)
+                && equals(targetStart, targetEnd, asterisk) && equals(protocolStart, protocolEnd, http20);
+    }
+
+    /**
+     * Marks a request that upgraded its connection to HTTP/2 (h2c), which is answered on the first stream.
+     */
+    public void upgradeToHttp2() {
+        upgraded = true;
+    }
+
+    /**
+     * Returns true if the request announces a body.
+     * @return the body's presence
+     */
+    public boolean hasBody() {
+        String contentLength = getHeader("Content-Length");
+        return getHeader("Transfer-Encoding") != null
+                || (contentLength != null && !contentLength.equals("0"));
+    }
+
     /**
      * Gets the requested url.
      * @return the url
@@ -120,4 +743,3 @@ public class HttpRequest {
         return url;
     }
 }
-
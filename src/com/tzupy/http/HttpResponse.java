@@ -3,9 +3,12 @@ package com.tzupy.http;
 import com.tzupy.webserver.ServerTask;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -17,6 +20,37 @@ public class HttpResponse {
 
     private final File root;
 
+    // the largest header a response may have, including the headers added to it
+    public final static int maxHeaderSize = 8192;
+
+    private static final Map<String, byte[]> statusLines = new HashMap<>();
+    private static final byte[] protocol = ascii("HTTP/1.1 ");
+    private static final byte[] dateName = ascii("Date: ");
+    private static final byte[] serverLine = ascii("Server: Web server\r\n");
+    private static final byte[] lastModifiedName = ascii("Last-Modified: ");
+    private static final byte[] contentLengthName = ascii("Content-Length: ");
+    private static final byte[] contentTypeName = ascii("Content-Type: ");
+    private static final byte[] keepAliveLine = ascii("Connection: keep-alive\r\n\r\n");
+    private static final byte[] closeLine = ascii("Connection: close\r\n\r\n");
+
+    static {
+        String[] statusCodes = { HttpStatusCode.ok, HttpStatusCode.partialContent, HttpStatusCode.notModified,
+                HttpStatusCode.badRequest, HttpStatusCode.forbidden, HttpStatusCode.notFound,
+                HttpStatusCode.uriTooLong, HttpStatusCode.rangeNotSatisfiable, HttpStatusCode.headerFieldsTooLarge,
+                HttpStatusCode.internalError, HttpStatusCode.notImplemented };
+        for (String statusCode : statusCodes) {
+            statusLines.put(statusCode, ascii("HTTP/1.1 " + statusCode + "\r\n"));
+        }
+    }
+
+    private boolean keepAlive;
+    private long lastModified = -1;
+    private int status;
+
+    // name and value of every added header
+    private String[] headers = new String[16];
+    private int headerCount;
+
     /**
      * Class constructor that receives the server root.
      * @param root the root of the server
@@ -26,36 +60,160 @@ public class HttpResponse {
     }
 
     /**
-     * Creates the MIME header.
+     * Writes the MIME header into the connection's header buffer. Status lines and constant headers
+     * are encoded once, the date is shared by all responses of the same second.
+     * @param out the header buffer, with room for {@link #maxHeaderSize} bytes
      * @param statusCode http status code
-     * @param contentLength the file length
-     * @param contentType the file type
-     * @return the MIME header
-     */
-    public String getMimeHeader(String statusCode, long contentLength, String contentType) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("HTTP/1.0 " + statusCode + "\r\n");
-        sb.append("Date: " + new Date() + "\r\n");
-        sb.append("Server: Web server\r\n");
-        sb.append("Last-Modified: " + new Date(root.lastModified()) + "\r\n");
-        sb.append("Content-Length: " + contentLength + "\r\n");
+     * @param contentLength the file length, or -1 for responses without a body or of unknown length
+     * @param contentType the file type, including a charset parameter for text
+     */
+    public void writeHeader(ByteBuffer out, String statusCode, long contentLength, String contentType) {
+        // the code is the status line's first three digits
+        status = (statusCode.charAt(0) - '0') * 100 + (statusCode.charAt(1) - '0') * 10 + statusCode.charAt(2) - '0';
+        byte[] statusLine = statusLines.get(statusCode);
+        if (statusLine != null) {
+            out.put(statusLine);
+        } else {
+            putLine(out.put(protocol), statusCode);
+        }
+
+        HttpDate.writeNow(out.put(dateName));
+        putLineEnd(out);
+        out.put(serverLine);
+        long modified = lastModified >= 0 ? lastModified : root != null ? root.lastModified() : -1;
+        if (modified >= 0) {
+            HttpDate.write(modified, out.put(lastModifiedName));
+            putLineEnd(out);
+        }
+        if (contentLength >= 0) {
+            putDecimal(out.put(contentLengthName), contentLength);
+            putLineEnd(out);
+        }
         if (contentType != null) {
-            sb.append("Content-Type: " + contentType + "; charset=utf-8\r\n\r\n");
+            putLine(out.put(contentTypeName), contentType);
         }
-        return sb.toString();
+        for (int i = 0; i < 2 * headerCount; i += 2) {
+            putAscii(out, headers[i]);
+            out.put((byte) ':').put((byte) ' ');
+            putLine(out, headers[i + 1]);
+        }
+        out.put(keepAlive ? keepAliveLine : closeLine);
     }
 
     /**
-     * Reads the file's content.
-     * @return the file's content
+     * Adds a header to the response.
+     * @param name the header name
+     * @param value the header value
+     */
+    public void addHeader(String name, String value) {
+        if (2 * headerCount == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        headers[2 * headerCount] = name;
+        headers[2 * headerCount + 1] = value;
+        headerCount++;
+    }
+
+    /**
+     * Encodes a constant as ascii.
+     * @param text the constant
+     * @return the encoded bytes
+     */
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes a header value followed by the line end. Header values are ascii.
+     * @param out the buffer to write to
+     * @param text the value
+     */
+    private static void putLine(ByteBuffer out, String text) {
+        putAscii(out, text);
+        putLineEnd(out);
+    }
+
+    /**
+     * Writes the characters of an ascii string.
+     * @param out the buffer to write to
+     * @param text the string
+     */
+    private static void putAscii(ByteBuffer out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a line end.
+     * @param out the buffer to write to
+     */
+    private static void putLineEnd(ByteBuffer out) {
+        out.put((byte) '\r').put((byte) '\n');
+    }
+
+    /**
+     * Writes a non-negative number in decimal digits.
+     * @param out the buffer to write to
+     * @param value the number
      */
-    public byte[] getBody() {
-        try {
-            byte[] data = Files.readAllBytes(root.toPath());
-            return data;
-        } catch (IOException ex) {
-            logger.severe("IO exception: " + ex.getMessage());
+    private static void putDecimal(ByteBuffer out, long value) {
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
         }
-        return null;
+    }
+
+    /**
+     * Sets the modification time of the response's file, so it isn't read from the file again.
+     * @param lastModified the modification time in milliseconds
+     */
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Sets whether the connection stays open after this response.
+     * @param keepAlive true to keep the connection open
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Returns true if the connection stays open after this response.
+     * @return the response's persistence
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Gets the status code of the written header.
+     * @return the status code, e.g. 200, or 0 if no header was written
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the file's content as a body streamed from disk, with the length taken from the file's attributes.
+     * @param attributes the file's attributes
+     * @return the file's content
+     */
+    public FileBody getBody(BasicFileAttributes attributes) {
+        return new FileBody(root.toPath(), 0, attributes.size());
+    }
+
+    /**
+     * Gets a range of the file, streamed from its position in the file.
+     * @param range the range to send
+     * @return the body
+     */
+    public FileBody getBody(ByteRange range) {
+        return new FileBody(root.toPath(), range.getFirst(), range.length());
     }
 }
@@ -5,8 +5,15 @@ package com.tzupy.http;
  */
 public abstract class HttpStatusCode {
     public final static String ok = "200 OK";
+    public final static String partialContent = "206 Partial Content";
+    public final static String notModified = "304 Not Modified";
     public final static String badRequest = "400 Bad Request";
+    public final static String forbidden = "403 Forbidden";
     public final static String notFound = "404 Not Found";
+    public final static String uriTooLong = "414 URI Too Long";
+    public final static String rangeNotSatisfiable = "416 Range Not Satisfiable";
+    public final static String headerFieldsTooLarge = "431 Request Header Fields Too Large";
     public final static String internalError = "500 Internal Server Error";
     public final static String notImplemented = "501 Not Implemented";
+    public final static String serviceUnavailable = "503 Service Unavailable";
 }
@@ -0,0 +1,198 @@
+package com.tzupy.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class resolves content types from file extensions, using the bundled META-INF/mime.types
+ * table and an optional override file in the same format ("type ext1 ext2 ...", # comments).
+ * The table is parsed once into an immutable open-addressing hash table, so lookups are
+ * case-insensitive, lock-free and don't allocate.
+ */
+public final class MimeTypes {
+
+    private static final Logger logger = Logger.getLogger(MimeTypes.class.getCanonicalName());
+
+    private static final String bundledTable = "/META-INF/mime.types";
+
+    public final static String defaultType = "application/octet-stream";
+    public final static String html = "text/html; charset=utf-8";
+    public final static String json = "application/json";
+    public final static String ndjson = "application/x-ndjson";
+
+    private final String[] extensions;
+    private final String[] mimeTypes;
+    private final String[] contentTypes;
+    private final int mask;
+
+    /**
+     * Class constructor that builds the hash table from an extension to type map.
+     * @param table the types by lower-case extension
+     */
+    private MimeTypes(Map<String, String> table) {
+        int capacity = Integer.highestOneBit(Math.max(table.size(), 1) * 4 - 1) << 1;
+        extensions = new String[capacity];
+        mimeTypes = new String[capacity];
+        contentTypes = new String[capacity];
+        mask = capacity - 1;
+
+        for (Map.Entry<String, String> entry : table.entrySet()) {
+            String extension = entry.getKey();
+            int slot = hash(extension, 0, extension.length()) & mask;
+            while (extensions[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            extensions[slot] = extension;
+            mimeTypes[slot] = entry.getValue();
+            String charset = getCharsetHint(entry.getValue());
+            contentTypes[slot] = charset == null ? entry.getValue() : entry.getValue() + "; charset=" + charset;
+        }
+    }
+
+    /**
+     * Loads the bundled table, then the entries of the override file, which replace bundled ones.
+     * @param overrideFile the path of the override file, or null
+     * @return the resolver
+     */
+    public static MimeTypes load(String overrideFile) {
+        Map<String, String> table = new LinkedHashMap<>();
+
+        InputStream bundled = MimeTypes.class.getResourceAsStream(bundledTable);
+        if (bundled == null) {
+            logger.warning("Bundled mime types not found: " + bundledTable);
+        } else {
+            parse(bundled, table);
+        }
+
+        if (overrideFile != null) {
+            try {
+                parse(Files.newInputStream(Paths.get(overrideFile)), table);
+            } catch (IOException ex) {
+                logger.warning("Couldn't read mime types from " + overrideFile + ": " + ex.getMessage());
+            }
+        }
+
+        return new MimeTypes(table);
+    }
+
+    /**
+     * Gets the content type of a file, with a charset parameter for text types.
+     * @param filename the file's name or path
+     * @return the content type, application/octet-stream if the extension is unknown
+     */
+    public String getContentType(String filename) {
+        int slot = find(filename);
+        return slot < 0 ? defaultType : contentTypes[slot];
+    }
+
+    /**
+     * Gets the media type of a file, without parameters.
+     * @param filename the file's name or path
+     * @return the media type, application/octet-stream if the extension is unknown
+     */
+    public String getMimeType(String filename) {
+        int slot = find(filename);
+        return slot < 0 ? defaultType : mimeTypes[slot];
+    }
+
+    /**
+     * Gets the charset to announce for a media type. Binary types get none.
+     * @param mimeType the media type
+     * @return the charset, or null if the type isn't textual
+     */
+    public static String getCharsetHint(String mimeType) {
+        if (mimeType.startsWith("text/") || mimeType.endsWith("+xml") || mimeType.endsWith("+json")
+                || mimeType.equals("application/javascript") || mimeType.equals("application/json")
+                || mimeType.equals("application/xml")) {
+            return "utf-8";
+        }
+        return null;
+    }
+
+    /**
+     * Finds the slot of a file's extension, comparing characters in place.
+     * @param filename the file's name or path
+     * @return the slot, or -1 if the file has no known extension
+     */
+    private int find(String filename) {
+        int end = filename.length();
+        int dot = -1;
+        for (int i = end - 1; i >= 0; i--) {
+            char c = filename.charAt(i);
+            if (c == '.') {
+                dot = i;
+                break;
+            }
+            if (c == '/' || c == '\\') {
+                return -1;
+            }
+        }
+        if (dot < 0 || dot == end - 1) {
+            return -1;
+        }
+
+        int start = dot + 1;
+        int length = end - start;
+        for (int slot = hash(filename, start, end) & mask; extensions[slot] != null; slot = (slot + 1) & mask) {
+            String extension = extensions[slot];
+            if (extension.length() == length && extension.regionMatches(true, 0, filename, start, length)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes a region of a string as if it was lower case.
+     * @param text the string
+     * @param start the region's first index
+     * @param end the index after the region
+     * @return the hash
+     */
+    private static int hash(String text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c > 127) {
+                c = Character.toLowerCase(c);
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parses a table in mime.types format into the map.
+     * @param in the table's stream, closed when done
+     * @param table the types by lower-case extension
+     */
+    private static void parse(InputStream in, Map<String, String> table) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                String mimeType = tokens[0].toLowerCase(Locale.ROOT);
+                for (int i = 1; i < tokens.length; i++) {
+                    table.put(tokens[i].toLowerCase(Locale.ROOT), mimeType);
+                }
+            }
+        } catch (IOException ex) {
+            logger.warning("Couldn't read mime types: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.tzupy.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class sends several ranges of a file as a multipart/byteranges body. The part headers
+ * are encoded up front, the ranges themselves are streamed from the file one after the other.
+ */
+public class MultipartBody implements ResponseBody {
+
+    private final String boundary;
+    private final List<ResponseBody> parts = new ArrayList<>();
+    private final long length;
+
+    private int current;
+
+    /**
+     * Class constructor that receives the file and the ranges to send.
+     * @param path the file's path
+     * @param ranges the sorted, non-overlapping ranges
+     * @param size the file size
+     * @param contentType the file type, repeated in every part
+     */
+    public MultipartBody(Path path, List<ByteRange> ranges, long size, String contentType) {
+        boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+
+        long total = 0;
+        for (ByteRange range : ranges) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(total == 0 ? "--" : "\r\n--").append(boundary).append("\r\n");
+            if (contentType != null) {
+                sb.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            sb.append("Content-Range: ").append(range.toContentRange(size)).append("\r\n\r\n");
+
+            total += addPart(new BufferBody(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII))));
+            total += addPart(new FileBody(path, range.getFirst(), range.length()));
+        }
+        String end = "\r\n--" + boundary + "--\r\n";
+        total += addPart(new BufferBody(ByteBuffer.wrap(end.getBytes(StandardCharsets.US_ASCII))));
+        length = total;
+    }
+
+    /**
+     * Appends a part to the body.
+     * @param part the part
+     * @return the part's length
+     */
+    private long addPart(ResponseBody part) {
+        parts.add(part);
+        return part.length();
+    }
+
+    /**
+     * Gets the content type of the body, which names the boundary between the parts.
+     * @return the multipart type
+     */
+    public String getContentType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    /**
+     * Gets the number of bytes of the body.
+     * @return the body length
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Writes as much of the remaining parts as the channel accepts.
+     * Every range's file region is closed as soon as it was sent.
+     * @param channel the client's channel
+     * @return true once all parts were written
+     * @throws IOException the file couldn't be read or the channel written
+     */
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (current < parts.size()) {
+            ResponseBody part = parts.get(current);
+            if (!part.writeTo(channel)) {
+                return false;
+            }
+            part.close();
+            current++;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the parts that weren't sent completely.
+     * @throws IOException a file couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        for (int i = current; i < parts.size(); i++) {
+            parts.get(i).close();
+        }
+    }
+}
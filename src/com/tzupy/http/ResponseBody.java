@@ -0,0 +1,53 @@
+package com.tzupy.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This interface defines a response body that is written to the client's channel in steps,
+ * so it can be sent by blocking and non-blocking connections alike.
+ */
+public interface ResponseBody extends Closeable {
+
+    /**
+     * Gets the number of bytes of the body.
+     * @return the body length
+     */
+    long length();
+
+    /**
+     * Gets the number of bytes written so far, which is the body length once the whole body was written.
+     * Bodies of unknown length override this to count their bytes.
+     * @return the number of bytes written
+     */
+    default long written() {
+        return Math.max(0, length());
+    }
+
+    /**
+     * Writes as much of the remaining body as the channel accepts.
+     * @param channel the client's channel
+     * @return true once the whole body was written
+     * @throws IOException the body couldn't be read or written
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Writes the response header, then as much of the body as the channel accepts.
+     * Bodies held in memory override this to send both in a single gathering write.
+     * @param channel the client's channel
+     * @param header the encoded response header, from its position to its limit
+     * @return true once the header and the whole body were written
+     * @throws IOException the body couldn't be read or written
+     */
+    default boolean writeTo(WritableByteChannel channel, ByteBuffer header) throws IOException {
+        while (header.hasRemaining()) {
+            if (channel.write(header) == 0) {
+                return false;
+            }
+        }
+        return writeTo(channel);
+    }
+}
@@ -0,0 +1,65 @@
+package com.tzupy.http2;
+
+/**
+ * This class holds a header field of an HTTP/2 header block, e.g. a pseudo-header like :path or a
+ * regular header with a lower case name. Names and values are ISO-8859-1, one char per byte.
+ */
+public final class HeaderField {
+
+    // the overhead of an entry in the dynamic table
+    private static final int entryOverhead = 32;
+
+    private final String name;
+    private final String value;
+
+    /**
+     * Class constructor that receives the name and the value.
+     * @param name the field's name
+     * @param value the field's value
+     */
+    public HeaderField(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Gets the field's name.
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the field's value.
+     * @return the value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns true if the field is a pseudo-header, whose name starts with a colon.
+     * @return true for pseudo-headers
+     */
+    public boolean isPseudoHeader() {
+        return name.startsWith(":");
+    }
+
+    /**
+     * Gets the size the field takes in a dynamic table, which also counts against the header list size.
+     * @return the size in bytes
+     */
+    public int size() {
+        return name.length() + value.length() + entryOverhead;
+    }
+
+    /**
+     * Formats the field for logging.
+     * @return the name and the value
+     */
+    @Override
+    public String toString() {
+        return name + ": " + value;
+    }
+}
@@ -0,0 +1,141 @@
+package com.tzupy.http2;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class decodes the header blocks a peer sent (RFC 7541). Blocks must be decoded in the order
+ * they were received, as each one may change the dynamic table the next ones refer to; a block is
+ * always decoded completely, even when its fields are dropped, so the table stays in step with the peer's.
+ */
+public class HpackDecoder {
+
+    private final HpackTable table;
+    // the dynamic table size announced to the peer, which its size updates must not exceed
+    private final int maxTableSize;
+    private final int maxHeaderListSize;
+
+    /**
+     * Class constructor that receives the limits announced to the peer.
+     * @param maxTableSize the maximum size of the dynamic table
+     * @param maxHeaderListSize the maximum size of a block's fields, counted as in the dynamic table
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Decodes a complete header block. Fields past the maximum header list size are decoded but dropped.
+     * @param block the block in a heap buffer, from its position to its limit
+     * @param fields the list the fields are added to
+     * @return true if all fields were added, false if the block exceeded the maximum header list size
+     * @throws Http2Exception the block isn't encoded correctly, a connection error
+     */
+    public boolean decode(ByteBuffer block, List<HeaderField> fields) throws Http2Exception {
+        int listSize = 0;
+        boolean first = true;
+        try {
+            while (block.hasRemaining()) {
+                int b = block.get(block.position()) & 0xff;
+                HeaderField field;
+                if ((b & 0x80) != 0) {
+                    // indexed field
+                    int index = readInteger(block, 7);
+                    if (index == 0) {
+                        throw new Http2Exception(Http2Error.compressionError, "header index 0");
+                    }
+                    field = table.get(index);
+                } else if ((b & 0x40) != 0) {
+                    // literal field with incremental indexing
+                    field = readLiteral(block, 6);
+                    table.add(field);
+                } else if ((b & 0x20) != 0) {
+                    // dynamic table size update, only allowed before the block's first field
+                    int size = readInteger(block, 5);
+                    if (!first || size > maxTableSize) {
+                        throw new Http2Exception(Http2Error.compressionError, "invalid table size update " + size);
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // literal field without indexing, or never indexed
+                    field = readLiteral(block, 4);
+                }
+                first = false;
+                listSize += field.size();
+                if (listSize <= maxHeaderListSize) {
+                    fields.add(field);
+                }
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+            throw new Http2Exception(Http2Error.compressionError, "truncated header block");
+        }
+        return listSize <= maxHeaderListSize;
+    }
+
+    /**
+     * Reads a literal field, whose name is either indexed or a literal as well.
+     * @param block the block
+     * @param prefix the number of bits of the name's index in the first byte
+     * @return the field
+     * @throws Http2Exception the field isn't encoded correctly
+     */
+    private HeaderField readLiteral(ByteBuffer block, int prefix) throws Http2Exception {
+        int index = readInteger(block, prefix);
+        String name = index == 0 ? readString(block) : table.get(index).getName();
+        return new HeaderField(name, readString(block));
+    }
+
+    /**
+     * Reads an integer with an n bit prefix: values that don't fit the prefix continue in groups of
+     * seven bits, the least significant group first.
+     * @param block the block
+     * @param prefix the number of bits in the first byte
+     * @return the integer
+     * @throws Http2Exception the integer exceeds 2^31 - 1
+     */
+    private static int readInteger(ByteBuffer block, int prefix) throws Http2Exception {
+        int mask = (1 << prefix) - 1;
+        int value = block.get() & mask;
+        if (value < mask) {
+            return value;
+        }
+        for (int shift = 0; shift <= 28; shift += 7) {
+            int b = block.get() & 0xff;
+            long next = value + ((long) (b & 0x7f) << shift);
+            if (next > Integer.MAX_VALUE) {
+                break;
+            }
+            value = (int) next;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new Http2Exception(Http2Error.compressionError, "integer overflow in header block");
+    }
+
+    /**
+     * Reads a string literal, Huffman encoded or not.
+     * @param block the block
+     * @return the string
+     * @throws Http2Exception the string isn't encoded correctly or exceeds the block
+     */
+    private static String readString(ByteBuffer block) throws Http2Exception {
+        boolean huffman = (block.get(block.position()) & 0x80) != 0;
+        int length = readInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new Http2Exception(Http2Error.compressionError, "string exceeds header block");
+        }
+        if (huffman) {
+            return Huffman.decode(block, length);
+        }
+        String value = new String(block.array(), block.arrayOffset() + block.position(), length,
+                StandardCharsets.ISO_8859_1);
+        block.position(block.position() + length);
+        return value;
+    }
+}
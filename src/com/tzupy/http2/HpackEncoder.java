@@ -0,0 +1,132 @@
+package com.tzupy.http2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class encodes the header blocks sent to a peer (RFC 7541). Fields found in the static or the
+ * dynamic table take a byte or two; others are added to the dynamic table, so a field repeated on the
+ * connection's following responses, e.g. the content type or the date, is sent whole only once. Fields
+ * that change with every response are sent as literals, so they don't evict the repeated ones.
+ * Strings are Huffman encoded where that makes them shorter.
+ */
+public final class HpackEncoder {
+
+    private static final Set<String> unindexed = new HashSet<>(Arrays.asList(
+            "content-length", "content-range", "etag", "last-modified", "location", "set-cookie"));
+
+    private final HpackTable table;
+    // the largest dynamic table the encoder uses, whatever larger size the peer allows
+    private final int maxTableSize;
+    // the smallest table size since the last block, -1 if the size didn't change
+    private int smallestSize = -1;
+
+    /**
+     * Class constructor that receives the largest dynamic table the encoder uses.
+     * @param maxTableSize the maximum size in bytes
+     */
+    public HpackEncoder(int maxTableSize) {
+        this.table = new HpackTable(Http2Setting.defaultHeaderTableSize);
+        this.maxTableSize = maxTableSize;
+        setPeerTableSize(Http2Setting.defaultHeaderTableSize);
+    }
+
+    /**
+     * Applies the peer's header table size setting. The change is announced at the start of the next
+     * block; if the size shrank and grew again in between, the smallest size is announced first.
+     * @param peerSize the size the peer allows
+     */
+    public void setPeerTableSize(int peerSize) {
+        int size = Math.min(peerSize, maxTableSize);
+        if (size != table.getMaxSize()) {
+            smallestSize = smallestSize < 0 ? size : Math.min(smallestSize, size);
+            table.setMaxSize(size);
+        }
+    }
+
+    /**
+     * Encodes a header block.
+     * @param fields the fields, pseudo-headers first
+     * @param out the buffer to write to, with room for the block
+     */
+    public void encode(List<HeaderField> fields, ByteBuffer out) {
+        if (smallestSize >= 0) {
+            if (smallestSize < table.getMaxSize()) {
+                writeInteger(out, 0x20, 5, smallestSize);
+            }
+            writeInteger(out, 0x20, 5, table.getMaxSize());
+            smallestSize = -1;
+        }
+        for (HeaderField field : fields) {
+            int index = table.indexOf(field.getName(), field.getValue());
+            if (index > 0) {
+                writeInteger(out, 0x80, 7, index);
+            } else if (unindexed.contains(field.getName()) || field.size() > table.getMaxSize()) {
+                // literal without indexing
+                writeLiteral(out, 0x00, 4, -index, field);
+            } else {
+                writeLiteral(out, 0x40, 6, -index, field);
+                table.add(field);
+            }
+        }
+    }
+
+    /**
+     * Writes a literal field with an indexed or a literal name.
+     * @param out the buffer to write to
+     * @param pattern the representation's leading bits
+     * @param prefix the number of bits of the name's index in the first byte
+     * @param nameIndex the index of the name, 0 to write the name as well
+     * @param field the field
+     */
+    private static void writeLiteral(ByteBuffer out, int pattern, int prefix, int nameIndex, HeaderField field) {
+        writeInteger(out, pattern, prefix, nameIndex);
+        if (nameIndex == 0) {
+            writeString(out, field.getName());
+        }
+        writeString(out, field.getValue());
+    }
+
+    /**
+     * Writes an integer with an n bit prefix after the first byte's leading bits.
+     * @param out the buffer to write to
+     * @param pattern the first byte's leading bits
+     * @param prefix the number of bits in the first byte
+     * @param value the integer
+     */
+    private static void writeInteger(ByteBuffer out, int pattern, int prefix, int value) {
+        int mask = (1 << prefix) - 1;
+        if (value < mask) {
+            out.put((byte) (pattern | value));
+            return;
+        }
+        out.put((byte) (pattern | mask));
+        value -= mask;
+        while (value >= 0x80) {
+            out.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Writes a string literal, Huffman encoded if that is shorter.
+     * @param out the buffer to write to
+     * @param value the string
+     */
+    private static void writeString(ByteBuffer out, String value) {
+        int encodedLength = Huffman.encodedLength(value);
+        if (encodedLength < value.length()) {
+            writeInteger(out, 0x80, 7, encodedLength);
+            Huffman.encode(value, out);
+        } else {
+            writeInteger(out, 0x00, 7, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.put((byte) value.charAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.tzupy.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds the HPACK index of header fields (RFC 7541): the 61 entries of the static table,
+ * followed by the dynamic table of fields the peer asked to index. The dynamic table is a ring of its
+ * entries, the newest one first, whose total size is kept below a maximum by evicting the oldest ones.
+ * The encoder and the decoder of a connection each keep a table of their own.
+ */
+public class HpackTable {
+
+    private static final HeaderField[] staticTable = {
+            new HeaderField(":authority", ""),
+            new HeaderField(":method", "GET"),
+            new HeaderField(":method", "POST"),
+            new HeaderField(":path", "/"),
+            new HeaderField(":path", "/index.html"),
+            new HeaderField(":scheme", "http"),
+            new HeaderField(":scheme", "https"),
+            new HeaderField(":status", "200"),
+            new HeaderField(":status", "204"),
+            new HeaderField(":status", "206"),
+            new HeaderField(":status", "304"),
+            new HeaderField(":status", "400"),
+            new HeaderField(":status", "404"),
+            new HeaderField(":status", "500"),
+            new HeaderField("accept-charset", ""),
+            new HeaderField("accept-encoding", "gzip, deflate"),
+            new HeaderField("accept-language", ""),
+            new HeaderField("accept-ranges", ""),
+            new HeaderField("accept", ""),
+            new HeaderField("access-control-allow-origin", ""),
+            new HeaderField("age", ""),
+            new HeaderField("allow", ""),
+            new HeaderField("authorization", ""),
+            new HeaderField("cache-control", ""),
+            new HeaderField("content-disposition", ""),
+            new HeaderField("content-encoding", ""),
+            new HeaderField("content-language", ""),
+            new HeaderField("content-length", ""),
+            new HeaderField("content-location", ""),
+            new HeaderField("content-range", ""),
+            new HeaderField("content-type", ""),
+            new HeaderField("cookie", ""),
+            new HeaderField("date", ""),
+            new HeaderField("etag", ""),
+            new HeaderField("expect", ""),
+            new HeaderField("expires", ""),
+            new HeaderField("from", ""),
+            new HeaderField("host", ""),
+            new HeaderField("if-match", ""),
+            new HeaderField("if-modified-since", ""),
+            new HeaderField("if-none-match", ""),
+            new HeaderField("if-range", ""),
+            new HeaderField("if-unmodified-since", ""),
+            new HeaderField("last-modified", ""),
+            new HeaderField("link", ""),
+            new HeaderField("location", ""),
+            new HeaderField("max-forwards", ""),
+            new HeaderField("proxy-authenticate", ""),
+            new HeaderField("proxy-authorization", ""),
+            new HeaderField("range", ""),
+            new HeaderField("referer", ""),
+            new HeaderField("refresh", ""),
+            new HeaderField("retry-after", ""),
+            new HeaderField("server", ""),
+            new HeaderField("set-cookie", ""),
+            new HeaderField("strict-transport-security", ""),
+            new HeaderField("transfer-encoding", ""),
+            new HeaderField("user-agent", ""),
+            new HeaderField("vary", ""),
+            new HeaderField("via", ""),
+            new HeaderField("www-authenticate", "")
+    };
+
+    // the first static index of every name, and the static index of every field with a value
+    private static final Map<String, Integer> staticNames = new HashMap<>();
+    private static final Map<String, Integer> staticFields = new HashMap<>();
+
+    static {
+        for (int i = staticTable.length - 1; i >= 0; i--) {
+            staticNames.put(staticTable[i].getName(), i + 1);
+            if (!staticTable[i].getValue().isEmpty()) {
+                staticFields.put(staticTable[i].getName() + '\0' + staticTable[i].getValue(), i + 1);
+            }
+        }
+    }
+
+    private HeaderField[] entries = new HeaderField[16];
+    // the ring position of the oldest entry
+    private int oldest;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    /**
+     * Class constructor that receives the initial maximum size of the dynamic table.
+     * @param maxSize the maximum size in bytes
+     */
+    public HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the field at an index of the static and the dynamic table.
+     * @param index the index, 1 to 61 for the static table, the dynamic table's newest entry next
+     * @return the field
+     * @throws Http2Exception the index is outside both tables
+     */
+    public HeaderField get(int index) throws Http2Exception {
+        if (index >= 1 && index <= staticTable.length) {
+            return staticTable[index - 1];
+        }
+        int dynamicIndex = index - staticTable.length;
+        if (dynamicIndex < 1 || dynamicIndex > count) {
+            throw new Http2Exception(Http2Error.compressionError, "header index " + index + " out of range");
+        }
+        return entries[(oldest + count - dynamicIndex) % entries.length];
+    }
+
+    /**
+     * Finds a field in the static and the dynamic table.
+     * @param name the field's name
+     * @param value the field's value
+     * @return the index of the field, the negated index of its name if only the name is found, or 0
+     */
+    public int indexOf(String name, String value) {
+        Integer index = staticFields.get(name + '\0' + value);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = 0;
+        for (int i = 1; i <= count; i++) {
+            HeaderField entry = entries[(oldest + count - i) % entries.length];
+            if (entry.getName().equals(name)) {
+                if (entry.getValue().equals(value)) {
+                    return staticTable.length + i;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = staticTable.length + i;
+                }
+            }
+        }
+        index = staticNames.get(name);
+        return index != null ? -index : -nameIndex;
+    }
+
+    /**
+     * Adds a field as the dynamic table's newest entry, evicting the oldest ones until it fits.
+     * A field larger than the table empties it and isn't added.
+     * @param field the field
+     */
+    public void add(HeaderField field) {
+        evict(maxSize - field.size());
+        if (field.size() > maxSize) {
+            return;
+        }
+        if (count == entries.length) {
+            HeaderField[] larger = new HeaderField[entries.length * 2];
+            for (int i = 0; i < count; i++) {
+                larger[i] = entries[(oldest + i) % entries.length];
+            }
+            entries = larger;
+            oldest = 0;
+        }
+        entries[(oldest + count) % entries.length] = field;
+        count++;
+        size += field.size();
+    }
+
+    /**
+     * Changes the maximum size of the dynamic table, evicting the oldest entries that don't fit any more.
+     * @param maxSize the maximum size in bytes
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * Gets the maximum size of the dynamic table.
+     * @return the maximum size in bytes
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the size of the dynamic table's entries.
+     * @return the size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Evicts the oldest entries until the dynamic table's size is within a limit.
+     * @param limit the size in bytes, negative to empty the table
+     */
+    private void evict(int limit) {
+        while (count > 0 && size > limit) {
+            size -= entries[oldest].size();
+            entries[oldest] = null;
+            oldest = (oldest + 1) % entries.length;
+            count--;
+        }
+    }
+}
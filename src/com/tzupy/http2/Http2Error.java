@@ -0,0 +1,21 @@
+package com.tzupy.http2;
+
+/**
+ * This class defines the error codes of HTTP/2, sent in RST_STREAM and GOAWAY frames.
+ */
+public abstract class Http2Error {
+    public final static int noError = 0x0;
+    public final static int protocolError = 0x1;
+    public final static int internalError = 0x2;
+    public final static int flowControlError = 0x3;
+    public final static int settingsTimeout = 0x4;
+    public final static int streamClosed = 0x5;
+    public final static int frameSizeError = 0x6;
+    public final static int refusedStream = 0x7;
+    public final static int cancel = 0x8;
+    public final static int compressionError = 0x9;
+    public final static int connectError = 0xa;
+    public final static int enhanceYourCalm = 0xb;
+    public final static int inadequateSecurity = 0xc;
+    public final static int http11Required = 0xd;
+}
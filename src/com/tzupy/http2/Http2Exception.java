@@ -0,0 +1,52 @@
+package com.tzupy.http2;
+
+import java.io.IOException;
+
+/**
+ * This class signals that a peer broke the HTTP/2 protocol. A connection error ends the connection
+ * with a GOAWAY frame, a stream error only resets its stream.
+ */
+public class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Class constructor of a connection error.
+     * @param errorCode the error code, see {@link Http2Error}
+     * @param message the reason
+     */
+    public Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Class constructor of a stream error, or of a connection error for stream 0.
+     * @param errorCode the error code, see {@link Http2Error}
+     * @param streamId the stream to reset, 0 to end the connection
+     * @param message the reason
+     */
+    public Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Gets the error code sent to the peer.
+     * @return the error code
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets the stream the error concerns.
+     * @return the stream id, 0 for a connection error
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+}
@@ -0,0 +1,64 @@
+package com.tzupy.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class defines the frame types and flags of HTTP/2, and encodes the nine byte header that
+ * starts every frame: a 24 bit payload length, the type, the flags and a 31 bit stream id.
+ */
+public abstract class Http2Frame {
+    public final static int data = 0x0;
+    public final static int headers = 0x1;
+    public final static int priority = 0x2;
+    public final static int rstStream = 0x3;
+    public final static int settings = 0x4;
+    public final static int pushPromise = 0x5;
+    public final static int ping = 0x6;
+    public final static int goAway = 0x7;
+    public final static int windowUpdate = 0x8;
+    public final static int continuation = 0x9;
+    // RFC 9218, a stream's priority sent after its request
+    public final static int priorityUpdate = 0x10;
+
+    public final static int endStream = 0x1;
+    public final static int ack = 0x1;
+    public final static int endHeaders = 0x4;
+    public final static int padded = 0x8;
+    public final static int priorityFlag = 0x20;
+
+    public final static int headerLength = 9;
+
+    // sent by the client first, a request line no HTTP/1.1 server would accept, followed by a SETTINGS frame
+    public final static byte[] preface = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // the preface's first part, which an HTTP/1.1 request parser reads as a request head
+    public final static int prefaceRequestLength = 18;
+
+    /**
+     * Writes a frame header.
+     * @param out the buffer to write to
+     * @param length the payload length
+     * @param type the frame type
+     * @param flags the frame's flags
+     * @param streamId the stream id, 0 for the connection
+     */
+    public static void writeHeader(ByteBuffer out, int length, int type, int flags, int streamId) {
+        out.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        out.put((byte) type).put((byte) flags).putInt(streamId & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes a frame header at an absolute position, without moving the buffer's position, e.g. in
+     * front of a payload whose length was only known once it was written.
+     * @param out the buffer to write to
+     * @param index the index of the header's first byte
+     * @param length the payload length
+     * @param type the frame type
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     */
+    public static void writeHeader(ByteBuffer out, int index, int length, int type, int flags, int streamId) {
+        out.put(index, (byte) (length >>> 16)).put(index + 1, (byte) (length >>> 8)).put(index + 2, (byte) length);
+        out.put(index + 3, (byte) type).put(index + 4, (byte) flags).putInt(index + 5, streamId & Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,20 @@
+package com.tzupy.http2;
+
+/**
+ * This class defines the identifiers of the settings a peer announces in SETTINGS frames.
+ */
+public abstract class Http2Setting {
+    public final static int headerTableSize = 0x1;
+    public final static int enablePush = 0x2;
+    public final static int maxConcurrentStreams = 0x3;
+    public final static int initialWindowSize = 0x4;
+    public final static int maxFrameSize = 0x5;
+    public final static int maxHeaderListSize = 0x6;
+
+    // the initial values, until the peer announces others
+    public final static int defaultHeaderTableSize = 4096;
+    public final static int defaultWindowSize = 65535;
+    public final static int defaultMaxFrameSize = 16384;
+    public final static int maxMaxFrameSize = 16777215;
+    public final static int maxWindowSize = Integer.MAX_VALUE;
+}
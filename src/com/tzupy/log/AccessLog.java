@@ -0,0 +1,292 @@
+package com.tzupy.log;
+
+import com.tzupy.http.HttpRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * This class writes an access log in the Combined Log Format, followed by the response time in
+ * microseconds, e.g.
+ * 127.0.0.1 - - [17/Oct/2026:21:35:18 +0000] "GET /a.txt HTTP/1.1" 200 1234 "-" "curl/8.5.0" 523
+ * Workers encode their record straight into a claimed slot of a ring buffer, without locking or allocating;
+ * a single writer thread moves the records in batches to a rotating file. When the writer falls
+ * behind and the ring is full, records are dropped and counted, so logging never blocks a worker.
+ */
+public class AccessLog {
+
+    private static final Logger logger = Logger.getLogger(AccessLog.class.getCanonicalName());
+
+    private static final int recordSize = 1024;
+    private static final int batchSize = 64 * 1024;
+    private static final long idleNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // the longest part of a record each field may take, so the record's end always fits
+    private static final int maxAddress = 64;
+    private static final int maxRequestLine = 512;
+    private static final int maxReferer = 160;
+    private static final int maxUserAgent = 160;
+
+    private static final byte[] noValue = { '-' };
+    private static final byte[] noUser = " - - ".getBytes(StandardCharsets.US_ASCII);
+
+    // e.g. [17/Oct/2026:21:35:18 +0000]
+    private static final DateTimeFormatter dateFormat =
+            DateTimeFormatter.ofPattern("'['dd/MMM/yyyy:HH:mm:ss Z']'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final String file;
+    private final long maxSize;
+    private final int keptFiles;
+    private final RecordRing ring;
+
+    private volatile EncodedDate now = new EncodedDate(System.currentTimeMillis() / 1000);
+    private volatile boolean enabled;
+    private volatile boolean running;
+    private Thread writer;
+    private RotatingFile out;
+
+    /**
+     * Class constructor that receives the log's file and sizes.
+     * @param file the log file, or null to disable the access log
+     * @param capacity the number of records that may wait for the writer
+     * @param maxSize the size from which the file is rotated, 0 to never rotate it
+     * @param keptFiles the number of rotated files kept
+     */
+    public AccessLog(String file, int capacity, long maxSize, int keptFiles) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.keptFiles = keptFiles;
+        this.ring = file == null ? null : new RecordRing(capacity, recordSize);
+    }
+
+    /**
+     * Opens the log file and starts the writer thread. A file that can't be opened disables the log.
+     */
+    public void start() {
+        if (file == null) {
+            return;
+        }
+        try {
+            out = new RotatingFile(Paths.get(file), maxSize, keptFiles);
+        } catch (IOException ex) {
+            logger.severe("Couldn't open access log " + file + ": " + ex.getMessage());
+            return;
+        }
+        running = true;
+        enabled = true;
+        writer = new Thread(this::run, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting records, writes the waiting ones and closes the log file.
+     */
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        enabled = false;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            logger.warning("Access log writer interrupted");
+        }
+    }
+
+    /**
+     * Returns true if requests are logged.
+     * @return true if the access log is open
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Logs an answered request. Safe to call from any thread; returns at once.
+     * @param remoteAddress the client's address in ascii, or null if unknown
+     * @param request the request, whose head was received completely
+     * @param status the response's status code
+     * @param bytes the number of body bytes sent
+     * @param nanos the time from the complete request head to the response's last byte
+     */
+    public void log(byte[] remoteAddress, HttpRequest request, int status, long bytes, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        EncodedDate date = now;
+        if (date.second != second) {
+            date = new EncodedDate(second);
+            now = date;
+        }
+        long sequence = ring.claim();
+        if (sequence < 0) {
+            return;
+        }
+        byte[] record = ring.getRecords();
+        int offset = ring.offsetOf(sequence);
+        // the last byte is kept for the newline
+        int end = offset + ring.getRecordSize() - 1;
+        int position = offset;
+        try {
+            position = put(record, position, Math.min(end, position + maxAddress),
+                    remoteAddress == null ? noValue : remoteAddress);
+            position = put(record, position, end, noUser);
+            position = put(record, position, end, date.bytes);
+            position = put(record, put(record, position, end, ' '), end, '"');
+            position = request.copyRequestLine(record, position, Math.min(end, position + maxRequestLine));
+            position = put(record, put(record, position, end, '"'), end, ' ');
+            position = putNumber(record, position, end, status);
+            position = put(record, position, end, ' ');
+            position = bytes > 0 ? putNumber(record, position, end, bytes) : put(record, position, end, '-');
+            position = putHeader(record, position, end, request, "referer", maxReferer);
+            position = putHeader(record, position, end, request, "user-agent", maxUserAgent);
+            position = put(record, position, end, ' ');
+            position = putNumber(record, position, end, TimeUnit.NANOSECONDS.toMicros(nanos));
+        } finally {
+            // published even if encoding failed, so the writer doesn't wait for the slot forever
+            record[position++] = '\n';
+            ring.publish(sequence, position);
+        }
+    }
+
+    /**
+     * Gets the number of records dropped because the writer fell behind.
+     * @return the dropped records
+     */
+    public long getDropped() {
+        return ring == null ? 0 : ring.getDropped();
+    }
+
+    /**
+     * Moves the records to the log file in batches, until the log is stopped.
+     */
+    private void run() {
+        ByteBuffer batch = ByteBuffer.allocateDirect(batchSize);
+        while (true) {
+            boolean stopping = !running;
+            batch.clear();
+            if (ring.drainTo(batch) > 0) {
+                batch.flip();
+                try {
+                    out.write(batch);
+                } catch (IOException ex) {
+                    logger.severe("IO Exception: " + ex.getMessage());
+                }
+            } else if (stopping) {
+                break;
+            } else {
+                LockSupport.parkNanos(idleNanos);
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException ex) {
+            logger.severe("Couldn't close access log: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes a quoted request header, or a quoted dash if it wasn't sent, after a space.
+     * @param record the record
+     * @param position the index to write to
+     * @param limit the index the field must end before
+     * @param request the request
+     * @param name the header's name
+     * @param maxLength the longest part of the record the value may take
+     * @return the index after the field
+     */
+    private static int putHeader(byte[] record, int position, int limit, HttpRequest request, String name,
+                                 int maxLength) {
+        position = put(record, put(record, position, limit, ' '), limit, '"');
+        int valueStart = position;
+        position = request.copyHeader(name, record, position, Math.min(limit, position + maxLength));
+        if (position == valueStart) {
+            position = put(record, position, limit, '-');
+        }
+        return put(record, position, limit, '"');
+    }
+
+    /**
+     * Writes bytes, cut at the limit.
+     * @param record the record
+     * @param position the index to write to
+     * @param limit the index the bytes must end before
+     * @param bytes the bytes
+     * @return the index after the written bytes
+     */
+    private static int put(byte[] record, int position, int limit, byte[] bytes) {
+        int length = Math.max(0, Math.min(bytes.length, limit - position));
+        System.arraycopy(bytes, 0, record, position, length);
+        return position + length;
+    }
+
+    /**
+     * Writes an ascii character, unless the limit is reached.
+     * @param record the record
+     * @param position the index to write to
+     * @param limit the index the character must come before
+     * @param c the character
+     * @return the index after the written character
+     */
+    private static int put(byte[] record, int position, int limit, char c) {
+        if (position >= limit) {
+            return position;
+        }
+        record[position] = (byte) c;
+        return position + 1;
+    }
+
+    /**
+     * Writes a non-negative number in decimal, or nothing if it doesn't fit.
+     * @param record the record
+     * @param position the index to write to
+     * @param limit the index the number must end before
+     * @param value the number
+     * @return the index after the number
+     */
+    private static int putNumber(byte[] record, int position, int limit, long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        if (position + digits > limit) {
+            return position;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            record[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * This class holds the encoded date of one second.
+     */
+    private static final class EncodedDate {
+
+        private final long second;
+        private final byte[] bytes;
+
+        /**
+         * Class constructor that encodes the date of a second.
+         * @param second the seconds since the epoch
+         */
+        private EncodedDate(long second) {
+            this.second = second;
+            this.bytes = dateFormat.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tzupy.log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a bounded ring of fixed-size byte records, filled by any number of threads and
+ * drained by a single one. A producer claims a slot with one compare-and-set, writes its record in
+ * place into the ring's storage and publishes it by stamping the slot with its sequence, so producers
+ * never lock, wait for each other or allocate. When the ring is full, records are dropped and counted
+ * instead.
+ */
+public class RecordRing {
+
+    private final int recordSize;
+    private final int mask;
+    private final byte[] records;
+    private final int[] lengths;
+    // the sequence each slot was last published with
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    // owned by the consuming thread, read by the producers to find free slots
+    private volatile long consumed;
+
+    /**
+     * Class constructor that receives the ring's dimensions.
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param recordSize the size of a slot in bytes; longer records are cut by their producer
+     */
+    public RecordRing(int capacity, int recordSize) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.recordSize = recordSize;
+        this.mask = size - 1;
+        this.records = new byte[size * recordSize];
+        this.lengths = new int[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Claims the slot of the next record, unless the ring is full. Safe to call from any thread; the caller
+     * writes the record into {@link #getRecords} from {@link #offsetOf} and must then {@link #publish} it,
+     * as the consumer waits for every claimed slot in order.
+     * @return the record's sequence, or -1 if the record is dropped
+     */
+    public long claim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                dropped.increment();
+                return -1;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    /**
+     * Gets the ring's storage, into which claimed records are written.
+     * @return the slots, one after another
+     */
+    public byte[] getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the index of a claimed slot's first byte in the storage.
+     * @param sequence the record's sequence
+     * @return the index; the slot ends {@link #getRecordSize} bytes later
+     */
+    public int offsetOf(long sequence) {
+        return (int) (sequence & mask) * recordSize;
+    }
+
+    /**
+     * Gets the size of a slot.
+     * @return the size in bytes; longer records are cut by their producer
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * Hands a written record over to the consumer.
+     * @param sequence the record's sequence
+     * @param end the index after the record's last byte
+     */
+    public void publish(long sequence, int end) {
+        int slot = (int) (sequence & mask);
+        lengths[slot] = end - slot * recordSize;
+        // the ordered write makes the record visible to the consumer before the stamp
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Moves published records, in order, into a buffer. Called by the consuming thread only.
+     * @param out the buffer to fill
+     * @return the number of records moved, 0 if the next record isn't published yet or doesn't fit
+     */
+    public int drainTo(ByteBuffer out) {
+        long sequence = consumed;
+        int count = 0;
+        while (true) {
+            int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence || lengths[slot] > out.remaining()) {
+                break;
+            }
+            out.put(records, slot * recordSize, lengths[slot]);
+            sequence++;
+            count++;
+        }
+        consumed = sequence;
+        return count;
+    }
+
+    /**
+     * Gets the number of records dropped because the ring was full.
+     * @return the dropped records
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
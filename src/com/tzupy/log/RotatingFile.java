@@ -0,0 +1,99 @@
+package com.tzupy.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class appends to a file through a channel and rotates it once it reached its maximum size:
+ * the file becomes file.1, a former file.1 becomes file.2 and so on, and the oldest one is deleted.
+ */
+public class RotatingFile {
+
+    private final Path path;
+    private final long maxSize;
+    private final int keptFiles;
+
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * Class constructor that opens the file for appending.
+     * @param path the file
+     * @param maxSize the size from which the file is rotated, 0 to never rotate it
+     * @param keptFiles the number of rotated files kept
+     * @throws IOException the file couldn't be opened
+     */
+    public RotatingFile(Path path, long maxSize, int keptFiles) throws IOException {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.keptFiles = keptFiles;
+        open();
+    }
+
+    /**
+     * Opens the file, creating it if needed.
+     * @throws IOException the file couldn't be opened
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Appends the bytes of a buffer, then rotates the file if it reached its maximum size.
+     * @param buffer the bytes, from its position to its limit
+     * @throws IOException the file couldn't be written or rotated
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer);
+        }
+        if (maxSize > 0 && size >= maxSize) {
+            rotate();
+        }
+    }
+
+    /**
+     * Renames the file and the rotated files one generation up, dropping the oldest, and opens a new file.
+     * @throws IOException a file couldn't be renamed or opened
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        if (keptFiles == 0) {
+            Files.delete(path);
+        } else {
+            Files.deleteIfExists(generation(keptFiles));
+            for (int i = keptFiles - 1; i >= 1; i--) {
+                if (Files.exists(generation(i))) {
+                    Files.move(generation(i), generation(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, generation(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    /**
+     * Gets the path of a rotated file.
+     * @param index the file's generation, 1 for the newest
+     * @return the path
+     */
+    private Path generation(int index) {
+        return Paths.get(path.toString() + "." + index);
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException the file couldn't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
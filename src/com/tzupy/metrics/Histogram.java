@@ -0,0 +1,61 @@
+package com.tzupy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts durations in fixed buckets, as a Prometheus histogram. Every bucket is a striped
+ * counter, so threads recording at the same time neither lock nor contend on one memory location.
+ */
+public class Histogram {
+
+    // upper bounds of the buckets in nanoseconds, from 100 microseconds to 10 seconds
+    private static final long[] bounds = { 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L,
+            10000000L, 25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L,
+            2500000000L, 5000000000L, 10000000000L };
+    // the bounds in seconds, as the le labels
+    private static final String[] boundLabels = { "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005",
+            "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "+Inf" };
+
+    private final LongAdder[] buckets = new LongAdder[bounds.length + 1];
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Class constructor that creates the empty buckets.
+     */
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < bounds.length && nanos > bounds[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Writes the histogram's samples in the Prometheus text format: the cumulative count of every
+     * bucket, the sum and the count.
+     * @param out the exposition to append to
+     * @param name the metric's name
+     * @param labels the labels of the histogram, e.g. type="file",status="200"
+     */
+    public void appendTo(StringBuilder out, String name, String labels) {
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(boundLabels[i]).append("\"} ")
+                    .append(count).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+}
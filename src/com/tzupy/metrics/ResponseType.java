@@ -0,0 +1,11 @@
+package com.tzupy.metrics;
+
+/**
+ * This class defines the kinds of responses the request metrics are broken down by.
+ */
+public abstract class ResponseType {
+    public final static String file = "file";
+    public final static String listing = "listing";
+    public final static String error = "error";
+    public final static String metrics = "metrics";
+}
@@ -0,0 +1,393 @@
+package com.tzupy.metrics;
+
+import com.tzupy.cache.BufferCache;
+import com.tzupy.log.AccessLog;
+import com.tzupy.utils.BufferPool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the runtime metrics of a web server and exposes them in the Prometheus text
+ * format. Recording a request costs two striped counter updates and no allocation after the first
+ * request of its kind; gauges of the executor, the caches and the buffer pools are only read when the metrics
+ * are rendered.
+ */
+public class ServerMetrics {
+
+    public final static String contentType = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] types = { ResponseType.file, ResponseType.listing, ResponseType.error,
+            ResponseType.metrics };
+    private static final int minStatus = 100;
+    private static final int statuses = 500;
+
+    // a histogram per response type and status code, created when the first such response is sent
+    private final AtomicReferenceArray<Histogram> durations = new AtomicReferenceArray<>(types.length * statuses);
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder busyWorkers = new LongAdder();
+    private final LongAdder shedQueueFull = new LongAdder();
+    private final LongAdder shedQueueTimeout = new LongAdder();
+    private final LongAdder headerTimeouts = new LongAdder();
+    private final LongAdder idleTimeouts = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+    private final Map<String, BufferCache<?, ?>> caches = new LinkedHashMap<>();
+    private final Map<String, BufferPool> bufferPools = new LinkedHashMap<>();
+    private final Histogram fullHandshakes = new Histogram();
+    private final Histogram resumedHandshakes = new Histogram();
+    private final LongAdder failedHandshakes = new LongAdder();
+    private final LongAdder http2Connections = new LongAdder();
+    private final LongAdder http2Streams = new LongAdder();
+    private final LongAdder http2ClientResets = new LongAdder();
+    private final LongAdder http2ServerResets = new LongAdder();
+    // the negotiated application protocols, by name
+    private final Map<String, LongAdder> applicationProtocols = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService executor;
+    private volatile AccessLog accessLog;
+    private volatile boolean tls;
+    private volatile boolean http2;
+
+    /**
+     * Records a response that was sent completely.
+     * @param type the kind of response, see {@link ResponseType}
+     * @param status the response's status code
+     * @param nanos the time from the complete request head to the response's last byte
+     * @param bytes the number of bytes sent, header included
+     */
+    public void record(String type, int status, long nanos, long bytes) {
+        int index = typeIndex(type) * statuses + Math.min(Math.max(status - minStatus, 0), statuses - 1);
+        Histogram histogram = durations.get(index);
+        if (histogram == null) {
+            durations.compareAndSet(index, null, new Histogram());
+            histogram = durations.get(index);
+        }
+        histogram.record(nanos);
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * Gets the index of a response type.
+     * @param type the response type
+     * @return the index, the one of errors for unknown types
+     */
+    private static int typeIndex(String type) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].equals(type)) {
+                return i;
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * Counts a connection that was accepted and is now open.
+     */
+    public void connectionOpened() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Counts a connection that was closed.
+     */
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Counts a worker that started running a server task.
+     */
+    public void workerStarted() {
+        busyWorkers.increment();
+    }
+
+    /**
+     * Counts a worker that finished running a server task.
+     */
+    public void workerFinished() {
+        busyWorkers.decrement();
+    }
+
+    /**
+     * Counts work that was turned away with a 503 response.
+     * @param expired true if the work waited too long, false if the worker pool's queue was full
+     */
+    public void shed(boolean expired) {
+        (expired ? shedQueueTimeout : shedQueueFull).increment();
+    }
+
+    /**
+     * Counts a connection that was closed because a deadline passed.
+     * @param phase the phase that took too long: header, idle or write
+     */
+    public void timedOut(String phase) {
+        switch (phase) {
+            case "header":
+                headerTimeouts.increment();
+                break;
+            case "idle":
+                idleTimeouts.increment();
+                break;
+            default:
+                writeTimeouts.increment();
+                break;
+        }
+    }
+
+    /**
+     * Records a TLS handshake that completed.
+     * @param nanos the time from the client's first bytes to the end of the handshake
+     * @param resumed true if the client resumed an earlier session
+     * @param applicationProtocol the protocol negotiated with ALPN, empty or null if none was
+     */
+    public void tlsHandshake(long nanos, boolean resumed, String applicationProtocol) {
+        (resumed ? resumedHandshakes : fullHandshakes).record(nanos);
+        String protocol = applicationProtocol == null || applicationProtocol.isEmpty() ? "none" : applicationProtocol;
+        applicationProtocols.computeIfAbsent(protocol, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * Counts a TLS handshake that failed, e.g. as the client offered no common protocol or cipher suite.
+     */
+    public void tlsHandshakeFailed() {
+        failedHandshakes.increment();
+    }
+
+    /**
+     * Reports the TLS handshakes, once the server encrypts its connections.
+     */
+    public void enableTls() {
+        tls = true;
+    }
+
+    /**
+     * Counts a connection that switched to HTTP/2.
+     */
+    public void http2Connection() {
+        http2Connections.increment();
+    }
+
+    /**
+     * Counts a request stream opened on an HTTP/2 connection.
+     */
+    public void http2Stream() {
+        http2Streams.increment();
+    }
+
+    /**
+     * Counts an HTTP/2 stream reset before its response was sent completely.
+     * @param byClient true if the client reset it, false if the server did, e.g. refusing a stream over the limit
+     */
+    public void http2StreamReset(boolean byClient) {
+        (byClient ? http2ClientResets : http2ServerResets).increment();
+    }
+
+    /**
+     * Reports the HTTP/2 connections and streams, once the server accepts HTTP/2.
+     */
+    public void enableHttp2() {
+        http2 = true;
+    }
+
+    /**
+     * Sets the executor running server tasks, whose queue depth is reported.
+     * @param executor the executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the access log, whose dropped records are reported while it is enabled.
+     * @param accessLog the access log
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Adds a cache whose hits, misses and size are reported.
+     * @param name the cache's name, used as label
+     * @param cache the cache
+     */
+    public synchronized void addCache(String name, BufferCache<?, ?> cache) {
+        caches.put(name, cache);
+    }
+
+    /**
+     * Adds a buffer pool whose leases, leased and idle bytes and leaks are reported.
+     * @param name the pool's name, used as label
+     * @param pool the pool
+     */
+    public synchronized void addBufferPool(String name, BufferPool pool) {
+        bufferPools.put(name, pool);
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format.
+     * @return the exposition
+     */
+    public synchronized String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        describe(out, "webserver_request_duration_seconds", "histogram",
+                "Time from a complete request head to the last byte of its response.");
+        for (int i = 0; i < durations.length(); i++) {
+            Histogram histogram = durations.get(i);
+            if (histogram != null) {
+                String labels = "type=\"" + types[i / statuses] + "\",status=\"" + (minStatus + i % statuses) + "\"";
+                histogram.appendTo(out, "webserver_request_duration_seconds", labels);
+            }
+        }
+
+        describe(out, "webserver_sent_bytes_total", "counter", "Bytes of responses sent completely, headers included.");
+        sample(out, "webserver_sent_bytes_total", null, bytesSent.sum());
+        describe(out, "webserver_connections_accepted_total", "counter", "Connections accepted.");
+        sample(out, "webserver_connections_accepted_total", null, connectionsAccepted.sum());
+        describe(out, "webserver_connections_active", "gauge", "Connections currently open.");
+        sample(out, "webserver_connections_active", null, activeConnections.sum());
+        describe(out, "webserver_workers_busy", "gauge", "Workers currently running a server task.");
+        sample(out, "webserver_workers_busy", null, busyWorkers.sum());
+
+        describe(out, "webserver_shed_total", "counter", "Work turned away with a 503 response.");
+        out.append("webserver_shed_total{reason=\"queue_full\"} ").append(shedQueueFull.sum()).append('\n');
+        out.append("webserver_shed_total{reason=\"queue_timeout\"} ").append(shedQueueTimeout.sum()).append('\n');
+
+        describe(out, "webserver_timeouts_total", "counter", "Connections closed because a deadline passed.");
+        out.append("webserver_timeouts_total{phase=\"header\"} ").append(headerTimeouts.sum()).append('\n');
+        out.append("webserver_timeouts_total{phase=\"idle\"} ").append(idleTimeouts.sum()).append('\n');
+        out.append("webserver_timeouts_total{phase=\"write\"} ").append(writeTimeouts.sum()).append('\n');
+
+        if (tls) {
+            describe(out, "webserver_tls_handshake_duration_seconds", "histogram",
+                    "Time from the client's first bytes to the end of a completed TLS handshake.");
+            fullHandshakes.appendTo(out, "webserver_tls_handshake_duration_seconds", "resumed=\"false\"");
+            resumedHandshakes.appendTo(out, "webserver_tls_handshake_duration_seconds", "resumed=\"true\"");
+            describe(out, "webserver_tls_handshake_failures_total", "counter", "TLS handshakes that failed.");
+            sample(out, "webserver_tls_handshake_failures_total", null, failedHandshakes.sum());
+            describe(out, "webserver_tls_alpn_total", "counter",
+                    "Completed TLS handshakes by the protocol negotiated with ALPN.");
+            for (Map.Entry<String, LongAdder> protocol : applicationProtocols.entrySet()) {
+                out.append("webserver_tls_alpn_total{protocol=\"").append(protocol.getKey()).append("\"} ")
+                        .append(protocol.getValue().sum()).append('\n');
+            }
+        }
+
+        if (http2) {
+            describe(out, "webserver_http2_connections_total", "counter", "Connections that switched to HTTP/2.");
+            sample(out, "webserver_http2_connections_total", null, http2Connections.sum());
+            describe(out, "webserver_http2_streams_total", "counter", "Request streams opened on HTTP/2 connections.");
+            sample(out, "webserver_http2_streams_total", null, http2Streams.sum());
+            describe(out, "webserver_http2_stream_resets_total", "counter",
+                    "HTTP/2 streams reset before their response was sent completely.");
+            out.append("webserver_http2_stream_resets_total{by=\"client\"} ").append(http2ClientResets.sum())
+                    .append('\n');
+            out.append("webserver_http2_stream_resets_total{by=\"server\"} ").append(http2ServerResets.sum())
+                    .append('\n');
+        }
+
+        ExecutorService current = executor;
+        if (current instanceof ThreadPoolExecutor) {
+            // virtual threads start at once, only the platform pool queues tasks
+            describe(out, "webserver_executor_queue_depth", "gauge", "Server tasks waiting for a worker.");
+            sample(out, "webserver_executor_queue_depth", null, ((ThreadPoolExecutor) current).getQueue().size());
+        }
+
+        AccessLog log = accessLog;
+        if (log != null && log.isEnabled()) {
+            describe(out, "webserver_access_log_dropped_total", "counter",
+                    "Access log records dropped because the writer fell behind.");
+            sample(out, "webserver_access_log_dropped_total", null, log.getDropped());
+        }
+
+        if (!caches.isEmpty()) {
+            describe(out, "webserver_cache_hits_total", "counter", "Requests served from a cache.");
+            for (Map.Entry<String, BufferCache<?, ?>> cache : caches.entrySet()) {
+                sample(out, "webserver_cache_hits_total", cache.getKey(), cache.getValue().getHits());
+            }
+            describe(out, "webserver_cache_misses_total", "counter", "Cacheable requests that produced the content.");
+            for (Map.Entry<String, BufferCache<?, ?>> cache : caches.entrySet()) {
+                sample(out, "webserver_cache_misses_total", cache.getKey(), cache.getValue().getMisses());
+            }
+            describe(out, "webserver_cache_size_bytes", "gauge", "Bytes held by a cache.");
+            for (Map.Entry<String, BufferCache<?, ?>> cache : caches.entrySet()) {
+                sample(out, "webserver_cache_size_bytes", cache.getKey(), cache.getValue().getSize());
+            }
+        }
+
+        if (!bufferPools.isEmpty()) {
+            String[] sources = { BufferPool.sourceThread, BufferPool.sourceShared, BufferPool.sourceAllocated,
+                    BufferPool.sourceUnpooled };
+            describe(out, "webserver_buffer_pool_acquired_total", "counter",
+                    "Buffers leased, by where they came from: a thread's cache, the shared stacks, a new pooled "
+                            + "buffer, or an unpooled one larger than any size class.");
+            for (Map.Entry<String, BufferPool> pool : bufferPools.entrySet()) {
+                for (String source : sources) {
+                    out.append("webserver_buffer_pool_acquired_total{pool=\"").append(pool.getKey())
+                            .append("\",source=\"").append(source).append("\"} ")
+                            .append(pool.getValue().getAcquired(source)).append('\n');
+                }
+            }
+            describe(out, "webserver_buffer_pool_leased_bytes", "gauge", "Bytes of pooled buffers currently leased.");
+            for (Map.Entry<String, BufferPool> pool : bufferPools.entrySet()) {
+                poolSample(out, "webserver_buffer_pool_leased_bytes", pool.getKey(), pool.getValue().getLeasedBytes());
+            }
+            describe(out, "webserver_buffer_pool_idle_bytes", "gauge", "Bytes of pooled buffers waiting for a lease.");
+            for (Map.Entry<String, BufferPool> pool : bufferPools.entrySet()) {
+                poolSample(out, "webserver_buffer_pool_idle_bytes", pool.getKey(), pool.getValue().getIdleBytes());
+            }
+            describe(out, "webserver_buffer_pool_leaks_total", "counter",
+                    "Leased buffers collected without having been released, found in debug mode.");
+            for (Map.Entry<String, BufferPool> pool : bufferPools.entrySet()) {
+                poolSample(out, "webserver_buffer_pool_leaks_total", pool.getKey(), pool.getValue().getLeaks());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the help and type lines of a metric.
+     * @param out the exposition to append to
+     * @param name the metric's name
+     * @param type counter, gauge or histogram
+     * @param help the metric's description
+     */
+    private static void describe(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes a sample of a metric.
+     * @param out the exposition to append to
+     * @param name the metric's name
+     * @param cache the cache label's value, or null if the metric has no labels
+     * @param value the value
+     */
+    private static void sample(StringBuilder out, String name, String cache, long value) {
+        out.append(name);
+        if (cache != null) {
+            out.append("{cache=\"").append(cache).append("\"}");
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes a sample of a buffer pool's metric.
+     * @param out the exposition to append to
+     * @param name the metric's name
+     * @param pool the pool label's value
+     * @param value the value
+     */
+    private static void poolSample(StringBuilder out, String name, String pool, long value) {
+        out.append(name).append("{pool=\"").append(pool).append("\"} ").append(value).append('\n');
+    }
+}
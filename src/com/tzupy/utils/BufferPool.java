@@ -0,0 +1,455 @@
+package com.tzupy.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class lends buffers to connections, so serving a request doesn't allocate the buffers its bytes
+ * pass through. Buffers come in a few size classes; a lease gets a buffer of the smallest class that fits,
+ * larger ones are allocated and dropped each time. A released buffer goes to a small cache of the releasing
+ * thread, from which the same thread's next lease takes it without synchronization, as long as the thread
+ * released fewer buffers of the class than it leased: a thread releasing the buffers another one leased, as
+ * the nio engine's workers do, passes them to a shared stack per class instead of hoarding them. The pool's
+ * size bounds the idle buffers of a class in the caches and the shared stack together, beyond which
+ * buffers are left to the garbage collector. Virtual threads live for a single connection, they use the
+ * shared stacks only.
+ * In debug mode every lease is tracked: a buffer released twice is reported instead of being handed out to
+ * two owners, and a buffer that became unreachable without being released is reported as a leak, with the
+ * stack of the lease that took it.
+ */
+public class BufferPool {
+
+    private static final Logger logger = Logger.getLogger(BufferPool.class.getCanonicalName());
+
+    // a request head or a small body piece, a read, a response header, a TLS record or HTTP/2 frame
+    // with its header, a batch of HTTP/2 frames
+    private static final int[] sizes = { 1024, 4 * 1024, 8 * 1024, 17 * 1024, 64 * 1024 };
+    // the bytes of each class a thread keeps for itself
+    private static final int localBytes = 64 * 1024;
+
+    // Thread.isVirtual, or null on runtimes without virtual threads
+    private static final MethodHandle isVirtual = findIsVirtual();
+
+    public final static String sourceThread = "thread";
+    public final static String sourceShared = "shared";
+    public final static String sourceAllocated = "allocated";
+    public final static String sourceUnpooled = "unpooled";
+
+    private final boolean direct;
+    private final boolean debug;
+    private final Stack[] shared;
+    // locks rather than monitors, which pin a virtual thread to its carrier while it waits on Java 21
+    private final ReentrantLock[] locks;
+    private final ThreadLocal<Stack[]> locals;
+    // the released buffers of each class held in the threads' caches and the shared stack, and their bound
+    private final AtomicInteger[] idle;
+    private final int[] maxIdle;
+
+    private final LongAdder fromThread = new LongAdder();
+    private final LongAdder fromShared = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+    // the bytes of the class buffers the pool created and didn't drop, and those of them leased
+    private final LongAdder pooledBytes = new LongAdder();
+    private final LongAdder leasedBytes = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    // debug mode: the outstanding leases by the identity hash of their buffer, and those collected unreleased
+    private final Map<Integer, List<Lease>> leases = new HashMap<>();
+    private final ReentrantLock leasesLock = new ReentrantLock();
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+
+    /**
+     * Class constructor that receives the kind of buffers and the bytes the pool keeps.
+     * @param direct true to lend direct buffers, false for heap buffers backed by an array
+     * @param maxBytes the bytes of released buffers kept in the threads' caches and the shared stacks, split
+     *                 evenly among the classes; 0 allocates every buffer and drops it on release
+     * @param debug true to track the leases and report the buffers released twice or never
+     */
+    public BufferPool(boolean direct, long maxBytes, boolean debug) {
+        this.direct = direct;
+        this.debug = debug;
+        this.shared = new Stack[sizes.length];
+        this.locks = new ReentrantLock[sizes.length];
+        this.idle = new AtomicInteger[sizes.length];
+        this.maxIdle = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            maxIdle[i] = (int) Math.min(Integer.MAX_VALUE, maxBytes / sizes.length / sizes[i]);
+            shared[i] = new Stack(maxIdle[i]);
+            locks[i] = new ReentrantLock();
+            idle[i] = new AtomicInteger();
+        }
+        this.locals = maxBytes == 0 ? null : ThreadLocal.withInitial(() -> {
+            Stack[] local = new Stack[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                local[i] = new Stack(Math.max(1, localBytes / sizes[i]));
+            }
+            return local;
+        });
+    }
+
+    /**
+     * Leases a buffer, cleared. It belongs to the caller until it is given back with {@link #release}.
+     * @param size the number of bytes needed
+     * @return a buffer with a capacity of at least the size
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classOf(size);
+        if (index < 0) {
+            unpooled.increment();
+            return allocate(size);
+        }
+        ByteBuffer buffer = null;
+        Stack[] local = localStacks();
+        if (local != null) {
+            local[index].lease();
+            buffer = local[index].pop();
+        }
+        if (buffer != null) {
+            idle[index].decrementAndGet();
+            fromThread.increment();
+        } else {
+            locks[index].lock();
+            try {
+                buffer = shared[index].pop();
+            } finally {
+                locks[index].unlock();
+            }
+            if (buffer != null) {
+                idle[index].decrementAndGet();
+                fromShared.increment();
+            } else {
+                allocated.increment();
+                pooledBytes.add(sizes[index]);
+                buffer = allocate(sizes[index]);
+            }
+        }
+        leasedBytes.add(sizes[index]);
+        if (debug) {
+            track(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives back a leased buffer. The caller must not use it afterwards, nor any view of it.
+     * Buffers that weren't leased from a class of this pool are left to the garbage collector.
+     * @param buffer the buffer, or null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct) {
+            return;
+        }
+        int index = classOf(buffer.capacity());
+        if (index < 0 || sizes[index] != buffer.capacity() || (debug && !untrack(buffer))) {
+            return;
+        }
+        leasedBytes.add(-sizes[index]);
+        if (!reserveIdle(index)) {
+            pooledBytes.add(-sizes[index]);
+            return;
+        }
+        Stack[] local = localStacks();
+        if (local != null && local[index].leases > 0) {
+            local[index].leases--;
+            if (local[index].push(buffer)) {
+                return;
+            }
+        }
+        // the shared stack holds as many buffers as the bound, so it has room for a reserved one
+        locks[index].lock();
+        try {
+            shared[index].push(buffer);
+        } finally {
+            locks[index].unlock();
+        }
+    }
+
+    /**
+     * Counts a released buffer among the idle ones of its class, unless the class is at its bound.
+     * @param index the class index
+     * @return false if the buffer is to be dropped
+     */
+    private boolean reserveIdle(int index) {
+        AtomicInteger count = idle[index];
+        while (true) {
+            int current = count.get();
+            if (current >= maxIdle[index]) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the pool lends direct buffers.
+     * @return true for direct buffers, false for heap buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Gets the number of leases served from a source since the pool was created.
+     * @param source the thread's cache, the shared stacks, a new class buffer or an unpooled one
+     * @return the number of leases
+     */
+    public long getAcquired(String source) {
+        switch (source) {
+            case sourceThread:
+                return fromThread.sum();
+            case sourceShared:
+                return fromShared.sum();
+            case sourceAllocated:
+                return allocated.sum();
+            default:
+                return unpooled.sum();
+        }
+    }
+
+    /**
+     * Gets the bytes of the class buffers currently leased. A value that keeps growing under a steady load
+     * points to buffers that aren't released.
+     * @return the leased bytes
+     */
+    public long getLeasedBytes() {
+        return leasedBytes.sum();
+    }
+
+    /**
+     * Gets the bytes of the class buffers the pool holds for later leases, in the threads' caches
+     * and the shared stacks.
+     * @return the idle bytes
+     */
+    public long getIdleBytes() {
+        return pooledBytes.sum() - leasedBytes.sum();
+    }
+
+    /**
+     * Gets the number of leased buffers found unreachable without having been released, in debug mode.
+     * @return the number of leaks
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * Gets the index of the smallest class holding a number of bytes.
+     * @param size the number of bytes
+     * @return the class index, or -1 if the size is larger than any class
+     */
+    private static int classOf(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (size <= sizes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Allocates a buffer of the pool's kind.
+     * @param capacity the buffer's capacity
+     * @return the buffer
+     */
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Gets the calling thread's cache.
+     * @return the cache's stack per class, or null if the pool keeps nothing or the thread is virtual
+     */
+    private Stack[] localStacks() {
+        if (locals == null) {
+            return null;
+        }
+        if (isVirtual != null) {
+            try {
+                if ((boolean) isVirtual.invokeExact(Thread.currentThread())) {
+                    return null;
+                }
+            } catch (Throwable ex) {
+                return null;
+            }
+        }
+        return locals.get();
+    }
+
+    /**
+     * Records a lease, with the stack that took the buffer. Debug mode only.
+     * @param buffer the leased buffer
+     */
+    private void track(ByteBuffer buffer) {
+        reportLeaks();
+        Lease lease = new Lease(buffer, collected, new Throwable("Buffer leased here"));
+        leasesLock.lock();
+        try {
+            leases.computeIfAbsent(lease.identity, identity -> new ArrayList<>(1)).add(lease);
+        } finally {
+            leasesLock.unlock();
+        }
+    }
+
+    /**
+     * Ends the lease of a released buffer. Debug mode only.
+     * @param buffer the released buffer
+     * @return false if the buffer isn't leased, i.e. it was released before
+     */
+    private boolean untrack(ByteBuffer buffer) {
+        reportLeaks();
+        int identity = System.identityHashCode(buffer);
+        leasesLock.lock();
+        try {
+            List<Lease> sameHash = leases.get(identity);
+            for (int i = 0; sameHash != null && i < sameHash.size(); i++) {
+                Lease lease = sameHash.get(i);
+                if (lease.get() == buffer) {
+                    sameHash.remove(i);
+                    if (sameHash.isEmpty()) {
+                        leases.remove(identity);
+                    }
+                    // a cleared reference isn't queued as a leak
+                    lease.clear();
+                    return true;
+                }
+            }
+        } finally {
+            leasesLock.unlock();
+        }
+        logger.log(Level.SEVERE, "Buffer of " + buffer.capacity() + " bytes released twice, or not leased",
+                new Throwable("Buffer released here"));
+        return false;
+    }
+
+    /**
+     * Reports the leased buffers the garbage collector found unreachable since the last check, and takes
+     * them off the pool's accounting. Debug mode only.
+     */
+    private void reportLeaks() {
+        Lease lease;
+        while ((lease = (Lease) collected.poll()) != null) {
+            leasesLock.lock();
+            try {
+                List<Lease> sameHash = leases.get(lease.identity);
+                if (sameHash != null && sameHash.remove(lease) && sameHash.isEmpty()) {
+                    leases.remove(lease.identity);
+                }
+            } finally {
+                leasesLock.unlock();
+            }
+            leaks.increment();
+            leasedBytes.add(-lease.capacity);
+            pooledBytes.add(-lease.capacity);
+            logger.log(Level.SEVERE, "Buffer of " + lease.capacity + " bytes was never released", lease.origin);
+        }
+    }
+
+    /**
+     * Looks up Thread.isVirtual, so the pool still runs on older runtimes.
+     * @return the method, or null if the runtime has no virtual threads
+     */
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * This class holds released buffers of one class, the most recently released on top, whose memory
+     * is the most likely to be cached still. The shared stacks are guarded by the pool's lock of their class.
+     */
+    private static final class Stack {
+
+        private final ByteBuffer[] buffers;
+        private int count;
+        // a thread's cache: the buffers of the class the thread leased and didn't release yet, at most its capacity
+        private int leases;
+
+        /**
+         * Class constructor that receives the number of buffers the stack holds.
+         * @param capacity the maximum number of buffers
+         */
+        private Stack(int capacity) {
+            this.buffers = new ByteBuffer[capacity];
+        }
+
+        /**
+         * Counts a buffer the cache's thread leased, up to as many as the cache holds, so a thread leasing
+         * the buffers other threads release doesn't earn an ever larger credit.
+         */
+        private void lease() {
+            if (leases < buffers.length) {
+                leases++;
+            }
+        }
+
+        /**
+         * Takes the buffer on top.
+         * @return the buffer, or null if the stack is empty
+         */
+        private ByteBuffer pop() {
+            if (count == 0) {
+                return null;
+            }
+            ByteBuffer buffer = buffers[--count];
+            buffers[count] = null;
+            return buffer;
+        }
+
+        /**
+         * Puts a buffer on top.
+         * @param buffer the buffer
+         * @return false if the stack is full
+         */
+        private boolean push(ByteBuffer buffer) {
+            if (count == buffers.length) {
+                return false;
+            }
+            buffers[count++] = buffer;
+            return true;
+        }
+    }
+
+    /**
+     * This class tracks a leased buffer in debug mode, without keeping it reachable.
+     */
+    private static final class Lease extends WeakReference<ByteBuffer> {
+
+        private final int identity;
+        private final int capacity;
+        private final Throwable origin;
+
+        /**
+         * Class constructor that receives the leased buffer and the stack that leased it.
+         * @param buffer the buffer
+         * @param queue the queue receiving the lease once the buffer is unreachable
+         * @param origin the stack of the lease
+         */
+        private Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue, Throwable origin) {
+            super(buffer, queue);
+            this.identity = System.identityHashCode(buffer);
+            this.capacity = buffer.capacity();
+            this.origin = origin;
+        }
+    }
+}
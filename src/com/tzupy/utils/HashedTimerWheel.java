@@ -0,0 +1,262 @@
+package com.tzupy.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Logger;
+
+/**
+ * This class runs many timeouts on a single thread. Timeouts are hashed by their deadline into the
+ * slots of a wheel that a thread advances one slot per tick, so scheduling and cancelling cost a queue
+ * insertion each, whatever the number of pending timeouts, and every tick only visits one slot.
+ * A timeout expires within one tick after its deadline; its task runs on the wheel's thread and must be short.
+ */
+public class HashedTimerWheel {
+
+    private static final Logger logger = Logger.getLogger(HashedTimerWheel.class.getCanonicalName());
+
+    private final long tickNanos;
+    private final Slot[] wheel;
+    private final int mask;
+    private final Thread thread;
+
+    // timeouts are handed to the wheel's thread, which alone touches the slots
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+    private long startTime;
+    private long tick;
+
+    /**
+     * Class constructor that receives the wheel's resolution and size.
+     * @param tickMillis the duration of a tick in milliseconds, the timeouts' precision
+     * @param slots the number of slots, rounded up to a power of two; a turn of the wheel should cover
+     *              the usual timeouts, longer ones wait for several turns
+     * @param threadName the name of the wheel's thread
+     */
+    public HashedTimerWheel(long tickMillis, int slots, String threadName) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.wheel = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the wheel's thread.
+     */
+    public void start() {
+        startTime = System.nanoTime();
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the wheel's thread. Pending timeouts never expire.
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Schedules a task to run once a delay elapsed, unless it is cancelled before.
+     * @param task the task, run on the wheel's thread
+     * @param delay the delay
+     * @param unit the delay's unit
+     * @return the timeout, to cancel it
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel tick by tick and expires the timeouts of every slot it reaches.
+     */
+    private void run() {
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    continue; // stopped
+                }
+            }
+            removeCancelled();
+            addScheduled();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Places the newly scheduled timeouts into their slots.
+     */
+    private void addScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state != Timeout.pendingState) {
+                continue;
+            }
+            // a timeout whose deadline passed already expires at the current tick
+            long ticks = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Takes the cancelled timeouts out of their slots, so they don't hold memory until their deadline.
+     */
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.slot != null) {
+                timeout.slot.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * This class is a scheduled task that can be cancelled until it expired.
+     */
+    public static class Timeout {
+
+        private static final int pendingState = 0;
+        private static final int cancelledState = 1;
+        private static final int expiredState = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> stateUpdater =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimerWheel owner;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        // owned by the wheel's thread
+        private long rounds;
+        private Slot slot;
+        private Timeout previous;
+        private Timeout next;
+
+        /**
+         * Class constructor that receives the wheel, the task and its deadline.
+         * @param owner the wheel the timeout is scheduled on
+         * @param task the task
+         * @param deadline the nano time the task runs at
+         */
+        private Timeout(HashedTimerWheel owner, Runnable task, long deadline) {
+            this.owner = owner;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout, so its task won't run.
+         * @return false if the task already ran or is running
+         */
+        public boolean cancel() {
+            if (!stateUpdater.compareAndSet(this, pendingState, cancelledState)) {
+                return false;
+            }
+            owner.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Returns true if the task ran or is running.
+         * @return the timeout's expiry
+         */
+        public boolean isExpired() {
+            return state == expiredState;
+        }
+
+        /**
+         * Runs the task unless the timeout was cancelled.
+         */
+        private void expire() {
+            if (!stateUpdater.compareAndSet(this, pendingState, expiredState)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                logger.severe("Timeout task failed: " + ex);
+            }
+        }
+    }
+
+    /**
+     * This class holds the timeouts hashed to one slot of the wheel, in a doubly linked list.
+     */
+    private static class Slot {
+
+        private Timeout head;
+        private Timeout tail;
+
+        /**
+         * Appends a timeout.
+         * @param timeout the timeout
+         */
+        private void add(Timeout timeout) {
+            timeout.slot = this;
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        /**
+         * Unlinks a timeout.
+         * @param timeout the timeout, which is in this slot
+         */
+        private void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.slot = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Expires the timeouts due in the current turn of the wheel, and counts down the others.
+         * @param now the nano time of the current tick
+         */
+        private void expire(long now) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0 && timeout.deadline <= now) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
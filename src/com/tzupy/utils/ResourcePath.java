@@ -2,16 +2,14 @@ package com.tzupy.utils;
 
 /**
  * This class defines paths for known resources.
+ * The resources are bundled with the server and served from memory under a reserved prefix.
  */
 public abstract class ResourcePath {
 
-    //public final static String directory = "/resources/directory.png";
-    //public final static String file = "/resources/file.png";
-    //public final static String favIcon = "/resources/server.png";
-    //public final static String style = "/resources/styles.css";
+    public final static String prefix = "/.resources/";
 
-    public final static String directory = "https://raw.githubusercontent.com/Tzupy/MT-web-server/master/resources/directory.png";
-    public final static String file = "https://raw.githubusercontent.com/Tzupy/MT-web-server/master/resources/file.png";
-    public final static String favIcon = "https://raw.githubusercontent.com/Tzupy/MT-web-server/master/resources/server.png";
-    public final static String style = "https://raw.githubusercontent.com/Tzupy/MT-web-server/master/resources/styles.css";
+    public final static String directory = prefix + "directory.png";
+    public final static String file = prefix + "file.png";
+    public final static String favIcon = prefix + "server.png";
+    public final static String style = prefix + "styles.css";
 }
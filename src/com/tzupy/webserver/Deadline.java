@@ -0,0 +1,162 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.ResponseBody;
+import com.tzupy.utils.HashedTimerWheel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the time a connection spends in one phase: receiving a request head, waiting
+ * for the next request, or sending a response. The deadline is a timeout on the server's timer wheel;
+ * when it expires, the connection is closed by the given task.
+ * A response may take the write timeout plus the time its bytes need at the minimum write rate. The
+ * length of a chunked body isn't known, so its deadline moves on with every chunk that was sent.
+ */
+public class Deadline implements Runnable {
+
+    public final static String header = "header";
+    public final static String idle = "idle";
+    public final static String write = "write";
+
+    private final ServerContext context;
+    private final String phase;
+    private final Runnable onExpiry;
+    private final long start = System.nanoTime();
+
+    // the response of a write deadline, and the number of its bytes the deadline allows for
+    private final ResponseBody body;
+    private final long headerLength;
+    private long allowedBytes;
+
+    private volatile HashedTimerWheel.Timeout timeout;
+    private volatile boolean cancelled;
+    private volatile boolean expired;
+
+    /**
+     * Class constructor that receives the phase and the response of a write deadline.
+     * @param context the server's settings, timer wheel and metrics
+     * @param phase header, idle or write
+     * @param body the response body being sent, or null
+     * @param headerLength the length of the response header being sent
+     * @param onExpiry the task closing the connection
+     */
+    private Deadline(ServerContext context, String phase, ResponseBody body, long headerLength, Runnable onExpiry) {
+        this.context = context;
+        this.phase = phase;
+        this.body = body;
+        this.headerLength = headerLength;
+        this.onExpiry = onExpiry;
+    }
+
+    /**
+     * Starts the deadline of receiving a request head: the first one of a connection, or one whose
+     * first bytes arrived.
+     * @param context the server's settings, timer wheel and metrics
+     * @param onExpiry the task closing the connection, run on the timer wheel's thread
+     * @return the deadline
+     */
+    public static Deadline header(ServerContext context, Runnable onExpiry) {
+        Deadline deadline = new Deadline(context, header, null, 0, onExpiry);
+        deadline.schedule(TimeUnit.SECONDS.toNanos(context.getConfig().getHeaderTimeout()));
+        return deadline;
+    }
+
+    /**
+     * Starts the deadline of waiting for the next request on a persistent connection.
+     * @param context the server's settings, timer wheel and metrics
+     * @param onExpiry the task closing the connection, run on the timer wheel's thread
+     * @return the deadline
+     */
+    public static Deadline idle(ServerContext context, Runnable onExpiry) {
+        Deadline deadline = new Deadline(context, idle, null, 0, onExpiry);
+        deadline.schedule(TimeUnit.SECONDS.toNanos(context.getConfig().getIdleTimeout()));
+        return deadline;
+    }
+
+    /**
+     * Starts the deadline of sending a response.
+     * @param context the server's settings, timer wheel and metrics
+     * @param headerLength the length of the response header
+     * @param body the response body, or null if there is none
+     * @param onExpiry the task closing the connection, run on the timer wheel's thread
+     * @return the deadline
+     */
+    public static Deadline write(ServerContext context, long headerLength, ResponseBody body, Runnable onExpiry) {
+        Deadline deadline = new Deadline(context, write, body, headerLength, onExpiry);
+        deadline.allowedBytes = headerLength + (body == null ? 0 : Math.max(0, body.length()));
+        deadline.schedule(deadline.getWriteBudget(deadline.allowedBytes));
+        return deadline;
+    }
+
+    /**
+     * Gets the time a response of a number of bytes may take.
+     * @param bytes the number of bytes
+     * @return the time in nanoseconds
+     */
+    private long getWriteBudget(long bytes) {
+        ServerConfig config = context.getConfig();
+        return TimeUnit.SECONDS.toNanos(config.getWriteTimeout()) + bytes * 1000000000L / config.getMinWriteRate();
+    }
+
+    /**
+     * Schedules the deadline's timeout, which replaces the previous one.
+     * @param delayNanos the time until the deadline
+     */
+    private void schedule(long delayNanos) {
+        timeout = context.getTimerWheel().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+        // a cancellation while the timeout was replaced must not be lost
+        if (cancelled) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Expires the deadline, unless a chunked body made progress, which moves the deadline on.
+     * Runs on the timer wheel's thread.
+     */
+    @Override
+    public void run() {
+        if (cancelled) {
+            return;
+        }
+        if (body != null && body.length() < 0) {
+            long sent = headerLength + body.written();
+            long remaining = start + getWriteBudget(sent) - System.nanoTime();
+            if (sent > allowedBytes && remaining > 0) {
+                allowedBytes = sent;
+                schedule(remaining);
+                return;
+            }
+        }
+        expired = true;
+        context.getMetrics().timedOut(phase);
+        onExpiry.run();
+    }
+
+    /**
+     * Cancels the deadline, once its phase ended in time.
+     */
+    public void cancel() {
+        cancelled = true;
+        HashedTimerWheel.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Returns true if the deadline passed and the connection is being closed.
+     * @return the deadline's expiry
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Gets the phase the deadline limits.
+     * @return header, idle or write
+     */
+    public String getPhase() {
+        return phase;
+    }
+}
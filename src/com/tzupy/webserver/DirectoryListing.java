@@ -0,0 +1,151 @@
+package com.tzupy.webserver;
+
+import com.tzupy.html.HtmlContent;
+import com.tzupy.html.HtmlGenerator;
+import com.tzupy.utils.FileUtils;
+import com.tzupy.utils.ResourcePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class renders the html listing of a directory, either whole and sorted, or piece by piece
+ * for directories too large to be held in memory.
+ */
+public class DirectoryListing {
+
+    private final HtmlContent htmlContent = new HtmlContent();
+    private final HtmlGenerator htmlGenerator = new HtmlGenerator("Web server");
+    private final Path directory;
+    private final String filename;
+    private final boolean root;
+
+    /**
+     * Class constructor that receives the server's root and the listed directory.
+     * @param root the server's root
+     * @param directory the listed directory
+     * @param filename the requested name, shown as the page's heading
+     * @throws IOException the directory couldn't be resolved
+     */
+    public DirectoryListing(File root, File directory, String filename) throws IOException {
+        this.directory = directory.toPath();
+        this.filename = filename;
+        this.root = directory.getCanonicalPath().equals(root.getCanonicalPath());
+    }
+
+    /**
+     * Renders the whole listing, directories first, each group in alphabetical order.
+     * @param maxEntries the largest number of entries rendered whole
+     * @return the encoded document, or null if the directory has more entries and must be streamed
+     * @throws IOException the directory couldn't be read
+     */
+    public byte[] render(int maxEntries) throws IOException {
+        // sorted maps keep each group in alphabetical order
+        Map<Path, BasicFileAttributes> directories = new TreeMap<>();
+        Map<Path, BasicFileAttributes> files = new TreeMap<>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (directories.size() + files.size() >= maxEntries) {
+                    return null;
+                }
+                BasicFileAttributes attributes = readAttributes(entry);
+                if (attributes == null) {
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    directories.put(entry, attributes);
+                } else if (attributes.isRegularFile()) {
+                    files.put(entry, attributes);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+
+        StringBuilder sb = new StringBuilder(getStart());
+        directories.forEach((entry, attributes) -> sb.append(getRow(entry, attributes)));
+        files.forEach((entry, attributes) -> sb.append(getRow(entry, attributes)));
+        sb.append(getEnd());
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the beginning of the document: its head, the heading, the table header and the link to
+     * the parent directory.
+     * @return the resulting html content
+     */
+    public String getStart() {
+        StringBuilder sb = new StringBuilder(htmlGenerator.generateStart());
+        sb.append(htmlContent.asHeading("Index of " + filename));
+        sb.append(htmlContent.asTableStart(new String[] { "Name", "Last Modified", "Size" }));
+
+        // add back navigation
+        if (!root) {
+            String name = htmlContent.asAnchor(".." + File.separator, "UP");
+            sb.append(htmlContent.asTableRow(new String[] { name, "", "" }));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the table row of a directory entry.
+     * @param entry the entry
+     * @param attributes the entry's attributes
+     * @return the resulting html content, or an empty string if the entry is neither a file nor a directory
+     */
+    public String getRow(Path entry, BasicFileAttributes attributes) {
+        String name = entry.getFileName().toString();
+        String lastModified = FileUtils.getFileLastModifiedFormatted(new Date(attributes.lastModifiedTime().toMillis()));
+        if (attributes.isDirectory()) {
+            String icon = htmlContent.asImage(ResourcePath.directory, 20, 20, 5);
+            String anchor = htmlContent.asAnchor(name + File.separator, name);
+            return htmlContent.asTableRow(new String[] { icon + anchor, lastModified, "-" });
+        }
+        if (attributes.isRegularFile()) {
+            String icon = htmlContent.asImage(ResourcePath.file, 20, 20, 5);
+            String anchor = htmlContent.asAnchor(name, name);
+            String size = FileUtils.getFileSizeFormatted(attributes.size());
+            return htmlContent.asTableRow(new String[] { icon + anchor, lastModified, size });
+        }
+        return "";
+    }
+
+    /**
+     * Gets the end of the document, closing the table.
+     * @return the resulting html content
+     */
+    public String getEnd() {
+        return htmlContent.asTableEnd() + htmlGenerator.generateEnd();
+    }
+
+    /**
+     * Gets the listed directory.
+     * @return the directory's path
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads the attributes of an entry, following symbolic links as the listing shows their targets.
+     * @param entry the entry
+     * @return the attributes, or null if the entry vanished or is a dangling link
+     */
+    public static BasicFileAttributes readAttributes(Path entry) {
+        try {
+            return Files.readAttributes(entry, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.tzupy.webserver;
+
+/**
+ * This class defines the available modes for running server tasks.
+ */
+public abstract class ExecutorMode {
+    public final static String platform = "platform";
+    public final static String virtual = "virtual";
+}
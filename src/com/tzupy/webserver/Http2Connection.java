@@ -0,0 +1,1235 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.BufferBody;
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.HttpResponse;
+import com.tzupy.http.ResponseBody;
+import com.tzupy.http2.HeaderField;
+import com.tzupy.http2.HpackDecoder;
+import com.tzupy.http2.HpackEncoder;
+import com.tzupy.http2.Http2Error;
+import com.tzupy.http2.Http2Exception;
+import com.tzupy.http2.Http2Frame;
+import com.tzupy.http2.Http2Setting;
+import com.tzupy.log.AccessLog;
+import com.tzupy.metrics.ResponseType;
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the state of a non-blocking client connection that switched to HTTP/2, either
+ * negotiated with ALPN, upgraded from HTTP/1.1 or started with the connection preface right away.
+ * Requests arrive on streams that are handled by the workers concurrently, and their responses are
+ * interleaved in frames as the client's flow control windows and the streams' priorities allow, see
+ * {@link StreamScheduler}. Responses are written by the same request handler as on HTTP/1.1 connections.
+ * The connection's input and output buffers are leased from the server's pools until it is closed.
+ * All methods except the worker task run on the owning event loop.
+ */
+public class Http2Connection {
+
+    private static final Logger logger = Logger.getLogger(Http2Connection.class.getCanonicalName());
+
+    // the protocol id negotiated with ALPN
+    public final static String protocol = "h2";
+
+    // the largest frame accepted from the client, the default as the server doesn't announce another
+    private static final int maxFrameSize = Http2Setting.defaultMaxFrameSize;
+    // the largest header block accepted across CONTINUATION frames
+    private static final int maxHeaderBlockSize = 64 * 1024;
+    // the largest header list accepted, counted as in the dynamic table; larger requests are answered with 431
+    private static final int maxHeaderListSize = HttpRequest.maxHeadSize + 32 * HttpRequest.maxHeaders;
+    private static final int outputSize = 64 * 1024;
+    // the room a response's HEADERS frame takes at most: HPACK never doubles the size of an HTTP/1.1 head
+    private static final int maxHeadersFrame = Http2Frame.headerLength + 2 * HttpResponse.maxHeaderSize;
+    // the smallest DATA frame worth sending when the output buffer is nearly full
+    private static final int minDataFrame = 1024;
+    // control frames that may wait to be sent; a client causing more doesn't read its responses
+    private static final int maxControlBytes = 64 * 1024;
+
+    private static final byte[] switchingProtocols =
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII);
+
+    private final NioEventLoop eventLoop;
+    private final SelectionKey key;
+    private final ByteChannel io;
+    private final TlsChannel tls;
+    private final ServerContext context;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final BufferPool pool;
+    private final BufferPool heapPool;
+    private final byte[] remoteAddress;
+    private final int maxStreams;
+
+    private final HpackDecoder decoder = new HpackDecoder(Http2Setting.defaultHeaderTableSize, maxHeaderListSize);
+    private final HpackEncoder encoder = new HpackEncoder(Http2Setting.defaultHeaderTableSize);
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    private final StreamScheduler scheduler = new StreamScheduler(streams);
+
+    // received bytes that don't make a whole frame yet, in write mode; a heap buffer, as the HPACK decoder
+    // reads the header blocks' strings from its array
+    private ByteBuffer input;
+    // frames waiting for the socket, in write mode
+    private ByteBuffer output;
+    // control frames waiting for room in the output, sent before any response, in write mode
+    private ByteBuffer control = ByteBuffer.allocate(256);
+    // copies DATA payloads from the response bodies into the output
+    private final WritableByteChannel frameSink = new FrameSink();
+
+    // the bytes of the client's connection preface received so far
+    private int prefaceOffset;
+    private boolean settingsReceived;
+    // the header block being received in CONTINUATION frames, with its HEADERS frame's stream, flags and priority
+    private ByteBuffer headerBlock;
+    private int headerStream;
+    private int headerFlags;
+    private int headerDependency;
+    private int headerWeight;
+
+    private int lastStreamId;
+    private long sendWindow = Http2Setting.defaultWindowSize;
+    private long receiveWindow = Http2Setting.defaultWindowSize;
+    private int initialWindow = Http2Setting.defaultWindowSize;
+    private int peerMaxFrameSize = Http2Setting.defaultMaxFrameSize;
+    // the client sent GOAWAY, the connection closes once its open streams were answered
+    private boolean goingAway;
+    // the server sent GOAWAY, the connection closes once it was written
+    private boolean closing;
+    private boolean flushScheduled;
+
+    // the deadline of the current phase: idle without streams, write while the client doesn't take the responses
+    private Deadline deadline;
+    // the bytes written to the socket, and the count at which a write deadline is renewed
+    private long written;
+    private long deadlineTarget;
+
+    /**
+     * Class constructor that receives the connection's state from the HTTP/1.1 connection it replaces.
+     * @param eventLoop the loop performing this connection's I/O
+     * @param key the connection's selection key
+     * @param io the channel frames pass through, the socket's or its TLS layer
+     * @param tls the TLS layer, or null for a plaintext connection
+     * @param context the server's root, settings and caches
+     * @param remoteAddress the client's address for the access log, or null if it is disabled
+     * @param prefaceOffset the bytes of the connection preface the HTTP/1.1 request parser already took
+     */
+    public Http2Connection(NioEventLoop eventLoop, SelectionKey key, ByteChannel io, TlsChannel tls,
+                           ServerContext context, byte[] remoteAddress, int prefaceOffset) {
+        this.eventLoop = eventLoop;
+        this.key = key;
+        this.io = io;
+        this.tls = tls;
+        this.context = context;
+        this.metrics = context.getMetrics();
+        this.accessLog = context.getAccessLog();
+        this.pool = context.getBufferPool();
+        this.heapPool = context.getHeapBufferPool();
+        this.remoteAddress = remoteAddress;
+        this.maxStreams = context.getConfig().getHttp2MaxStreams();
+        this.prefaceOffset = prefaceOffset;
+        // a whole frame fits, the input is compacted once it was handled
+        this.input = heapPool.acquire(Http2Frame.headerLength + maxFrameSize);
+        this.output = pool.acquire(outputSize);
+        metrics.http2Connection();
+    }
+
+    /**
+     * Decodes the HTTP2-Settings header of an upgrade request.
+     * @param value the header's value, base64url encoded SETTINGS payload
+     * @return the payload, or null if the value isn't a valid one
+     */
+    public static ByteBuffer decodeSettings(String value) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(value.trim());
+            return payload.length % 6 == 0 ? ByteBuffer.wrap(payload) : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the connection by sending the server's settings, then handles the bytes that were
+     * received with the connection preface.
+     * @param received the received bytes, or null
+     * @throws IOException the channel couldn't be written
+     */
+    public void start(ByteBuffer received) throws IOException {
+        queueSettings();
+        if (received != null) {
+            receive(received);
+        }
+        flush();
+    }
+
+    /**
+     * Starts the connection upgraded from an HTTP/1.1 request: the 101 response and the server's
+     * settings are sent, and the request is answered on stream 1.
+     * @param request the upgrade request, whose head was received completely
+     * @param settings the client's settings from the HTTP2-Settings header
+     * @param received the bytes received after the request, or null
+     * @throws IOException the channel couldn't be written
+     */
+    public void upgrade(HttpRequest request, ByteBuffer settings, ByteBuffer received) throws IOException {
+        control.put(switchingProtocols);
+        queueSettings();
+        try {
+            applySettings(settings);
+        } catch (Http2Exception ex) {
+            goAway(ex.getErrorCode(), ex.getMessage());
+            flush();
+            return;
+        }
+        lastStreamId = 1;
+        Http2Stream stream = new Http2Stream(lastStreamId, initialWindow);
+        stream.setRequest(request);
+        stream.closeRemote();
+        streams.put(lastStreamId, stream);
+        metrics.http2Stream();
+        submit(stream);
+        if (received != null) {
+            receive(received);
+        }
+        flush();
+    }
+
+    /**
+     * Reads available frames and handles them, then writes the responses and control frames that are
+     * ready. A TLS record may hold more bytes than the read buffer, so reading goes on while the TLS
+     * layer has received bytes left.
+     * @param readBuffer the loop's shared read buffer
+     * @throws IOException the channel couldn't be read or written
+     */
+    public void onReadable(ByteBuffer readBuffer) throws IOException {
+        do {
+            readBuffer.clear();
+            int read = io.read(readBuffer);
+            if (read < 0) {
+                eventLoop.close(key);
+                return;
+            }
+            readBuffer.flip();
+            receive(readBuffer);
+        } while (tls != null && !closing && key.isValid() && tls.hasBufferedInput());
+        flush();
+    }
+
+    /**
+     * Writes as much of the waiting frames as the socket accepts.
+     * @throws IOException the channel couldn't be written
+     */
+    public void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * Ends all streams, closing their response bodies, cancels the deadline and gives the buffers back
+     * to the pools. Called once the connection is closed, possibly again on shutdown.
+     */
+    public void release() {
+        cancelDeadline();
+        for (Http2Stream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+        heapPool.release(input);
+        pool.release(output);
+        heapPool.release(headerBlock);
+        input = null;
+        output = null;
+        headerBlock = null;
+    }
+
+    /**
+     * Appends received bytes to the input and handles the whole frames. A connection error is
+     * answered with GOAWAY, after which further input is ignored.
+     * @param received the received bytes, from its position to its limit
+     */
+    private void receive(ByteBuffer received) {
+        try {
+            while (received.hasRemaining() && !closing) {
+                int count = Math.min(received.remaining(), input.remaining());
+                ByteBuffer part = received.duplicate();
+                part.limit(part.position() + count);
+                input.put(part);
+                received.position(received.position() + count);
+                input.flip();
+                try {
+                    readFrames();
+                } finally {
+                    input.compact();
+                }
+            }
+        } catch (Http2Exception ex) {
+            goAway(ex.getErrorCode(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Checks the connection preface, then handles the whole frames of the input. A stream error
+     * resets the stream and the connection goes on.
+     * @throws Http2Exception the client broke the protocol, a connection error
+     */
+    private void readFrames() throws Http2Exception {
+        byte[] preface = Http2Frame.preface;
+        while (prefaceOffset < preface.length && input.hasRemaining()) {
+            if (input.get() != preface[prefaceOffset++]) {
+                throw new Http2Exception(Http2Error.protocolError, "invalid connection preface");
+            }
+        }
+        while (input.remaining() >= Http2Frame.headerLength && !closing) {
+            int start = input.position();
+            int length = (input.get(start) & 0xff) << 16 | (input.get(start + 1) & 0xff) << 8
+                    | input.get(start + 2) & 0xff;
+            if (length > maxFrameSize) {
+                throw new Http2Exception(Http2Error.frameSizeError, "frame of " + length + " bytes");
+            }
+            if (input.remaining() < Http2Frame.headerLength + length) {
+                return;
+            }
+            int type = input.get(start + 3) & 0xff;
+            int flags = input.get(start + 4) & 0xff;
+            int streamId = input.getInt(start + 5) & Integer.MAX_VALUE;
+            input.position(start + Http2Frame.headerLength);
+            ByteBuffer payload = input.slice();
+            payload.limit(length);
+            input.position(start + Http2Frame.headerLength + length);
+
+            if (!settingsReceived && (type != Http2Frame.settings || (flags & Http2Frame.ack) != 0)) {
+                throw new Http2Exception(Http2Error.protocolError, "connection preface without SETTINGS");
+            }
+            try {
+                onFrame(type, flags, streamId, payload);
+            } catch (Http2Exception ex) {
+                if (ex.getStreamId() == 0) {
+                    throw ex;
+                }
+                logger.fine("Stream " + ex.getStreamId() + " is reset: " + ex.getMessage());
+                resetStream(ex.getStreamId(), ex.getErrorCode());
+            }
+            if (control.position() > maxControlBytes) {
+                throw new Http2Exception(Http2Error.enhanceYourCalm, "client doesn't read control frames");
+            }
+        }
+    }
+
+    /**
+     * Handles a frame.
+     * @param type the frame type
+     * @param flags the frame's flags
+     * @param streamId the stream id, 0 for the connection
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol, a stream or a connection error
+     */
+    private void onFrame(int type, int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headerBlock != null && type != Http2Frame.continuation) {
+            throw new Http2Exception(Http2Error.protocolError, "header block interrupted");
+        }
+        switch (type) {
+            case Http2Frame.data:
+                onData(flags, streamId, payload);
+                break;
+            case Http2Frame.headers:
+                onHeaders(flags, streamId, payload);
+                break;
+            case Http2Frame.priority:
+                onPriority(streamId, payload);
+                break;
+            case Http2Frame.rstStream:
+                onReset(streamId, payload);
+                break;
+            case Http2Frame.settings:
+                onSettings(flags, streamId, payload);
+                break;
+            case Http2Frame.pushPromise:
+                throw new Http2Exception(Http2Error.protocolError, "client sent PUSH_PROMISE");
+            case Http2Frame.ping:
+                onPing(flags, streamId, payload);
+                break;
+            case Http2Frame.goAway:
+                if (streamId != 0) {
+                    throw new Http2Exception(Http2Error.protocolError, "GOAWAY on a stream");
+                }
+                goingAway = true;
+                break;
+            case Http2Frame.windowUpdate:
+                onWindowUpdate(streamId, payload);
+                break;
+            case Http2Frame.continuation:
+                onContinuation(flags, streamId, payload);
+                break;
+            case Http2Frame.priorityUpdate:
+                onPriorityUpdate(streamId, payload);
+                break;
+            default:
+                // frames of unknown types are ignored
+                break;
+        }
+    }
+
+    /**
+     * Handles a DATA frame. Request bodies aren't read, but they count against the connection's
+     * receive window, which is enlarged again once half of it was used.
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onData(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Error.protocolError, "DATA on the connection");
+        }
+        receiveWindow -= payload.remaining();
+        if (receiveWindow < 0) {
+            throw new Http2Exception(Http2Error.flowControlError, "receive window exceeded");
+        }
+        if (receiveWindow < Http2Setting.defaultWindowSize / 2) {
+            queueWindowUpdate(0, (int) (Http2Setting.defaultWindowSize - receiveWindow));
+            receiveWindow = Http2Setting.defaultWindowSize;
+        }
+        unpad(flags, payload);
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Error.protocolError, "DATA on idle stream " + streamId);
+            }
+            // a stream that was answered or reset
+            return;
+        }
+        if (stream.isRemoteClosed()) {
+            throw new Http2Exception(Http2Error.streamClosed, streamId, "DATA after END_STREAM");
+        }
+        if ((flags & Http2Frame.endStream) != 0) {
+            stream.closeRemote();
+        }
+    }
+
+    /**
+     * Handles a HEADERS frame, which starts a header block that CONTINUATION frames may continue.
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Error.protocolError, "HEADERS on the connection");
+        }
+        unpad(flags, payload);
+        int dependency = 0;
+        int weight = Http2Stream.defaultWeight;
+        if ((flags & Http2Frame.priorityFlag) != 0) {
+            if (payload.remaining() < 5) {
+                throw new Http2Exception(Http2Error.frameSizeError, "HEADERS too short for its priority");
+            }
+            dependency = payload.getInt();
+            weight = (payload.get() & 0xff) + 1;
+        }
+        if ((flags & Http2Frame.endHeaders) != 0) {
+            onHeaderBlock(streamId, flags, dependency, weight, payload);
+            return;
+        }
+        headerBlock = heapPool.acquire(maxHeaderBlockSize);
+        headerBlock.limit(maxHeaderBlockSize);
+        headerBlock.put(payload);
+        headerStream = streamId;
+        headerFlags = flags;
+        headerDependency = dependency;
+        headerWeight = weight;
+    }
+
+    /**
+     * Handles a CONTINUATION frame, which continues the header block being received.
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol or the block is too large
+     */
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headerBlock == null || streamId != headerStream) {
+            throw new Http2Exception(Http2Error.protocolError, "unexpected CONTINUATION");
+        }
+        if (payload.remaining() > headerBlock.remaining()) {
+            throw new Http2Exception(Http2Error.enhanceYourCalm, "header block too large");
+        }
+        headerBlock.put(payload);
+        if ((flags & Http2Frame.endHeaders) != 0) {
+            ByteBuffer block = headerBlock;
+            block.flip();
+            headerBlock = null;
+            try {
+                onHeaderBlock(headerStream, headerFlags, headerDependency, headerWeight, block);
+            } finally {
+                heapPool.release(block);
+            }
+        }
+    }
+
+    /**
+     * Handles a complete header block: either a request opening a stream, or trailers ending one.
+     * The block is always decoded, as it may change the dynamic table the following blocks refer to.
+     * @param streamId the stream id
+     * @param flags the flags of the block's HEADERS frame
+     * @param dependency the stream the new stream depends on, the top bit set if it depends exclusively
+     * @param weight the new stream's weight
+     * @param block the header block
+     * @throws Http2Exception the block breaks the protocol or makes a malformed request
+     */
+    private void onHeaderBlock(int streamId, int flags, int dependency, int weight, ByteBuffer block)
+            throws Http2Exception {
+        List<HeaderField> fields = new ArrayList<>(16);
+        boolean complete = decoder.decode(block, fields);
+        boolean endStream = (flags & Http2Frame.endStream) != 0;
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            if (stream.isRemoteClosed()) {
+                throw new Http2Exception(Http2Error.streamClosed, streamId, "HEADERS after END_STREAM");
+            }
+            if (!endStream) {
+                throw new Http2Exception(Http2Error.protocolError, streamId, "trailers without END_STREAM");
+            }
+            stream.closeRemote();
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            // trailers of a stream that was answered or reset
+            return;
+        }
+        if ((streamId & 1) == 0) {
+            throw new Http2Exception(Http2Error.protocolError, "client opened even stream " + streamId);
+        }
+        lastStreamId = streamId;
+        if (goingAway) {
+            return;
+        }
+        if (streams.size() >= maxStreams) {
+            queueReset(streamId, Http2Error.refusedStream);
+            metrics.http2StreamReset(false);
+            return;
+        }
+
+        stream = new Http2Stream(streamId, initialWindow);
+        streams.put(streamId, stream);
+        metrics.http2Stream();
+        if (endStream) {
+            stream.closeRemote();
+        }
+        if ((flags & Http2Frame.priorityFlag) != 0) {
+            prioritize(stream, dependency, weight);
+        }
+        stream.receiveHeaders(fields, complete);
+        submit(stream);
+    }
+
+    /**
+     * Handles a PRIORITY frame. Priorities of streams that aren't open are ignored.
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onPriority(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Error.protocolError, "PRIORITY on the connection");
+        }
+        if (payload.remaining() != 5) {
+            throw new Http2Exception(Http2Error.frameSizeError, streamId, "PRIORITY of invalid size");
+        }
+        int dependency = payload.getInt();
+        int weight = (payload.get() & 0xff) + 1;
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            prioritize(stream, dependency, weight);
+        }
+    }
+
+    /**
+     * Applies an RFC 7540 priority to a stream. A stream that depends on one of its own dependents
+     * takes its place, and an exclusive dependency makes the stream the only dependent of its parent.
+     * @param stream the stream
+     * @param dependency the stream it depends on, the top bit set if it depends exclusively
+     * @param weight the weight
+     * @throws Http2Exception the stream depends on itself, a stream error
+     */
+    private void prioritize(Http2Stream stream, int dependency, int weight) throws Http2Exception {
+        int parentId = dependency & Integer.MAX_VALUE;
+        if (parentId == stream.getId()) {
+            throw new Http2Exception(Http2Error.protocolError, stream.getId(), "stream depends on itself");
+        }
+        Http2Stream parent = streams.get(parentId);
+        for (int depth = 0; parent != null && depth < streams.size(); depth++) {
+            if (parent.getDependency() == stream.getId()) {
+                streams.get(parentId).setDependency(stream.getDependency());
+                break;
+            }
+            parent = streams.get(parent.getDependency());
+        }
+        if (dependency < 0) {
+            for (Http2Stream other : streams.values()) {
+                if (other != stream && other.getDependency() == parentId) {
+                    other.setDependency(stream.getId());
+                }
+            }
+        }
+        stream.applyPriority(parentId, weight);
+    }
+
+    /**
+     * Handles an RST_STREAM frame: the client cancelled a stream, whose response is dropped.
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onReset(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new Http2Exception(Http2Error.protocolError, "RST_STREAM on idle stream " + streamId);
+        }
+        if (payload.remaining() != 4) {
+            throw new Http2Exception(Http2Error.frameSizeError, "RST_STREAM of invalid size");
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            metrics.http2StreamReset(true);
+            closeStream(stream);
+        }
+    }
+
+    /**
+     * Handles a SETTINGS frame, which is acknowledged once applied.
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Error.protocolError, "SETTINGS on a stream");
+        }
+        if ((flags & Http2Frame.ack) != 0) {
+            if (payload.hasRemaining()) {
+                throw new Http2Exception(Http2Error.frameSizeError, "SETTINGS acknowledgement with payload");
+            }
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new Http2Exception(Http2Error.frameSizeError, "SETTINGS of invalid size");
+        }
+        applySettings(payload);
+        settingsReceived = true;
+        queue(0, Http2Frame.settings, Http2Frame.ack, 0);
+    }
+
+    /**
+     * Applies the client's settings. The initial window size changes the send window of every open
+     * stream by the difference; the concurrent streams and header list limits don't apply to responses.
+     * @param payload the settings, six bytes each
+     * @throws Http2Exception a setting's value is invalid
+     */
+    private void applySettings(ByteBuffer payload) throws Http2Exception {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xffff;
+            int value = payload.getInt();
+            switch (id) {
+                case Http2Setting.headerTableSize:
+                    // an unsigned value beyond 2^31 - 1 reads as negative
+                    encoder.setPeerTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case Http2Setting.enablePush:
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Error.protocolError, "invalid ENABLE_PUSH " + value);
+                    }
+                    break;
+                case Http2Setting.initialWindowSize:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Error.flowControlError, "invalid INITIAL_WINDOW_SIZE");
+                    }
+                    long delta = (long) value - initialWindow;
+                    initialWindow = value;
+                    for (Http2Stream stream : streams.values()) {
+                        if (stream.getSendWindow() + delta > Http2Setting.maxWindowSize) {
+                            throw new Http2Exception(Http2Error.flowControlError, "send window overflow");
+                        }
+                        stream.updateSendWindow(delta);
+                    }
+                    break;
+                case Http2Setting.maxFrameSize:
+                    if (value < Http2Setting.defaultMaxFrameSize || value > Http2Setting.maxMaxFrameSize) {
+                        throw new Http2Exception(Http2Error.protocolError, "invalid MAX_FRAME_SIZE " + value);
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:
+                    // settings of unknown ids are ignored
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Handles a PING frame, which is answered with the same payload.
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onPing(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Error.protocolError, "PING on a stream");
+        }
+        if (payload.remaining() != 8) {
+            throw new Http2Exception(Http2Error.frameSizeError, "PING of invalid size");
+        }
+        if ((flags & Http2Frame.ack) == 0) {
+            queue(8, Http2Frame.ping, Http2Frame.ack, 0).put(payload);
+        }
+    }
+
+    /**
+     * Handles a WINDOW_UPDATE frame, which enlarges the send window of the connection or of a stream.
+     * @param streamId the stream id, 0 for the connection
+     * @param payload the payload
+     * @throws Http2Exception the frame breaks the protocol or the window overflows
+     */
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() != 4) {
+            throw new Http2Exception(Http2Error.frameSizeError, "WINDOW_UPDATE of invalid size");
+        }
+        int increment = payload.getInt() & Integer.MAX_VALUE;
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new Http2Exception(Http2Error.protocolError, "WINDOW_UPDATE of 0");
+            }
+            sendWindow += increment;
+            if (sendWindow > Http2Setting.maxWindowSize) {
+                throw new Http2Exception(Http2Error.flowControlError, "send window overflow");
+            }
+            return;
+        }
+        if (increment == 0) {
+            throw new Http2Exception(Http2Error.protocolError, streamId, "WINDOW_UPDATE of 0");
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.updateSendWindow(increment);
+        } else if (streamId > lastStreamId) {
+            throw new Http2Exception(Http2Error.protocolError, "WINDOW_UPDATE on idle stream " + streamId);
+        }
+    }
+
+    /**
+     * Handles a PRIORITY_UPDATE frame, which changes the RFC 9218 priority of an open stream.
+     * @param streamId the stream id
+     * @param payload the payload, the prioritized stream's id and the priority field's value
+     * @throws Http2Exception the frame breaks the protocol
+     */
+    private void onPriorityUpdate(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Error.protocolError, "PRIORITY_UPDATE on a stream");
+        }
+        if (payload.remaining() < 4) {
+            throw new Http2Exception(Http2Error.frameSizeError, "PRIORITY_UPDATE of invalid size");
+        }
+        Http2Stream stream = streams.get(payload.getInt() & Integer.MAX_VALUE);
+        if (stream != null) {
+            byte[] value = new byte[payload.remaining()];
+            payload.get(value);
+            stream.applyPriority(new String(value, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Removes the padding of a DATA or HEADERS frame's payload.
+     * @param flags the frame's flags
+     * @param payload the payload, whose pad length is read and whose limit is moved before the padding
+     * @throws Http2Exception the padding exceeds the payload
+     */
+    private static void unpad(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & Http2Frame.padded) == 0) {
+            return;
+        }
+        if (!payload.hasRemaining()) {
+            throw new Http2Exception(Http2Error.frameSizeError, "padded frame without pad length");
+        }
+        int padLength = payload.get() & 0xff;
+        if (padLength > payload.remaining()) {
+            throw new Http2Exception(Http2Error.protocolError, "padding exceeds payload");
+        }
+        payload.limit(payload.limit() - padLength);
+    }
+
+    /**
+     * Hands a stream's request to a worker, or answers it with the load shedder's 503 response if
+     * the queue is full.
+     * @param stream the stream, whose request was received
+     */
+    private void submit(Http2Stream stream) {
+        stream.setRequestStart(System.nanoTime());
+        try {
+            eventLoop.submit(() -> handle(stream));
+        } catch (RejectedExecutionException ex) {
+            shed(stream, false);
+        }
+    }
+
+    /**
+     * Handles a stream's request on a worker thread and passes the response back to the event loop.
+     * A request that waited for a worker longer than the queue timeout is turned away instead.
+     * @param stream the stream
+     */
+    private void handle(Http2Stream stream) {
+        if (context.getLoadShedder().isExpired(stream.getRequestStart())) {
+            eventLoop.execute(() -> shed(stream, true));
+            return;
+        }
+        ByteBuffer header = heapPool.acquire(HttpResponse.maxHeaderSize);
+        List<HeaderField> fields;
+        ResponseBody body;
+        String type;
+        int code;
+        metrics.workerStarted();
+        try {
+            RequestHandler requestHandler = new RequestHandler(context);
+            requestHandler.handleRequest(stream.getRequest());
+            requestHandler.handleResponse(header, true);
+            header.flip();
+            fields = Http2Stream.toHeaderFields(header);
+            body = requestHandler.getBody();
+            type = requestHandler.getResponseType();
+            code = requestHandler.getStatus();
+            if (code == 0) {
+                // a stream without a header would never end, it is reset instead
+                throw new IllegalStateException("No response was written for " + stream.getRequest().getFilename());
+            }
+        } catch (RuntimeException ex) {
+            logger.severe("Runtime exception: " + ex.getMessage());
+            eventLoop.execute(() -> {
+                if (!stream.isClosed() && key.isValid()) {
+                    resetStream(stream.getId(), Http2Error.internalError);
+                    scheduleFlush();
+                }
+            });
+            return;
+        } finally {
+            metrics.workerFinished();
+            heapPool.release(header);
+        }
+        eventLoop.execute(() -> respond(stream, fields, body, type, code));
+    }
+
+    /**
+     * Answers a stream with the load shedder's 503 response. Runs on the event loop.
+     * @param stream the stream
+     * @param expired true if the request waited too long for a worker, false if the queue was full
+     */
+    private void shed(Http2Stream stream, boolean expired) {
+        ByteBuffer response = context.getLoadShedder().getResponse(expired);
+        List<HeaderField> fields = Http2Stream.toHeaderFields(response);
+        respond(stream, fields, new BufferBody(response), ResponseType.error, 503);
+    }
+
+    /**
+     * Queues a stream's response to be sent, unless the stream was reset meanwhile. Runs on the event loop.
+     * @param stream the stream
+     * @param fields the response's header fields
+     * @param body the response body, or null if there is none
+     * @param type the kind of the response, for the metrics
+     * @param code the status code
+     */
+    private void respond(Http2Stream stream, List<HeaderField> fields, ResponseBody body, String type, int code) {
+        stream.setResponse(fields, body, type, code);
+        if (stream.isClosed() || !key.isValid()) {
+            stream.release();
+            return;
+        }
+        scheduler.add(stream);
+        scheduleFlush();
+    }
+
+    /**
+     * Flushes once the tasks queued on the event loop ran, so the responses that workers finished
+     * meanwhile leave together.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        eventLoop.execute(() -> {
+            flushScheduled = false;
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException ex) {
+                logger.severe("IO Exception: " + ex.getMessage());
+                eventLoop.close(key);
+            }
+        });
+    }
+
+    /**
+     * Fills the output with frames and writes it until the socket doesn't accept more or nothing is
+     * left to send, then waits for the socket or for the client's next frames.
+     * @throws IOException the channel couldn't be written
+     */
+    private void flush() throws IOException {
+        while (fill() || output.position() > 0) {
+            output.flip();
+            try {
+                written += io.write(output);
+            } finally {
+                output.compact();
+            }
+            if (output.position() > 0) {
+                awaitWritable();
+                return;
+            }
+        }
+        // the TLS layer may hold the last record
+        if (tls != null && !tls.flush()) {
+            awaitWritable();
+            return;
+        }
+        if (closing || (goingAway && streams.isEmpty())) {
+            if (tls != null) {
+                tls.closeOutbound();
+            }
+            eventLoop.close(key);
+            return;
+        }
+        awaitFrames();
+    }
+
+    /**
+     * Moves the waiting control frames to the output, followed by the frames of the responses the
+     * scheduler chooses, as far as the output has room and the send windows allow.
+     * @return true if frames were added to the output
+     */
+    private boolean fill() {
+        int start = output.position();
+        if (control.position() > 0) {
+            control.flip();
+            int count = Math.min(control.remaining(), output.remaining());
+            ByteBuffer part = control.duplicate();
+            part.limit(part.position() + count);
+            output.put(part);
+            control.position(control.position() + count);
+            control.compact();
+        }
+        if (closing || control.position() > 0) {
+            return output.position() > start;
+        }
+        Http2Stream stream;
+        while ((stream = scheduler.next(sendWindow > 0)) != null) {
+            if (!stream.isHeadersSent()) {
+                if (output.remaining() < maxHeadersFrame) {
+                    break;
+                }
+                writeHeaders(stream);
+            } else if (output.remaining() < Http2Frame.headerLength + minDataFrame || !writeData(stream)) {
+                break;
+            }
+        }
+        return output.position() > start;
+    }
+
+    /**
+     * Writes a response's HEADERS frame, which ends the stream if the response has no body.
+     * @param stream the stream
+     */
+    private void writeHeaders(Http2Stream stream) {
+        int index = output.position();
+        output.position(index + Http2Frame.headerLength);
+        encoder.encode(stream.getResponseHeaders(), output);
+        int length = output.position() - index - Http2Frame.headerLength;
+        boolean last = stream.getBody() == null || stream.getBody().length() == 0;
+        int flags = Http2Frame.endHeaders | (last ? Http2Frame.endStream : 0);
+        Http2Frame.writeHeader(output, index, length, Http2Frame.headers, flags, stream.getId());
+        stream.headersSent(Http2Frame.headerLength + length);
+        if (last) {
+            finishStream(stream);
+        }
+    }
+
+    /**
+     * Writes a DATA frame of as much of a response body as the send windows, the client's maximum frame
+     * size and the output allow. The frame that ends the body ends the stream.
+     * @param stream the stream
+     * @return true if a frame was written
+     */
+    private boolean writeData(Http2Stream stream) {
+        int index = output.position();
+        int allowed = (int) Math.min(Math.min(sendWindow, stream.getSendWindow()),
+                Math.min(peerMaxFrameSize, output.remaining() - Http2Frame.headerLength));
+        int limit = output.limit();
+        output.position(index + Http2Frame.headerLength);
+        output.limit(output.position() + allowed);
+        boolean last;
+        try {
+            last = stream.getBody().writeTo(frameSink);
+        } catch (IOException ex) {
+            // e.g. a file truncated while it is sent; only this stream is lost
+            logger.severe("IO Exception: " + ex.getMessage());
+            output.limit(limit);
+            output.position(index);
+            resetStream(stream.getId(), Http2Error.internalError);
+            return true;
+        } finally {
+            output.limit(limit);
+        }
+        int length = output.position() - index - Http2Frame.headerLength;
+        if (length == 0 && !last) {
+            output.position(index);
+            return false;
+        }
+        Http2Frame.writeHeader(output, index, length, Http2Frame.data, last ? Http2Frame.endStream : 0,
+                stream.getId());
+        sendWindow -= length;
+        stream.dataSent(length);
+        scheduler.charge(stream, length);
+        if (last) {
+            finishStream(stream);
+        }
+        return true;
+    }
+
+    /**
+     * Records a completely sent response and ends its stream. A client still sending a request body
+     * is told with RST_STREAM that the rest isn't needed.
+     * @param stream the stream
+     */
+    private void finishStream(Http2Stream stream) {
+        long duration = System.nanoTime() - stream.getRequestStart();
+        metrics.record(stream.getResponseType(), stream.getStatus(), duration,
+                stream.getHeaderBytes() + stream.getBodySent());
+        accessLog.log(remoteAddress, stream.getRequest(), stream.getStatus(), stream.getBodySent(), duration);
+        if (!stream.isRemoteClosed()) {
+            queueReset(stream.getId(), Http2Error.noError);
+        }
+        closeStream(stream);
+    }
+
+    /**
+     * Resets a stream with an error code and drops its response.
+     * @param streamId the stream id
+     * @param errorCode the error code
+     */
+    private void resetStream(int streamId, int errorCode) {
+        queueReset(streamId, errorCode);
+        metrics.http2StreamReset(false);
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            closeStream(stream);
+        }
+    }
+
+    /**
+     * Ends a stream and closes its response body. The streams depending on it depend on its parent instead.
+     * @param stream the stream
+     */
+    private void closeStream(Http2Stream stream) {
+        stream.close();
+        streams.remove(stream.getId());
+        scheduler.remove(stream);
+        for (Http2Stream other : streams.values()) {
+            if (other.getDependency() == stream.getId()) {
+                other.setDependency(stream.getDependency());
+            }
+        }
+    }
+
+    /**
+     * Sends GOAWAY after a connection error, or to an idle client, and closes the connection once it
+     * was written. Streams the client opened meanwhile are ignored.
+     * @param errorCode the error code
+     * @param reason the logged reason
+     */
+    private void goAway(int errorCode, String reason) {
+        if (errorCode != Http2Error.noError) {
+            logger.warning("Client's connection is closed: " + reason);
+        }
+        queue(8, Http2Frame.goAway, 0, 0).putInt(lastStreamId).putInt(errorCode);
+        closing = true;
+    }
+
+    /**
+     * Queues the server's SETTINGS frame: the number of concurrent streams and the header list size.
+     */
+    private void queueSettings() {
+        queue(12, Http2Frame.settings, 0, 0)
+                .putShort((short) Http2Setting.maxConcurrentStreams).putInt(maxStreams)
+                .putShort((short) Http2Setting.maxHeaderListSize).putInt(maxHeaderListSize);
+    }
+
+    /**
+     * Queues an RST_STREAM frame.
+     * @param streamId the stream id
+     * @param errorCode the error code
+     */
+    private void queueReset(int streamId, int errorCode) {
+        queue(4, Http2Frame.rstStream, 0, streamId).putInt(errorCode);
+    }
+
+    /**
+     * Queues a WINDOW_UPDATE frame.
+     * @param streamId the stream id, 0 for the connection
+     * @param increment the increment
+     */
+    private void queueWindowUpdate(int streamId, int increment) {
+        queue(4, Http2Frame.windowUpdate, 0, streamId).putInt(increment);
+    }
+
+    /**
+     * Queues a control frame's header, growing the control buffer if needed.
+     * @param length the payload length
+     * @param type the frame type
+     * @param flags the frame's flags
+     * @param streamId the stream id
+     * @return the control buffer, to which the caller writes the payload
+     */
+    private ByteBuffer queue(int length, int type, int flags, int streamId) {
+        int size = Http2Frame.headerLength + length;
+        if (control.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * control.capacity(), control.position() + size));
+            control.flip();
+            larger.put(control);
+            control = larger;
+        }
+        Http2Frame.writeHeader(control, length, type, flags, streamId);
+        return control;
+    }
+
+    /**
+     * Waits until the socket accepts more frames, reading the client's frames meanwhile.
+     */
+    private void awaitWritable() {
+        startWriteDeadline();
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Waits for the client's next frames. Without open streams the idle timeout applies; while responses
+     * wait for the client to enlarge a send window, the write deadline does.
+     */
+    private void awaitFrames() {
+        if (streams.isEmpty()) {
+            if (deadline == null || !deadline.getPhase().equals(Deadline.idle)) {
+                cancelDeadline();
+                deadline = Deadline.idle(context, this::expire);
+            }
+        } else if (scheduler.isBlocked(sendWindow > 0)) {
+            startWriteDeadline();
+        } else {
+            cancelDeadline();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Starts the write deadline, unless one is running and the client hasn't taken the bytes it was
+     * set for yet. A client that keeps reading keeps the connection, however long its responses are.
+     */
+    private void startWriteDeadline() {
+        if (deadline != null && deadline.getPhase().equals(Deadline.write) && written < deadlineTarget) {
+            return;
+        }
+        cancelDeadline();
+        deadline = Deadline.write(context, output.position(), null, this::expire);
+        deadlineTarget = written + Math.max(1, output.position());
+    }
+
+    /**
+     * Cancels the deadline of the phase that just ended, if any.
+     */
+    private void cancelDeadline() {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    /**
+     * Asks the event loop to end the connection once a deadline passed: an idle client is sent GOAWAY,
+     * a client that doesn't read its responses is reset. Runs on the timer wheel's thread.
+     */
+    private void expire() {
+        eventLoop.execute(() -> {
+            // the connection may have moved on to another phase meanwhile
+            if (deadline == null || !deadline.isExpired() || !key.isValid()) {
+                return;
+            }
+            if (deadline.getPhase().equals(Deadline.idle)) {
+                deadline = null;
+                goAway(Http2Error.noError, null);
+                try {
+                    flush();
+                } catch (IOException ex) {
+                    logger.fine("Couldn't send GOAWAY: " + ex.getMessage());
+                    eventLoop.close(key);
+                }
+                return;
+            }
+            try {
+                ((SocketChannel) key.channel()).socket().setSoLinger(true, 0);
+            } catch (IOException ex) {
+                logger.fine("Couldn't reset client socket: " + ex.getMessage());
+            }
+            eventLoop.close(key);
+        });
+    }
+
+    /**
+     * This class copies DATA payloads from a response body into the output, as far as the output's
+     * limit allows.
+     */
+    private final class FrameSink implements WritableByteChannel {
+
+        /**
+         * Copies as many bytes as the output has room for.
+         * @param src the bytes
+         * @return the number of bytes copied
+         */
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(src.remaining(), output.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + count);
+            output.put(part);
+            src.position(src.position() + count);
+            return count;
+        }
+
+        /**
+         * Returns true, the output is always open.
+         * @return true
+         */
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        /**
+         * Does nothing, the output belongs to the connection.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
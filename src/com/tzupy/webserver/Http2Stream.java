@@ -0,0 +1,525 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.HttpStatusCode;
+import com.tzupy.http.ResponseBody;
+import com.tzupy.http2.HeaderField;
+import com.tzupy.http2.Http2Error;
+import com.tzupy.http2.Http2Exception;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the state of a request stream of an HTTP/2 connection: the request, the response
+ * once a worker created it, the stream's send window and its priority. The request's header fields are
+ * turned into an HTTP/1.1 style head for the request parser, and the response head written by the request
+ * handler is turned back into header fields, so streams are answered by the same code as HTTP/1.1 requests.
+ */
+public class Http2Stream {
+
+    private static final Logger logger = Logger.getLogger(Http2Stream.class.getCanonicalName());
+
+    public final static int defaultUrgency = 3;
+    public final static int defaultWeight = 16;
+
+    // headers that only apply to an HTTP/1.1 connection and make an HTTP/2 message malformed
+    private static final Set<String> connectionHeaders = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"));
+
+    private final int id;
+    private HttpRequest request;
+    private long requestStart;
+    // a response to HEAD has no DATA frames, whatever its head announces
+    private boolean headRequest;
+
+    // the response, set once a worker handled the request
+    private List<HeaderField> responseHeaders;
+    private ResponseBody body;
+    private String responseType;
+    private int status;
+    private boolean headersSent;
+    private int headerBytes;
+    private long bodySent;
+
+    private long sendWindow;
+    private boolean remoteClosed;
+    private boolean closed;
+
+    // the priority: RFC 9218 urgency and incremental flag, RFC 7540 weight and dependency
+    private int urgency = defaultUrgency;
+    private boolean incremental = true;
+    private int weight = defaultWeight;
+    private int dependency;
+    // the stream's progress in the weighted sharing of the connection, see StreamScheduler
+    private long pass;
+
+    /**
+     * Class constructor that receives the stream's id and the peer's initial window size.
+     * @param id the stream id, an odd number as clients open streams
+     * @param sendWindow the initial send window
+     */
+    public Http2Stream(int id, int sendWindow) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Creates the request from the stream's header fields. The pseudo-headers make the request line,
+     * :authority the host header, and the regular headers follow as they are. A header list too large
+     * to be kept is answered with 431.
+     * @param fields the decoded header fields
+     * @param complete false if fields were dropped as the list exceeded its maximum size
+     * @throws Http2Exception the fields make a malformed request, a stream error
+     */
+    public void receiveHeaders(List<HeaderField> fields, boolean complete) throws Http2Exception {
+        request = new HttpRequest();
+        if (!complete) {
+            request.reject(HttpStatusCode.headerFieldsTooLarge, "header list too large");
+            return;
+        }
+
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        boolean host = false;
+        StringBuilder headers = new StringBuilder(256);
+        for (HeaderField field : fields) {
+            String name = field.getName();
+            String value = field.getValue();
+            if (!isValid(name, true) || !isValid(value, false)) {
+                throw malformed("invalid header " + field);
+            }
+            if (field.isPseudoHeader()) {
+                if (headers.length() > 0) {
+                    throw malformed("pseudo-header after regular headers");
+                }
+                switch (name) {
+                    case ":method":
+                        method = unique(method, field);
+                        break;
+                    case ":path":
+                        path = unique(path, field);
+                        break;
+                    case ":scheme":
+                        scheme = unique(scheme, field);
+                        break;
+                    case ":authority":
+                        authority = unique(authority, field);
+                        break;
+                    default:
+                        throw malformed("unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            if (connectionHeaders.contains(name) || (name.equals("te") && !value.equals("trailers"))) {
+                throw malformed("connection-specific header " + name);
+            }
+            if (name.equals("priority")) {
+                applyPriority(value);
+            }
+            host |= name.equals("host");
+            headers.append(name).append(": ").append(value).append("\r\n");
+        }
+        if (method == null || (!method.equals("CONNECT") && (scheme == null || path == null || path.isEmpty()))) {
+            throw malformed("missing pseudo-header");
+        }
+
+        headRequest = method.equals("HEAD");
+        StringBuilder head = new StringBuilder(headers.length() + 64);
+        head.append(method).append(' ').append(path == null ? "*" : path).append(" HTTP/2.0\r\n");
+        if (authority != null && !host) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        head.append(headers).append("\r\n");
+        request.feed(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Returns true if a header name or value has no bytes that would break the request head, and a
+     * name has no upper case letters, which HTTP/2 forbids, nor a colon but a pseudo-header's first.
+     * @param text the name or the value
+     * @param name true for a name
+     * @return the text's validity
+     */
+    private static boolean isValid(String text, boolean name) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0
+                    || (name && ((c >= 'A' && c <= 'Z') || c == ' ' || (c == ':' && i > 0)))) {
+                return false;
+            }
+        }
+        return !name || !text.isEmpty();
+    }
+
+    /**
+     * Returns the value of a pseudo-header, which must appear once.
+     * @param previous the value already received, or null
+     * @param field the field
+     * @return the field's value
+     * @throws Http2Exception the pseudo-header was repeated
+     */
+    private String unique(String previous, HeaderField field) throws Http2Exception {
+        if (previous != null) {
+            throw malformed("repeated pseudo-header " + field.getName());
+        }
+        return field.getValue();
+    }
+
+    /**
+     * Creates the stream error of a malformed request.
+     * @param reason the logged reason
+     * @return the exception
+     */
+    private Http2Exception malformed(String reason) {
+        logger.warning("Client's request is rejected: " + reason);
+        return new Http2Exception(Http2Error.protocolError, id, reason);
+    }
+
+    /**
+     * Applies an RFC 9218 priority, e.g. u=1, i, from the priority header or a PRIORITY_UPDATE frame.
+     * Parameters that aren't understood are ignored. A stream that got a priority this way is only sent
+     * in turns with others if it is marked incremental.
+     * @param value the priority field's value
+     */
+    public void applyPriority(String value) {
+        int newUrgency = defaultUrgency;
+        boolean newIncremental = false;
+        for (String parameter : value.split(",")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() == 3 && trimmed.startsWith("u=") && trimmed.charAt(2) >= '0'
+                    && trimmed.charAt(2) <= '7') {
+                newUrgency = trimmed.charAt(2) - '0';
+            } else if (trimmed.equals("i") || trimmed.equals("i=?1")) {
+                newIncremental = true;
+            }
+        }
+        urgency = newUrgency;
+        incremental = newIncremental;
+    }
+
+    /**
+     * Applies an RFC 7540 priority, from a HEADERS or a PRIORITY frame.
+     * @param dependency the stream this one depends on, 0 for none
+     * @param weight the weight, 1 to 256
+     */
+    public void applyPriority(int dependency, int weight) {
+        this.dependency = dependency;
+        this.weight = weight;
+    }
+
+    /**
+     * Sets the response a worker created. The body of a response to HEAD is dropped.
+     * @param head the response's header fields, see {@link #toHeaderFields(ByteBuffer)}
+     * @param body the body, or null if the response has none
+     * @param responseType the kind of the response, for the metrics
+     * @param status the status code
+     */
+    public void setResponse(List<HeaderField> head, ResponseBody body, String responseType, int status) {
+        this.responseHeaders = head;
+        this.body = body;
+        this.responseType = responseType;
+        this.status = status;
+        if (headRequest) {
+            release();
+        }
+    }
+
+    /**
+     * Turns an HTTP/1.1 response head into HTTP/2 header fields: the status line becomes :status, header
+     * names are lower case and headers that only apply to an HTTP/1.1 connection are left out.
+     * @param head the encoded head, from its position to its limit, which is moved past the head
+     * @return the header fields
+     */
+    public static List<HeaderField> toHeaderFields(ByteBuffer head) {
+        List<HeaderField> fields = new ArrayList<>(16);
+        String line = readLine(head);
+        // HTTP/1.1 200 OK
+        fields.add(new HeaderField(":status", line.length() >= 12 ? line.substring(9, 12) : "500"));
+        while (!(line = readLine(head)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).toLowerCase(Locale.ROOT);
+            if (!connectionHeaders.contains(name)) {
+                fields.add(new HeaderField(name, line.substring(colon + 1).trim()));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Reads a line of a response head.
+     * @param head the head
+     * @return the line without its line break, empty at the head's end
+     */
+    private static String readLine(ByteBuffer head) {
+        StringBuilder line = new StringBuilder(64);
+        while (head.hasRemaining()) {
+            char c = (char) (head.get() & 0xff);
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append(c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Closes the response body, if any.
+     */
+    public void release() {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't close response body: " + ex.getMessage());
+            }
+            body = null;
+        }
+    }
+
+    /**
+     * Gets the stream id.
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the request received on this stream.
+     * @return the request, whose head was received completely
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Sets the request of a stream that wasn't opened with a header block, i.e. the HTTP/1.1 request
+     * a connection was upgraded with.
+     * @param request the request, whose head was received completely
+     */
+    public void setRequest(HttpRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Gets the time the request was complete, from which the response time is measured.
+     * @return the nano time
+     */
+    public long getRequestStart() {
+        return requestStart;
+    }
+
+    /**
+     * Sets the time the request was complete.
+     * @param requestStart the nano time
+     */
+    public void setRequestStart(long requestStart) {
+        this.requestStart = requestStart;
+    }
+
+    /**
+     * Returns true once a worker created the response.
+     * @return true if the response can be sent
+     */
+    public boolean hasResponse() {
+        return responseHeaders != null;
+    }
+
+    /**
+     * Gets the response's header fields.
+     * @return the fields, :status first
+     */
+    public List<HeaderField> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * Gets the part of the response body that is still to be sent.
+     * @return the body, or null if the response has none
+     */
+    public ResponseBody getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the kind of the response, for the metrics.
+     * @return file, listing, metrics or error
+     */
+    public String getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * Gets the status code of the response.
+     * @return the status code
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns true once the response's HEADERS frame was sent.
+     * @return true if DATA frames follow
+     */
+    public boolean isHeadersSent() {
+        return headersSent;
+    }
+
+    /**
+     * Records the response's HEADERS frame as sent.
+     * @param headerBytes the size of the frame, for the metrics
+     */
+    public void headersSent(int headerBytes) {
+        this.headersSent = true;
+        this.headerBytes = headerBytes;
+    }
+
+    /**
+     * Gets the number of bytes of the response's HEADERS frame.
+     * @return the size in bytes
+     */
+    public int getHeaderBytes() {
+        return headerBytes;
+    }
+
+    /**
+     * Gets the number of body bytes sent.
+     * @return the number of bytes
+     */
+    public long getBodySent() {
+        return bodySent;
+    }
+
+    /**
+     * Gets the number of bytes the stream may send before the client allows more.
+     * @return the send window, negative if the client shrank it below what was sent
+     */
+    public long getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * Enlarges or shrinks the send window, after a WINDOW_UPDATE frame or a changed initial window size.
+     * @param delta the change
+     * @throws Http2Exception the window exceeds 2^31 - 1, a stream error
+     */
+    public void updateSendWindow(long delta) throws Http2Exception {
+        sendWindow += delta;
+        if (sendWindow > Integer.MAX_VALUE) {
+            throw new Http2Exception(Http2Error.flowControlError, id, "send window overflow");
+        }
+    }
+
+    /**
+     * Records body bytes sent in a DATA frame.
+     * @param count the number of bytes
+     */
+    public void dataSent(int count) {
+        sendWindow -= count;
+        bodySent += count;
+    }
+
+    /**
+     * Returns true once the client sent its last frame on the stream.
+     * @return true if the stream is half-closed by the client
+     */
+    public boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    /**
+     * Records the client's last frame on the stream.
+     */
+    public void closeRemote() {
+        remoteClosed = true;
+    }
+
+    /**
+     * Returns true once the stream ended, completely sent or reset.
+     * @return the stream's state
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Ends the stream and closes its response body. A worker's response arriving later is dropped.
+     */
+    public void close() {
+        closed = true;
+        release();
+    }
+
+    /**
+     * Gets the RFC 9218 urgency, 0 being the most urgent.
+     * @return the urgency, 0 to 7
+     */
+    public int getUrgency() {
+        return urgency;
+    }
+
+    /**
+     * Returns true if the stream is sent in turns with other streams of the same urgency, rather than
+     * one after the other in the order they were opened.
+     * @return the incremental flag
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Gets the RFC 7540 weight, the stream's share of the connection among incremental streams.
+     * @return the weight, 1 to 256
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gets the stream this one depends on, which is sent first while it has data the window allows.
+     * @return the stream id, 0 for none
+     */
+    public int getDependency() {
+        return dependency;
+    }
+
+    /**
+     * Sets the stream this one depends on, e.g. when the stream it depended on closed.
+     * @param dependency the stream id, 0 for none
+     */
+    public void setDependency(int dependency) {
+        this.dependency = dependency;
+    }
+
+    /**
+     * Gets the stream's progress in the weighted sharing of the connection.
+     * @return the pass, growing with the bytes sent divided by the weight
+     */
+    public long getPass() {
+        return pass;
+    }
+
+    /**
+     * Sets the stream's progress in the weighted sharing of the connection.
+     * @param pass the pass
+     */
+    public void setPass(long pass) {
+        this.pass = pass;
+    }
+}
@@ -0,0 +1,130 @@
+package com.tzupy.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class renders a page of a directory's entries as json or ndjson. The directory is read in a
+ * single pass, keeping only the entries that may end up on the page, so a page of a huge directory
+ * costs memory in proportion to its offset and limit rather than to the directory's size.
+ */
+public class JsonListing {
+
+    private final Path directory;
+    private final String filename;
+    private final ListingQuery query;
+
+    private List<ListingEntry> page;
+    private int total;
+    private boolean more;
+
+    /**
+     * Class constructor that receives the directory and the query.
+     * @param directory the listed directory
+     * @param filename the requested name
+     * @param query the requested format, order and page
+     */
+    public JsonListing(Path directory, String filename, ListingQuery query) {
+        this.directory = directory;
+        this.filename = filename;
+        this.query = query;
+    }
+
+    /**
+     * Reads the directory and selects the entries of the requested page.
+     * @throws IOException the directory couldn't be read
+     */
+    public void collect() throws IOException {
+        Comparator<ListingEntry> comparator = query.getComparator();
+        ListingEntry cursor = query.getCursor();
+        // one more entry than the page is kept, to tell whether there is a next page
+        int capacity = (int) Math.min((long) query.getOffset() + query.getLimit() + 1, Integer.MAX_VALUE);
+        // the head of the queue is the last kept entry, dropped first when a preceding one is found
+        PriorityQueue<ListingEntry> kept = new PriorityQueue<>(Math.min(capacity, 1024), comparator.reversed());
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path path : entries) {
+                BasicFileAttributes attributes = DirectoryListing.readAttributes(path);
+                ListingEntry entry = attributes == null ? null : ListingEntry.of(path, attributes);
+                if (entry == null) {
+                    continue;
+                }
+                total++;
+                if (cursor != null && comparator.compare(entry, cursor) <= 0) {
+                    continue;
+                }
+                if (kept.size() < capacity) {
+                    kept.add(entry);
+                } else if (comparator.compare(entry, kept.peek()) < 0) {
+                    kept.poll();
+                    kept.add(entry);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+
+        List<ListingEntry> sorted = new ArrayList<>(kept);
+        Collections.sort(sorted, comparator);
+        int end = (int) Math.min((long) query.getOffset() + query.getLimit(), sorted.size());
+        more = sorted.size() > end;
+        page = query.getOffset() < end ? sorted.subList(query.getOffset(), end) : Collections.emptyList();
+    }
+
+    /**
+     * Gets the query of the next page.
+     * @return the query string, or null if this page is the last one
+     */
+    public String getNextQuery() {
+        return more && !page.isEmpty() ? query.toNextQuery(page.get(page.size() - 1)) : null;
+    }
+
+    /**
+     * Renders the page. A json document describes the listing and holds the entries, ndjson has
+     * one entry per line and leaves the paging to the Link header.
+     * @return the encoded document
+     */
+    public byte[] render() {
+        StringBuilder sb = new StringBuilder(128 + 96 * page.size());
+        if (query.getFormat().equals(ListingQuery.ndjson)) {
+            for (ListingEntry entry : page) {
+                entry.appendJson(sb);
+                sb.append('\n');
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        sb.append("{\"path\":");
+        ListingEntry.appendString(sb, filename);
+        sb.append(",\"sort\":\"").append(query.getSort());
+        sb.append("\",\"order\":\"").append(query.isDescending() ? "desc" : "asc");
+        sb.append("\",\"offset\":").append(query.getOffset());
+        sb.append(",\"limit\":").append(query.getLimit());
+        sb.append(",\"total\":").append(total);
+        sb.append(",\"entries\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            page.get(i).appendJson(sb);
+        }
+        sb.append("],\"next\":");
+        if (more && !page.isEmpty()) {
+            ListingEntry.appendString(sb, page.get(page.size() - 1).toCursor());
+        } else {
+            sb.append("null");
+        }
+        sb.append("}\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
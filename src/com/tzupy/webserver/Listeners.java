@@ -0,0 +1,119 @@
+package com.tzupy.webserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * This class opens the listening channels of the server and applies the socket settings to its connections.
+ * Several acceptors each get a channel of their own, bound to the same port with SO_REUSEPORT, so the
+ * kernel spreads new connections over them instead of all acceptors contending for one accept queue.
+ * Where SO_REUSEPORT isn't available, i.e. before Java 9 or on platforms without it, the acceptors share
+ * a single channel.
+ */
+public abstract class Listeners {
+
+    private static final Logger logger = Logger.getLogger(Listeners.class.getCanonicalName());
+
+    private static final SocketOption<Boolean> reusePort = findReusePort();
+
+    /**
+     * Opens and binds the listening channels for a number of acceptors.
+     * @param config the server settings
+     * @param port the port to listen on, 0 for any free port
+     * @param count the number of acceptors
+     * @return a channel per acceptor, or a single channel the acceptors share
+     * @throws IOException a channel couldn't be opened or bound
+     */
+    public static ServerSocketChannel[] open(ServerConfig config, int port, int count) throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean shared = count == 1 || reusePort == null || !first.supportedOptions().contains(reusePort);
+        ServerSocketChannel[] channels = new ServerSocketChannel[shared ? 1 : count];
+        try {
+            channels[0] = bind(first, config, port, !shared);
+            // the other channels join the port the first one was given
+            int boundPort = first.socket().getLocalPort();
+            for (int i = 1; i < channels.length; i++) {
+                channels[i] = bind(ServerSocketChannel.open(), config, boundPort, true);
+            }
+        } catch (IOException ex) {
+            close(channels);
+            first.close();
+            throw ex;
+        }
+        if (count > 1 && shared) {
+            logger.warning("SO_REUSEPORT not supported, " + count + " acceptors share one listening socket");
+        }
+        return channels;
+    }
+
+    /**
+     * Applies the settings to a listening channel and binds it. The receive buffer is set before
+     * binding, as accepted connections inherit it and the window scale is agreed on connecting.
+     * @param channel the channel
+     * @param config the server settings
+     * @param port the port
+     * @param reusable true if other channels bind the same port
+     * @return the channel
+     * @throws IOException the channel couldn't be bound
+     */
+    private static ServerSocketChannel bind(ServerSocketChannel channel, ServerConfig config, int port,
+                                            boolean reusable) throws IOException {
+        if (reusable) {
+            channel.setOption(reusePort, true);
+        }
+        if (config.getReceiveBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBuffer());
+        }
+        channel.bind(new InetSocketAddress(port), config.getBacklog());
+        return channel;
+    }
+
+    /**
+     * Applies the settings to an accepted connection.
+     * @param channel the client channel
+     * @param config the server settings
+     * @throws IOException an option couldn't be set
+     */
+    public static void configure(SocketChannel channel, ServerConfig config) throws IOException {
+        if (config.isTcpNoDelay()) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (config.getSendBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBuffer());
+        }
+    }
+
+    /**
+     * Closes listening channels, logging failures.
+     * @param channels the channels, some of which may be null
+     */
+    public static void close(ServerSocketChannel[] channels) {
+        for (ServerSocketChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.severe("Couldn't close server channel: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up StandardSocketOptions.SO_REUSEPORT, so the server still runs on Java 8.
+     * @return the option, or null if the runtime doesn't have it
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePort() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.ChunkedBody;
+import com.tzupy.utils.BufferPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+
+/**
+ * This class streams the listing of a directory too large to be rendered whole. Entries are read
+ * from the directory while the listing is sent, in the order the file system returns them, so only
+ * a chunk of the listing is held at any time.
+ */
+public class ListingBody extends ChunkedBody {
+
+    private static final int chunkSize = 16 * 1024;
+
+    private final DirectoryListing listing;
+
+    private DirectoryStream<Path> directoryStream;
+    private Iterator<Path> entries;
+    private byte[] pending;
+    private int pendingOffset;
+    private boolean finished;
+
+    /**
+     * Class constructor that receives the listing to stream.
+     * @param listing the directory's listing
+     * @param chunked false to send the listing unframed to a client that doesn't know chunks
+     * @param pool the pool of direct buffers
+     * @param heapPool the pool of heap buffers
+     */
+    public ListingBody(DirectoryListing listing, boolean chunked, BufferPool pool, BufferPool heapPool) {
+        super(chunkSize, chunked, pool, heapPool);
+        this.listing = listing;
+    }
+
+    /**
+     * Encodes the next rows of the listing. The beginning of the document is sent on its own,
+     * before the directory is opened, so the client gets its first bytes right away.
+     * @param data the array to fill
+     * @return the number of encoded bytes, or -1 once everything was sent
+     * @throws IOException the directory couldn't be read
+     */
+    @Override
+    protected int nextChunk(byte[] data) throws IOException {
+        if (entries == null) {
+            if (pending == null) {
+                pending = listing.getStart().getBytes(StandardCharsets.UTF_8);
+            }
+            int length = drain(data, 0);
+            if (pending == null) {
+                directoryStream = Files.newDirectoryStream(listing.getDirectory());
+                entries = directoryStream.iterator();
+            }
+            return length;
+        }
+
+        int length = 0;
+        while (length < chunkSize) {
+            if (pending != null) {
+                length = drain(data, length);
+            } else if (finished) {
+                break;
+            } else {
+                pending = nextRow().getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return length == 0 && finished ? -1 : length;
+    }
+
+    /**
+     * Gets the next row of the listing, or the end of the document after the last entry.
+     * @return the resulting html content, possibly empty
+     * @throws IOException the directory couldn't be read
+     */
+    private String nextRow() throws IOException {
+        try {
+            while (entries.hasNext()) {
+                Path entry = entries.next();
+                BasicFileAttributes attributes = DirectoryListing.readAttributes(entry);
+                if (attributes != null) {
+                    return listing.getRow(entry, attributes);
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        finished = true;
+        return listing.getEnd();
+    }
+
+    /**
+     * Copies as much of the pending bytes as fits into the chunk.
+     * @param data the chunk
+     * @param offset the number of bytes already in the chunk
+     * @return the new number of bytes in the chunk
+     */
+    private int drain(byte[] data, int offset) {
+        int count = Math.min(pending.length - pendingOffset, chunkSize - offset);
+        System.arraycopy(pending, pendingOffset, data, offset, count);
+        pendingOffset += count;
+        if (pendingOffset == pending.length) {
+            pending = null;
+            pendingOffset = 0;
+        }
+        return offset + count;
+    }
+
+    /**
+     * Closes the directory and gives the buffers back to the pools.
+     * @throws IOException the directory couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (directoryStream != null) {
+            directoryStream.close();
+            directoryStream = null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.tzupy.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+
+/**
+ * This class holds what the listing api reports about a directory entry, read with a single stat.
+ */
+public class ListingEntry {
+
+    public final static String file = "file";
+    public final static String directory = "directory";
+
+    private final String name;
+    private final boolean isDirectory;
+    private final long size;
+    private final long lastModified;
+
+    /**
+     * Class constructor that receives the entry's properties.
+     * @param name the entry's name
+     * @param isDirectory true if the entry is a directory
+     * @param size the entry's size in bytes
+     * @param lastModified the entry's modification time in milliseconds
+     */
+    public ListingEntry(String name, boolean isDirectory, long size, long lastModified) {
+        this.name = name;
+        this.isDirectory = isDirectory;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Creates the entry of a file or directory.
+     * @param path the entry's path
+     * @param attributes the entry's attributes
+     * @return the entry, or null if it is neither a file nor a directory
+     */
+    public static ListingEntry of(Path path, BasicFileAttributes attributes) {
+        if (!attributes.isDirectory() && !attributes.isRegularFile()) {
+            return null;
+        }
+        return new ListingEntry(path.getFileName().toString(), attributes.isDirectory(),
+                attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Gets the entry's name.
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns true if the entry is a directory.
+     * @return the entry's type
+     */
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    /**
+     * Gets the entry's size, 0 for directories.
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the entry's modification time.
+     * @return the modification time in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Appends the entry as a json object.
+     * @param sb the document
+     */
+    public void appendJson(StringBuilder sb) {
+        sb.append("{\"name\":");
+        appendString(sb, name);
+        sb.append(",\"type\":\"").append(isDirectory ? directory : file);
+        sb.append("\",\"size\":").append(size);
+        sb.append(",\"mtime\":").append(lastModified);
+        sb.append('}');
+    }
+
+    /**
+     * Encodes the entry as an opaque cursor, the position after which the next page starts.
+     * @return the cursor, safe to use in a query
+     */
+    public String toCursor() {
+        String position = (isDirectory ? "d" : "f") + "/" + size + "/" + lastModified + "/" + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor made by toCursor.
+     * @param cursor the cursor
+     * @return the entry the cursor points after
+     * @throws IllegalArgumentException the cursor is malformed
+     */
+    public static ListingEntry fromCursor(String cursor) throws IllegalArgumentException {
+        String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = position.split("/", 4);
+        if (parts.length < 4 || !(parts[0].equals("d") || parts[0].equals("f"))) {
+            throw new IllegalArgumentException("Malformed cursor.");
+        }
+        // the number parsing errors are IllegalArgumentExceptions as well
+        return new ListingEntry(parts[3], parts[0].equals("d"), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    /**
+     * Appends a json string, escaping quotes, backslashes and control characters.
+     * @param sb the document
+     * @param value the string
+     */
+    public static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
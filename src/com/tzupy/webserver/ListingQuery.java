@@ -0,0 +1,249 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.MimeTypes;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * This class holds the parameters of a request to the listing api: the format, the sort order and
+ * the page. A page starts after a cursor, the last entry of the previous page, and/or at an offset.
+ */
+public class ListingQuery {
+
+    public final static String json = "json";
+    public final static String ndjson = "ndjson";
+    public final static String html = "html";
+
+    public final static String sortByName = "name";
+    public final static String sortBySize = "size";
+    public final static String sortByModified = "mtime";
+    public final static String sortByType = "type";
+
+    public final static int defaultLimit = 1000;
+    public final static int maxLimit = 10000;
+
+    private final String format;
+    private final String sort;
+    private final boolean descending;
+    private final int offset;
+    private final int limit;
+    private final ListingEntry cursor;
+
+    /**
+     * Class constructor that receives the query's parameters.
+     * @param format json or ndjson
+     * @param sort the sort key
+     * @param descending true to sort in descending order
+     * @param offset the number of entries skipped
+     * @param limit the maximum number of entries returned
+     * @param cursor the entry the page starts after, or null to start at the beginning
+     */
+    private ListingQuery(String format, String sort, boolean descending, int offset, int limit, ListingEntry cursor) {
+        this.format = format;
+        this.sort = sort;
+        this.descending = descending;
+        this.offset = offset;
+        this.limit = limit;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Creates the query of the first page of a listing, in ascending order.
+     * @param format json or ndjson
+     * @param sort the sort key
+     * @param limit the maximum number of entries returned
+     * @return the query
+     */
+    public static ListingQuery first(String format, String sort, int limit) {
+        return new ListingQuery(format, sort, false, 0, limit, null);
+    }
+
+    /**
+     * Chooses the listing format, from the format parameter or else from the Accept header.
+     * Browsers don't ask for json, so they keep getting the html listing.
+     * @param httpRequest the client's request
+     * @return json, ndjson or html
+     * @throws IllegalArgumentException the format parameter is unknown
+     */
+    public static String negotiateFormat(HttpRequest httpRequest) throws IllegalArgumentException {
+        String format = httpRequest.getParameter("format");
+        if (format != null) {
+            if (!format.equals(json) && !format.equals(ndjson) && !format.equals(html)) {
+                throw new IllegalArgumentException("Unknown listing format: " + format);
+            }
+            return format;
+        }
+
+        String accept = httpRequest.getHeader("accept");
+        if (accept == null) {
+            return html;
+        }
+        float htmlQuality = 0;
+        float jsonQuality = 0;
+        float ndjsonQuality = 0;
+        for (String element : accept.split(",")) {
+            int semicolon = element.indexOf(';');
+            String type = (semicolon < 0 ? element : element.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+            float quality = semicolon < 0 ? 1 : parseQuality(element.substring(semicolon + 1));
+            if (type.equals(MimeTypes.json)) {
+                jsonQuality = quality;
+            } else if (type.equals(MimeTypes.ndjson)) {
+                ndjsonQuality = quality;
+            } else if (type.equals("text/html")) {
+                htmlQuality = quality;
+            }
+        }
+
+        if (ndjsonQuality > 0 && ndjsonQuality >= jsonQuality && ndjsonQuality >= htmlQuality) {
+            return ndjson;
+        }
+        return jsonQuality > 0 && jsonQuality >= htmlQuality ? json : html;
+    }
+
+    /**
+     * Parses the q parameter of an Accept element.
+     * @param parameters the parameters following the media type
+     * @return the quality, 0 if it is malformed
+     */
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String value = parameter.trim();
+            if (value.startsWith("q=") || value.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(value.substring(2).trim());
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Parses the sort, order, offset, limit and cursor parameters.
+     * @param httpRequest the client's request
+     * @param format json or ndjson
+     * @return the query
+     * @throws IllegalArgumentException a parameter is malformed
+     */
+    public static ListingQuery parse(HttpRequest httpRequest, String format) throws IllegalArgumentException {
+        String sort = httpRequest.getParameter("sort");
+        if (sort == null) {
+            sort = sortByName;
+        } else if (!sort.equals(sortByName) && !sort.equals(sortBySize)
+                && !sort.equals(sortByModified) && !sort.equals(sortByType)) {
+            throw new IllegalArgumentException("Unknown sort key: " + sort);
+        }
+
+        String order = httpRequest.getParameter("order");
+        if (order != null && !order.equals("asc") && !order.equals("desc")) {
+            throw new IllegalArgumentException("Unknown sort order: " + order);
+        }
+
+        int offset = parseNumber(httpRequest.getParameter("offset"), 0, Integer.MAX_VALUE);
+        int limit = parseNumber(httpRequest.getParameter("limit"), defaultLimit, maxLimit);
+        String cursor = httpRequest.getParameter("cursor");
+        return new ListingQuery(format, sort, "desc".equals(order), offset, limit,
+                cursor == null || cursor.isEmpty() ? null : ListingEntry.fromCursor(cursor));
+    }
+
+    /**
+     * Parses a non-negative number parameter.
+     * @param value the parameter value, or null if it is missing
+     * @param defaultValue the value of a missing parameter
+     * @param maxValue the largest value, larger ones are lowered to it
+     * @return the number
+     * @throws IllegalArgumentException the value isn't a non-negative number
+     */
+    private static int parseNumber(String value, int defaultValue, int maxValue) throws IllegalArgumentException {
+        if (value == null) {
+            return defaultValue;
+        }
+        long number = Long.parseLong(value);
+        if (number < 0) {
+            throw new IllegalArgumentException("Negative number: " + value);
+        }
+        return (int) Math.min(number, maxValue);
+    }
+
+    /**
+     * Gets the order of the entries. Names are unique within a directory and break ties, so the
+     * order is total and a cursor marks an exact position.
+     * @return the comparator
+     */
+    public Comparator<ListingEntry> getComparator() {
+        Comparator<ListingEntry> byName = Comparator.comparing(ListingEntry::getName);
+        Comparator<ListingEntry> comparator;
+        if (sort.equals(sortBySize)) {
+            comparator = Comparator.comparingLong(ListingEntry::getSize).thenComparing(byName);
+        } else if (sort.equals(sortByModified)) {
+            comparator = Comparator.comparingLong(ListingEntry::getLastModified).thenComparing(byName);
+        } else if (sort.equals(sortByType)) {
+            // directories first, as in the html listing
+            comparator = Comparator.comparing((ListingEntry entry) -> !entry.isDirectory()).thenComparing(byName);
+        } else {
+            comparator = byName;
+        }
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * Creates the query of the page following this one.
+     * @param next the last entry of this page
+     * @return the query string, starting with a question mark
+     */
+    public String toNextQuery(ListingEntry next) {
+        return "?format=" + format + "&sort=" + sort + "&order=" + (descending ? "desc" : "asc")
+                + "&limit=" + limit + "&cursor=" + next.toCursor();
+    }
+
+    /**
+     * Gets the listing format.
+     * @return json or ndjson
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the sort key.
+     * @return name, size, mtime or type
+     */
+    public String getSort() {
+        return sort;
+    }
+
+    /**
+     * Returns true if the entries are sorted in descending order.
+     * @return the sort direction
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Gets the number of entries skipped, after the cursor if there is one.
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the maximum number of entries of the page.
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gets the entry the page starts after.
+     * @return the cursor's entry, or null if the page starts at the beginning
+     */
+    public ListingEntry getCursor() {
+        return cursor;
+    }
+}
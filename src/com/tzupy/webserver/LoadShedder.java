@@ -0,0 +1,107 @@
+package com.tzupy.webserver;
+
+import com.tzupy.html.HtmlContent;
+import com.tzupy.html.HtmlGenerator;
+import com.tzupy.http.HttpStatusCode;
+import com.tzupy.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * This class turns away work the server can't take on, so the admitted work keeps its latency.
+ * Work is shed when the worker pool's queue is full, or when it waited in the queue for longer than
+ * the queue timeout and its client is likely to have given up. The 503 response is encoded once,
+ * so answering it costs a single small write on the thread that sheds the work.
+ */
+public class LoadShedder {
+
+    private static final Logger logger = Logger.getLogger(LoadShedder.class.getCanonicalName());
+
+    private final ServerMetrics metrics;
+    private final long queueTimeoutNanos;
+    private final byte[] response;
+    private final boolean plaintext;
+
+    /**
+     * Class constructor that receives the server settings and metrics, and encodes the 503 response.
+     * @param config the server settings
+     * @param metrics the server's metrics, counting the shed work
+     */
+    public LoadShedder(ServerConfig config, ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueTimeout());
+        this.plaintext = config.getTlsKeystore() == null;
+
+        // 5xx responses may omit the date, so the response never changes
+        HtmlGenerator htmlGenerator = new HtmlGenerator("Web server");
+        htmlGenerator.addContent(new HtmlContent().asHeading(HttpStatusCode.serviceUnavailable));
+        byte[] html = htmlGenerator.generateHtml().getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("HTTP/1.1 " + HttpStatusCode.serviceUnavailable + "\r\n"
+                + "Server: Web server\r\n"
+                + "Retry-After: " + config.getRetryAfter() + "\r\n"
+                + "Content-Length: " + html.length + "\r\n"
+                + "Content-Type: text/html; charset=utf-8\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.response = new byte[head.length + html.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(html, 0, response, head.length, html.length);
+    }
+
+    /**
+     * Returns true if work queued at the given time waited too long and should be shed.
+     * @param queuedAt the nano time the work was queued at
+     * @return true if the queue timeout is set and was exceeded
+     */
+    public boolean isExpired(long queuedAt) {
+        return queueTimeoutNanos > 0 && System.nanoTime() - queuedAt > queueTimeoutNanos;
+    }
+
+    /**
+     * Gets the encoded 503 response, to be written by a non-blocking connection.
+     * @param expired true if the work waited too long, false if the queue was full
+     * @return a buffer of its own holding the whole response
+     */
+    public ByteBuffer getResponse(boolean expired) {
+        metrics.shed(expired);
+        return ByteBuffer.wrap(response).asReadOnlyBuffer();
+    }
+
+    /**
+     * Answers a blocking connection with the 503 response and closes it. Request bytes that already
+     * arrived are read first, as closing a socket with unread input resets the connection, which
+     * may discard the response before the client read it.
+     * A TLS connection is closed without a response, as answering it would take the handshake, the most
+     * expensive part of the work being shed.
+     * @param client the client's socket
+     * @param expired true if the work waited too long, false if the queue was full
+     */
+    public void reject(Socket client, boolean expired) {
+        metrics.shed(expired);
+        try {
+            if (!plaintext) {
+                return;
+            }
+            InputStream in = client.getInputStream();
+            client.getOutputStream().write(response);
+            client.shutdownOutput();
+            long available;
+            while ((available = in.available()) > 0) {
+                in.skip(available);
+            }
+        } catch (IOException ex) {
+            logger.fine("Couldn't answer shed connection: " + ex.getMessage());
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't close client socket: " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.HttpResponse;
+import com.tzupy.http.HttpStatusCode;
+import com.tzupy.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * This class serves the server's metrics on a separate port, so they can be scraped without being
+ * reachable on the public one. Scrapes are rare, they are answered one at a time on a single thread
+ * and every connection is closed after its response.
+ */
+public class MetricsServer implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(MetricsServer.class.getCanonicalName());
+
+    public final static String path = "/metrics";
+
+    private static final int SO_TIMEOUT_MS = 5000;
+
+    private final ServerMetrics metrics;
+    private final int port;
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Class constructor that receives the metrics and the port they are served on.
+     * @param metrics the server's metrics
+     * @param port the metrics port
+     */
+    public MetricsServer(ServerMetrics metrics, int port) {
+        this.metrics = metrics;
+        this.port = port;
+    }
+
+    /**
+     * Opens the metrics port and starts answering scrapes in the background.
+     * @throws IOException the port couldn't be opened
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        Thread thread = new Thread(this, "metrics-server");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Metrics served at port " + serverSocket.getLocalPort() + " under " + path);
+    }
+
+    /**
+     * Closes the metrics port, which ends the background thread.
+     */
+    public void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't stop metrics server: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answers scrapes until the port is closed.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try (Socket client = serverSocket.accept()) {
+                client.setSoTimeout(SO_TIMEOUT_MS);
+                serve(client);
+            } catch (IOException ex) {
+                if (serverSocket.isClosed()) {
+                    break; // stopped
+                }
+                logger.severe("IO Exception: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a request head and answers it with the metrics, or with an error for any other request.
+     * @param client the client's socket
+     * @throws IOException the request couldn't be read or the response written
+     */
+    private void serve(Socket client) throws IOException {
+        InputStream in = client.getInputStream();
+        ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+        readBuffer.flip();
+        HttpRequest httpRequest = new HttpRequest();
+        while (!httpRequest.feed(readBuffer)) {
+            int read = in.read(readBuffer.array(), 0, readBuffer.capacity());
+            if (read < 0) {
+                if (!httpRequest.endOfInput()) {
+                    return;
+                }
+                break;
+            }
+            readBuffer.position(0);
+            readBuffer.limit(read);
+        }
+
+        String statusCode = HttpStatusCode.ok;
+        try {
+            httpRequest.parse(null);
+            if (!path.equals(httpRequest.getFilename())) {
+                statusCode = HttpStatusCode.notFound;
+            }
+        } catch (IllegalArgumentException ex) {
+            statusCode = httpRequest.getErrorStatus() != null ? httpRequest.getErrorStatus() : HttpStatusCode.badRequest;
+        }
+
+        byte[] content = statusCode.equals(HttpStatusCode.ok)
+                ? metrics.render().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        HttpResponse httpResponse = new HttpResponse(null);
+        httpResponse.setLastModified(System.currentTimeMillis());
+        httpResponse.addHeader("Cache-Control", "no-store");
+        ByteBuffer header = ByteBuffer.allocate(HttpResponse.maxHeaderSize);
+        httpResponse.writeHeader(header, statusCode, content.length,
+                content.length > 0 ? ServerMetrics.contentType : null);
+
+        OutputStream out = client.getOutputStream();
+        out.write(header.array(), 0, header.position());
+        out.write(content);
+        out.flush();
+    }
+}
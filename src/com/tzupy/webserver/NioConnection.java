@@ -0,0 +1,574 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.HttpResponse;
+import com.tzupy.http.ResponseBody;
+import com.tzupy.http2.Http2Frame;
+import com.tzupy.log.AccessLog;
+import com.tzupy.metrics.ResponseType;
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the state of a single non-blocking client connection.
+ * Requests are handled one at a time; pipelined requests wait in the pending buffer and are
+ * answered in order. A connection that switches to HTTP/2, with ALPN, an h2c upgrade or the connection
+ * preface, hands all further I/O to an {@link Http2Connection}. The request head, the pending bytes
+ * and the response header are held in buffers leased from the server's pools for as long as they are
+ * needed, so a connection waiting for its next request holds none of them.
+ * All methods except the worker task run on the owning event loop.
+ */
+public class NioConnection {
+
+    private static final Logger logger = Logger.getLogger(NioConnection.class.getCanonicalName());
+
+    private final NioEventLoop eventLoop;
+    private final SelectionKey key;
+    private final SocketChannel channel;
+    // the channel requests and responses pass through, the socket's or its TLS layer
+    private final ByteChannel io;
+    private final TlsChannel tls;
+    private final ServerContext context;
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final BufferPool pool;
+    private final byte[] remoteAddress;
+
+    // the request head being received, and pipelined bytes following it
+    private HttpRequest request;
+    private ByteBuffer pending;
+    // the response header, leased and written by the worker and then sent by the loop,
+    // or the load shedder's response, which isn't leased
+    private ByteBuffer header;
+    private boolean headerLeased;
+    private ResponseBody body;
+    private long bodySent;
+    private boolean keepAlive;
+    private boolean busy;
+    private int served;
+    // the deadline of the current phase, none while a worker handles the request
+    private Deadline deadline;
+    // the current request, its start and the kind of its response, for the metrics and the access log
+    private HttpRequest answered;
+    private long requestStart;
+    private String responseType;
+    private int status;
+    // the HTTP/2 connection this one switched to, or null
+    private Http2Connection http2;
+
+    /**
+     * Class constructor that receives the owning loop, the connection's key and the server's shared state.
+     * @param eventLoop the loop performing this connection's I/O
+     * @param key the connection's selection key
+     * @param context the server's root, settings and caches
+     * @throws IOException the TLS handshake couldn't be started
+     */
+    public NioConnection(NioEventLoop eventLoop, SelectionKey key, ServerContext context) throws IOException {
+        this.eventLoop = eventLoop;
+        this.key = key;
+        this.channel = (SocketChannel) key.channel();
+        this.context = context;
+        this.config = context.getConfig();
+        this.metrics = context.getMetrics();
+        this.accessLog = context.getAccessLog();
+        this.pool = context.getBufferPool();
+        this.remoteAddress = accessLog.isEnabled()
+                ? channel.socket().getInetAddress().getHostAddress().getBytes(StandardCharsets.US_ASCII) : null;
+        this.tls = context.getTlsContext() == null ? null : context.getTlsContext().wrap(channel, pool);
+        this.io = tls != null ? tls : channel;
+        this.deadline = Deadline.header(context, this::expire);
+        if (tls != null) {
+            // a full handshake's key exchange runs on a worker, not holding up the loop's other connections
+            tls.delegateTasks(eventLoop::submit, () -> eventLoop.execute(this::resume));
+        }
+    }
+
+    /**
+     * Reads what the client sent, then waits for the TLS layer's delegated tasks if they run.
+     * @param readBuffer the loop's shared read buffer
+     * @throws IOException the channel couldn't be read
+     */
+    public void onReadable(ByteBuffer readBuffer) throws IOException {
+        receive(readBuffer);
+        awaitTasks();
+    }
+
+    /**
+     * Writes what waits for the client, then waits for the TLS layer's delegated tasks if they run.
+     * @throws IOException the channel couldn't be written
+     */
+    public void onWritable() throws IOException {
+        send();
+        awaitTasks();
+    }
+
+    /**
+     * Reads available request bytes into the request being received, and hands it to a worker
+     * once its head is complete. A TLS record may hold more bytes than the read buffer, and the
+     * socket won't signal the rest, so reading goes on while the TLS layer has received bytes left.
+     * @param readBuffer the loop's shared read buffer
+     * @throws IOException the channel couldn't be read
+     */
+    private void receive(ByteBuffer readBuffer) throws IOException {
+        if (http2 != null) {
+            http2.onReadable(readBuffer);
+            return;
+        }
+        do {
+            readBuffer.clear();
+            int read = io.read(readBuffer);
+            if (read < 0) {
+                // a client that stopped sending is still answered if its request line arrived
+                if (!busy && request != null && request.endOfInput()) {
+                    submit(true);
+                } else {
+                    eventLoop.close(key);
+                }
+                return;
+            }
+            readBuffer.flip();
+
+            if (served == 0 && tls != null && (request == null || !request.isStarted()) && config.isHttp2()
+                    && Http2Connection.protocol.equals(tls.getApplicationProtocol())) {
+                switchToHttp2(0).start(readBuffer);
+                return;
+            }
+            if (busy) {
+                retain(readBuffer);
+            } else {
+                handleNext(readBuffer);
+            }
+        } while (tls != null && key.isValid() && tls.hasBufferedInput());
+
+        if (tls != null && !busy && key.isValid() && tls.hasPendingOutput()) {
+            // a handshake message waits for the socket
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Writes as much of the response as the socket accepts. Once it is sent, the connection is
+     * either closed or the next pipelined request is handled.
+     * Between requests, only the TLS handshake writes; it goes on reading once its message left.
+     * @throws IOException the channel couldn't be written
+     */
+    private void send() throws IOException {
+        if (http2 != null) {
+            http2.onWritable();
+            return;
+        }
+        if (!busy) {
+            key.interestOps(SelectionKey.OP_READ);
+            onReadable(eventLoop.getReadBuffer());
+            return;
+        }
+        if (body != null) {
+            // the header and a body held in memory leave in one gathering write
+            if (!body.writeTo(io, header)) {
+                awaitWritable();
+                return;
+            }
+            bodySent = body.written();
+            release();
+        } else if (header.hasRemaining()) {
+            io.write(header);
+            if (header.hasRemaining()) {
+                awaitWritable();
+                return;
+            }
+        }
+        // the TLS layer may hold the response's last record
+        if (tls != null && !tls.flush()) {
+            awaitWritable();
+            return;
+        }
+
+        cancelDeadline();
+        long duration = System.nanoTime() - requestStart;
+        metrics.record(responseType, status, duration, header.limit() + bodySent);
+        accessLog.log(remoteAddress, answered, status, bodySent, duration);
+        releaseResponse();
+        bodySent = 0;
+        busy = false;
+        if (!keepAlive) {
+            if (tls != null) {
+                tls.closeOutbound();
+            }
+            eventLoop.close(key);
+        } else {
+            handleNext(pending);
+        }
+    }
+
+    /**
+     * Stops selecting the connection while the TLS layer's delegated tasks run on a worker, as reads
+     * and writes make no progress until then, and a readable socket would be selected over and over.
+     */
+    private void awaitTasks() {
+        if (tls != null && key.isValid() && tls.isDelegating()) {
+            key.interestOps(0);
+        }
+    }
+
+    /**
+     * Goes on reading and writing once the TLS layer's delegated tasks ran. Both are selected, whichever
+     * the connection waited for makes progress, and the other one sets the interest it needs.
+     */
+    private void resume() {
+        if (key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Waits until the socket accepts more of the response. The client has to read the response
+     * before the write deadline, which starts when the socket's buffer first fills up.
+     */
+    private void awaitWritable() {
+        if (deadline == null) {
+            deadline = Deadline.write(context, header.limit(), body, this::expire);
+        }
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Waits for more bytes of the request being received. The client has the header timeout to send
+     * the connection's first request head, or one it started sending; before it starts sending a
+     * following request, the idle timeout applies.
+     */
+    private void awaitRequest() {
+        if (deadline == null) {
+            deadline = request.isStarted()
+                    ? Deadline.header(context, this::expire) : Deadline.idle(context, this::expire);
+        } else if (deadline.getPhase().equals(Deadline.idle) && request.isStarted()) {
+            deadline.cancel();
+            deadline = Deadline.header(context, this::expire);
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Cancels the deadline of the phase that just ended, if any.
+     */
+    private void cancelDeadline() {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    /**
+     * Asks the event loop to reset the connection once a deadline passed, which drops the response
+     * bytes still buffered for a client that doesn't read them. Runs on the timer wheel's thread.
+     */
+    private void expire() {
+        eventLoop.execute(() -> {
+            // the connection may have moved on to another phase meanwhile
+            if (deadline != null && deadline.isExpired() && key.isValid()) {
+                try {
+                    channel.socket().setSoLinger(true, 0);
+                } catch (IOException ex) {
+                    logger.fine("Couldn't reset client socket: " + ex.getMessage());
+                }
+                eventLoop.close(key);
+            }
+        });
+    }
+
+    /**
+     * Releases the connection's state and gives its buffers back to the pools. Called once the connection
+     * is closed, possibly again on shutdown. While a worker handles a request, the request and the response
+     * header are given back once the worker passed the response to the loop; once it did, the loop holds
+     * the header.
+     */
+    public void close() {
+        release();
+        pool.release(pending);
+        pending = null;
+        if (request != null) {
+            request.release();
+            request = null;
+        }
+        if (!busy || header != null) {
+            releaseResponse();
+        }
+        if (tls != null) {
+            tls.release();
+        }
+    }
+
+    /**
+     * Gives back the answered request's head and the response header.
+     */
+    private void releaseResponse() {
+        if (answered != null) {
+            answered.release();
+            answered = null;
+        }
+        if (headerLeased) {
+            pool.release(header);
+            headerLeased = false;
+        }
+        header = null;
+    }
+
+    /**
+     * Closes the body being sent, if any, and cancels the deadline.
+     * Called once the body is sent or the connection is closed.
+     */
+    public void release() {
+        cancelDeadline();
+        if (http2 != null) {
+            http2.release();
+        }
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't close response body: " + ex.getMessage());
+            }
+            body = null;
+        }
+    }
+
+    /**
+     * Feeds received bytes to the request being received and submits it once its head is complete,
+     * or waits for more bytes.
+     * @param input the received bytes, the pending ones or the loop's read buffer, or null
+     * @throws IOException the connection switched to HTTP/2 and couldn't be written
+     */
+    private void handleNext(ByteBuffer input) throws IOException {
+        if (request == null) {
+            request = new HttpRequest(context.getHeapBufferPool());
+        }
+        boolean complete = input != null && request.feed(input);
+        if (input == pending) {
+            if (pending != null && !pending.hasRemaining()) {
+                pool.release(pending);
+                pending = null;
+            }
+        } else {
+            retain(input);
+        }
+        if (!complete) {
+            awaitRequest();
+            return;
+        }
+
+        if (config.isHttp2() && served == 0 && request.isHttp2Preface()) {
+            // h2c with prior knowledge, the rest of the preface and the first frames are pending
+            ByteBuffer received = pending;
+            pending = null;
+            try {
+                switchToHttp2(Http2Frame.prefaceRequestLength).start(received);
+            } finally {
+                pool.release(received);
+            }
+            return;
+        }
+        if (config.isHttp2() && tls == null && isUpgrade(request)) {
+            ByteBuffer settings = Http2Connection.decodeSettings(request.getHeader("HTTP2-Settings"));
+            if (settings != null) {
+                HttpRequest upgraded = request;
+                upgraded.upgradeToHttp2();
+                // the request is answered on a stream, which doesn't give the head back
+                upgraded.detach();
+                ByteBuffer received = pending;
+                pending = null;
+                try {
+                    switchToHttp2(0).upgrade(upgraded, settings, received);
+                } finally {
+                    pool.release(received);
+                }
+                return;
+            }
+        }
+
+        // pipelined bytes stay pending while this request is handled
+        submit(false);
+    }
+
+    /**
+     * Returns true if a request asks to upgrade the connection to HTTP/2 over plaintext (h2c). Requests
+     * with a body keep HTTP/1.1, as the body would have to be read before the switch.
+     * @param httpRequest the request, whose head was received completely
+     * @return true if the request is answered on the upgraded connection's first stream
+     */
+    private static boolean isUpgrade(HttpRequest httpRequest) {
+        String upgrade = httpRequest.getHeader("Upgrade");
+        String connection = httpRequest.getHeader("Connection");
+        return upgrade != null && connection != null && httpRequest.getHeader("HTTP2-Settings") != null
+                && hasToken(upgrade, "h2c") && hasToken(connection, "upgrade") && !httpRequest.hasBody();
+    }
+
+    /**
+     * Returns true if a comma separated header value holds a token, ignoring case.
+     * @param value the header value
+     * @param token the token, in lower case
+     * @return the token's presence
+     */
+    private static boolean hasToken(String value, String token) {
+        for (String element : value.split(",")) {
+            if (element.trim().toLowerCase(Locale.ROOT).equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the connection over to HTTP/2. The HTTP/1.1 deadline ends, the HTTP/2 connection keeps its own.
+     * @param prefaceOffset the bytes of the connection preface already received as a request head
+     * @return the HTTP/2 connection, to be started
+     */
+    private Http2Connection switchToHttp2(int prefaceOffset) {
+        cancelDeadline();
+        if (request != null) {
+            // an upgrade request was detached before, it is answered on the first stream
+            request.release();
+        }
+        request = null;
+        http2 = new Http2Connection(eventLoop, key, io, tls, context, remoteAddress, prefaceOffset);
+        return http2;
+    }
+
+    /**
+     * Hands the received request to a worker and suspends reading until it was answered.
+     * @param last true if the connection is closed after this request
+     */
+    private void submit(boolean last) {
+        HttpRequest httpRequest = request;
+        request = null;
+        answered = httpRequest;
+        busy = true;
+        served++;
+        requestStart = System.nanoTime();
+        cancelDeadline();
+        boolean lastAllowed = last || served >= config.getMaxRequests();
+        key.interestOps(0);
+        try {
+            eventLoop.submit(() -> handle(httpRequest, lastAllowed));
+        } catch (RejectedExecutionException ex) {
+            // the queue is full, the client is answered right away instead of waiting in it
+            shed(false);
+        }
+    }
+
+    /**
+     * Answers the current request with the load shedder's 503 response and closes the connection
+     * once it is sent. Runs on the event loop.
+     * @param expired true if the request waited too long for a worker, false if the queue was full
+     */
+    private void shed(boolean expired) {
+        header = context.getLoadShedder().getResponse(expired);
+        headerLeased = false;
+        body = null;
+        keepAlive = false;
+        responseType = ResponseType.error;
+        status = 503;
+        try {
+            onWritable();
+        } catch (IOException ex) {
+            logger.severe("IO Exception: " + ex.getMessage());
+            eventLoop.close(key);
+        }
+    }
+
+    /**
+     * Keeps received bytes that follow the current request head until it was answered.
+     * Reads are suspended meanwhile, so at most one read's worth of bytes is kept, or one TLS record's.
+     * @param input the bytes, from its position to its limit
+     */
+    private void retain(ByteBuffer input) {
+        if (!input.hasRemaining()) {
+            return;
+        }
+        ByteBuffer retained = pool.acquire((pending == null ? 0 : pending.remaining()) + input.remaining());
+        if (pending != null) {
+            retained.put(pending);
+            pool.release(pending);
+        }
+        retained.put(input).flip();
+        pending = retained;
+    }
+
+    /**
+     * Handles the request on a worker thread and passes the encoded response back to the event loop.
+     * A request that waited for a worker longer than the queue timeout is turned away instead.
+     * @param httpRequest the request, whose head was received completely
+     * @param lastAllowed true if no further request may be served on this connection
+     */
+    private void handle(HttpRequest httpRequest, boolean lastAllowed) {
+        if (context.getLoadShedder().isExpired(requestStart)) {
+            eventLoop.execute(() -> {
+                if (key.isValid()) {
+                    shed(true);
+                } else {
+                    releaseResponse();
+                }
+            });
+            return;
+        }
+        ByteBuffer responseHeader = pool.acquire(HttpResponse.maxHeaderSize);
+        boolean persistent;
+        ResponseBody fileBody;
+        String type;
+        int code;
+        metrics.workerStarted();
+        try {
+            RequestHandler requestHandler = new RequestHandler(context);
+            requestHandler.handleRequest(httpRequest);
+            requestHandler.handleResponse(responseHeader, requestHandler.isKeepAlive() && !lastAllowed);
+            responseHeader.flip();
+            fileBody = requestHandler.getBody();
+            persistent = requestHandler.isResponseKeepAlive();
+            type = requestHandler.getResponseType();
+            code = requestHandler.getStatus();
+            if (code == 0) {
+                // the connection would wait for the next request while the client waits for an answer
+                throw new IllegalStateException("No response was written for " + httpRequest.getFilename());
+            }
+        } catch (RuntimeException ex) {
+            logger.severe("Runtime exception: " + ex.getMessage());
+            pool.release(responseHeader);
+            eventLoop.execute(() -> {
+                eventLoop.close(key);
+                releaseResponse();
+            });
+            return;
+        } finally {
+            metrics.workerFinished();
+        }
+
+        eventLoop.execute(() -> {
+            header = responseHeader;
+            headerLeased = true;
+            body = fileBody;
+            keepAlive = persistent;
+            responseType = type;
+            status = code;
+            if (!key.isValid()) {
+                release();
+                releaseResponse();
+                return;
+            }
+            try {
+                onWritable();
+            } catch (IOException ex) {
+                logger.severe("IO Exception: " + ex.getMessage());
+                eventLoop.close(key);
+            }
+        });
+    }
+}
@@ -0,0 +1,239 @@
+package com.tzupy.webserver;
+
+import com.tzupy.metrics.ServerMetrics;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class runs a selector loop that performs all socket I/O for its connections without blocking.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(NioEventLoop.class.getCanonicalName());
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final NioServer server;
+    private final ServerContext context;
+    private final ExecutorService workers;
+    private final ServerMetrics metrics;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // shared by all connections of this loop, so idle connections hold no read buffer
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private volatile boolean running = true;
+
+    /**
+     * Class constructor that receives the owning server, the server's shared state and the request pool.
+     * @param server the server owning this loop
+     * @param context the server's root, settings and caches
+     * @param workers the pool that handles parsed requests
+     * @throws IOException the selector couldn't be opened
+     */
+    public NioEventLoop(NioServer server, ServerContext context, ExecutorService workers) throws IOException {
+        this.server = server;
+        this.context = context;
+        this.workers = workers;
+        this.metrics = context.getMetrics();
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Registers the listening channel with this loop, so it accepts new connections.
+     * Must be called before the loop is started.
+     * @param serverChannel the non-blocking listening channel
+     * @throws IOException the channel couldn't be registered
+     */
+    public void registerAcceptor(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Registers an accepted connection with this loop. Safe to call from any thread.
+     * @param channel the client channel
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                Listeners.configure(channel, context.getConfig());
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, key, context));
+                metrics.connectionOpened();
+            } catch (IOException | RuntimeException ex) {
+                logger.severe("Couldn't register client: " + ex);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Runs a task on this loop's thread. Safe to call from any thread.
+     * @param task the task to run
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Gets the read buffer shared by this loop's connections. Only used on the loop's thread.
+     * @return the read buffer
+     */
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * Submits a parsed request to the worker pool.
+     * @param task the request handling task
+     */
+    void submit(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Asks the loop to stop; the loop closes its connections on exit.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Selects ready channels and performs their I/O until the loop is shut down.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        } else {
+                            NioConnection connection = (NioConnection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        }
+                    } catch (SSLException ex) {
+                        // e.g. a client that doesn't speak TLS, counted as a failed handshake
+                        logger.fine("TLS Exception: " + ex.getMessage());
+                        close(key);
+                    } catch (IOException ex) {
+                        logger.severe("IO Exception: " + ex.getMessage());
+                        close(key);
+                    } catch (CancelledKeyException ex) {
+                        close(key);
+                    } catch (RuntimeException ex) {
+                        // a failing connection takes down only itself, not the loop and its other connections
+                        logger.log(Level.SEVERE, "Connection failed", ex);
+                        if (!(key.channel() instanceof ServerSocketChannel)) {
+                            close(key);
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.severe("Event loop failed: " + ex.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (!(key.channel() instanceof ServerSocketChannel)) {
+                    close(key);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                logger.severe("Couldn't close selector: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts all pending connections and spreads them over the server's loops.
+     * @param serverChannel the listening channel
+     */
+    private void accept(ServerSocketChannel serverChannel) {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                server.dispatch(channel);
+            }
+        } catch (IOException ex) {
+            logger.severe("Client couldn't connect: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Runs the tasks queued by other threads. A failing task is logged, the loop goes on.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                logger.log(Level.SEVERE, "Event loop task failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Cancels a key and closes its channel.
+     * @param key the selection key
+     */
+    void close(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof NioConnection) {
+            try {
+                ((NioConnection) key.attachment()).close();
+            } catch (RuntimeException ex) {
+                logger.log(Level.SEVERE, "Couldn't close connection", ex);
+            }
+            // a connection may be closed again, e.g. on shutdown, but is only counted once
+            if (key.channel().isOpen()) {
+                metrics.connectionClosed();
+            }
+        }
+        closeQuietly(key.channel());
+    }
+
+    /**
+     * Closes a channel, logging failures.
+     * @param channel the channel to close
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            logger.severe("Couldn't close client channel: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.tzupy.webserver;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * This class creates a non-blocking web server driven by a small set of selector event loops.
+ * Connections are read and written by the event loops, while requests are handled by the worker pool.
+ */
+public class NioServer {
+
+    private static final Logger logger = Logger.getLogger(NioServer.class.getCanonicalName());
+
+    private final ServerContext context;
+    private final int port;
+    private final ServerConfig config;
+    private final ExecutorService workers;
+
+    private ServerSocketChannel[] serverChannels;
+    private NioEventLoop[] eventLoops;
+    private Thread[] threads;
+
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Class constructor that receives the server's shared state, port and the pool handling requests.
+     * @param context the server's root, settings and caches
+     * @param port port used by the server
+     * @param workers the pool that handles parsed requests
+     */
+    public NioServer(ServerContext context, int port, ExecutorService workers) {
+        this.context = context;
+        this.port = port;
+        this.config = context.getConfig();
+        this.workers = workers;
+    }
+
+    /**
+     * Opens the listening channels and runs the event loops until the server is stopped.
+     * @throws IOException the server channels or selectors couldn't be opened
+     */
+    public void start() throws IOException {
+        int count = config.getEventLoops();
+        int acceptors = Math.min(config.getAcceptors(), count);
+        serverChannels = Listeners.open(config, port, acceptors);
+        eventLoops = new NioEventLoop[count];
+        threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            eventLoops[i] = new NioEventLoop(this, context, workers);
+            threads[i] = new Thread(eventLoops[i], "nio-event-loop-" + i);
+        }
+
+        // the first loops also accept new connections, each on a channel of its own if the kernel spreads them
+        for (int i = 0; i < acceptors; i++) {
+            ServerSocketChannel serverChannel = serverChannels[i % serverChannels.length];
+            serverChannel.configureBlocking(false);
+            eventLoops[i].registerAcceptor(serverChannel);
+        }
+
+        logger.info("Server started at port " + serverChannels[0].socket().getLocalPort() + " with "
+                + count + " event loops, " + acceptors
+                + (serverChannels.length > 1 ? " accepting on SO_REUSEPORT sockets" : " accepting"));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                logger.warning("Event loop interrupted");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Hands an accepted connection to the next event loop, in round-robin order.
+     * Called from the accepting event loops.
+     * @param channel the accepted client channel
+     */
+    void dispatch(SocketChannel channel) {
+        eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)].register(channel);
+    }
+
+    /**
+     * Stops the event loops and closes the listening channels.
+     */
+    public void stop() {
+        if (eventLoops != null) {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+
+        if (serverChannels != null) {
+            Listeners.close(serverChannels);
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package com.tzupy.webserver;
+
+import com.tzupy.cache.CachedFile;
+import com.tzupy.cache.CachedListing;
+import com.tzupy.cache.FileCache;
+import com.tzupy.cache.ListingCache;
+import com.tzupy.html.HtmlContent;
+import com.tzupy.html.HtmlGenerator;
+import com.tzupy.http.BufferBody;
+import com.tzupy.http.ByteRange;
+import com.tzupy.http.Compression;
+import com.tzupy.http.DeflaterBody;
+import com.tzupy.http.ETag;
+import com.tzupy.http.FileBody;
+import com.tzupy.http.HttpDate;
+import com.tzupy.http.HttpRequest;
+import com.tzupy.http.HttpResponse;
+import com.tzupy.http.HttpStatusCode;
+import com.tzupy.http.MimeTypes;
+import com.tzupy.http.MultipartBody;
+import com.tzupy.http.ResponseBody;
+import com.tzupy.metrics.ResponseType;
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * This class handles a single http request and writes the response, independent of the transport used.
+ */
+public class RequestHandler {
+
+    private static final Logger logger = Logger.getLogger(RequestHandler.class.getCanonicalName());
+
+    private final File root;
+    private final FileCache fileCache;
+    private final ListingCache listingCache;
+    private final StaticResources staticResources;
+    private final MimeTypes mimeTypes;
+    private final long compressMinSize;
+    private final int listingStreamThreshold;
+    private final String metricsPath;
+    private final ServerMetrics metrics;
+    private final BufferPool bufferPool;
+    private final BufferPool heapBufferPool;
+
+    // the html page of an error response, made only for the responses that have one
+    private HtmlContent htmlContent;
+    private HtmlGenerator htmlGenerator;
+    private HttpRequest httpRequest;
+    private HttpResponse httpResponse;
+    private ResponseBody body;
+    private String responseType = ResponseType.file;
+
+    /**
+     * Class constructor receiving the server's shared state.
+     * @param context the server's root, settings and caches
+     */
+    public RequestHandler(ServerContext context) {
+        this.root = context.getRoot();
+        this.fileCache = context.getFileCache();
+        this.listingCache = context.getListingCache();
+        this.staticResources = context.getStaticResources();
+        this.mimeTypes = context.getMimeTypes();
+        this.compressMinSize = context.getConfig().getCompressMinSize();
+        this.listingStreamThreshold = context.getConfig().getListingStreamThreshold();
+        this.metricsPath = context.getConfig().getMetricsPath();
+        this.metrics = context.getMetrics();
+        this.bufferPool = context.getBufferPool();
+        this.heapBufferPool = context.getHeapBufferPool();
+    }
+
+    /**
+     * Interprets the http request from the client, whose head was received completely.
+     * @param httpRequest the client's request
+     */
+    public void handleRequest(HttpRequest httpRequest) {
+        this.httpRequest = httpRequest;
+        if (httpRequest.getErrorStatus() != null) {
+            return;
+        }
+
+        try {
+            httpRequest.parse(root);
+        } catch (IllegalArgumentException ex) {
+            logger.severe("Client's request is malformed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the connection can be reused after this request.
+     * Requests carrying a body aren't supported and nothing after a rejected head can be trusted,
+     * so their connection is always closed.
+     * @return the request's persistence
+     */
+    public boolean isKeepAlive() {
+        return httpRequest.getErrorStatus() == null && httpRequest.isKeepAlive() && !httpRequest.hasBody();
+    }
+
+    /**
+     * Creates an http response for the client.
+     * @param header the connection's header buffer, the response's header is written into it
+     * @param keepAlive true if the connection stays open after the response
+     */
+    public void handleResponse(ByteBuffer header, boolean keepAlive) {
+        File url = httpRequest.getUrl();
+        httpResponse = new HttpResponse(url);
+        httpResponse.setKeepAlive(keepAlive);
+        int start = header.position();
+
+        try {
+            // a single stat serves the existence check, the type and the cache validation
+            String filename = httpRequest.getFilename();
+            boolean reserved = StaticResources.isReserved(filename);
+            boolean internal = metricsPath != null && metricsPath.equals(filename);
+            BasicFileAttributes attributes = url == null || reserved || internal ? null : readAttributes(url);
+
+            if (httpRequest.getErrorStatus() != null) {
+                htmlGenerator().addContent(htmlContent().asHeading(httpRequest.getErrorStatus()));
+                sendHtml(httpRequest.getErrorStatus(), header);
+            } else if (url == null) {
+                htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.badRequest));
+                sendHtml(HttpStatusCode.badRequest, header);
+            } else if (reserved && staticResources.getContent(filename) != null
+                    && httpRequest.isMethodValid() && httpRequest.isProtocolValid()) {
+                // bundled resources never change while the server runs
+                httpResponse.setLastModified(staticResources.getLastModified());
+                httpResponse.addHeader("Cache-Control", StaticResources.cacheControl);
+                sendBuffer(staticResources.getContent(filename), staticResources.getCompressedContent(filename),
+                        staticResources.getETag(filename), staticResources.getLastModified(),
+                        staticResources.getContentType(filename), header);
+            } else if (internal && httpRequest.isMethodValid() && httpRequest.isProtocolValid()) {
+                sendMetrics(header);
+            } else if (attributes == null) {
+                htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.notFound));
+                sendHtml(HttpStatusCode.notFound, header);
+            } else if (!httpRequest.isMethodValid()) {
+                htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.notImplemented));
+                sendHtml(HttpStatusCode.notImplemented, header);
+            } else if (!httpRequest.isProtocolValid()) {
+                htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.badRequest));
+                sendHtml(HttpStatusCode.badRequest, header);
+            } else { // valid request
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                httpResponse.setLastModified(lastModified);
+                if (attributes.isDirectory()) {
+                    sendDirectory(url, lastModified, header);
+                } else { // provides a file to the client
+                    sendFile(url, attributes, header);
+                }
+            }
+        } catch (AccessDeniedException ex) {
+            logger.warning("Access denied: " + ex.getMessage());
+            sendError(HttpStatusCode.forbidden, keepAlive, header, start);
+        } catch (IOException ex) {
+            logger.severe("IO Exception: " + ex.getMessage());
+            // what failed may fail again, the client gets an answer and the connection ends
+            sendError(HttpStatusCode.internalError, false, header, start);
+        }
+    }
+
+    /**
+     * Replaces a response that couldn't be made by an error page, dropping the body and headers it had.
+     * @param statusCode http status code
+     * @param keepAlive true if the connection stays open after the response
+     * @param header the connection's header buffer
+     * @param start the position of the response's header in the buffer
+     */
+    private void sendError(String statusCode, boolean keepAlive, ByteBuffer header, int start) {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ex) {
+                logger.fine("Couldn't close response body: " + ex.getMessage());
+            }
+            body = null;
+        }
+        header.position(start);
+        httpResponse = new HttpResponse(null);
+        httpResponse.setKeepAlive(keepAlive);
+        htmlGenerator = null;
+        htmlGenerator().addContent(htmlContent().asHeading(statusCode));
+        sendHtml(statusCode, header);
+    }
+
+    /**
+     * Sends the listing of a directory, as an html page or, if the client asks for it, as json.
+     * @param url the directory
+     * @param lastModified the directory's modification time
+     * @param header the connection's header buffer
+     * @throws IOException the directory couldn't be read
+     */
+    private void sendDirectory(File url, long lastModified, ByteBuffer header) throws IOException {
+        responseType = ResponseType.listing;
+        String format;
+        ListingQuery query = null;
+        try {
+            format = ListingQuery.negotiateFormat(httpRequest);
+            if (!format.equals(ListingQuery.html)) {
+                query = ListingQuery.parse(httpRequest, format);
+            }
+        } catch (IllegalArgumentException ex) {
+            logger.warning("Invalid listing query: " + ex.getMessage());
+            htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.badRequest));
+            sendHtml(HttpStatusCode.badRequest, header);
+            return;
+        }
+        // the format may be chosen by the Accept header
+        httpResponse.addHeader("Vary", "Accept");
+
+        if (query != null) {
+            sendListingData(url, query, header);
+            return;
+        }
+
+        CachedListing listing = listingCache.get(url.toPath(), lastModified, () -> renderListing(url));
+        if (listing == null && url.canRead()) {
+            sendListingStream(url, header);
+        } else if (listing == null) {
+            htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.forbidden));
+            sendHtml(HttpStatusCode.forbidden, header);
+        } else {
+            // the listing is validated by its content, as entries may change within a second
+            sendBuffer(listing.getContent(), listing.getCompressed(), listing.getETag(), -1,
+                    MimeTypes.html, header);
+        }
+    }
+
+    /**
+     * Sends a page of a directory's entries as json or ndjson, linking to the next page.
+     * @param url the directory
+     * @param query the requested format, order and page
+     * @param header the connection's header buffer
+     * @throws IOException the directory couldn't be read
+     */
+    private void sendListingData(File url, ListingQuery query, ByteBuffer header) throws IOException {
+        if (!url.canRead()) {
+            // the same status as the html listing of the directory
+            htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.forbidden));
+            sendHtml(HttpStatusCode.forbidden, header);
+            return;
+        }
+
+        JsonListing listing = new JsonListing(url.toPath(), httpRequest.getFilename(), query);
+        listing.collect();
+        String next = listing.getNextQuery();
+        if (next != null) {
+            httpResponse.addHeader("Link", "<" + next + ">; rel=\"next\"");
+        }
+        String contentType = query.getFormat().equals(ListingQuery.ndjson) ? MimeTypes.ndjson : MimeTypes.json;
+        sendGenerated(ByteBuffer.wrap(listing.render()), contentType, header);
+    }
+
+    /**
+     * Sends the server's metrics in the Prometheus text format. They change all the time, so they
+     * are never cached.
+     * @param header the connection's header buffer
+     */
+    private void sendMetrics(ByteBuffer header) {
+        responseType = ResponseType.metrics;
+        httpResponse.setLastModified(System.currentTimeMillis());
+        httpResponse.addHeader("Cache-Control", "no-store");
+        byte[] content = metrics.render().getBytes(StandardCharsets.UTF_8);
+        sendGenerated(ByteBuffer.wrap(content), ServerMetrics.contentType, header);
+    }
+
+    /**
+     * Sends content generated for this request, compressed while it is sent if it is large enough
+     * and the client accepts it.
+     * @param content the content
+     * @param contentType the content type
+     * @param header the connection's header buffer
+     */
+    private void sendGenerated(ByteBuffer content, String contentType, ByteBuffer header) {
+        String etag = ETag.forContent(content);
+        String coding = null;
+        if (compressMinSize >= 0 && content.remaining() >= compressMinSize) {
+            httpResponse.addHeader("Vary", "Accept-Encoding");
+            coding = negotiateCoding();
+            etag = coding == null ? etag : ETag.forVariant(etag, coding);
+        }
+
+        httpResponse.addHeader("ETag", etag);
+        if (isNotModified(etag, -1)) {
+            sendNotModified(header);
+            return;
+        }
+
+        body = coding == null ? new BufferBody(content) : new DeflaterBody(content, coding, isChunked(), bufferPool,
+                heapBufferPool);
+        if (coding != null) {
+            addEncodingHeaders(coding, body);
+        }
+        httpResponse.writeHeader(header, HttpStatusCode.ok, body.length(), contentType);
+    }
+
+    /**
+     * Sends content held in memory, or its gzip variant if the client accepts it.
+     * @param content the content
+     * @param compressed the gzip compressed content, or null if there is none
+     * @param etag the tag of the content
+     * @param lastModified the content's modification time, or -1 if dates can't validate the content
+     * @param contentType the content type
+     * @param header the connection's header buffer
+     */
+    private void sendBuffer(ByteBuffer content, ByteBuffer compressed, String etag, long lastModified,
+                            String contentType, ByteBuffer header) {
+        String coding = null;
+        if (compressed != null && compressMinSize >= 0) {
+            httpResponse.addHeader("Vary", "Accept-Encoding");
+            coding = negotiateCoding();
+            etag = coding == null ? etag : ETag.forVariant(etag, coding);
+        }
+
+        httpResponse.addHeader("ETag", etag);
+        if (isNotModified(etag, lastModified)) {
+            sendNotModified(header);
+            return;
+        }
+
+        if (coding == null) {
+            body = new BufferBody(content);
+        } else {
+            // the gzip variant is compressed once, deflate is only asked for by rare clients
+            body = coding.equals(Compression.gzip) ? new BufferBody(compressed)
+                    : new DeflaterBody(content, coding, isChunked(), bufferPool, heapBufferPool);
+            addEncodingHeaders(coding, body);
+        }
+        httpResponse.writeHeader(header, HttpStatusCode.ok, body.length(), contentType);
+    }
+
+    /**
+     * Sends a file, or a range of it. Compressible files are sent compressed if the client accepts it.
+     * @param url the requested file
+     * @param attributes the file's attributes
+     * @param header the connection's header buffer
+     * @throws IOException the file's sidecar couldn't be read
+     */
+    private void sendFile(File url, BasicFileAttributes attributes, ByteBuffer header) throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String contentType = mimeTypes.getContentType(url.getPath());
+        String etag = ETag.forFile(attributes);
+        httpResponse.addHeader("Accept-Ranges", "bytes");
+
+        boolean compressible = compressMinSize >= 0 && Compression.isCompressible(contentType);
+        if (compressible) {
+            httpResponse.addHeader("Vary", "Accept-Encoding");
+            // ranges refer to the file as is, so partial requests are never compressed
+            String coding = httpRequest.getHeader("range") == null ? negotiateCoding() : null;
+            if (coding != null && sendCompressedFile(url, attributes, etag, coding, contentType, header)) {
+                return;
+            }
+        }
+
+        httpResponse.addHeader("ETag", etag);
+        if (isNotModified(etag, lastModified)) {
+            sendNotModified(header);
+            return;
+        }
+
+        List<ByteRange> ranges = getRanges(etag, lastModified, attributes.size());
+        if (ranges != null) {
+            sendRanges(ranges, attributes.size(), contentType, header);
+            return;
+        }
+
+        // small files are served from memory, others are streamed from disk
+        CachedFile cachedFile = fileCache.get(url.toPath(), attributes,
+                compressible && attributes.size() >= compressMinSize);
+        ResponseBody fileBody = cachedFile != null ? new BufferBody(cachedFile.getContent())
+                : httpResponse.getBody(attributes);
+
+        // the connection streams the body after the header
+        httpResponse.writeHeader(header, HttpStatusCode.ok, fileBody.length(), contentType);
+        body = fileBody;
+    }
+
+    /**
+     * Sends a file compressed: a current precompressed sidecar file as is, the gzip variant kept by
+     * the file cache, or the file compressed while it is sent.
+     * @param url the requested file
+     * @param attributes the file's attributes
+     * @param etag the tag of the file as is
+     * @param coding the negotiated content coding
+     * @param contentType the file type
+     * @param header the connection's header buffer
+     * @return false if the file is too small to be compressed and has to be sent as is
+     * @throws IOException the file's sidecar couldn't be read
+     */
+    private boolean sendCompressedFile(File url, BasicFileAttributes attributes, String etag, String coding,
+                                       String contentType, ByteBuffer header) throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        File sidecar = new File(url.getPath() + Compression.gzipSuffix);
+        BasicFileAttributes sidecarAttributes = null;
+        try {
+            sidecarAttributes = coding.equals(Compression.gzip) ? readAttributes(sidecar) : null;
+        } catch (AccessDeniedException ex) {
+            // the file itself is readable, it is compressed while sent
+            logger.fine("Access to sidecar denied: " + ex.getMessage());
+        }
+        boolean useSidecar = sidecarAttributes != null && sidecarAttributes.isRegularFile()
+                && sidecarAttributes.lastModifiedTime().toMillis() >= lastModified;
+        if (!useSidecar && attributes.size() < compressMinSize) {
+            return false;
+        }
+
+        String variantTag = useSidecar ? ETag.forFile(sidecarAttributes) : ETag.forVariant(etag, coding);
+        httpResponse.addHeader("ETag", variantTag);
+        if (isNotModified(variantTag, lastModified)) {
+            sendNotModified(header);
+            return true;
+        }
+
+        ResponseBody encodedBody;
+        if (useSidecar) {
+            encodedBody = new FileBody(sidecar.toPath(), 0, sidecarAttributes.size());
+        } else {
+            CachedFile cachedFile = fileCache.get(url.toPath(), attributes, true);
+            if (cachedFile != null && cachedFile.getCompressed() != null && coding.equals(Compression.gzip)) {
+                encodedBody = new BufferBody(cachedFile.getCompressed());
+            } else if (cachedFile != null) {
+                encodedBody = new DeflaterBody(cachedFile.getContent(), coding, isChunked(), bufferPool,
+                        heapBufferPool);
+            } else {
+                encodedBody = new DeflaterBody(url.toPath(), coding, isChunked(), bufferPool, heapBufferPool);
+            }
+        }
+
+        addEncodingHeaders(coding, encodedBody);
+        httpResponse.writeHeader(header, HttpStatusCode.ok, encodedBody.length(), contentType);
+        body = encodedBody;
+        return true;
+    }
+
+    /**
+     * Chooses the content coding the client accepts. Compressed bodies made while sending have no
+     * known length and are sent in chunks, so only HTTP/1.1 and HTTP/2 clients get compressed responses.
+     * @return gzip or deflate, or null to send the content as is
+     */
+    private String negotiateCoding() {
+        if (!httpRequest.isHttp11() && !httpRequest.isHttp2()) {
+            return null;
+        }
+        return Compression.negotiate(httpRequest.getHeader("accept-encoding"));
+    }
+
+    /**
+     * Returns true if bodies of unknown length are sent in chunks. HTTP/1.1 clients understand them,
+     * HTTP/2 streams end with their last frame instead.
+     * @return true for HTTP/1.1 requests
+     */
+    private boolean isChunked() {
+        return httpRequest.isHttp11() && !httpRequest.isHttp2();
+    }
+
+    /**
+     * Adds the headers describing a compressed body.
+     * @param coding the content coding
+     * @param encodedBody the compressed body
+     */
+    private void addEncodingHeaders(String coding, ResponseBody encodedBody) {
+        httpResponse.addHeader("Content-Encoding", coding);
+        if (encodedBody.length() < 0 && isChunked()) {
+            httpResponse.addHeader("Transfer-Encoding", "chunked");
+        }
+    }
+
+    /**
+     * Returns true if the client's cached copy is still current. If-None-Match takes precedence over
+     * If-Modified-Since, which is compared at the one second precision of http dates.
+     * @param etag the current entity tag
+     * @param lastModified the current modification time, or -1 if dates can't validate the content
+     * @return the result of the conditional request
+     */
+    private boolean isNotModified(String etag, long lastModified) {
+        String ifNoneMatch = httpRequest.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            return ETag.matches(ifNoneMatch, etag);
+        }
+
+        String ifModifiedSince = httpRequest.getHeader("if-modified-since");
+        if (ifModifiedSince == null || lastModified < 0) {
+            return false;
+        }
+        long since = HttpDate.parse(ifModifiedSince);
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Gets the ranges the client asked for. A Range header is ignored if an If-Range condition
+     * names a different version of the file, which then is sent whole.
+     * @param etag the current entity tag
+     * @param lastModified the current modification time
+     * @param size the file size
+     * @return the ranges, an empty list if none is satisfiable, or null to send the whole file
+     */
+    private List<ByteRange> getRanges(String etag, long lastModified, long size) {
+        String range = httpRequest.getHeader("range");
+        if (range == null) {
+            return null;
+        }
+
+        String ifRange = httpRequest.getHeader("if-range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // the strong comparison, weak tags never match
+                if (!ifRange.equals(etag)) {
+                    return null;
+                }
+            } else if (HttpDate.parse(ifRange) / 1000 != lastModified / 1000) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, size);
+    }
+
+    /**
+     * Sends a 206 response with the requested ranges, streamed from the file, or a 416 response
+     * if none of them is satisfiable.
+     * @param ranges the requested ranges
+     * @param size the file size
+     * @param contentType the file type
+     * @param header the connection's header buffer
+     */
+    private void sendRanges(List<ByteRange> ranges, long size, String contentType, ByteBuffer header) {
+        if (ranges.isEmpty()) {
+            httpResponse.addHeader("Content-Range", "bytes */" + size);
+            htmlGenerator().addContent(htmlContent().asHeading(HttpStatusCode.rangeNotSatisfiable));
+            sendHtml(HttpStatusCode.rangeNotSatisfiable, header);
+        } else if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            body = httpResponse.getBody(range);
+            httpResponse.addHeader("Content-Range", range.toContentRange(size));
+            httpResponse.writeHeader(header, HttpStatusCode.partialContent, body.length(), contentType);
+        } else {
+            MultipartBody multipartBody = new MultipartBody(httpRequest.getUrl().toPath(), ranges, size, contentType);
+            body = multipartBody;
+            httpResponse.writeHeader(header, HttpStatusCode.partialContent, body.length(),
+                    multipartBody.getContentType());
+        }
+    }
+
+    /**
+     * Sends a 304 response, which repeats the validators but has no body.
+     * @param header the connection's header buffer
+     */
+    private void sendNotModified(ByteBuffer header) {
+        httpResponse.writeHeader(header, HttpStatusCode.notModified, -1, null);
+    }
+
+    /**
+     * Reads the attributes of the requested file.
+     * @param url the requested file
+     * @return the attributes, or null if the file doesn't exist, its name can't be represented or can't be
+     *         resolved, e.g. in a loop of symbolic links
+     * @throws AccessDeniedException the server isn't allowed to look up the file
+     * @throws IOException the attributes couldn't be read
+     */
+    private static BasicFileAttributes readAttributes(File url) throws IOException {
+        try {
+            return Files.readAttributes(url.toPath(), BasicFileAttributes.class);
+        } catch (AccessDeniedException ex) {
+            throw ex;
+        } catch (NoSuchFileException | InvalidPathException ex) {
+            return null;
+        } catch (FileSystemException ex) {
+            logger.fine("Couldn't resolve file: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Renders the listing of a directory as an html document.
+     * @param url the directory
+     * @return the encoded document, or null if the directory can't be read or is too large to be
+     * rendered whole
+     * @throws IOException the directory couldn't be read
+     */
+    private byte[] renderListing(File url) throws IOException {
+        if (!url.canRead()) {
+            return null;
+        }
+
+        //String ip = clientSocket.getInetAddress().getHostAddress();
+        //htmlGenerator.addLine("Client address is: " + ip + ":" + clientSocket.getPort());
+
+        // the cached page is shared by every spelling of the directory's name
+        return new DirectoryListing(root, url, listingName(url)).render(listingStreamThreshold);
+    }
+
+    /**
+     * Gets the name a directory's listing shows, the same for every request naming the directory.
+     * @param url the directory
+     * @return the directory's path under the root, starting with a slash
+     */
+    private String listingName(File url) {
+        Path base = root.toPath().toAbsolutePath().normalize();
+        Path relative = base.relativize(url.toPath().toAbsolutePath().normalize());
+        return "/" + relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Streams the listing of a directory too large to be rendered whole, in chunks to HTTP/1.1 clients.
+     * Older clients get it unframed, ended by closing the connection, HTTP/2 clients by the stream's end.
+     * @param url the directory
+     * @param header the connection's header buffer
+     * @throws IOException the directory couldn't be resolved
+     */
+    private void sendListingStream(File url, ByteBuffer header) throws IOException {
+        boolean chunked = isChunked();
+        if (chunked) {
+            httpResponse.addHeader("Transfer-Encoding", "chunked");
+        } else if (!httpRequest.isHttp2()) {
+            httpResponse.setKeepAlive(false);
+        }
+        body = new ListingBody(new DirectoryListing(root, url, httpRequest.getFilename()), chunked, bufferPool,
+                heapBufferPool);
+        httpResponse.writeHeader(header, HttpStatusCode.ok, body.length(), MimeTypes.html);
+    }
+
+    /**
+     * Gets the part of the response that is still to be sent after the written header.
+     * @return the remaining body, or null if the response was written completely
+     */
+    public ResponseBody getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the status code of the response.
+     * @return the status code, e.g. 200
+     */
+    public int getStatus() {
+        return httpResponse.getStatus();
+    }
+
+    /**
+     * Gets the kind of the response, which the request metrics are broken down by.
+     * @return file, listing, metrics, or error for every response with a status of 400 or above
+     */
+    public String getResponseType() {
+        return httpResponse.getStatus() >= 400 ? ResponseType.error : responseType;
+    }
+
+    /**
+     * Returns true if the connection can be reused after the response, which is only decided
+     * once it was created: a body ended by closing the connection prevents it.
+     * @return the response's persistence
+     */
+    public boolean isResponseKeepAlive() {
+        return httpResponse.isKeepAlive();
+    }
+
+    /**
+     * Sends the generated html document, encoded as utf-8 so the content length counts bytes.
+     * The document goes out with the header, as a body held in memory.
+     * @param statusCode http status code
+     * @param header the connection's header buffer
+     */
+    private void sendHtml(String statusCode, ByteBuffer header) {
+        byte[] html = htmlGenerator().generateHtml().getBytes(StandardCharsets.UTF_8);
+        body = new BufferBody(ByteBuffer.wrap(html));
+        httpResponse.writeHeader(header, statusCode, html.length, MimeTypes.html);
+    }
+
+    /**
+     * Gets the html page of the error response, created on first use.
+     * @return the page's generator
+     */
+    private HtmlGenerator htmlGenerator() {
+        if (htmlGenerator == null) {
+            htmlGenerator = new HtmlGenerator("Web server");
+        }
+        return htmlGenerator;
+    }
+
+    /**
+     * Gets the formatter of the error page's content, created on first use.
+     * @return the html content
+     */
+    private HtmlContent htmlContent() {
+        if (htmlContent == null) {
+            htmlContent = new HtmlContent();
+        }
+        return htmlContent;
+    }
+}
@@ -0,0 +1,603 @@
+package com.tzupy.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the optional settings of the web server, given as --name=value arguments.
+ */
+public class ServerConfig {
+
+    private static final Logger logger = Logger.getLogger(ServerConfig.class.getCanonicalName());
+
+    private static final int DEFAULT_THREADS = 50;
+
+    private String engine = ServerEngine.blocking;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private String executor = ExecutorMode.platform;
+    private int threads = DEFAULT_THREADS;
+    private int statsInterval = 0;
+    private int idleTimeout = 15;
+    private int maxRequests = 100;
+    private long cacheSize = 64L * 1024 * 1024;
+    private long cacheMaxFile = 256L * 1024;
+    private long listingCacheSize = 16L * 1024 * 1024;
+    private String mimeTypesFile;
+    private boolean compression = true;
+    private long compressMinSize = 1024;
+    private int listingStreamThreshold = 10000;
+    private String metricsPath;
+    private int metricsPort;
+    private int queueSize = 1000;
+    private int queueTimeout;
+    private int retryAfter = 1;
+    private int headerTimeout = 10;
+    private int writeTimeout = 10;
+    private int minWriteRate = 1024;
+    private String accessLog;
+    private long accessLogSize = 100L * 1024 * 1024;
+    private int accessLogFiles = 5;
+    private int accessLogBuffer = 4096;
+    private int acceptors = 1;
+    private int backlog;
+    private boolean tcpNoDelay = true;
+    private int sendBuffer;
+    private int receiveBuffer;
+    private String tlsKeystore;
+    private String tlsKeystorePassword = "";
+    private int tlsSessionCache = 20000;
+    private int tlsSessionTimeout = 3600;
+    private boolean tlsSessionTickets = true;
+    private boolean http2 = true;
+    private int http2MaxStreams = 256;
+    private long bufferPoolSize = 32L * 1024 * 1024;
+    private boolean bufferPoolDebug;
+
+    /**
+     * Applies a single --name=value option to the configuration.
+     * Unknown options and invalid values are logged and ignored, keeping the default.
+     * @param option the option as given on the command line
+     */
+    public void applyOption(String option) {
+        String body = option.startsWith("--") ? option.substring(2) : option;
+        int separator = body.indexOf('=');
+        String name = separator < 0 ? body : body.substring(0, separator);
+        String value = separator < 0 ? "" : body.substring(separator + 1);
+
+        try {
+            switch (name) {
+                case "engine":
+                    if (!value.equals(ServerEngine.blocking) && !value.equals(ServerEngine.nio)) {
+                        throw new IllegalArgumentException("unknown engine " + value);
+                    }
+                    engine = value;
+                    break;
+                case "event-loops":
+                    eventLoops = parsePositive(value);
+                    break;
+                case "executor":
+                    if (!value.equals(ExecutorMode.platform) && !value.equals(ExecutorMode.virtual)) {
+                        throw new IllegalArgumentException("unknown executor " + value);
+                    }
+                    executor = value;
+                    break;
+                case "threads":
+                    threads = parsePositive(value);
+                    break;
+                case "stats-interval":
+                    statsInterval = parsePositive(value);
+                    break;
+                case "idle-timeout":
+                    idleTimeout = parsePositive(value);
+                    break;
+                case "max-requests":
+                    maxRequests = parsePositive(value);
+                    break;
+                case "cache-size":
+                    cacheSize = parseNonNegative(value) * 1024L * 1024;
+                    break;
+                case "cache-max-file":
+                    cacheMaxFile = parseNonNegative(value) * 1024L;
+                    break;
+                case "listing-cache-size":
+                    listingCacheSize = parseNonNegative(value) * 1024L * 1024;
+                    break;
+                case "mime-types":
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException("file name missing");
+                    }
+                    mimeTypesFile = value;
+                    break;
+                case "compression":
+                    compression = parseSwitch(value);
+                    break;
+                case "compress-min-size":
+                    compressMinSize = parseNonNegative(value);
+                    break;
+                case "listing-stream-threshold":
+                    listingStreamThreshold = parsePositive(value);
+                    break;
+                case "metrics-path":
+                    if (!value.startsWith("/")) {
+                        throw new IllegalArgumentException("path must start with /");
+                    }
+                    metricsPath = value;
+                    break;
+                case "metrics-port":
+                    metricsPort = parsePositive(value);
+                    break;
+                case "queue-size":
+                    queueSize = parseNonNegative(value);
+                    break;
+                case "queue-timeout":
+                    queueTimeout = parseNonNegative(value);
+                    break;
+                case "retry-after":
+                    retryAfter = parseNonNegative(value);
+                    break;
+                case "header-timeout":
+                    headerTimeout = parsePositive(value);
+                    break;
+                case "write-timeout":
+                    writeTimeout = parsePositive(value);
+                    break;
+                case "min-write-rate":
+                    minWriteRate = parsePositive(value);
+                    break;
+                case "access-log":
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException("file name missing");
+                    }
+                    accessLog = value;
+                    break;
+                case "access-log-size":
+                    accessLogSize = parseNonNegative(value) * 1024L * 1024;
+                    break;
+                case "access-log-files":
+                    accessLogFiles = parseNonNegative(value);
+                    break;
+                case "access-log-buffer":
+                    accessLogBuffer = parsePositive(value);
+                    break;
+                case "acceptors":
+                    acceptors = parsePositive(value);
+                    break;
+                case "backlog":
+                    backlog = parseNonNegative(value);
+                    break;
+                case "tcp-nodelay":
+                    tcpNoDelay = parseSwitch(value);
+                    break;
+                case "send-buffer":
+                    sendBuffer = parseNonNegative(value) * 1024;
+                    break;
+                case "receive-buffer":
+                    receiveBuffer = parseNonNegative(value) * 1024;
+                    break;
+                case "tls-keystore":
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException("file name missing");
+                    }
+                    tlsKeystore = value;
+                    break;
+                case "tls-keystore-password":
+                    tlsKeystorePassword = value;
+                    break;
+                case "tls-keystore-password-env":
+                    String password = System.getenv(value);
+                    if (password == null) {
+                        throw new IllegalArgumentException("environment variable " + value + " not set");
+                    }
+                    tlsKeystorePassword = password;
+                    break;
+                case "tls-keystore-password-file":
+                    tlsKeystorePassword = readPasswordFile(value);
+                    break;
+                case "tls-session-cache":
+                    tlsSessionCache = parseNonNegative(value);
+                    break;
+                case "tls-session-timeout":
+                    tlsSessionTimeout = parsePositive(value);
+                    break;
+                case "tls-session-tickets":
+                    tlsSessionTickets = parseSwitch(value);
+                    break;
+                case "http2":
+                    http2 = parseSwitch(value);
+                    break;
+                case "http2-max-streams":
+                    http2MaxStreams = parsePositive(value);
+                    break;
+                case "buffer-pool-size":
+                    bufferPoolSize = parseNonNegative(value) * 1024L * 1024;
+                    break;
+                case "buffer-pool-debug":
+                    bufferPoolDebug = parseSwitch(value);
+                    break;
+                default:
+                    logger.warning("Unknown option ignored: " + option);
+            }
+        } catch (IllegalArgumentException ex) {
+            logger.warning("Invalid option " + option + ", using default: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads a password from the first line of a file, so that it doesn't show in the process list.
+     * @param file the password file
+     * @return the password, without the line's end
+     * @throws IllegalArgumentException the file couldn't be read
+     */
+    private static String readPasswordFile(String file) throws IllegalArgumentException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("file name missing");
+        }
+        try {
+            String content = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+            int end = content.indexOf('\n');
+            if (end < 0) {
+                return content;
+            }
+            return content.substring(0, end > 0 && content.charAt(end - 1) == '\r' ? end - 1 : end);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("couldn't read the password file: " + ex);
+        }
+    }
+
+    /**
+     * Parses a strictly positive integer option value.
+     * @param value the option value
+     * @return the parsed number
+     * @throws IllegalArgumentException the value is not a positive number
+     */
+    private static int parsePositive(String value) throws IllegalArgumentException {
+        int number = Integer.parseInt(value);
+        if (number <= 0) {
+            throw new IllegalArgumentException("value must be positive");
+        }
+        return number;
+    }
+
+    /**
+     * Parses a non-negative integer option value.
+     * @param value the option value
+     * @return the parsed number
+     * @throws IllegalArgumentException the value is not a number or negative
+     */
+    private static int parseNonNegative(String value) throws IllegalArgumentException {
+        int number = Integer.parseInt(value);
+        if (number < 0) {
+            throw new IllegalArgumentException("value must not be negative");
+        }
+        return number;
+    }
+
+    /**
+     * Parses an on/off option value.
+     * @param value the option value
+     * @return true for on
+     * @throws IllegalArgumentException the value is neither on nor off
+     */
+    private static boolean parseSwitch(String value) throws IllegalArgumentException {
+        if (!value.equals("on") && !value.equals("off")) {
+            throw new IllegalArgumentException("value must be on or off");
+        }
+        return value.equals("on");
+    }
+
+    /**
+     * Gets the connection handling engine.
+     * @return the engine name
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the number of event loop threads used by the nio engine.
+     * @return the number of event loops
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Gets the mode used to run server tasks.
+     * @return the executor mode
+     */
+    public String getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Gets the number of platform threads running server tasks.
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Gets the number of seconds between two executor utilization reports, 0 if disabled.
+     * @return the report interval in seconds
+     */
+    public int getStatsInterval() {
+        return statsInterval;
+    }
+
+    /**
+     * Gets the number of seconds a persistent connection may stay idle before it is closed.
+     * @return the idle timeout in seconds
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Gets the maximum number of requests served on a single connection.
+     * @return the maximum number of requests per connection
+     */
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Gets the byte budget of the file cache, 0 if disabled.
+     * @return the cache size in bytes
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Gets the size of the largest file held by the file cache.
+     * @return the maximum cached file size in bytes
+     */
+    public long getCacheMaxFile() {
+        return cacheMaxFile;
+    }
+
+    /**
+     * Gets the byte budget of the cache of rendered directory listings, 0 if disabled.
+     * @return the listing cache size in bytes
+     */
+    public long getListingCacheSize() {
+        return listingCacheSize;
+    }
+
+    /**
+     * Gets the file whose mime types override the bundled ones.
+     * @return the override file, or null if none was given
+     */
+    public String getMimeTypesFile() {
+        return mimeTypesFile;
+    }
+
+    /**
+     * Gets the size of the smallest response body that is compressed, -1 if compression is disabled.
+     * @return the minimum compressed size in bytes
+     */
+    public long getCompressMinSize() {
+        return compression ? compressMinSize : -1;
+    }
+
+    /**
+     * Gets the number of entries from which directory listings are streamed instead of rendered whole.
+     * @return the largest number of entries of a cached listing
+     */
+    public int getListingStreamThreshold() {
+        return listingStreamThreshold;
+    }
+
+    /**
+     * Gets the path under which the metrics are served on the server's port.
+     * @return the metrics path, or null if the metrics aren't served on the server's port
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Gets the separate port the metrics are served on, 0 if disabled.
+     * @return the metrics port
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Gets the number of server tasks that may wait for a platform worker, 0 to hand them over directly.
+     * @return the queue capacity
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Gets the number of milliseconds work may wait for a worker before it is shed, 0 if it waits indefinitely.
+     * @return the queue timeout in milliseconds
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * Gets the number of seconds clients of shed work are asked to wait before they retry.
+     * @return the Retry-After value in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Gets the number of seconds a client may take to send a request head, once it started it.
+     * @return the header timeout in seconds
+     */
+    public int getHeaderTimeout() {
+        return headerTimeout;
+    }
+
+    /**
+     * Gets the number of seconds a response may take on top of the time its size needs at the minimum write rate.
+     * @return the write timeout in seconds
+     */
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Gets the number of bytes per second a client must at least read of a response.
+     * @return the minimum write rate in bytes per second
+     */
+    public int getMinWriteRate() {
+        return minWriteRate;
+    }
+
+    /**
+     * Gets the file requests are logged to in the Combined Log Format.
+     * @return the access log file, or null if requests aren't logged
+     */
+    public String getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Gets the size from which the access log is rotated, 0 if it never is.
+     * @return the rotation size in bytes
+     */
+    public long getAccessLogSize() {
+        return accessLogSize;
+    }
+
+    /**
+     * Gets the number of rotated access log files that are kept.
+     * @return the number of kept files
+     */
+    public int getAccessLogFiles() {
+        return accessLogFiles;
+    }
+
+    /**
+     * Gets the number of access log records that may wait for the writer before further ones are dropped.
+     * @return the buffer's capacity in records
+     */
+    public int getAccessLogBuffer() {
+        return accessLogBuffer;
+    }
+
+    /**
+     * Gets the number of threads, or nio event loops, accepting connections.
+     * @return the number of acceptors
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Gets the number of connections the kernel queues until they are accepted, 0 for the runtime's default.
+     * @return the listen backlog
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns true if Nagle's algorithm is disabled on client connections, so small writes leave at once.
+     * @return the TCP_NODELAY setting
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Gets the socket send buffer size of client connections, 0 to leave it to the kernel.
+     * @return the send buffer size in bytes
+     */
+    public int getSendBuffer() {
+        return sendBuffer;
+    }
+
+    /**
+     * Gets the socket receive buffer size of client connections, 0 to leave it to the kernel.
+     * @return the receive buffer size in bytes
+     */
+    public int getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+    /**
+     * Gets the keystore holding the server's key and certificate chain, whose presence enables TLS.
+     * @return the keystore file, or null to serve plaintext
+     */
+    public String getTlsKeystore() {
+        return tlsKeystore;
+    }
+
+    /**
+     * Gets the password of the keystore and of the key in it.
+     * @return the password, empty if none was given
+     */
+    public String getTlsKeystorePassword() {
+        return tlsKeystorePassword;
+    }
+
+    /**
+     * Gets the number of TLS sessions the server keeps for clients to resume, 0 for no limit.
+     * @return the session cache size
+     */
+    public int getTlsSessionCache() {
+        return tlsSessionCache;
+    }
+
+    /**
+     * Gets the time during which a client may resume a TLS session, from the cache or with a ticket.
+     * @return the session timeout in seconds
+     */
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Returns true if clients are given session tickets, so they resume sessions the server doesn't keep.
+     * @return the session ticket setting
+     */
+    public boolean isTlsSessionTickets() {
+        return tlsSessionTickets;
+    }
+
+    /**
+     * Returns true if the nio engine serves HTTP/2: negotiated with ALPN over TLS, and upgraded from
+     * HTTP/1.1 or started with the connection preface over plaintext.
+     * @return the HTTP/2 setting
+     */
+    public boolean isHttp2() {
+        return http2 && engine.equals(ServerEngine.nio);
+    }
+
+    /**
+     * Gets the number of streams an HTTP/2 client may have open at once on a connection.
+     * @return the maximum number of concurrent streams
+     */
+    public int getHttp2MaxStreams() {
+        return http2MaxStreams;
+    }
+
+    /**
+     * Gets the bytes of released buffers each buffer pool keeps for later leases, 0 to allocate every buffer.
+     * @return the pool size in bytes
+     */
+    public long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    /**
+     * Returns true if the buffer pools track their leases and report the buffers released twice or never.
+     * @return the debug setting
+     */
+    public boolean isBufferPoolDebug() {
+        return bufferPoolDebug;
+    }
+}
@@ -0,0 +1,193 @@
+package com.tzupy.webserver;
+
+import com.tzupy.cache.DirectoryWatcher;
+import com.tzupy.cache.FileCache;
+import com.tzupy.cache.ListingCache;
+import com.tzupy.http.MimeTypes;
+import com.tzupy.log.AccessLog;
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+import com.tzupy.utils.HashedTimerWheel;
+
+import java.io.File;
+
+/**
+ * This class holds the state shared by all connections of a web server: its root, settings, caches, metrics,
+ * access log, TLS state, the pools lending the connections' buffers and the timer wheel enforcing the
+ * connections' deadlines.
+ */
+public class ServerContext {
+
+    private final File root;
+    private final ServerConfig config;
+    private final DirectoryWatcher directoryWatcher = new DirectoryWatcher();
+    private final FileCache fileCache;
+    private final ListingCache listingCache;
+    private final StaticResources staticResources = new StaticResources();
+    private final MimeTypes mimeTypes;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final LoadShedder loadShedder;
+    private final HashedTimerWheel timerWheel = new HashedTimerWheel(100, 512, "deadline-timer");
+    private final AccessLog accessLog;
+    private final TlsContext tlsContext;
+    private final BufferPool bufferPool;
+    private final BufferPool heapBufferPool;
+
+    /**
+     * Class constructor that receives the server root and settings, and creates the shared caches.
+     * @param root the root of the server
+     * @param config the server settings
+     */
+    public ServerContext(File root, ServerConfig config) {
+        this.root = root;
+        this.config = config;
+        this.fileCache = new FileCache(config.getCacheSize(), config.getCacheMaxFile(), directoryWatcher);
+        this.listingCache = new ListingCache(config.getListingCacheSize(), config.getCompressMinSize(), directoryWatcher);
+        this.mimeTypes = MimeTypes.load(config.getMimeTypesFile());
+        metrics.addCache("file", fileCache);
+        metrics.addCache("listing", listingCache);
+        this.loadShedder = new LoadShedder(config, metrics);
+        this.accessLog = new AccessLog(config.getAccessLog(), config.getAccessLogBuffer(), config.getAccessLogSize(),
+                config.getAccessLogFiles());
+        metrics.setAccessLog(accessLog);
+        this.bufferPool = new BufferPool(true, config.getBufferPoolSize(), config.isBufferPoolDebug());
+        this.heapBufferPool = new BufferPool(false, config.getBufferPoolSize(), config.isBufferPoolDebug());
+        metrics.addBufferPool("direct", bufferPool);
+        metrics.addBufferPool("heap", heapBufferPool);
+        this.tlsContext = config.getTlsKeystore() == null ? null : TlsContext.load(config, metrics);
+        if (tlsContext != null) {
+            metrics.enableTls();
+        }
+        if (config.isHttp2()) {
+            metrics.enableHttp2();
+        }
+    }
+
+    /**
+     * Starts the background work of the shared caches, the timer wheel and the access log.
+     */
+    public void start() {
+        timerWheel.start();
+        accessLog.start();
+        if (fileCache.isEnabled() || listingCache.isEnabled()) {
+            directoryWatcher.start();
+        }
+    }
+
+    /**
+     * Stops the background work of the shared caches, the timer wheel and the access log, and releases
+     * the caches' memory.
+     */
+    public void stop() {
+        timerWheel.stop();
+        accessLog.stop();
+        directoryWatcher.stop();
+        fileCache.clear();
+        listingCache.clear();
+    }
+
+    /**
+     * Gets the root of the server.
+     * @return the server root
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets the server settings.
+     * @return the settings
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the cache of small files.
+     * @return the file cache
+     */
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * Gets the cache of rendered directory listings.
+     * @return the listing cache
+     */
+    public ListingCache getListingCache() {
+        return listingCache;
+    }
+
+    /**
+     * Gets the resolver of content types.
+     * @return the mime types
+     */
+    public MimeTypes getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * Gets the resources bundled with the server.
+     * @return the bundled resources
+     */
+    public StaticResources getStaticResources() {
+        return staticResources;
+    }
+
+    /**
+     * Gets the runtime metrics of the server.
+     * @return the metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the policy turning away work the server can't take on.
+     * @return the load shedder
+     */
+    public LoadShedder getLoadShedder() {
+        return loadShedder;
+    }
+
+    /**
+     * Gets the timer wheel on which the connections' deadlines are scheduled.
+     * @return the timer wheel
+     */
+    public HashedTimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Gets the log of answered requests.
+     * @return the access log
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Gets the TLS state of the server, which encrypts every connection.
+     * @return the TLS context, or null if the server serves plaintext or its keystore couldn't be loaded
+     */
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Gets the pool of direct buffers, which pass the connections' bytes to and from the sockets.
+     * @return the direct buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Gets the pool of heap buffers, for the code that needs the bytes in an array, e.g. a deflater
+     * or the HPACK decoder.
+     * @return the heap buffer pool
+     */
+    public BufferPool getHeapBufferPool() {
+        return heapBufferPool;
+    }
+}
@@ -0,0 +1,9 @@
+package com.tzupy.webserver;
+
+/**
+ * This class defines the available connection handling engines.
+ */
+public abstract class ServerEngine {
+    public final static String blocking = "blocking";
+    public final static String nio = "nio";
+}
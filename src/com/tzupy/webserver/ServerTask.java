@@ -1,19 +1,20 @@
 package com.tzupy.webserver;
 
-import com.tzupy.html.HtmlContent;
-import com.tzupy.html.HtmlGenerator;
-import com.tzupy.html.Table;
 import com.tzupy.http.HttpRequest;
 import com.tzupy.http.HttpResponse;
-import com.tzupy.http.HttpStatusCode;
-import com.tzupy.utils.FileUtils;
-import com.tzupy.utils.ResourcePath;
+import com.tzupy.http.ResponseBody;
+import com.tzupy.log.AccessLog;
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
 
-import javax.activation.MimetypesFileTypeMap;
+import javax.net.ssl.SSLException;
 import java.io.*;
 import java.net.Socket;
-import java.util.Arrays;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
@@ -24,159 +25,263 @@ public class ServerTask implements Callable<Void> {
 
     private static final Logger logger = Logger.getLogger(ServerTask.class.getCanonicalName());
 
+    private static final int READ_BUFFER_SIZE = 4096;
+
     private final Socket clientSocket;
 
-    private final File root;
+    private final ServerContext context;
+
+    private final ServerConfig config;
+
+    private final long queuedAt = System.nanoTime();
+
+    // the deadline of the current phase, whose expiry closes the socket from the timer wheel's thread
+    private Deadline deadline;
+
+    private volatile boolean timedOut;
 
-    private final HtmlContent htmlContent = new HtmlContent();
-    private final HtmlGenerator htmlGenerator = new HtmlGenerator("Web server");
-    private HttpRequest httpRequest;
-    private HttpResponse httpResponse;
+    // the encryption of the connection, null if it is plaintext
+    private TlsChannel tls;
 
     /**
-     * Class constructor receiving the client socket and server root.
+     * Class constructor receiving the client socket and the server's shared state.
      * @param clientSocket the client socket
-     * @param root the root of the server
+     * @param context the server's root, settings and caches
      */
-    public ServerTask(Socket clientSocket, File root) {
+    public ServerTask(Socket clientSocket, ServerContext context) {
         this.clientSocket = clientSocket;
-        this.root = root;
+        this.context = context;
+        this.config = context.getConfig();
     }
 
     /**
-     * Parses the http request from the client.
-     * @param in the client's reader
+     * Processes the client requests and sends a response to each, in order,
+     * until the client closes the connection, misses a deadline or reaches the request limit.
+     * A connection that waited for a worker longer than the queue timeout is turned away instead.
+     * @return null
+     * @throws Exception
      */
-    public void handleRequest(Reader in) {
-        httpRequest = new HttpRequest(in);
-        httpRequest.read();
+    @Override
+    public Void call() throws Exception {
+        if (context.getLoadShedder().isExpired(queuedAt)) {
+            context.getLoadShedder().reject(clientSocket, true);
+            return null;
+        }
 
+        ServerMetrics metrics = context.getMetrics();
+        AccessLog accessLog = context.getAccessLog();
+        BufferPool pool = context.getBufferPool();
+        byte[] remoteAddress = accessLog.isEnabled()
+                ? clientSocket.getInetAddress().getHostAddress().getBytes(StandardCharsets.US_ASCII) : null;
+        ByteBuffer readBuffer = null;
+        ByteBuffer header = null;
+        metrics.connectionOpened();
+        metrics.workerStarted();
         try {
-            httpRequest.parse(root);
-            logger.info("Client requested url: " + httpRequest.getUrl());
-        } catch (IllegalArgumentException ex) {
-            logger.severe("Client's request is malformed: " + ex.getMessage());
+            if (clientSocket.getChannel() != null) {
+                try {
+                    Listeners.configure(clientSocket.getChannel(), config);
+                } catch (IOException ex) {
+                    logger.severe("Couldn't configure client socket: " + ex.getMessage());
+                }
+            }
+            if (context.getTlsContext() != null) {
+                tls = context.getTlsContext().wrap(clientSocket.getChannel(), pool);
+            }
+            ReadableByteChannel in = tls != null ? tls : clientSocket.getChannel() != null
+                    ? clientSocket.getChannel() : Channels.newChannel(clientSocket.getInputStream());
+            readBuffer = pool.acquire(READ_BUFFER_SIZE);
+            readBuffer.flip();
+            WritableByteChannel channel = tls != null ? tls : clientSocket.getChannel() != null
+                    ? clientSocket.getChannel() : Channels.newChannel(clientSocket.getOutputStream());
+            header = pool.acquire(HttpResponse.maxHeaderSize);
+
+            // pipelined requests stay in the read buffer after the previous head, so they are answered in order
+            for (int served = 1; ; served++) {
+                HttpRequest httpRequest = readRequest(in, readBuffer, served == 1);
+                if (httpRequest == null) {
+                    break;
+                }
+                try {
+                    if (!serve(httpRequest, served, header, channel, remoteAddress)) {
+                        break;
+                    }
+                } finally {
+                    httpRequest.release();
+                }
+            }
+        } finally {
+            metrics.workerFinished();
+            metrics.connectionClosed();
+            if (tls != null && !timedOut) {
+                // the close_notify alert may not hang on a client that stopped reading
+                deadline = Deadline.write(context, 0, null, this::expire);
+                tls.closeOutbound();
+                deadline.cancel();
+                deadline = null;
+            }
+            if (clientSocket != null) {
+                try {
+                    clientSocket.close();
+                    //logger.info("Client disconnected");
+                } catch (IOException ex) {
+                    logger.severe("Couldn't close client socket: " + ex.getMessage());
+                }
+            }
+            if (tls != null) {
+                tls.release();
+            }
+            pool.release(readBuffer);
+            pool.release(header);
         }
+
+        return null;
     }
 
     /**
-     * Creates an http response for the client.
-     * @param out the client's writer
-     * @param fileWriter the writer for a file
+     * Handles a request and sends its response.
+     * @param httpRequest the request, whose head was received completely
+     * @param served the number of the request on the connection, from 1
+     * @param header the connection's header buffer
+     * @param channel the client's channel
+     * @param remoteAddress the client's address for the access log, or null if it is disabled
+     * @return true if the connection is kept open for a further request
      */
-    public void handleResponse(Writer out, OutputStream fileWriter) {
-        File url = httpRequest.getUrl();
-        httpResponse = new HttpResponse(url);
+    private boolean serve(HttpRequest httpRequest, int served, ByteBuffer header, WritableByteChannel channel,
+                          byte[] remoteAddress) {
+        long start = System.nanoTime();
 
+        RequestHandler requestHandler = new RequestHandler(context);
+        requestHandler.handleRequest(httpRequest);
+
+        boolean keepAlive = requestHandler.isKeepAlive() && served < config.getMaxRequests();
+        header.clear();
+        requestHandler.handleResponse(header, keepAlive);
+        header.flip();
+        if (requestHandler.getStatus() == 0) {
+            // the client would wait for an answer on a connection kept open
+            logger.severe("No response was written for " + httpRequest.getFilename());
+            return false;
+        }
+        long headerLength = header.remaining();
+        ResponseBody body = requestHandler.getBody();
+        deadline = Deadline.write(context, headerLength, body, this::expire);
+        boolean sent = sendResponse(header, body, channel);
+        deadline.cancel();
+        deadline = null;
+        if (!sent) {
+            return false;
+        }
+        long bodyLength = body == null ? 0 : body.written();
+        long duration = System.nanoTime() - start;
+        context.getMetrics().record(requestHandler.getResponseType(), requestHandler.getStatus(), duration,
+                headerLength + bodyLength);
+        context.getAccessLog().log(remoteAddress, httpRequest, requestHandler.getStatus(), bodyLength, duration);
+        return requestHandler.isResponseKeepAlive();
+    }
+
+    /**
+     * Reads the next request head. Bytes left in the read buffer by the previous request come first.
+     * The client has the header timeout to send the first request head of the connection, or a later
+     * one it started sending; before it starts, the idle timeout applies.
+     * @param in the client's channel
+     * @param readBuffer the connection's read buffer, in read mode
+     * @param first true if this is the connection's first request
+     * @return the request, or null if the client closed the connection or missed the deadline before sending one
+     */
+    private HttpRequest readRequest(ReadableByteChannel in, ByteBuffer readBuffer, boolean first) {
+        HttpRequest httpRequest = new HttpRequest(context.getHeapBufferPool());
+        boolean received = false;
         try {
-            if (!url.exists()) {
-                htmlGenerator.addContent(htmlContent.asHeading(HttpStatusCode.notFound));
-                String html = htmlGenerator.generateHtml();
-                out.write(httpResponse.getMimeHeader(HttpStatusCode.notFound, html.length(), "text/html"));
-                out.write(html);
-                out.flush();
-            } else if (!httpRequest.isMethodValid()) {
-                htmlGenerator.addContent(htmlContent.asHeading(HttpStatusCode.notImplemented));
-                String html = htmlGenerator.generateHtml();
-                out.write(httpResponse.getMimeHeader(HttpStatusCode.notImplemented, html.length(), "text/html"));
-                out.write(html);
-                out.flush();
-            } else if (!httpRequest.isProtocolValid()) {
-                htmlGenerator.addContent(htmlContent.asHeading(HttpStatusCode.badRequest));
-                String html = htmlGenerator.generateHtml();
-                out.write(httpResponse.getMimeHeader(HttpStatusCode.badRequest, html.length(), "text/html"));
-                out.write(html);
-                out.flush();
-            } else { // valid request
-                if (url.isDirectory()) {
-                    if (!url.canRead()) {
-                        htmlGenerator.addLine("Client made no request");
-                        htmlGenerator.addContent(htmlContent.asLineBreak());
-                    } else {
-                        //String ip = clientSocket.getInetAddress().getHostAddress();
-                        //htmlGenerator.addLine("Client address is: " + ip + ":" + clientSocket.getPort());
-
-                        htmlGenerator.addContent(htmlContent.asHeading("Index of " + httpRequest.getFilename()));
-
-                        Table table = new Table();
-                        table.setHeader(new String[] { "Name", "Last Modified", "Size" });
-
-                        // add back navigation
-                        if (!url.getCanonicalPath().equals(root.getCanonicalPath())) {
-                            String name = htmlContent.asAnchor(".." + File.separator, "UP");
-                            table.addRow(new String[] { name, "", "" } );
-                        }
-
-                        // list directories in alphabetical order
-                        File[] directories = url.listFiles(File::isDirectory);
-                        Arrays.sort(directories);
-                        for (File dir : directories) {
-                            String icon = htmlContent.asImage(ResourcePath.directory, 20, 20, 5);
-                            String anchor = htmlContent.asAnchor(dir.getName() + File.separator, dir.getName());
-                            String lastModified = FileUtils.getFileLastModifiedFormatted(new Date(dir.lastModified()));
-                            table.addRow(new String[] { icon + anchor, lastModified, "-" } );
-                        }
-
-                        // list files in alphabetical order
-                        File[] files = url.listFiles(File::isFile);
-                        Arrays.sort(files);
-                        for (File file : files) {
-                            String icon = htmlContent.asImage(ResourcePath.file, 20, 20, 5);
-                            String anchor = htmlContent.asAnchor(file.getName(), file.getName());
-                            String lastModified = FileUtils.getFileLastModifiedFormatted(new Date(file.lastModified()));
-                            String size = FileUtils.getFileSizeFormatted(file.length());
-                            table.addRow(new String[] { icon + anchor, lastModified, size } );
-                        }
-
-                        htmlGenerator.addContent(htmlContent.asTable(table));
-
-                        String html = htmlGenerator.generateHtml();
-                        out.write(httpResponse.getMimeHeader(HttpStatusCode.ok, html.length(), "text/html"));
-                        out.write(html);
-                        out.flush();
-                    }
-                } else { // provides a file to the client
-                    String contentType = new MimetypesFileTypeMap().getContentType(httpRequest.getUrl());
-                    try {
-                        out.write(httpResponse.getMimeHeader(HttpStatusCode.ok, httpResponse.getBody().length, contentType));
-                        out.flush();
-                        fileWriter.write(httpResponse.getBody());
-                        fileWriter.flush();
-                    } catch (IOException ex) {
+            while (!httpRequest.feed(readBuffer)) {
+                if (deadline == null) {
+                    deadline = first || httpRequest.isStarted()
+                            ? Deadline.header(context, this::expire) : Deadline.idle(context, this::expire);
+                } else if (deadline.getPhase().equals(Deadline.idle) && httpRequest.isStarted()) {
+                    deadline.cancel();
+                    deadline = Deadline.header(context, this::expire);
+                }
+                int read;
+                try {
+                    readBuffer.clear();
+                    read = in.read(readBuffer);
+                } catch (SSLException ex) {
+                    // e.g. a client that doesn't speak TLS, counted as a failed handshake
+                    logger.fine("TLS Exception: " + ex.getMessage());
+                    return null;
+                } catch (IOException ex) {
+                    if (!timedOut) {
                         logger.severe("IO Exception: " + ex.getMessage());
                     }
+                    return null;
+                }
+                readBuffer.flip();
+                if (read < 0) {
+                    received = httpRequest.endOfInput();
+                    return received ? httpRequest : null;
                 }
             }
-        } catch (IOException ex) {
-            logger.severe("IO Exception: " + ex.getMessage());
+            received = true;
+            return httpRequest;
+        } finally {
+            if (!received) {
+                httpRequest.release();
+            }
+            if (deadline != null) {
+                deadline.cancel();
+                deadline = null;
+            }
         }
     }
 
     /**
-     * Processes the client request and sends a response.
-     * @return null
-     * @throws Exception
+     * Resets the connection once the current deadline passed, which ends a blocked read or write and
+     * drops the response bytes still buffered for a client that doesn't read them.
+     * Runs on the timer wheel's thread.
      */
-    @Override
-    public Void call() throws Exception {
+    private void expire() {
+        timedOut = true;
         try {
-            Reader in = new InputStreamReader(new BufferedInputStream(clientSocket.getInputStream()));
-            OutputStream fileWriter = new BufferedOutputStream(clientSocket.getOutputStream());
-            Writer out = new OutputStreamWriter(fileWriter);
+            clientSocket.setSoLinger(true, 0);
+            clientSocket.close();
+        } catch (IOException ex) {
+            logger.severe("Couldn't close client socket: " + ex.getMessage());
+        }
+    }
 
-            handleRequest(in);
-            handleResponse(out, fileWriter);
+    /**
+     * Sends a response to the client, straight to the socket's channel when there is one.
+     * A body held in memory leaves in the same write as the header.
+     * @param header the encoded response header
+     * @param body the body to send, or null if the response has none
+     * @param channel the client's channel
+     * @return false if the response couldn't be sent and the connection must be closed
+     */
+    private boolean sendResponse(ByteBuffer header, ResponseBody body, WritableByteChannel channel) {
+        try {
+            if (body == null) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                return true;
+            }
+            while (!body.writeTo(channel, header)) {
+                Thread.yield();
+            }
+            return true;
+        } catch (IOException ex) {
+            if (!timedOut) {
+                logger.severe("IO Exception: " + ex.getMessage());
+            }
+            return false;
         } finally {
-            if (clientSocket != null) {
+            if (body != null) {
                 try {
-                    clientSocket.close();
-                    //logger.info("Client disconnected");
+                    body.close();
                 } catch (IOException ex) {
-                    logger.severe("Couldn't close client socket: " + ex.getMessage());
+                    logger.severe("Couldn't close response body: " + ex.getMessage());
                 }
             }
         }
-
-        return null;
     }
 }
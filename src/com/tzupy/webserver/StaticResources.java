@@ -0,0 +1,125 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http.Compression;
+import com.tzupy.http.ETag;
+import com.tzupy.utils.ResourcePath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class loads the resources bundled with the server once, so pages never fetch them remotely.
+ * They are served from memory under the reserved {@link ResourcePath#prefix}.
+ */
+public class StaticResources {
+
+    private static final Logger logger = Logger.getLogger(StaticResources.class.getCanonicalName());
+
+    public final static String cacheControl = "public, max-age=604800";
+
+    private final Map<String, ByteBuffer> contents = new HashMap<>();
+    private final Map<String, ByteBuffer> compressedContents = new HashMap<>();
+    private final Map<String, String> contentTypes = new HashMap<>();
+    private final Map<String, String> etags = new HashMap<>();
+    private final long lastModified = System.currentTimeMillis();
+
+    /**
+     * Class constructor that loads all known resources from the class path.
+     */
+    public StaticResources() {
+        load(ResourcePath.style, "text/css; charset=utf-8");
+        load(ResourcePath.directory, "image/png");
+        load(ResourcePath.file, "image/png");
+        load(ResourcePath.favIcon, "image/png");
+    }
+
+    /**
+     * Returns true if the requested name lies under the reserved resource prefix.
+     * @param filename the requested name
+     * @return true if the name is reserved for bundled resources
+     */
+    public static boolean isReserved(String filename) {
+        return filename != null && filename.startsWith(ResourcePath.prefix);
+    }
+
+    /**
+     * Gets the content of a bundled resource.
+     * @param path the resource's path, one of {@link ResourcePath}
+     * @return the read-only content, or null if there is no such resource
+     */
+    public ByteBuffer getContent(String path) {
+        return contents.get(path);
+    }
+
+    /**
+     * Gets the gzip variant of a bundled resource, compressed once when it was loaded.
+     * @param path the resource's path, one of {@link ResourcePath}
+     * @return the read-only compressed content, or null if the resource isn't compressible
+     */
+    public ByteBuffer getCompressedContent(String path) {
+        return compressedContents.get(path);
+    }
+
+    /**
+     * Gets the content type of a bundled resource.
+     * @param path the resource's path, one of {@link ResourcePath}
+     * @return the content type, or null if there is no such resource
+     */
+    public String getContentType(String path) {
+        return contentTypes.get(path);
+    }
+
+    /**
+     * Gets the entity tag of a bundled resource.
+     * @param path the resource's path, one of {@link ResourcePath}
+     * @return the quoted tag, or null if there is no such resource
+     */
+    public String getETag(String path) {
+        return etags.get(path);
+    }
+
+    /**
+     * Gets the time the resources were loaded, reported as their modification time.
+     * @return the load time in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Reads a resource into a direct buffer. The resources sit at the root of the class path.
+     * @param path the resource's path
+     * @param contentType the resource's content type
+     */
+    private void load(String path, String contentType) {
+        String name = "/" + path.substring(ResourcePath.prefix.length());
+        try (InputStream in = StaticResources.class.getResourceAsStream(name)) {
+            if (in == null) {
+                logger.warning("Bundled resource not found: " + name);
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+
+            ByteBuffer content = ByteBuffer.allocateDirect(bytes.size());
+            content.put(bytes.toByteArray()).flip();
+            contents.put(path, content.asReadOnlyBuffer());
+            contentTypes.put(path, contentType);
+            etags.put(path, ETag.forContent(content));
+            if (Compression.isCompressible(contentType)) {
+                compressedContents.put(path, Compression.compress(content));
+            }
+        } catch (IOException ex) {
+            logger.warning("Couldn't load bundled resource " + name + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tzupy.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class chooses the stream of an HTTP/2 connection whose response is sent next. Response headers
+ * go first, they are small and let the client start on the response. Bodies go by urgency, the most urgent
+ * first (RFC 9218). Among streams of the same urgency, non-incremental ones are sent one after the other in
+ * the order they were opened, and incremental ones share the connection in proportion to their weight
+ * (RFC 7540) by stride scheduling: a stream's pass grows with the bytes it sent divided by its weight, and
+ * the stream with the smallest pass goes next. A stream waits while the stream it depends on can send.
+ * Streams of clients that send no priorities are incremental with the same weight, so they share alike.
+ */
+public class StreamScheduler {
+
+    // the streams whose response is being sent
+    private final List<Http2Stream> sending = new ArrayList<>();
+    // all open streams of the connection, to find the streams others depend on
+    private final Map<Integer, Http2Stream> streams;
+    // the pass of the stream sent last, at which new streams join the sharing
+    private long clock;
+
+    /**
+     * Class constructor that receives the connection's open streams.
+     * @param streams the open streams by id
+     */
+    public StreamScheduler(Map<Integer, Http2Stream> streams) {
+        this.streams = streams;
+    }
+
+    /**
+     * Adds a stream whose response is ready to be sent.
+     * @param stream the stream
+     */
+    public void add(Http2Stream stream) {
+        stream.setPass(clock);
+        sending.add(stream);
+    }
+
+    /**
+     * Removes a stream that was sent completely or reset.
+     * @param stream the stream
+     */
+    public void remove(Http2Stream stream) {
+        sending.remove(stream);
+    }
+
+    /**
+     * Chooses the stream to send next.
+     * @param connectionWindow true if the connection's send window allows DATA frames
+     * @return a stream whose headers weren't sent, or whose body the windows allow, or null if none can be sent
+     */
+    public Http2Stream next(boolean connectionWindow) {
+        Http2Stream best = null;
+        Http2Stream waiting = null;
+        for (Http2Stream stream : sending) {
+            if (!stream.isHeadersSent()) {
+                return stream;
+            }
+            if (!connectionWindow || stream.getSendWindow() <= 0) {
+                continue;
+            }
+            if (isWaiting(stream)) {
+                // streams depending on each other would otherwise all wait
+                if (waiting == null || precedes(stream, waiting)) {
+                    waiting = stream;
+                }
+            } else if (best == null || precedes(stream, best)) {
+                best = stream;
+            }
+        }
+        return best != null ? best : waiting;
+    }
+
+    /**
+     * Returns true if a stream's body waits for the client to enlarge a send window.
+     * @param connectionWindow true if the connection's send window allows DATA frames
+     * @return true if a body can't be sent for lack of window
+     */
+    public boolean isBlocked(boolean connectionWindow) {
+        for (Http2Stream stream : sending) {
+            if (stream.isHeadersSent() && (!connectionWindow || stream.getSendWindow() <= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advances a stream's pass by the bytes it sent.
+     * @param stream the stream
+     * @param bytes the number of bytes sent
+     */
+    public void charge(Http2Stream stream, int bytes) {
+        clock = stream.getPass();
+        stream.setPass(clock + (long) bytes * Http2Stream.defaultWeight / stream.getWeight());
+    }
+
+    /**
+     * Returns true if the stream a stream depends on has a response the windows allow to send.
+     * @param stream the stream
+     * @return true if the stream waits for the one it depends on
+     */
+    private boolean isWaiting(Http2Stream stream) {
+        Http2Stream parent = stream.getDependency() == 0 ? null : streams.get(stream.getDependency());
+        return parent != null && parent.hasResponse() && parent.getSendWindow() > 0;
+    }
+
+    /**
+     * Returns true if a stream goes before another one.
+     * @param stream the stream
+     * @param other the other stream
+     * @return the order of the two
+     */
+    private static boolean precedes(Http2Stream stream, Http2Stream other) {
+        if (stream.getUrgency() != other.getUrgency()) {
+            return stream.getUrgency() < other.getUrgency();
+        }
+        if (stream.isIncremental() != other.isIncremental()) {
+            return !stream.isIncremental();
+        }
+        if (!stream.isIncremental()) {
+            return stream.getId() < other.getId();
+        }
+        return stream.getPass() < other.getPass();
+    }
+}
@@ -0,0 +1,460 @@
+package com.tzupy.webserver;
+
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * This class encrypts a client connection with an SSLEngine, so the same channel serves blocking and
+ * non-blocking connections. On a non-blocking socket, reads and writes return 0 while the socket isn't
+ * ready, and the handshake advances on whichever of them is called next. Encrypted bytes the socket didn't
+ * accept wait in the channel until the next write or {@link #flush()}, and received records that were
+ * not read yet wait until the next read, see {@link #hasBufferedInput()}. The channel's buffers are leased
+ * from a pool and given back with {@link #release()} once the connection ended. The handshake's key exchange
+ * and signatures run on the calling thread, or on an executor given with {@link #delegateTasks}.
+ */
+public class TlsChannel implements ByteChannel, GatheringByteChannel {
+
+    private static final Logger logger = Logger.getLogger(TlsChannel.class.getCanonicalName());
+
+    private static final ByteBuffer[] none = { ByteBuffer.allocate(0) };
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final ServerMetrics metrics;
+    private final BufferPool pool;
+
+    // received records, in write mode
+    private ByteBuffer netIn;
+    // decrypted bytes that weren't read yet, in read mode
+    private ByteBuffer appIn;
+    // encrypted bytes that weren't sent yet, in read mode
+    private ByteBuffer netOut;
+
+    // true if the received bytes end in an incomplete record
+    private boolean partial;
+    private boolean endOfInput;
+    private boolean handshaken;
+    private long handshakeStart;
+    private long handshakeStartMillis;
+
+    // runs the engine's delegated tasks and then resumes the connection, or null to run them inline
+    private Executor delegate;
+    private Runnable resume;
+    private volatile boolean delegating;
+
+    /**
+     * Class constructor that receives the client channel and its engine, and starts the handshake.
+     * @param channel the client channel
+     * @param engine the engine in server mode
+     * @param metrics the server's metrics, counting the handshakes
+     * @param pool the pool lending the channel's buffers
+     * @throws SSLException the handshake couldn't be started
+     */
+    public TlsChannel(SocketChannel channel, SSLEngine engine, ServerMetrics metrics, BufferPool pool)
+            throws SSLException {
+        this.channel = channel;
+        this.engine = engine;
+        this.metrics = metrics;
+        this.pool = pool;
+        engine.beginHandshake();
+        SSLSession session = engine.getSession();
+        this.netIn = pool.acquire(session.getPacketBufferSize());
+        this.appIn = pool.acquire(session.getApplicationBufferSize());
+        appIn.flip();
+        this.netOut = pool.acquire(session.getPacketBufferSize());
+        netOut.flip();
+    }
+
+    /**
+     * Runs the engine's delegated tasks on an executor instead of the calling thread, e.g. so a full
+     * handshake doesn't hold up the other connections of an event loop. While they run, reads and writes
+     * return 0, see {@link #isDelegating()}. If the executor rejects them, they run on the calling thread.
+     * @param executor the executor running the tasks
+     * @param resume called on the executor's thread once the tasks ran, so the connection reads and writes again
+     */
+    public void delegateTasks(Executor executor, Runnable resume) {
+        this.delegate = executor;
+        this.resume = resume;
+    }
+
+    /**
+     * Returns true while the engine's delegated tasks run on the executor. Reads and writes make no
+     * progress until they ran, so the connection waits for the resume callback instead of the socket.
+     * @return true if the handshake waits for its tasks
+     */
+    public boolean isDelegating() {
+        return delegating;
+    }
+
+    /**
+     * Reads decrypted bytes, advancing the handshake first if it isn't done.
+     * @param dst the buffer to fill
+     * @return the number of bytes read, 0 if none are available yet, -1 once the client closed the connection
+     * @throws IOException the socket couldn't be read, or the client broke the protocol
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (!appIn.hasRemaining()) {
+            if (!handshake() || !unwrap()) {
+                return endOfInput ? -1 : 0;
+            }
+        }
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + count);
+        dst.put(appIn);
+        appIn.limit(limit);
+        return count;
+    }
+
+    /**
+     * Encrypts and writes as many bytes as the socket accepts.
+     * @param src the bytes to write
+     * @return the number of bytes consumed, which may not all have left yet
+     * @throws IOException the socket couldn't be written, or the connection is closed
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    /**
+     * Encrypts and writes as many bytes of a sequence of buffers as the socket accepts. Bytes written
+     * together leave in the same records, e.g. a response header and a small body.
+     * @param srcs the buffers
+     * @return the number of bytes consumed, which may not all have left yet
+     * @throws IOException the socket couldn't be written, or the connection is closed
+     */
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Encrypts and writes as many bytes of a sequence of buffers as the socket accepts.
+     * @param srcs the buffers
+     * @param offset the index of the first buffer
+     * @param length the number of buffers
+     * @return the number of bytes consumed, which may not all have left yet
+     * @throws IOException the socket couldn't be written, or the connection is closed
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (!handshake() || !flush()) {
+            return 0;
+        }
+        long consumed = 0;
+        while (hasRemaining(srcs, offset, length)) {
+            SSLEngineResult result = wrap(srcs, offset, length);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            consumed += result.bytesConsumed();
+            if (!flush()) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Writes the encrypted bytes the socket didn't accept before.
+     * @return true once all of them were written
+     * @throws IOException the socket couldn't be written
+     */
+    public boolean flush() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if encrypted bytes wait for the socket to accept them.
+     * @return true if a flush is needed
+     */
+    public boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    /**
+     * Returns true if received bytes can be read without waiting for the socket, as a record
+     * holds more bytes than the last read took, or more records were received at once.
+     * @return true if the next read may return bytes that are already here
+     */
+    public boolean hasBufferedInput() {
+        return !delegating && (appIn.hasRemaining() || (netIn.position() > 0 && !partial));
+    }
+
+    /**
+     * Gets the protocol negotiated with ALPN.
+     * @return the protocol id, empty if none was negotiated, or null before the handshake got that far
+     */
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * Returns true if the channel's socket is open.
+     * @return the socket's state
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Sends the close_notify alert as far as the socket accepts it, after the bytes still waiting.
+     * A client that doesn't read it in time won't get it.
+     */
+    public void closeOutbound() {
+        engine.closeOutbound();
+        try {
+            if (flush()) {
+                wrap(none, 0, 1);
+                flush();
+            }
+        } catch (IOException ex) {
+            logger.fine("Couldn't send close_notify: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes the socket. Callers send the close_notify alert first with {@link #closeOutbound()}
+     * where the connection ended in order.
+     * @throws IOException the socket couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gives the channel's buffers back to the pool, dropping the bytes they still hold.
+     * Called once, when the connection ended and no read or write is in progress.
+     */
+    public void release() {
+        pool.release(netIn);
+        pool.release(appIn);
+        pool.release(netOut);
+        netIn = null;
+        appIn = null;
+        netOut = null;
+    }
+
+    /**
+     * Advances the handshake, if one is in progress, as far as the socket and the delegated tasks allow.
+     * @return true once no handshake is in progress and its messages left
+     * @throws IOException the socket couldn't be read or written, or the handshake failed
+     */
+    private boolean handshake() throws IOException {
+        if (delegating) {
+            return false;
+        }
+        try {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case NOT_HANDSHAKING:
+                    case FINISHED:
+                        // the server's last handshake message, e.g. its Finished in TLS 1.2, must leave first
+                        return flush();
+                    case NEED_TASK:
+                        if (!runDelegatedTasks()) {
+                            return false;
+                        }
+                        break;
+                    case NEED_WRAP:
+                        if (!flush()) {
+                            return false;
+                        }
+                        if (wrap(none, 0, 1).getStatus() == SSLEngineResult.Status.CLOSED) {
+                            flush();
+                            throw new ClosedChannelException();
+                        }
+                        break;
+                    default:
+                        // received records may only complete the handshake once the server's ones left
+                        if (!flush() || !unwrap()) {
+                            return false;
+                        }
+                        break;
+                }
+            }
+        } catch (SSLException ex) {
+            if (!handshaken) {
+                metrics.tlsHandshakeFailed();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Runs the engine's delegated tasks, the key exchange and signature, on the executor if there is one.
+     * @return true if they ran on the calling thread, false if they run on the executor
+     */
+    private boolean runDelegatedTasks() {
+        if (delegate != null) {
+            delegating = true;
+            try {
+                delegate.execute(() -> {
+                    try {
+                        runTasks();
+                    } finally {
+                        delegating = false;
+                        resume.run();
+                    }
+                });
+                return false;
+            } catch (RejectedExecutionException ex) {
+                // the executor is saturated, waiting for it would only delay the handshake further
+                delegating = false;
+            }
+        }
+        runTasks();
+        return true;
+    }
+
+    /**
+     * Runs the engine's delegated tasks on the calling thread.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Decrypts the next received record, reading from the socket if no complete record was received.
+     * @return true if a record was decrypted, false if the socket has no complete one yet or the
+     *         client closed the connection
+     * @throws IOException the socket couldn't be read, or the record was invalid
+     */
+    private boolean unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+                appIn.flip();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    partial = false;
+                    finished(result);
+                    return true;
+                case CLOSED:
+                    endOfInput = true;
+                    return false;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                default:
+                    // buffer underflow: the record isn't complete
+                    if (!netIn.hasRemaining()) {
+                        netIn.flip();
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize()).compact();
+                    }
+                    int read = channel.read(netIn);
+                    if (read <= 0) {
+                        partial = true;
+                        endOfInput = read < 0;
+                        return false;
+                    }
+                    if (handshakeStart == 0) {
+                        handshakeStart = System.nanoTime();
+                        handshakeStartMillis = System.currentTimeMillis();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Encrypts bytes into the pending output, making room for a record first if needed.
+     * @param srcs the buffers
+     * @param offset the index of the first buffer
+     * @param length the number of buffers
+     * @return the engine's result
+     * @throws IOException the bytes couldn't be encrypted
+     */
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        while (true) {
+            netOut.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.wrap(srcs, offset, length, netOut);
+            } finally {
+                netOut.flip();
+            }
+            if (result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                finished(result);
+                return result;
+            }
+            // the pending output is flushed before encrypting, so only a larger record needs room
+            netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    /**
+     * Records the handshake's duration once it finished, and whether the client resumed a session.
+     * A resumed session was created before this connection's first bytes arrived.
+     * @param result the result of the last wrap or unwrap
+     */
+    private void finished(SSLEngineResult result) {
+        if (handshaken || result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.FINISHED) {
+            return;
+        }
+        handshaken = true;
+        boolean resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+        metrics.tlsHandshake(System.nanoTime() - handshakeStart, resumed, engine.getApplicationProtocol());
+    }
+
+    /**
+     * Returns true if any of a sequence of buffers has bytes remaining.
+     * @param srcs the buffers
+     * @param offset the index of the first buffer
+     * @param length the number of buffers
+     * @return true if a buffer has bytes remaining
+     */
+    private static boolean hasRemaining(ByteBuffer[] srcs, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies a buffer in read mode into a larger one, and gives it back to the pool.
+     * @param buffer the buffer, in read mode
+     * @param size the size the buffer needs at least
+     * @return the larger buffer, in read mode
+     */
+    private ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer larger = pool.acquire(Math.max(size, buffer.capacity() * 2));
+        larger.put(buffer).flip();
+        pool.release(buffer);
+        return larger;
+    }
+}
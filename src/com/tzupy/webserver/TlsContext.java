@@ -0,0 +1,121 @@
+package com.tzupy.webserver;
+
+import com.tzupy.metrics.ServerMetrics;
+import com.tzupy.utils.BufferPool;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the TLS state shared by all connections of a web server: the key material of its
+ * keystore and the cache of sessions that returning clients resume. A resumed handshake skips the
+ * certificate and the key exchange's signature, the most expensive steps of a full one. Clients resume
+ * either from the server's session cache or, where the runtime supports it (Java 13 and later), from
+ * a session ticket they keep themselves, which takes no memory on the server.
+ */
+public class TlsContext {
+
+    private static final Logger logger = Logger.getLogger(TlsContext.class.getCanonicalName());
+
+    // offered with ALPN, in the server's order of preference
+    private static final String[] http11Protocols = { "http/1.1" };
+    private static final String[] http2Protocols = { Http2Connection.protocol, "http/1.1" };
+
+    private static final List<String> protocols = Arrays.asList("TLSv1.3", "TLSv1.2");
+
+    // read once, when TLS is first used in the JVM
+    private static final String ticketProperty = "jdk.tls.server.enableSessionTicketExtension";
+
+    private final SSLContext sslContext;
+    private final ServerMetrics metrics;
+    private final String[] enabledProtocols;
+    private final String[] applicationProtocols;
+
+    /**
+     * Class constructor that receives the initialized SSL context.
+     * @param sslContext the SSL context holding the key material and the session cache
+     * @param metrics the server's metrics, counting the handshakes
+     * @param http2 true to offer HTTP/2 with ALPN
+     */
+    private TlsContext(SSLContext sslContext, ServerMetrics metrics, boolean http2) {
+        this.sslContext = sslContext;
+        this.metrics = metrics;
+        this.applicationProtocols = http2 ? http2Protocols : http11Protocols;
+        List<String> supported = Arrays.asList(sslContext.getSupportedSSLParameters().getProtocols());
+        List<String> enabled = new ArrayList<>(protocols);
+        enabled.retainAll(supported);
+        this.enabledProtocols = enabled.toArray(new String[enabled.size()]);
+    }
+
+    /**
+     * Loads the keystore given in the server settings and sets up the session cache.
+     * @param config the server settings
+     * @param metrics the server's metrics, counting the handshakes
+     * @return the TLS context, or null if the keystore couldn't be loaded
+     */
+    public static TlsContext load(ServerConfig config, ServerMetrics metrics) {
+        if (System.getProperty(ticketProperty) == null) {
+            System.setProperty(ticketProperty, String.valueOf(config.isTlsSessionTickets()));
+        }
+        try {
+            // the default type loads both PKCS12 and JKS keystores
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            char[] password = config.getTlsKeystorePassword().toCharArray();
+            try (InputStream in = new FileInputStream(config.getTlsKeystore())) {
+                keyStore.load(in, password);
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+
+            SSLSessionContext sessions = sslContext.getServerSessionContext();
+            sessions.setSessionCacheSize(config.getTlsSessionCache());
+            sessions.setSessionTimeout(config.getTlsSessionTimeout());
+            return new TlsContext(sslContext, metrics, config.isHttp2());
+        } catch (IOException | GeneralSecurityException ex) {
+            logger.severe("Couldn't load TLS keystore " + config.getTlsKeystore() + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates the encrypted channel of an accepted connection. The handshake takes place on the
+     * channel's first reads and writes.
+     * @param channel the client channel, blocking or not
+     * @param pool the pool lending the channel's buffers, given back with {@link TlsChannel#release()}
+     * @return the encrypted channel
+     * @throws IOException the handshake couldn't be started
+     */
+    public TlsChannel wrap(SocketChannel channel, BufferPool pool) throws IOException {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(enabledProtocols);
+        parameters.setUseCipherSuitesOrder(true);
+        parameters.setApplicationProtocols(applicationProtocols);
+        engine.setSSLParameters(parameters);
+        return new TlsChannel(channel, engine, metrics, pool);
+    }
+
+    /**
+     * Gets the protocol versions offered to clients.
+     * @return the protocols, e.g. TLSv1.3 and TLSv1.2
+     */
+    public String[] getProtocols() {
+        return enabledProtocols.clone();
+    }
+}
@@ -1,12 +1,16 @@
 package com.tzupy.webserver;
 
+import com.tzupy.cache.BufferCache;
+
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -18,14 +22,19 @@ public class WebServer {
     private static final Logger logger = Logger.getLogger(WebServer.class.getCanonicalName());
 
     private static final int DEFAULT_PORT = 8080;
-    private static final int MAX_THREADS = 50;
 
     private final File root;
     private final int port;
+    private final ServerConfig config;
+    private final ServerContext context;
 
-    private ServerSocket serverSocket;
+    private ServerSocketChannel[] listeners;
+    private NioServer nioServer;
 
     private ExecutorService threadPool;
+    private WorkerPoolMonitor workerPoolMonitor;
+    private MetricsServer metricsServer;
+    private boolean stopped;
 
     /**
      * Class constructor that receives a server root and a port.
@@ -33,35 +42,102 @@ public class WebServer {
      * @param port Port used by the server.
      */
     public WebServer(File root, int port) {
+        this(root, port, new ServerConfig());
+    }
+
+    /**
+     * Class constructor that receives a server root, a port and the server settings.
+     * @param root The root of the server.
+     * @param port Port used by the server.
+     * @param config The server settings.
+     */
+    public WebServer(File root, int port, ServerConfig config) {
         this.root = root;
         this.port = port;
+        this.config = config;
+        this.context = new ServerContext(root, config);
     }
 
     /**
-     * Starts the web server.
+     * Starts the web server with the configured engine.
      */
     public void start() {
-        threadPool = Executors.newFixedThreadPool(MAX_THREADS);
+        if (config.getTlsKeystore() != null && context.getTlsContext() == null) {
+            logger.severe("Server not started, TLS is configured but its keystore couldn't be loaded");
+            synchronized (this) {
+                stopped = true;
+            }
+            return;
+        }
+        if (context.getTlsContext() != null) {
+            logger.info("TLS enabled with " + String.join(", ", context.getTlsContext().getProtocols()));
+        }
+        threadPool = WorkerPool.create(config);
+        context.getMetrics().setExecutor(threadPool);
+        context.start();
+
+        if (config.getStatsInterval() > 0) {
+            String mode = threadPool instanceof ThreadPoolExecutor ? ExecutorMode.platform : ExecutorMode.virtual;
+            workerPoolMonitor = new WorkerPoolMonitor(mode, config.getStatsInterval());
+            workerPoolMonitor.start();
+        }
 
+        if (config.getMetricsPort() > 0) {
+            metricsServer = new MetricsServer(context.getMetrics(), config.getMetricsPort());
+            try {
+                metricsServer.start();
+            } catch (IOException ex) {
+                logger.severe("Couldn't start metrics server at port " + config.getMetricsPort() + ": "
+                        + ex.getMessage());
+            }
+        }
+
+        if (config.getEngine().equals(ServerEngine.nio)) {
+            startNio();
+        } else {
+            startBlocking();
+        }
+    }
+
+    /**
+     * Runs the non-blocking engine, handing parsed requests to the thread pool.
+     */
+    private void startNio() {
         try {
-            serverSocket = new ServerSocket(port);
-            String ip = serverSocket.getInetAddress().getLocalHost().getHostAddress();
-            logger.info("Server started at address: " + ip + ":" + serverSocket.getLocalPort());
+            nioServer = new NioServer(context, port, threadPool);
+            nioServer.start();
+        } catch (IOException ex) {
+            logger.severe("Couldn't start web server at port " + port + ": " + ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            logger.severe("Port " + port + " outside of range (0 - 65535): " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            logger.severe("Runtime exception: " + ex.getMessage());
+        } finally {
+            stop();
+        }
+    }
 
-            // listen for client connections
-            while (true) {
-                Socket client;
-                try {
-                    client = serverSocket.accept();
-                    //logger.info("Client connected");
+    /**
+     * Runs the blocking accept loops, submitting a task per connection to the thread pool.
+     * The first acceptor runs on the calling thread, the others on threads of their own.
+     */
+    private void startBlocking() {
+        try {
+            // opened as channels, so accepted sockets have channels for zero-copy file transfers
+            int count = config.getAcceptors();
+            listeners = Listeners.open(config, port, count);
+            logger.info("Server started at port " + listeners[0].socket().getLocalPort() + " with " + count
+                    + (listeners.length > 1 ? " acceptors on SO_REUSEPORT sockets" : " acceptors"));
 
-                    ServerTask serverTask = new ServerTask(client, root);
-                    threadPool.submit(serverTask);
-                } catch (IOException ex) {
-                    logger.severe("Client couldn't connect: " + ex.getMessage());
-                } catch (RejectedExecutionException ex) {
-                    logger.severe("Couldn't start server task: " + ex.getMessage());
-                }
+            Thread[] acceptors = new Thread[count - 1];
+            for (int i = 0; i < acceptors.length; i++) {
+                ServerSocketChannel listener = listeners[(i + 1) % listeners.length];
+                acceptors[i] = new Thread(() -> accept(listener), "acceptor-" + (i + 1));
+                acceptors[i].start();
+            }
+            accept(listeners[0]);
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
             }
         } catch (IOException ex) {
             logger.severe("Couldn't start web server at port " + port + ": " + ex.getMessage());
@@ -69,23 +145,69 @@ public class WebServer {
             logger.severe("Port " + port + " outside of range (0 - 65535): " + ex.getMessage());
         } catch (RuntimeException ex) {
             logger.severe("Runtime exception: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            logger.warning("Acceptors interrupted");
         } finally {
             stop();
         }
     }
 
     /**
-     * Closes the server and thread pool.
+     * Accepts client connections until the listening channel is closed.
+     * @param listener the listening channel
      */
-    public void stop() {
-        if (serverSocket != null) {
+    private void accept(ServerSocketChannel listener) {
+        while (true) {
+            Socket client = null;
             try {
-                serverSocket.close();
-                logger.info("Server stopped");
+                client = listener.accept().socket();
+                //logger.info("Client connected");
+
+                ServerTask serverTask = new ServerTask(client, context);
+                threadPool.submit(serverTask);
             } catch (IOException ex) {
-                logger.severe("Couldn't stop web server: " + ex.getMessage());
+                if (!listener.isOpen()) {
+                    break; // stopped
+                }
+                logger.severe("Client couldn't connect: " + ex.getMessage());
+            } catch (RejectedExecutionException ex) {
+                // the queue is full, the client is answered right away instead of waiting in it
+                context.getLoadShedder().reject(client, false);
             }
         }
+    }
+
+    /**
+     * Closes the server and thread pool. Only the first call has an effect, as the engine also
+     * stops the server when its loop ends after a call from another thread.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+
+        if (nioServer != null) {
+            nioServer.stop();
+            logger.info("Server stopped");
+        }
+
+        if (listeners != null) {
+            Listeners.close(listeners);
+            logger.info("Server stopped");
+        }
+
+        if (workerPoolMonitor != null) {
+            workerPoolMonitor.stop();
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+
+        logCacheStats("File cache", context.getFileCache());
+        logCacheStats("Listing cache", context.getListingCache());
+        context.stop();
 
         try {
             threadPool.shutdown();
@@ -99,12 +221,35 @@ public class WebServer {
         }
     }
 
+    /**
+     * Logs the counters of a cache.
+     * @param name the cache's name
+     * @param cache the cache
+     */
+    private static void logCacheStats(String name, BufferCache<?, ?> cache) {
+        logger.info(name + ": " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+                + cache.getEvictions() + " evictions, " + cache.getInvalidations() + " invalidations");
+    }
+
     /**
      * Main program entry.
      * @param args First argument must be the server's root directory.
      *             (optional) Second argument must be a port number in range (0-65535).
+     *             (optional) Any number of --name=value options, e.g. --engine=nio.
      */
     public static void main(String[] args) {
+        // separate options from positional arguments
+        ServerConfig config = new ServerConfig();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                config.applyOption(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[positional.size()]);
+
         if (args.length == 0) {
             throw new IllegalArgumentException("Server root must be specified.");
         }
@@ -144,7 +289,7 @@ public class WebServer {
         }
 
         // create and start web server
-        WebServer server = new WebServer(root, port);
+        WebServer server = new WebServer(root, port, config);
         if (server != null) {
             server.start();
         }
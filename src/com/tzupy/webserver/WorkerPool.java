@@ -0,0 +1,79 @@
+package com.tzupy.webserver;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * This class creates the executor that runs server tasks, either on a fixed pool of platform threads
+ * or on a new virtual thread per task.
+ */
+public abstract class WorkerPool {
+
+    private static final Logger logger = Logger.getLogger(WorkerPool.class.getCanonicalName());
+
+    public final static String platformThreadPrefix = "server-worker-";
+
+    /**
+     * Creates the executor for the configured mode.
+     * Virtual threads need a Java 21 runtime; on older runtimes the platform pool is used instead.
+     * @param config the server settings
+     * @return the executor running server tasks
+     */
+    public static ExecutorService create(ServerConfig config) {
+        if (config.getExecutor().equals(ExecutorMode.virtual)) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                logger.info("Running server tasks on virtual threads");
+                return executor;
+            }
+            logger.warning("Virtual threads not supported by this runtime, using platform threads");
+        }
+
+        logger.info("Running server tasks on " + config.getThreads() + " platform threads, queueing up to "
+                + config.getQueueSize());
+        return newPlatformPool(config.getThreads(), config.getQueueSize());
+    }
+
+    /**
+     * Creates a fixed pool of named platform threads. Tasks beyond the queue's capacity are rejected,
+     * so a spike can't queue work without bound.
+     * @param threads the number of threads
+     * @param queueSize the number of tasks that may wait for a thread, 0 to hand tasks over directly
+     * @return the executor
+     */
+    private static ExecutorService newPlatformPool(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, platformThreadPrefix + count.incrementAndGet());
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                queueSize == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(queueSize), threadFactory);
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, so the server still runs on older runtimes.
+     * @return the executor, or null if the runtime has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        } catch (InvocationTargetException ex) {
+            logger.severe("Couldn't create virtual thread executor: " + ex.getCause());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.tzupy.webserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * This class periodically reports how busy the threads running server tasks are, so the platform
+ * and virtual executor modes can be compared under the same load.
+ * For platform mode the pool threads are observed, for virtual mode the carrier threads of the
+ * virtual thread scheduler. A thread counts as occupied while it is runnable, which includes
+ * being blocked in socket I/O, and as idle while it waits for work.
+ */
+public class WorkerPoolMonitor {
+
+    private static final Logger logger = Logger.getLogger(WorkerPoolMonitor.class.getCanonicalName());
+
+    private static final long SAMPLE_INTERVAL_MS = 50;
+
+    private final String mode;
+    private final long reportIntervalMs;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final ScheduledExecutorService scheduler;
+
+    private long[] trackedIds = new long[0];
+    private final Map<Long, Long> cpuTimes = new HashMap<>();
+    private long samples;
+    private long occupiedSamples;
+    private long reportStart;
+
+    /**
+     * Class constructor that receives the executor mode and the report interval.
+     * @param mode the executor mode, see {@link ExecutorMode}
+     * @param reportIntervalSeconds seconds between two reports
+     */
+    public WorkerPoolMonitor(String mode, int reportIntervalSeconds) {
+        this.mode = mode;
+        this.reportIntervalMs = TimeUnit.SECONDS.toMillis(reportIntervalSeconds);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "worker-pool-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling and reporting.
+     */
+    public void start() {
+        reportStart = System.nanoTime();
+        scheduler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::report, reportIntervalMs, reportIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling and reporting.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records the state of every tracked thread.
+     */
+    private void sample() {
+        if (trackedIds.length == 0) {
+            refreshTrackedThreads();
+        }
+        for (ThreadInfo info : threadBean.getThreadInfo(trackedIds)) {
+            if (info == null) {
+                continue;
+            }
+            samples++;
+            if (info.getThreadState() == Thread.State.RUNNABLE) {
+                occupiedSamples++;
+            }
+        }
+    }
+
+    /**
+     * Logs the occupancy and cpu usage since the last report and starts a new interval.
+     */
+    private void report() {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - reportStart);
+
+        long cpu = 0;
+        Map<Long, Long> previous = new HashMap<>(cpuTimes);
+        cpuTimes.clear();
+        for (long id : trackedIds) {
+            long time = threadBean.isThreadCpuTimeSupported() ? threadBean.getThreadCpuTime(id) : -1;
+            if (time < 0) {
+                continue;
+            }
+            cpuTimes.put(id, time);
+            Long before = previous.get(id);
+            cpu += before == null ? 0 : time - before;
+        }
+
+        int threads = trackedIds.length;
+        double occupancy = samples == 0 ? 0 : 100.0 * occupiedSamples / samples;
+        double cpuUsage = threads == 0 ? 0 : 100.0 * cpu / ((double) elapsed * threads);
+        String kind = mode.equals(ExecutorMode.virtual) ? "carrier" : "worker";
+        logger.info(String.format("Executor %s: %d %s threads, %.1f%% occupied, %.1f%% cpu",
+                mode, threads, kind, occupancy, cpuUsage));
+
+        samples = 0;
+        occupiedSamples = 0;
+        reportStart = now;
+        refreshTrackedThreads();
+    }
+
+    /**
+     * Finds the threads running server tasks by name, as the carrier pool isn't otherwise accessible.
+     */
+    private void refreshTrackedThreads() {
+        List<Long> ids = new ArrayList<>();
+        for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+            if (info != null && isTracked(info.getThreadName())) {
+                ids.add(info.getThreadId());
+            }
+        }
+        trackedIds = new long[ids.size()];
+        for (int i = 0; i < trackedIds.length; i++) {
+            trackedIds[i] = ids.get(i);
+        }
+    }
+
+    /**
+     * Checks whether a thread runs server tasks in the monitored mode.
+     * @param name the thread's name
+     * @return true if the thread should be observed
+     */
+    private boolean isTracked(String name) {
+        if (mode.equals(ExecutorMode.virtual)) {
+            // carriers of the default virtual thread scheduler, not the common pool
+            return name.startsWith("ForkJoinPool-") && name.contains("-worker-");
+        }
+        return name.startsWith(WorkerPool.platformThreadPrefix);
+    }
+}
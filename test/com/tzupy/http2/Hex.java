@@ -0,0 +1,27 @@
+package com.tzupy.http2;
+
+/**
+ * This class reads the hex dumps of the RFC examples, e.g. "8286 8441".
+ */
+final class Hex {
+
+    /**
+     * Class constructor, not used.
+     */
+    private Hex() {
+    }
+
+    /**
+     * Decodes a hex dump.
+     * @param hex pairs of hex digits, spaces ignored
+     * @return the bytes
+     */
+    static byte[] decode(String hex) {
+        String digits = hex.replace(" ", "");
+        byte[] bytes = new byte[digits.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
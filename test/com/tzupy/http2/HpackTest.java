@@ -0,0 +1,280 @@
+package com.tzupy.http2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes the header blocks of the RFC 7541 appendix C examples, each sequence on one decoder so the
+ * later blocks refer to the dynamic table the earlier ones filled, encodes the request examples to the
+ * same bytes, and round trips responses through a small dynamic table that evicts.
+ */
+public class HpackTest {
+
+    private static final int maxHeaderListSize = 64 * 1024;
+
+    private static final List<HeaderField> request1 = fields(
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    private static final List<HeaderField> request2 = fields(
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache");
+    private static final List<HeaderField> request3 = fields(
+            ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value");
+
+    private static final List<HeaderField> response1 = fields(
+            ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+            "location", "https://www.example.com");
+    private static final List<HeaderField> response2 = fields(
+            ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+            "location", "https://www.example.com");
+    private static final List<HeaderField> response3 = fields(
+            ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+            "location", "https://www.example.com", "content-encoding", "gzip",
+            "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+
+    /**
+     * Decodes the single representations of C.2: literals with and without indexing, never indexed,
+     * and an indexed field.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void decodesFieldRepresentations() throws Http2Exception {
+        assertDecoded(new HpackDecoder(4096, maxHeaderListSize),
+                "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572",
+                fields("custom-key", "custom-header"));
+        assertDecoded(new HpackDecoder(4096, maxHeaderListSize),
+                "040c 2f73 616d 706c 652f 7061 7468", fields(":path", "/sample/path"));
+        assertDecoded(new HpackDecoder(4096, maxHeaderListSize),
+                "1008 7061 7373 776f 7264 0673 6563 7265 74", fields("password", "secret"));
+        assertDecoded(new HpackDecoder(4096, maxHeaderListSize), "82", fields(":method", "GET"));
+    }
+
+    /**
+     * Decodes the requests of C.3, without Huffman coding.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void decodesRequests() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096, maxHeaderListSize);
+        assertDecoded(decoder, "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d", request1);
+        assertDecoded(decoder, "8286 84be 5808 6e6f 2d63 6163 6865", request2);
+        assertDecoded(decoder, "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65",
+                request3);
+    }
+
+    /**
+     * Decodes the requests of C.4, with Huffman coding.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void decodesHuffmanRequests() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096, maxHeaderListSize);
+        assertDecoded(decoder, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff", request1);
+        assertDecoded(decoder, "8286 84be 5886 a8eb 1064 9cbf", request2);
+        assertDecoded(decoder, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf", request3);
+    }
+
+    /**
+     * Decodes the responses of C.5, without Huffman coding, whose table of 256 bytes evicts entries.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void decodesResponsesWithEviction() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(256, maxHeaderListSize);
+        assertDecoded(decoder, "4803 3330 3258 0770 7269 7661 7465 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133"
+                + " 2032 303a 3133 3a32 3120 474d 546e 1768 7474 7073 3a2f 2f77 7777 2e65 7861 6d70 6c65 2e63 6f6d",
+                response1);
+        assertDecoded(decoder, "4803 3330 37c1 c0bf", response2);
+        assertDecoded(decoder, "88c1 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133 2032 303a 3133 3a32 3220 474d"
+                + " 54c0 5a04 677a 6970 7738 666f 6f3d 4153 444a 4b48 514b 425a 584f 5157 454f 5049 5541 5851 5745"
+                + " 4f49 553b 206d 6178 2d61 6765 3d33 3630 303b 2076 6572 7369 6f6e 3d31", response3);
+    }
+
+    /**
+     * Decodes the responses of C.6, with Huffman coding, whose table of 256 bytes evicts entries.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void decodesHuffmanResponsesWithEviction() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(256, maxHeaderListSize);
+        assertDecoded(decoder, "4882 6402 5885 aec3 771a 4b61 96d0 7abe 9410 54d4 44a8 2005 9504 0b81 66e0 82a6"
+                + " 2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8 e9ae 82ae 43d3", response1);
+        assertDecoded(decoder, "4883 640e ffc1 c0bf", response2);
+        assertDecoded(decoder, "88c1 6196 d07a be94 1054 d444 a820 0595 040b 8166 e084 a62d 1bff c05a 839b d9ab"
+                + " 77ad 94e7 821d d7f2 e6c7 b335 dfdf cd5b 3960 d5af 2708 7f36 72c1 ab27 0fb5 291f 9587 3160 65c0"
+                + " 03ed 4ee5 b106 3d50 07", response3);
+    }
+
+    /**
+     * Encodes the requests of C.4 to the bytes of the example: indexed fields, an indexed name with a
+     * Huffman coded value, and a new name, each added to the dynamic table.
+     */
+    @Test
+    public void encodesHuffmanRequests() {
+        HpackEncoder encoder = new HpackEncoder(4096);
+        assertEncoded(encoder, request1, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff");
+        assertEncoded(encoder, request2, "8286 84be 5886 a8eb 1064 9cbf");
+        assertEncoded(encoder, request3, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf");
+    }
+
+    /**
+     * Round trips the responses of C.5 through an encoder and a decoder whose tables of 256 bytes evict
+     * entries, after the encoder announced the smaller table. The later blocks take fewer bytes, as the
+     * repeated fields are indexed.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void roundTripsResponsesWithEviction() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder(4096);
+        encoder.setPeerTableSize(256);
+        HpackDecoder decoder = new HpackDecoder(4096, maxHeaderListSize);
+        int first = assertRoundTrip(encoder, decoder, response1);
+        int second = assertRoundTrip(encoder, decoder, response2);
+        assertTrue(second < first);
+        for (int i = 0; i < 10; i++) {
+            assertRoundTrip(encoder, decoder, response3);
+            assertRoundTrip(encoder, decoder, response1);
+        }
+    }
+
+    /**
+     * Round trips blocks while the peer shrinks the table and grows it again, which announces the
+     * smallest size first so the decoder evicts what the encoder evicted.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void roundTripsTableSizeChanges() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder(4096);
+        HpackDecoder decoder = new HpackDecoder(4096, maxHeaderListSize);
+        assertRoundTrip(encoder, decoder, response3);
+        encoder.setPeerTableSize(0);
+        encoder.setPeerTableSize(4096);
+        assertRoundTrip(encoder, decoder, response3);
+        encoder.setPeerTableSize(100);
+        assertRoundTrip(encoder, decoder, response3);
+        assertRoundTrip(encoder, decoder, response1);
+    }
+
+    /**
+     * Rejects index 0, indexes past the table, size updates past the announced size or after a field,
+     * truncated blocks and integers past 2^31 - 1, as compression errors.
+     */
+    @Test
+    public void rejectsMalformedBlocks() {
+        assertRejected("80");
+        assertRejected("be");
+        assertRejected("3fe2 1f");
+        assertRejected("82 20");
+        assertRejected("4a");
+        assertRejected("400a 6375 7374");
+        assertRejected("04 8cf1 e3c2");
+        assertRejected("ffff ffff ffff 7f");
+    }
+
+    /**
+     * Drops the fields past the maximum header list size, and still decodes the whole block, so the
+     * dynamic table stays in step.
+     * @throws Http2Exception a block couldn't be decoded
+     */
+    @Test
+    public void dropsFieldsPastHeaderListSize() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096, 100);
+        List<HeaderField> fields = new ArrayList<>();
+        assertFalse(decoder.decode(ByteBuffer.wrap(Hex.decode(
+                "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d")), fields));
+        assertEquals(text(request1.subList(0, 2)), text(fields));
+        // the dropped :authority was still added to the table
+        assertDecoded(decoder, "be", fields(":authority", "www.example.com"));
+    }
+
+    /**
+     * Builds a list of fields.
+     * @param namesAndValues names, each followed by its value
+     * @return the fields
+     */
+    private static List<HeaderField> fields(String... namesAndValues) {
+        List<HeaderField> fields = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.add(new HeaderField(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return fields;
+    }
+
+    /**
+     * Gets the fields as text, to compare them.
+     * @param fields the fields
+     * @return the fields' names and values
+     */
+    private static String text(List<HeaderField> fields) {
+        return fields.toString();
+    }
+
+    /**
+     * Checks that a block decodes to the expected fields.
+     * @param decoder the connection's decoder
+     * @param hex the block in hex
+     * @param expected the fields
+     * @throws Http2Exception the block couldn't be decoded
+     */
+    private static void assertDecoded(HpackDecoder decoder, String hex, List<HeaderField> expected)
+            throws Http2Exception {
+        List<HeaderField> fields = new ArrayList<>();
+        assertTrue(decoder.decode(ByteBuffer.wrap(Hex.decode(hex)), fields));
+        assertEquals(text(expected), text(fields));
+    }
+
+    /**
+     * Checks that fields are encoded to the expected block.
+     * @param encoder the connection's encoder
+     * @param fields the fields
+     * @param hex the block in hex
+     */
+    private static void assertEncoded(HpackEncoder encoder, List<HeaderField> fields, String hex) {
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        encoder.encode(fields, out);
+        assertArrayEquals(Hex.decode(hex), Arrays.copyOf(out.array(), out.position()));
+    }
+
+    /**
+     * Checks that fields are decoded back to themselves.
+     * @param encoder the connection's encoder
+     * @param decoder the peer's decoder
+     * @param fields the fields
+     * @return the size of the encoded block
+     * @throws Http2Exception the block couldn't be decoded
+     */
+    private static int assertRoundTrip(HpackEncoder encoder, HpackDecoder decoder, List<HeaderField> fields)
+            throws Http2Exception {
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        encoder.encode(fields, out);
+        out.flip();
+        int size = out.remaining();
+        List<HeaderField> decoded = new ArrayList<>();
+        assertTrue(decoder.decode(out, decoded));
+        assertEquals(text(fields), text(decoded));
+        return size;
+    }
+
+    /**
+     * Checks that a block is rejected as a compression error.
+     * @param hex the block in hex
+     */
+    private static void assertRejected(String hex) {
+        try {
+            new HpackDecoder(4096, maxHeaderListSize).decode(ByteBuffer.wrap(Hex.decode(hex)), new ArrayList<>());
+            fail("Decoded " + hex);
+        } catch (Http2Exception ex) {
+            assertEquals(hex, Http2Error.compressionError, ex.getErrorCode());
+        }
+    }
+}
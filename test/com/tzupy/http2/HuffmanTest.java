@@ -0,0 +1,123 @@
+package com.tzupy.http2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Encodes and decodes strings with the HPACK Huffman code: the encoded strings of the RFC 7541 examples,
+ * round trips of every byte value and of random strings, and the malformed encodings a decoder must reject.
+ */
+public class HuffmanTest {
+
+    /**
+     * Encodes the strings of RFC 7541 appendix C.4 and C.6 to the bytes the examples show.
+     * @throws Http2Exception a string couldn't be decoded back
+     */
+    @Test
+    public void encodesRfcExamples() throws Http2Exception {
+        assertEncoded("www.example.com", "f1e3 c2e5 f23a 6ba0 ab90 f4ff");
+        assertEncoded("no-cache", "a8eb 1064 9cbf");
+        assertEncoded("custom-key", "25a8 49e9 5ba9 7d7f");
+        assertEncoded("custom-value", "25a8 49e9 5bb8 e8b4 bf");
+        assertEncoded("302", "6402");
+        assertEncoded("private", "aec3 771a 4b");
+        assertEncoded("Mon, 21 Oct 2013 20:13:21 GMT", "d07a be94 1054 d444 a820 0595 040b 8166 e082 a62d 1bff");
+        assertEncoded("https://www.example.com", "9d29 ad17 1863 c78f 0b97 c8e9 ae82 ae43 d3");
+    }
+
+    /**
+     * Round trips every byte value, alone and all together.
+     * @throws Http2Exception a string couldn't be decoded back
+     */
+    @Test
+    public void roundTripsEveryByte() throws Http2Exception {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 256; c++) {
+            assertRoundTrip(String.valueOf(c));
+            all.append(c);
+        }
+        assertRoundTrip(all.toString());
+        assertRoundTrip("");
+    }
+
+    /**
+     * Round trips random strings of random lengths.
+     * @throws Http2Exception a string couldn't be decoded back
+     */
+    @Test
+    public void roundTripsRandomStrings() throws Http2Exception {
+        Random random = new Random(7541);
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(300)];
+            for (int j = 0; j < chars.length; j++) {
+                // mostly header-like ascii, sometimes any byte
+                chars[j] = (char) (random.nextInt(4) == 0 ? random.nextInt(256) : 32 + random.nextInt(95));
+            }
+            assertRoundTrip(new String(chars));
+        }
+    }
+
+    /**
+     * Rejects padding that isn't all ones, padding of a byte or more, and the end-of-string symbol.
+     */
+    @Test
+    public void rejectsMalformedStrings() {
+        // '0' is 00000, followed by three zero bits of padding
+        assertRejected("00");
+        // a whole byte of padding
+        assertRejected("ff");
+        assertRejected("1f ff");
+        // the 30 ones of the end-of-string symbol
+        assertRejected("ff ff ff fc");
+    }
+
+    /**
+     * Checks that a string is encoded to the expected bytes, and decoded back.
+     * @param value the string
+     * @param hex the expected encoding in hex, spaces ignored
+     * @throws Http2Exception the encoding couldn't be decoded
+     */
+    private static void assertEncoded(String value, String hex) throws Http2Exception {
+        byte[] expected = Hex.decode(hex);
+        assertEquals(expected.length, Huffman.encodedLength(value));
+        ByteBuffer out = ByteBuffer.allocate(expected.length);
+        Huffman.encode(value, out);
+        assertArrayEquals(value, expected, out.array());
+        assertEquals(value, Huffman.decode(ByteBuffer.wrap(expected), expected.length));
+    }
+
+    /**
+     * Checks that a string is decoded back to itself.
+     * @param value the string
+     * @throws Http2Exception the encoding couldn't be decoded
+     */
+    private static void assertRoundTrip(String value) throws Http2Exception {
+        int length = Huffman.encodedLength(value);
+        ByteBuffer out = ByteBuffer.allocate(length);
+        Huffman.encode(value, out);
+        assertEquals(length, out.position());
+        out.flip();
+        assertEquals(value, Huffman.decode(out, length));
+        assertEquals(0, out.remaining());
+    }
+
+    /**
+     * Checks that an encoding is rejected as a compression error.
+     * @param hex the encoding in hex
+     */
+    private static void assertRejected(String hex) {
+        byte[] bytes = Hex.decode(hex);
+        try {
+            Huffman.decode(ByteBuffer.wrap(bytes), bytes.length);
+            fail("Decoded " + hex);
+        } catch (Http2Exception ex) {
+            assertEquals(Http2Error.compressionError, ex.getErrorCode());
+        }
+    }
+}
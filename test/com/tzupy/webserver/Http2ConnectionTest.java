@@ -0,0 +1,491 @@
+package com.tzupy.webserver;
+
+import com.tzupy.http2.HeaderField;
+import com.tzupy.http2.HpackDecoder;
+import com.tzupy.http2.HpackEncoder;
+import com.tzupy.http2.Http2Error;
+import com.tzupy.http2.Http2Frame;
+import com.tzupy.http2.Http2Setting;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Speaks HTTP/2 with prior knowledge to the nio engine over loopback, frame by frame: a request, the send
+ * windows of a stream and of the connection, and the GOAWAY and RST_STREAM frames that answer a client
+ * breaking the protocol, with their error codes.
+ */
+public class Http2ConnectionTest {
+
+    // larger than the connection's initial window, so the connection window runs out first
+    private static final int largeSize = 100000;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] large;
+    private static TestServer server;
+
+    /**
+     * Creates the served files and starts the server.
+     * @throws IOException the files couldn't be created or the server didn't start
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        File root = folder.newFolder("root");
+        Files.write(new File(root, "a.txt").toPath(), "hello\n".getBytes(StandardCharsets.US_ASCII));
+        large = new byte[largeSize];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31 + i / 7);
+        }
+        Files.write(new File(root, "large.bin").toPath(), large);
+        server = new TestServer(root, "--engine=nio", "--http2=on");
+    }
+
+    /**
+     * Stops the server.
+     */
+    @AfterClass
+    public static void stopServer() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * Serves a file on a stream, and a second one on the same connection.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void servesRequests() throws IOException {
+        try (Client client = new Client()) {
+            client.request(1, "/a.txt");
+            assertResponse(client, 1, "hello\n".getBytes(StandardCharsets.US_ASCII));
+            client.request(3, "/a.txt");
+            assertResponse(client, 3, "hello\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Sends no more body than the stream's window, the client's initial window size, until the client
+     * enlarges it.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void respectsStreamWindow() throws IOException {
+        try (Client client = new Client(Http2Setting.initialWindowSize, 1000)) {
+            client.request(1, "/large.bin");
+            ByteBuffer body = ByteBuffer.allocate(largeSize);
+            client.expectHeaders(1, "200");
+            client.readData(1, body, 1000);
+            assertEquals(1000, body.position());
+            client.expectSilence();
+
+            client.windowUpdate(1, largeSize);
+            client.windowUpdate(0, largeSize);
+            client.readData(1, body, largeSize);
+            assertArrayEquals(large, body.array());
+        }
+    }
+
+    /**
+     * Sends no more body than the connection's window of 65535 bytes, whatever the stream's window,
+     * until the client enlarges it.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void respectsConnectionWindow() throws IOException {
+        try (Client client = new Client(Http2Setting.initialWindowSize, 1 << 20)) {
+            client.request(1, "/large.bin");
+            ByteBuffer body = ByteBuffer.allocate(largeSize);
+            client.expectHeaders(1, "200");
+            client.readData(1, body, Http2Setting.defaultWindowSize);
+            assertEquals(Http2Setting.defaultWindowSize, body.position());
+            client.expectSilence();
+
+            client.windowUpdate(0, largeSize);
+            client.readData(1, body, largeSize);
+            assertArrayEquals(large, body.array());
+        }
+    }
+
+    /**
+     * Ends the connection with FLOW_CONTROL_ERROR when the client overflows the connection's send window.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayOnConnectionWindowOverflow() throws IOException {
+        try (Client client = new Client()) {
+            client.windowUpdate(0, Integer.MAX_VALUE);
+            client.expectGoAway(Http2Error.flowControlError);
+        }
+    }
+
+    /**
+     * Ends the connection with PROTOCOL_ERROR on a connection WINDOW_UPDATE of 0.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayOnZeroConnectionWindowUpdate() throws IOException {
+        try (Client client = new Client()) {
+            client.windowUpdate(0, 0);
+            client.expectGoAway(Http2Error.protocolError);
+        }
+    }
+
+    /**
+     * Ends the connection with FRAME_SIZE_ERROR on a frame larger than the maximum frame size.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayOnOversizedFrame() throws IOException {
+        try (Client client = new Client()) {
+            // the header alone, so that the server closes without unread bytes, which would reset the connection
+            client.header(Http2Setting.defaultMaxFrameSize + 1, Http2Frame.ping, 0, 0);
+            client.expectGoAway(Http2Error.frameSizeError);
+        }
+    }
+
+    /**
+     * Ends the connection with COMPRESSION_ERROR on a header block the decoder rejects.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayOnMalformedHeaderBlock() throws IOException {
+        try (Client client = new Client()) {
+            // an indexed field of index 0
+            client.frame(Http2Frame.headers, Http2Frame.endHeaders | Http2Frame.endStream, 1,
+                    new byte[] { (byte) 0x80 });
+            client.expectGoAway(Http2Error.compressionError);
+        }
+    }
+
+    /**
+     * Ends the connection with PROTOCOL_ERROR when the client opens an even stream, which only servers
+     * may open.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayOnEvenStream() throws IOException {
+        try (Client client = new Client()) {
+            client.request(2, "/a.txt");
+            client.expectGoAway(Http2Error.protocolError);
+        }
+    }
+
+    /**
+     * Ends the connection with PROTOCOL_ERROR when the client's preface isn't followed by SETTINGS.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void goesAwayWithoutSettings() throws IOException {
+        try (Client client = new Client(false)) {
+            client.frame(Http2Frame.ping, 0, 0, new byte[8]);
+            client.expectGoAway(Http2Error.protocolError);
+        }
+    }
+
+    /**
+     * Resets a stream with FLOW_CONTROL_ERROR when the client overflows its send window, and serves the
+     * connection's next stream.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void resetsStreamOnWindowOverflow() throws IOException {
+        try (Client client = new Client(Http2Setting.initialWindowSize, 0)) {
+            client.request(1, "/large.bin");
+            client.expectHeaders(1, "200");
+            client.windowUpdate(1, Integer.MAX_VALUE);
+            client.windowUpdate(1, Integer.MAX_VALUE);
+            client.expectReset(1, Http2Error.flowControlError);
+
+            // the first update let stream 1 use up the connection window
+            client.windowUpdate(0, Http2Setting.defaultWindowSize);
+            client.request(3, "/a.txt");
+            client.windowUpdate(3, 100);
+            assertResponse(client, 3, "hello\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Resets a stream with PROTOCOL_ERROR on a stream WINDOW_UPDATE of 0, and keeps the connection.
+     * @throws IOException the connection failed
+     */
+    @Test
+    public void resetsStreamOnZeroWindowUpdate() throws IOException {
+        try (Client client = new Client()) {
+            client.request(1, "/a.txt");
+            assertResponse(client, 1, "hello\n".getBytes(StandardCharsets.US_ASCII));
+            client.windowUpdate(1, 0);
+            client.expectReset(1, Http2Error.protocolError);
+
+            client.request(3, "/a.txt");
+            assertResponse(client, 3, "hello\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Reads a complete response and checks its status and body.
+     * @param client the client
+     * @param streamId the request's stream
+     * @param expected the expected body
+     * @throws IOException the response couldn't be read
+     */
+    private static void assertResponse(Client client, int streamId, byte[] expected) throws IOException {
+        client.expectHeaders(streamId, "200");
+        ByteBuffer body = ByteBuffer.allocate(expected.length);
+        client.readData(streamId, body, expected.length);
+        assertArrayEquals(expected, body.array());
+    }
+
+    /**
+     * This class is an HTTP/2 client that writes frames as they are given, however wrong, and reads
+     * the server's frames one by one, acknowledging its SETTINGS.
+     */
+    private static final class Client implements AutoCloseable {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final HpackEncoder encoder = new HpackEncoder(Http2Setting.defaultHeaderTableSize);
+        private final HpackDecoder decoder = new HpackDecoder(Http2Setting.defaultHeaderTableSize, 1 << 16);
+
+        private boolean acknowledging = true;
+        private int type;
+        private int flags;
+        private int streamId;
+        private byte[] payload;
+
+        /**
+         * Class constructor that connects and sends the preface with empty SETTINGS.
+         * @throws IOException the client couldn't connect
+         */
+        private Client() throws IOException {
+            this(true);
+        }
+
+        /**
+         * Class constructor that connects and sends the preface with one setting.
+         * @param setting the setting's identifier
+         * @param value the setting's value
+         * @throws IOException the client couldn't connect
+         */
+        private Client(int setting, int value) throws IOException {
+            this(false);
+            frame(Http2Frame.settings, 0, 0, ByteBuffer.allocate(6).putShort((short) setting).putInt(value).array());
+        }
+
+        /**
+         * Class constructor that connects and sends the preface.
+         * @param settings true to follow the preface with empty SETTINGS, as a client must
+         * @throws IOException the client couldn't connect
+         */
+        private Client(boolean settings) throws IOException {
+            socket = new Socket("localhost", server.getPort());
+            socket.setSoTimeout(10000);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write(Http2Frame.preface);
+            if (settings) {
+                frame(Http2Frame.settings, 0, 0, new byte[0]);
+            }
+        }
+
+        /**
+         * Writes a frame.
+         * @param frameType the frame type
+         * @param frameFlags the frame's flags
+         * @param frameStreamId the stream id, 0 for the connection
+         * @param framePayload the payload
+         * @throws IOException the frame couldn't be written
+         */
+        private void frame(int frameType, int frameFlags, int frameStreamId, byte[] framePayload)
+                throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(Http2Frame.headerLength + framePayload.length);
+            Http2Frame.writeHeader(frame, framePayload.length, frameType, frameFlags, frameStreamId);
+            frame.put(framePayload);
+            out.write(frame.array());
+            out.flush();
+        }
+
+        /**
+         * Writes only the header of a frame.
+         * @param length the payload length the header announces
+         * @param frameType the frame type
+         * @param frameFlags the frame's flags
+         * @param frameStreamId the stream id, 0 for the connection
+         * @throws IOException the header couldn't be written
+         */
+        private void header(int length, int frameType, int frameFlags, int frameStreamId) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(Http2Frame.headerLength);
+            Http2Frame.writeHeader(header, length, frameType, frameFlags, frameStreamId);
+            out.write(header.array());
+            out.flush();
+        }
+
+        /**
+         * Sends a GET request without body.
+         * @param requestStreamId the stream opened by the request
+         * @param path the requested path
+         * @throws IOException the request couldn't be sent
+         */
+        private void request(int requestStreamId, String path) throws IOException {
+            ByteBuffer block = ByteBuffer.allocate(1024);
+            encoder.encode(Arrays.asList(new HeaderField(":method", "GET"), new HeaderField(":scheme", "http"),
+                    new HeaderField(":path", path), new HeaderField(":authority", "localhost")), block);
+            frame(Http2Frame.headers, Http2Frame.endHeaders | Http2Frame.endStream, requestStreamId,
+                    Arrays.copyOf(block.array(), block.position()));
+        }
+
+        /**
+         * Enlarges a receive window of the client, the server's send window.
+         * @param windowStreamId the stream id, 0 for the connection
+         * @param increment the increment
+         * @throws IOException the frame couldn't be written
+         */
+        private void windowUpdate(int windowStreamId, int increment) throws IOException {
+            frame(Http2Frame.windowUpdate, 0, windowStreamId, ByteBuffer.allocate(4).putInt(increment).array());
+        }
+
+        /**
+         * Reads the next frame other than the server's SETTINGS, their acknowledgements and connection
+         * WINDOW_UPDATEs, which are acknowledged, unless the connection is ending, or skipped.
+         * @throws IOException the connection ended or timed out
+         */
+        private void next() throws IOException {
+            while (true) {
+                int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                type = in.readUnsignedByte();
+                flags = in.readUnsignedByte();
+                streamId = in.readInt() & Integer.MAX_VALUE;
+                payload = new byte[length];
+                in.readFully(payload);
+                if (type == Http2Frame.settings) {
+                    if ((flags & Http2Frame.ack) == 0 && acknowledging) {
+                        frame(Http2Frame.settings, Http2Frame.ack, 0, new byte[0]);
+                    }
+                } else if (type != Http2Frame.windowUpdate || streamId != 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reads a stream's response HEADERS and checks its status.
+         * @param headersStreamId the stream id
+         * @param status the expected status code
+         * @throws IOException the frame couldn't be read
+         */
+        private void expectHeaders(int headersStreamId, String status) throws IOException {
+            next();
+            assertEquals("frame type", Http2Frame.headers, type);
+            assertEquals(headersStreamId, streamId);
+            assertTrue("END_HEADERS", (flags & Http2Frame.endHeaders) != 0);
+            List<HeaderField> fields = new ArrayList<>();
+            decoder.decode(ByteBuffer.wrap(payload), fields);
+            assertEquals(":status: " + status, fields.get(0).toString());
+        }
+
+        /**
+         * Reads a stream's DATA frames until the body holds a number of bytes. The body must end with
+         * END_STREAM once it is complete.
+         * @param dataStreamId the stream id
+         * @param body the body read so far
+         * @param until the number of bytes to read up to
+         * @throws IOException the frames couldn't be read
+         */
+        private void readData(int dataStreamId, ByteBuffer body, int until) throws IOException {
+            while (body.position() < until) {
+                next();
+                assertEquals("frame type", Http2Frame.data, type);
+                assertEquals(dataStreamId, streamId);
+                assertTrue("DATA past the window", body.position() + payload.length <= until);
+                body.put(payload);
+                assertEquals("END_STREAM", body.position() == body.capacity(),
+                        (flags & Http2Frame.endStream) != 0);
+            }
+        }
+
+        /**
+         * Checks that the server sends nothing more for a while, e.g. once a window is used up.
+         * @throws IOException the connection failed
+         */
+        private void expectSilence() throws IOException {
+            socket.setSoTimeout(500);
+            try {
+                next();
+                fail("Unexpected frame of type " + type + " on stream " + streamId);
+            } catch (SocketTimeoutException ex) {
+                // nothing was sent
+            } finally {
+                socket.setSoTimeout(10000);
+            }
+        }
+
+        /**
+         * Reads a GOAWAY frame, checks its error code, and checks that the server closes the connection.
+         * @param errorCode the expected error code
+         * @throws IOException the frame couldn't be read
+         */
+        private void expectGoAway(int errorCode) throws IOException {
+            // writing to the closed connection would reset it
+            acknowledging = false;
+            next();
+            assertEquals("frame type", Http2Frame.goAway, type);
+            assertEquals(0, streamId);
+            assertEquals("error code", errorCode, ByteBuffer.wrap(payload).getInt(4));
+            try {
+                next();
+                fail("Frame of type " + type + " after GOAWAY");
+            } catch (EOFException ex) {
+                // closed by the server
+            }
+        }
+
+        /**
+         * Reads an RST_STREAM frame and checks its stream and error code.
+         * @param resetStreamId the expected stream id
+         * @param errorCode the expected error code
+         * @throws IOException the frame couldn't be read
+         */
+        private void expectReset(int resetStreamId, int errorCode) throws IOException {
+            // DATA the window allowed may come before the reset
+            do {
+                next();
+            } while (type == Http2Frame.data && streamId == resetStreamId);
+            assertEquals("frame type", Http2Frame.rstStream, type);
+            assertEquals(resetStreamId, streamId);
+            assertEquals("error code", errorCode, ByteBuffer.wrap(payload).getInt());
+        }
+
+        /**
+         * Closes the connection.
+         * @throws IOException the socket couldn't be closed
+         */
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
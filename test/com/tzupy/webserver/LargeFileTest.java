@@ -0,0 +1,192 @@
+package com.tzupy.webserver;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Serves a sparse file larger than 2 GiB over loopback, whose body is sent with transferTo from
+ * offsets an int can't hold, in as many partial transfers as the socket takes.
+ */
+public class LargeFileTest {
+
+    // past 2 GiB, and not a multiple of any buffer or transfer size
+    private static final long size = 3L * 1024 * 1024 * 1024 + 12345;
+    private static final byte[] tail = "the last bytes of the large file\n".getBytes(StandardCharsets.US_ASCII);
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static File root;
+
+    /**
+     * Creates the file, holes except for its last bytes, so it takes no room on disk.
+     * @throws IOException the file couldn't be created
+     */
+    @BeforeClass
+    public static void createFile() throws IOException {
+        root = folder.newFolder("root");
+        try (RandomAccessFile file = new RandomAccessFile(new File(root, "large.bin"), "rw")) {
+            file.setLength(size);
+            file.seek(size - tail.length);
+            file.write(tail);
+        }
+    }
+
+    /**
+     * Downloads the whole file from the blocking engine.
+     * @throws IOException the file couldn't be downloaded
+     */
+    @Test
+    public void servesWholeFileBlocking() throws IOException {
+        try (TestServer server = new TestServer(root, "--engine=blocking")) {
+            assertWholeFile(server.getPort());
+        }
+    }
+
+    /**
+     * Downloads the whole file from the non-blocking engine.
+     * @throws IOException the file couldn't be downloaded
+     */
+    @Test
+    public void servesWholeFileNio() throws IOException {
+        try (TestServer server = new TestServer(root, "--engine=nio")) {
+            assertWholeFile(server.getPort());
+        }
+    }
+
+    /**
+     * Downloads the file's last bytes as a range, which starts past 2 GiB.
+     * @throws IOException the range couldn't be downloaded
+     */
+    @Test
+    public void servesRangePastTwoGiB() throws IOException {
+        try (TestServer server = new TestServer(root, "--engine=nio");
+             Socket socket = request(server.getPort(), "Range: bytes=" + (size - tail.length) + "-\r\n")) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String head = readHead(in);
+            assertTrue(head, head.startsWith("HTTP/1.1 206 "));
+            assertEquals(tail.length, contentLength(head));
+            byte[] body = new byte[tail.length];
+            readFully(in, body);
+            assertArrayEquals(tail, body);
+        }
+    }
+
+    /**
+     * Downloads the file and checks its length, its holes and its last bytes.
+     * @param port the server's port
+     * @throws IOException the file couldn't be downloaded
+     */
+    private static void assertWholeFile(int port) throws IOException {
+        try (Socket socket = request(port, "")) {
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 1 << 16);
+            String head = readHead(in);
+            assertTrue(head, head.startsWith("HTTP/1.1 200 "));
+            assertEquals(size, contentLength(head));
+
+            byte[] buffer = new byte[1 << 16];
+            byte[] last = new byte[tail.length];
+            long received = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    long offset = received + i;
+                    if (offset >= size - tail.length) {
+                        last[(int) (offset - (size - tail.length))] = buffer[i];
+                    } else if (buffer[i] != 0) {
+                        throw new AssertionError("Byte at offset " + offset + " isn't a hole's zero");
+                    }
+                }
+                received += read;
+            }
+            assertEquals(size, received);
+            assertArrayEquals(tail, last);
+        }
+    }
+
+    /**
+     * Sends a request for the file, the last one of the connection.
+     * @param port the server's port
+     * @param headers further header lines, each ending in CRLF
+     * @return the client socket
+     * @throws IOException the request couldn't be sent
+     */
+    private static Socket request(int port, String headers) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(60000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /large.bin HTTP/1.1\r\nHost: localhost\r\n" + headers + "Connection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Reads the response head, up to the empty line.
+     * @param in the response
+     * @return the head
+     * @throws IOException the head couldn't be read
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        byte[] end = { '\r', '\n', '\r', '\n' };
+        byte[] window = new byte[end.length];
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.write(b);
+            System.arraycopy(window, 1, window, 0, window.length - 1);
+            window[window.length - 1] = (byte) b;
+            if (Arrays.equals(window, end)) {
+                return head.toString("US-ASCII");
+            }
+        }
+        throw new IOException("Connection closed in the response head: " + head.toString("US-ASCII"));
+    }
+
+    /**
+     * Gets the Content-Length of a response head.
+     * @param head the head
+     * @return the length
+     */
+    private static long contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                return Long.parseLong(line.substring("content-length:".length()).trim());
+            }
+        }
+        throw new AssertionError("No Content-Length in " + head);
+    }
+
+    /**
+     * Reads bytes until a buffer is full.
+     * @param in the response
+     * @param buffer the buffer
+     * @throws IOException the response ended before
+     */
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        for (int count = 0; count < buffer.length; ) {
+            int read = in.read(buffer, count, buffer.length - count);
+            if (read < 0) {
+                throw new IOException("Response ended after " + count + " bytes");
+            }
+            count += read;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tzupy.webserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * This class runs a web server for a test, on a free port of the loopback interface and a thread of its own.
+ */
+public class TestServer implements Closeable {
+
+    private static final long startTimeout = 10000;
+
+    private final WebServer server;
+    private final Thread thread;
+    private final int port;
+
+    /**
+     * Class constructor that receives the server's root and options, and waits until the server listens.
+     * @param root the root of the server
+     * @param options --name=value options, e.g. --engine=nio
+     * @throws IOException no free port was found, or the server didn't start in time
+     */
+    public TestServer(File root, String... options) throws IOException {
+        ServerConfig config = new ServerConfig();
+        for (String option : options) {
+            config.applyOption(option);
+        }
+        this.port = freePort();
+        this.server = new WebServer(root, port, config);
+        this.thread = new Thread(server::start, "test-server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        awaitListening();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Stops the server and waits for its thread to end.
+     */
+    @Override
+    public void close() {
+        server.stop();
+        try {
+            thread.join(startTimeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finds a port no socket is bound to, e.g. for the server's metrics.
+     * @return the port
+     * @throws IOException no port could be bound
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     * @throws IOException the server didn't start in time
+     */
+    private void awaitListening() throws IOException {
+        long deadline = System.currentTimeMillis() + startTimeout;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return;
+            } catch (IOException ex) {
+                if (!thread.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Server didn't start at port " + port, ex);
+                }
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the server", ex);
+            }
+        }
+    }
+}
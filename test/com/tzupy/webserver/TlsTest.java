@@ -0,0 +1,316 @@
+package com.tzupy.webserver;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Connects to the server over TLS on loopback, with a self-signed certificate generated for the test:
+ * the handshake on both engines, ALPN's choice of protocol, and the resumption of a session by a client
+ * returning on a second connection.
+ */
+public class TlsTest {
+
+    private static final String password = "changeit";
+    private static final String[] offered = { "h2", "http/1.1" };
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static File root;
+    private static File keystore;
+
+    /**
+     * Creates the server's root and a keystore with a self-signed certificate, using the runtime's keytool.
+     * @throws IOException the keystore couldn't be created
+     * @throws InterruptedException interrupted while waiting for keytool
+     */
+    @BeforeClass
+    public static void createKeystore() throws IOException, InterruptedException {
+        root = folder.newFolder("root");
+        Files.write(new File(root, "a.txt").toPath(), "hello\n".getBytes(StandardCharsets.US_ASCII));
+
+        keystore = new File(folder.getRoot(), "server.p12");
+        File keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool");
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-keyalg", "EC", "-keysize", "256",
+                "-alias", "server", "-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", keystore.getPath(), "-storepass", password, "-keypass", password)
+                .redirectErrorStream(true).start();
+        String output = read(process.getInputStream());
+        assertEquals(output, 0, process.waitFor());
+    }
+
+    /**
+     * Serves a file over TLS from the blocking engine.
+     * @throws Exception the file couldn't be fetched
+     */
+    @Test
+    public void servesFileBlocking() throws Exception {
+        try (TestServer server = new TestServer(root, "--engine=blocking", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password)) {
+            assertHello(get(clientContext(), server.getPort(), null, null));
+        }
+    }
+
+    /**
+     * Serves a file over TLS from the non-blocking engine, whose handshake tasks run on a worker.
+     * @throws Exception the file couldn't be fetched
+     */
+    @Test
+    public void servesFileNio() throws Exception {
+        try (TestServer server = new TestServer(root, "--engine=nio", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password)) {
+            assertHello(get(clientContext(), server.getPort(), null, null));
+        }
+    }
+
+    /**
+     * Reads the keystore's password from the first line of a password file.
+     * @throws Exception the file couldn't be fetched
+     */
+    @Test
+    public void readsPasswordFile() throws Exception {
+        File passwordFile = new File(folder.getRoot(), "password.txt");
+        Files.write(passwordFile.toPath(), (password + "\r\n").getBytes(StandardCharsets.UTF_8));
+        try (TestServer server = new TestServer(root, "--engine=nio", "--tls-keystore=" + keystore,
+                "--tls-keystore-password-file=" + passwordFile)) {
+            assertHello(get(clientContext(), server.getPort(), null, null));
+        }
+    }
+
+    /**
+     * Negotiates h2 with a client offering it, and http/1.1 where the server doesn't serve HTTP/2.
+     * @throws Exception a handshake failed
+     */
+    @Test
+    public void selectsProtocolWithAlpn() throws Exception {
+        try (TestServer server = new TestServer(root, "--engine=nio", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password)) {
+            assertEquals("h2", handshake(clientContext(), server.getPort(), null, offered));
+            assertEquals("http/1.1", handshake(clientContext(), server.getPort(), null,
+                    new String[] { "http/1.1" }));
+        }
+        try (TestServer server = new TestServer(root, "--engine=nio", "--http2=off", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password)) {
+            assertEquals("http/1.1", handshake(clientContext(), server.getPort(), null, offered));
+        }
+        try (TestServer server = new TestServer(root, "--engine=blocking", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password)) {
+            assertEquals("http/1.1", handshake(clientContext(), server.getPort(), null, offered));
+        }
+    }
+
+    /**
+     * Resumes a TLS 1.2 session, which the server keeps in its session cache.
+     * @throws Exception a connection failed
+     */
+    @Test
+    public void resumesTls12Session() throws Exception {
+        assertResumed("TLSv1.2", "--tls-session-tickets=off");
+    }
+
+    /**
+     * Resumes a TLS 1.3 session with a session ticket, which runtimes before Java 13 don't issue.
+     * @throws Exception a connection failed
+     */
+    @Test
+    public void resumesTls13SessionWithTicket() throws Exception {
+        Assume.assumeTrue("Session tickets need Java 13+", javaVersion() >= 13);
+        assertResumed("TLSv1.3", "--tls-session-tickets=on");
+    }
+
+    /**
+     * Connects twice with the same client, and checks that the server counted a full and a resumed handshake.
+     * @param protocol the TLS version the client offers
+     * @param tickets the server's session tickets option
+     * @throws Exception a connection failed
+     */
+    private static void assertResumed(String protocol, String tickets) throws Exception {
+        int metricsPort = TestServer.freePort();
+        try (TestServer server = new TestServer(root, "--engine=nio", "--tls-keystore=" + keystore,
+                "--tls-keystore-password=" + password, tickets, "--metrics-port=" + metricsPort)) {
+            SSLContext client = clientContext();
+            assertHello(get(client, server.getPort(), protocol, null));
+            assertHello(get(client, server.getPort(), protocol, null));
+            String metrics = fetchMetrics(metricsPort);
+            assertEquals(metrics, 1, handshakes(metrics, false));
+            assertEquals(metrics, 1, handshakes(metrics, true));
+        }
+    }
+
+    /**
+     * Creates a client context trusting the test's self-signed certificate. Each context keeps its own
+     * sessions, so only connections made with the same one resume them.
+     * @return the context
+     * @throws IOException the keystore couldn't be read
+     * @throws GeneralSecurityException the context couldn't be created
+     */
+    private static SSLContext clientContext() throws IOException, GeneralSecurityException {
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore)) {
+            trusted.load(in, password.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Opens a TLS connection and completes the handshake.
+     * @param context the client context
+     * @param port the server's port
+     * @param protocol the TLS version offered, or null for the client's defaults
+     * @param applicationProtocols the protocols offered with ALPN, or null to offer none
+     * @return the connected socket
+     * @throws IOException the handshake failed
+     */
+    private static SSLSocket connect(SSLContext context, int port, String protocol, String[] applicationProtocols)
+            throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port);
+        socket.setSoTimeout(10000);
+        SSLParameters parameters = socket.getSSLParameters();
+        if (protocol != null) {
+            parameters.setProtocols(new String[] { protocol });
+        }
+        if (applicationProtocols != null) {
+            parameters.setApplicationProtocols(applicationProtocols);
+        }
+        socket.setSSLParameters(parameters);
+        socket.startHandshake();
+        return socket;
+    }
+
+    /**
+     * Completes a handshake and gets the protocol the server chose.
+     * @param context the client context
+     * @param port the server's port
+     * @param protocol the TLS version offered, or null for the client's defaults
+     * @param applicationProtocols the protocols offered with ALPN
+     * @return the negotiated protocol
+     * @throws IOException the handshake failed
+     */
+    private static String handshake(SSLContext context, int port, String protocol, String[] applicationProtocols)
+            throws IOException {
+        try (SSLSocket socket = connect(context, port, protocol, applicationProtocols)) {
+            return socket.getApplicationProtocol();
+        }
+    }
+
+    /**
+     * Fetches the test file over HTTP/1.1, reading the response until the server closes the connection.
+     * Reading the response also receives the session ticket a TLS 1.3 server sends after the handshake.
+     * @param context the client context
+     * @param port the server's port
+     * @param protocol the TLS version offered, or null for the client's defaults
+     * @param applicationProtocols the protocols offered with ALPN, or null to offer none
+     * @return the response
+     * @throws IOException the file couldn't be fetched
+     */
+    private static String get(SSLContext context, int port, String protocol, String[] applicationProtocols)
+            throws IOException {
+        try (SSLSocket socket = connect(context, port, protocol, applicationProtocols)) {
+            return exchange(socket, "/a.txt");
+        }
+    }
+
+    /**
+     * Fetches the server's metrics from its metrics port.
+     * @param port the metrics port
+     * @return the metrics in the Prometheus text format
+     * @throws IOException the metrics couldn't be fetched
+     */
+    private static String fetchMetrics(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10000);
+            return exchange(socket, "/metrics");
+        }
+    }
+
+    /**
+     * Sends a request that closes the connection, and reads the whole response.
+     * @param socket the connected socket
+     * @param path the requested path
+     * @return the response
+     * @throws IOException the request couldn't be sent or the response read
+     */
+    private static String exchange(Socket socket, String path) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return read(socket.getInputStream());
+    }
+
+    /**
+     * Reads a stream to its end.
+     * @param in the stream
+     * @return the bytes read, as utf-8
+     * @throws IOException the stream couldn't be read
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Checks that a response is the test file.
+     * @param response the response
+     */
+    private static void assertHello(String response) {
+        assertTrue(response, response.startsWith("HTTP/1.1 200 "));
+        assertTrue(response, response.endsWith("\r\n\r\nhello\n"));
+    }
+
+    /**
+     * Gets the number of completed handshakes from the metrics.
+     * @param metrics the metrics
+     * @param resumed true for the resumed handshakes, false for the full ones
+     * @return the number of handshakes
+     */
+    private static long handshakes(String metrics, boolean resumed) {
+        String name = "webserver_tls_handshake_duration_seconds_count{resumed=\"" + resumed + "\"} ";
+        for (String line : metrics.split("\n")) {
+            if (line.startsWith(name)) {
+                return Long.parseLong(line.substring(name.length()).trim());
+            }
+        }
+        throw new AssertionError("No " + name + "in " + metrics);
+    }
+
+    /**
+     * Gets the feature version of the runtime.
+     * @return e.g. 8 or 21
+     */
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+}